@@ -70,4 +70,10 @@ public class DispatchOptionParam {
     @Schema(title = "所需的内存GB数", description = "小于等于0表示此作业未定义内存需求")
     private BigDecimal ramRequirement;
 
+    /**
+     * MAP_REDUCE 作业树形 reduce 的扇入数，每个 reduce 任务最多合并这么多个上一层任务的结果。为空或小于等于 1 时不启用树形 reduce
+     */
+    @Schema(title = "树形reduce扇入数", description = "为空或小于等于1时不启用树形reduce，由一个reduce任务合并全部map结果")
+    private Integer reduceFanIn;
+
 }
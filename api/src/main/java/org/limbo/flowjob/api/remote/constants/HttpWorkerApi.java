@@ -28,4 +28,6 @@ public interface HttpWorkerApi {
 
     String API_SEND_TASK = "/api/v1/rpc/worker/task";
 
+    String API_SEND_TASK_BATCH = "/api/v1/rpc/worker/tasks";
+
 }
@@ -0,0 +1,56 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.api.remote.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一页 reduce 任务输入
+ *
+ * @author Brozen
+ * @since 2023-02-21
+ */
+@Data
+@Schema(title = "一页 reduce 任务输入")
+public class ReduceInputPageDTO {
+
+    /**
+     * 本页的结果，来自 map 任务或上一层 reduce 任务
+     */
+    @Schema(description = "本页的结果，来自 map 任务或上一层 reduce 任务")
+    private List<Map<String, Object>> results = new ArrayList<>();
+
+    /**
+     * 拉取下一页时使用的游标
+     */
+    @Schema(description = "拉取下一页时使用的游标")
+    private Long cursor;
+
+    /**
+     * 是否还有下一页
+     */
+    @Schema(description = "是否还有下一页")
+    private boolean hasMore;
+
+}
@@ -0,0 +1,52 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.api.remote.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * 批量下发中单个任务的接收结果
+ *
+ * @author Brozen
+ * @since 2023-02-24
+ */
+@Data
+@Schema(title = "任务接收结果")
+public class TaskSubmitResultDTO {
+
+    /**
+     * 任务 ID
+     */
+    @Schema(description = "任务 ID")
+    private String taskId;
+
+    /**
+     * worker 是否接收了任务
+     */
+    @Schema(description = "worker 是否接收了任务")
+    private boolean accepted;
+
+    /**
+     * 拒绝接收的原因
+     */
+    @Schema(description = "拒绝接收的原因")
+    private String message;
+
+}
@@ -0,0 +1,52 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.api.remote.param;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 分页拉取 reduce 任务输入
+ *
+ * @author Brozen
+ * @since 2023-02-21
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(title = "分页拉取 reduce 任务输入参数")
+public class ReduceInputQueryParam {
+
+    /**
+     * 游标，上一页返回的 cursor，为空时从头开始拉取
+     */
+    @Schema(description = "游标，上一页返回的 cursor，为空时从头开始拉取")
+    private Long cursor;
+
+    /**
+     * 每页条数
+     */
+    @Schema(description = "每页条数")
+    private Integer size;
+
+}
@@ -22,7 +22,6 @@ import lombok.Data;
 
 import javax.validation.constraints.NotBlank;
 import java.io.Serializable;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -65,8 +64,9 @@ public class TaskSubmitParam implements Serializable {
     private Map<String, Object> mapAttributes;
 
     /**
-     * reduce时候使用的
+     * 任务类型，reduce 任务不再携带 map 结果，由 worker 根据类型分页向 broker 拉取
+     * @see org.limbo.flowjob.common.constants.TaskType
      */
-    private List<Map<String, Object>> reduceAttributes;
+    private Byte type;
 
 }
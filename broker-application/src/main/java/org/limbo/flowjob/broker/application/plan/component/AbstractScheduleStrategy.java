@@ -23,7 +23,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
-import org.limbo.flowjob.broker.core.dispatch.TaskDispatcher;
 import org.limbo.flowjob.broker.core.domain.IDGenerator;
 import org.limbo.flowjob.broker.core.domain.IDType;
 import org.limbo.flowjob.broker.core.domain.job.JobInfo;
@@ -32,25 +31,26 @@ import org.limbo.flowjob.broker.core.domain.job.SingleJobInstance;
 import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInfo;
 import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInstance;
 import org.limbo.flowjob.broker.core.domain.plan.Plan;
+import org.limbo.flowjob.broker.core.domain.plan.SinglePlan;
+import org.limbo.flowjob.broker.core.domain.plan.WorkflowPlan;
+import org.limbo.flowjob.broker.core.domain.task.ReduceRange;
 import org.limbo.flowjob.broker.core.domain.task.Task;
 import org.limbo.flowjob.broker.core.domain.task.TaskFactory;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
 import org.limbo.flowjob.broker.core.schedule.strategy.IScheduleStrategy;
 import org.limbo.flowjob.broker.dao.converter.DomainConverter;
-import org.limbo.flowjob.broker.dao.entity.JobInfoEntity;
 import org.limbo.flowjob.broker.dao.entity.JobInstanceEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanEntity;
-import org.limbo.flowjob.broker.dao.entity.PlanInfoEntity;
-import org.limbo.flowjob.broker.dao.entity.PlanInstanceEntity;
-import org.limbo.flowjob.broker.dao.entity.PlanSlotEntity;
 import org.limbo.flowjob.broker.dao.entity.TaskEntity;
 import org.limbo.flowjob.broker.dao.repositories.JobInfoEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.JobInstanceEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanInfoEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanInstanceEntityRepo;
-import org.limbo.flowjob.broker.dao.repositories.PlanSlotEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.TaskEntityRepo;
+import org.limbo.flowjob.broker.dao.support.PlanDefinitionCache;
+import org.limbo.flowjob.broker.dao.support.TaskCounter;
+import org.limbo.flowjob.broker.dao.support.TaskStatusBuffer;
 import org.limbo.flowjob.common.constants.JobStatus;
 import org.limbo.flowjob.common.constants.JobType;
 import org.limbo.flowjob.common.constants.MsgConstants;
@@ -61,13 +61,16 @@ import org.limbo.flowjob.common.constants.TaskType;
 import org.limbo.flowjob.common.constants.TriggerType;
 import org.limbo.flowjob.common.utils.Verifies;
 import org.limbo.flowjob.common.utils.attribute.Attributes;
-import org.limbo.flowjob.common.utils.dag.DAG;
 import org.limbo.flowjob.common.utils.json.JacksonUtils;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.inject.Inject;
 import javax.transaction.Transactional;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -80,6 +83,11 @@ import java.util.stream.Collectors;
 @Slf4j
 public abstract class AbstractScheduleStrategy implements IScheduleStrategy {
 
+    /**
+     * 划分树形 reduce 分组时，每次从库中读取的任务 id 数
+     */
+    private static final int REDUCE_RANGE_PAGE_SIZE = 1000;
+
     @Setter(onMethod_ = @Inject)
     protected PlanEntityRepo planEntityRepo;
 
@@ -111,81 +119,91 @@ public abstract class AbstractScheduleStrategy implements IScheduleStrategy {
     protected JobInfoEntityRepo jobInfoEntityRepo;
 
     @Setter(onMethod_ = @Inject)
-    protected TaskDispatcher taskDispatcher;
+    protected SlotManager slotManager;
 
     @Setter(onMethod_ = @Inject)
-    protected SlotManager slotManager;
+    protected TaskDispatchOutbox taskDispatchOutbox;
 
     @Setter(onMethod_ = @Inject)
-    protected PlanSlotEntityRepo planSlotEntityRepo;
+    protected TaskStatusBuffer taskStatusBuffer;
+
+    @Setter(onMethod_ = @Inject)
+    protected MapTaskMaterializer mapTaskMaterializer;
 
     @Override
     @Transactional
     public void schedule(TriggerType triggerType, Plan plan, LocalDateTime triggerAt) {
         String planId = plan.getPlanId();
 
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(plan.getVersion()).orElse(null);
-        Verifies.notNull(planInfoEntity, "does not find " + planId + " plan's info by version--" + plan.getVersion() + "");
+        // 版本不存在时抛出异常
+        domainConverter.getPlanDefinitionCache().get(plan.getVersion());
 
-        PlanEntity planEntity = planEntityRepo.selectForUpdate(planId);
-        // 任务是由之前时间创建的 调度时候如果版本改变 可能会有调度时间的变化本次就无需执行
-        // 比如 5s 执行一次 分别在 5s 10s 15s 在11s的时候内存里下次执行为 15s 此时修改为 2s 执行一次 那么重新加载plan后应该为 12s 14s 所以15s这次可以跳过
-        if (!Objects.equals(plan.getVersion(), planEntity.getCurrentVersion())) {
-            log.info("plan:{} version {} change to {}", plan.getPlanId(), plan.getVersion(), planEntity.getCurrentVersion());
+        // 判断是否由当前节点执行，槽位由 planId 计算，无需查询；未领取到租约的槽位暂不触发
+        SlotManager.SlotSnapshot snapshot = slotManager.snapshot();
+        int slot = slotManager.slot(planId);
+        long leaseEpoch = snapshot.leaseEpoch(slot);
+        if (!snapshot.owns(slot) || leaseEpoch <= 0) {
             return;
         }
 
-        // 判断是否由当前节点执行
-        List<Integer> slots = slotManager.slots();
-        if (CollectionUtils.isEmpty(slots)) {
-            return;
-        }
-        PlanSlotEntity planSlotEntity = planSlotEntityRepo.findByPlanId(planId);
-        if (planSlotEntity == null) {
-            return;
-        }
-        if (!slots.contains(planSlotEntity.getSlot())) {
+        // 任务是由之前时间创建的 调度时候如果版本改变 可能会有调度时间的变化本次就无需执行
+        // 比如 5s 执行一次 分别在 5s 10s 15s 在11s的时候内存里下次执行为 15s 此时修改为 2s 执行一次 那么重新加载plan后应该为 12s 14s 所以15s这次可以跳过
+        String currentVersion = currentVersion(planId);
+        if (!Objects.equals(plan.getVersion(), currentVersion)) {
+            log.info("plan:{} version {} change to {}", plan.getPlanId(), plan.getVersion(), currentVersion);
             return;
         }
 
-        // 判断并发情况下 是否已经有人提交调度任务 如有则无需处理 防止重复创建数据
-        PlanInstanceEntity planInstanceEntity = planInstanceEntityRepo.findByPlanIdAndTriggerAtAndTriggerType(
-                planId, triggerAt, TriggerType.SCHEDULE.type
-        );
-        if (planInstanceEntity != null) {
+        // 保存 planInstance，唯一键 (plan_id, trigger_at, trigger_type) 保证并发情况下同一次触发只会创建一次，无需加锁
+        // 保存时校验槽位租约，租约已被其他节点领取时不保存
+        String planInstanceId = savePlanInstanceEntity(planId, plan.getVersion(), triggerType, triggerAt, slot, leaseEpoch);
+        if (planInstanceId == null) {
             return;
         }
         // 调度逻辑
-        schedulePlan(triggerType, plan, triggerAt);
+        schedulePlan(triggerType, plan, planInstanceId, triggerAt);
+    }
+
+    /**
+     * plan 当前生效的版本，优先使用加载 plan 时记录的版本
+     */
+    private String currentVersion(String planId) {
+        PlanDefinitionCache planDefinitionCache = domainConverter.getPlanDefinitionCache();
+        String version = planDefinitionCache.getCurrentVersion(planId);
+        if (version == null) {
+            PlanEntity planEntity = planEntityRepo.findById(planId).orElse(null);
+            if (planEntity == null) {
+                return null;
+            }
+            version = planEntity.getCurrentVersion();
+            planDefinitionCache.updateCurrentVersion(planId, version);
+        }
+        return version;
     }
 
-    protected abstract void schedulePlan(TriggerType triggerType, Plan plan, LocalDateTime triggerAt);
+    protected abstract void schedulePlan(TriggerType triggerType, Plan plan, String planInstanceId, LocalDateTime triggerAt);
 
+    /**
+     * 下发 task。状态更新在短事务中提交，调用 worker 在发件箱的下发线程中进行，不在事务内
+     */
     @Override
-    @Transactional
     public void schedule(Task task) {
         if (task.getStatus() != TaskStatus.SCHEDULING) {
             return;
         }
 
-        task.setStatus(TaskStatus.DISPATCHING);
-        int num = taskEntityRepo.updateStatusDispatching(task.getTaskId());
-        if (num < 1) {
+        if (!taskDispatchOutbox.prepare(task)) {
             return; // 可能多个节点操作同个task
         }
+        taskDispatchOutbox.dispatch(task);
+    }
 
-        // 下面两个可能会被其他task更新 但是这是正常的
-        planInstanceEntityRepo.executing(task.getPlanId(), TimeUtils.currentLocalDateTime());
-        jobInstanceEntityRepo.updateStatusExecuting(task.getJobInstanceId());
-
-        boolean dispatched = taskDispatcher.dispatch(task);
-        if (dispatched) {
-            // 下发成功
-            taskEntityRepo.updateStatusExecuting(task.getTaskId(), task.getWorkerId(), TimeUtils.currentLocalDateTime());
-        } else {
-            // 下发失败
-            handleTaskFail(task, MsgConstants.DISPATCH_FAIL, "");
+    @Override
+    public void dispatch(Task task) {
+        if (task.getStatus() != TaskStatus.DISPATCHING) {
+            return;
         }
+        taskDispatchOutbox.dispatch(task);
     }
 
     @Override
@@ -193,44 +211,68 @@ public abstract class AbstractScheduleStrategy implements IScheduleStrategy {
     public void handleTaskSuccess(Task task, Map<String, Object> resultAttributes) {
         // todo v1 更新plan上下文
         String result = MapUtils.isEmpty(resultAttributes) ? "{}" : JacksonUtils.toJSONString(resultAttributes);
-        int num = taskEntityRepo.updateStatusSuccess(task.getTaskId(), TimeUtils.currentLocalDateTime(), result);
+        TaskCounter counter = taskStatusBuffer.updateStatusSuccess(task.getTaskId(), task.getJobInstanceId(), TimeUtils.currentLocalDateTime(), result);
 
-        if (num != 1) { // 已经被更新 无需重复处理
+        if (counter == null) { // 已经被更新 无需重复处理
             return;
         }
-        afterTaskStatusUpdateSuccess(task);
+        afterTaskStatusUpdateSuccess(task, counter);
     }
 
     @Override
     @Transactional
     public void handleTaskFail(Task task, String errorMsg, String errorStackTrace) {
-        int num = taskEntityRepo.updateStatusFail(task.getTaskId(), TimeUtils.currentLocalDateTime(), errorMsg, errorStackTrace);
+        TaskCounter counter = taskStatusBuffer.updateStatusFail(task.getTaskId(), task.getJobInstanceId(), TimeUtils.currentLocalDateTime(), errorMsg, errorStackTrace);
 
-        if (num != 1) {
+        if (counter == null) {
             return; // 并发更新过了 正常来说前面job更新成功 这个不可能会进来
         }
-        afterTaskStatusUpdateSuccess(task);
+        afterTaskStatusUpdateSuccess(task, counter);
     }
 
-    private void afterTaskStatusUpdateSuccess(Task task) {
-        JobInstance jobInstance = getJobInstance(task.getJobInstanceId());
+    @Override
+    @Transactional
+    public void handleJobStageCompleted(Task task) {
+        completeJobStage(task);
+    }
 
-        // 判断状态是不是已经更新 可能已经被其它线程处理 正常来说不可能的
-        if (JobStatus.EXECUTING != jobInstance.getStatus()) {
-            log.warn("task:{} update status success but jobInstance:{} is already changed", task.getTaskId(), task.getJobInstanceId());
+    private void afterTaskStatusUpdateSuccess(Task task, TaskCounter counter) {
+        // map 任务完成一个，窗口中补充下发一个
+        if (TaskType.MAP == task.getTaskType()) {
+            mapTaskMaterializer.release(task.getJobInstanceId(), 1);
+        }
+
+        // 计数在更新 task 状态的同一条语句中累加，只有最后完成的 task 会看到全部完成，交由它去做后续逻辑处理
+        if (!counter.isCompleted()) {
             return;
         }
-        // 检查task是否都已经完成
-        List<TaskEntity> taskEntities = taskEntityRepo.findByJobInstanceIdAndType(task.getJobInstanceId(), task.getTaskType().type);
-        for (TaskEntity taskE : taskEntities) {
-            if (!TaskStatus.parse(taskE.getStatus()).isCompleted()) {
-                return; // 如果还未完成 交由最后完成的task去做后续逻辑处理
-            }
+        completeJobStage(task);
+    }
+
+    /**
+     * job 实例当前阶段的 task 全部完成后的处理。
+     * 计数已经在状态缓冲的事务中提交，这里的处理在调用方的事务中，调用方事务回滚后由状态检查任务重新处理。
+     * 处理前锁定 job 实例并重新确认计数和状态，处理后 job 实例进入终态或者开始新的阶段，保证同一个阶段只处理一次
+     */
+    private void completeJobStage(Task task) {
+        List<Object[]> rows = jobInstanceEntityRepo.lockTaskCounter(task.getJobInstanceId());
+        if (rows.isEmpty()) {
+            return;
+        }
+        Object[] row = rows.get(0);
+        TaskCounter counter = new TaskCounter(((Number) row[0]).intValue(), ((Number) row[1]).intValue(), ((Number) row[2]).intValue());
+
+        // 已经被其它线程处理
+        if (!JobStatus.EXECUTING.is((Number) row[3]) || !counter.isCompleted()) {
+            log.info("task:{} completed but jobInstance:{} is already handled", task.getTaskId(), task.getJobInstanceId());
+            return;
         }
 
+        JobInstance jobInstance = getJobInstance(task.getJobInstanceId());
+
         // 如果所有task都是执行成功 则处理成功
-        // 如果所有task都是执行失败 则处理失败
-        boolean success = taskEntities.stream().allMatch(entity -> TaskStatus.SUCCEED == TaskStatus.parse(entity.getStatus()));
+        // 如果存在task执行失败 则处理失败
+        boolean success = counter.isAllSucceed();
         if (success) {
             JobInfo jobInfo = jobInstance.getJobInfo();
             switch (jobInfo.getType()) {
@@ -242,7 +284,7 @@ public abstract class AbstractScheduleStrategy implements IScheduleStrategy {
                     handleMapJobSuccess(task, jobInstance);
                     break;
                 case MAP_REDUCE:
-                    handleMapReduceJobSuccess(task, jobInstance);
+                    handleMapReduceJobSuccess(task, jobInstance, counter);
                     break;
                 default:
                     throw new IllegalArgumentException(MsgConstants.UNKNOWN + " JobType in jobInstance:" + jobInstance.getJobInstanceId());
@@ -256,7 +298,10 @@ public abstract class AbstractScheduleStrategy implements IScheduleStrategy {
     private void handleMapJobSuccess(Task task, JobInstance jobInstance) {
         switch (task.getTaskType()) {
             case SPLIT:
-                saveAndScheduleTask(taskFactory.create(jobInstance, TaskType.MAP), TimeUtils.currentLocalDateTime());
+                // 没有拆分出子任务
+                if (mapTaskMaterializer.materialize(jobInstance) == 0) {
+                    handleJobSuccess(jobInstance);
+                }
                 break;
             case MAP:
                 handleJobSuccess(jobInstance);
@@ -266,22 +311,70 @@ public abstract class AbstractScheduleStrategy implements IScheduleStrategy {
         }
     }
 
-    private void handleMapReduceJobSuccess(Task task, JobInstance jobInstance) {
+    private void handleMapReduceJobSuccess(Task task, JobInstance jobInstance, TaskCounter counter) {
         switch (task.getTaskType()) {
             case SPLIT:
-                saveAndScheduleTask(taskFactory.create(jobInstance, TaskType.MAP), TimeUtils.currentLocalDateTime());
+                // 没有拆分出子任务
+                if (mapTaskMaterializer.materialize(jobInstance) == 0) {
+                    saveAndScheduleTask(taskFactory.create(jobInstance, TaskType.REDUCE), TimeUtils.currentLocalDateTime());
+                }
                 break;
             case MAP:
-                saveAndScheduleTask(taskFactory.create(jobInstance, TaskType.REDUCE), TimeUtils.currentLocalDateTime());
+                scheduleReduce(jobInstance, 0, counter.getTotal());
                 break;
             case REDUCE:
-                handleJobSuccess(jobInstance);
+                // 本层只有一个 reduce 任务时，它就是最终的 reduce
+                if (counter.getTotal() <= 1) {
+                    handleJobSuccess(jobInstance);
+                } else {
+                    scheduleReduce(jobInstance, task.getReduceLevel(), counter.getTotal());
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Illegal TaskType in task:" + task.getTaskId());
         }
     }
 
+    /**
+     * 一层任务全部完成后创建下一层 reduce 任务。
+     * 未启用树形 reduce，或者完成的任务数不超过扇入数时，只创建一个合并全部结果的最终 reduce 任务；
+     * 否则每扇入数个任务划分一组，每组创建一个 reduce 任务，多个 worker 并行合并
+     *
+     * @param level 完成的层级，map 任务为第 0 层
+     * @param count 完成层级的任务数
+     */
+    private void scheduleReduce(JobInstance jobInstance, int level, int count) {
+        DispatchOption dispatchOption = jobInstance.getJobInfo().getDispatchOption();
+        Integer fanIn = dispatchOption == null ? null : dispatchOption.getReduceFanIn();
+
+        List<ReduceRange> ranges = null;
+        if (fanIn != null && fanIn > 1 && count > fanIn) {
+            ranges = reduceRanges(jobInstance.getJobInstanceId(), level, fanIn);
+        }
+        saveAndScheduleTask(taskFactory.createReduce(jobInstance, level + 1, ranges), TimeUtils.currentLocalDateTime());
+    }
+
+    /**
+     * 按自增 id 顺序分页读取一层任务，每扇入数个任务划分为一组
+     */
+    private List<ReduceRange> reduceRanges(String jobInstanceId, int level, int fanIn) {
+        TaskType type = level == 0 ? TaskType.MAP : TaskType.REDUCE;
+        // 每页取扇入数的整数倍，保证分组不会跨页
+        int pageSize = fanIn * Math.max(1, REDUCE_RANGE_PAGE_SIZE / fanIn);
+
+        List<ReduceRange> ranges = new ArrayList<>();
+        long cursor = 0L;
+        List<Long> ids;
+        do {
+            ids = taskEntityRepo.findIdsByReduceLevel(jobInstanceId, type.type, level, cursor, PageRequest.of(0, pageSize));
+            ranges.addAll(ReduceRange.partition(ids, fanIn));
+            if (!ids.isEmpty()) {
+                cursor = ids.get(ids.size() - 1);
+            }
+        } while (ids.size() == pageSize);
+        return ranges;
+    }
+
     public abstract void handleJobSuccess(JobInstance jobInstance);
 
     public abstract void handleJobFail(JobInstance jobInstance);
@@ -290,19 +383,19 @@ public abstract class AbstractScheduleStrategy implements IScheduleStrategy {
      * 生成新的计划调度记录
      *
      * @param triggerType 触发类型
-     * @return 记录id
+     * @param slot plan 所在槽位
+     * @param leaseEpoch 当前节点持有的槽位租约版本
+     * @return 记录id，同一次触发已经有记录或者租约失效时返回 null
      */
-    protected String savePlanInstanceEntity(String planId, String version, TriggerType triggerType, LocalDateTime triggerAt) {
+    protected String savePlanInstanceEntity(String planId, String version, TriggerType triggerType, LocalDateTime triggerAt, int slot, long leaseEpoch) {
         String planInstanceId = idGenerator.generateId(IDType.PLAN_INSTANCE);
-        PlanInstanceEntity planInstanceEntity = new PlanInstanceEntity();
-        planInstanceEntity.setPlanInstanceId(planInstanceId);
-        planInstanceEntity.setPlanId(planId);
-        planInstanceEntity.setPlanInfoId(version);
-        planInstanceEntity.setStatus(PlanStatus.SCHEDULING.status);
-        planInstanceEntity.setTriggerType(triggerType.type);
-        planInstanceEntity.setTriggerAt(triggerAt);
-        planInstanceEntityRepo.saveAndFlush(planInstanceEntity);
-        return planInstanceId;
+        planInstanceEntityRepo.insertIfAbsentWithLease(
+                planInstanceId, planId, version, triggerType.type, PlanStatus.SCHEDULING.status, triggerAt,
+                slot, slotManager.owner(), leaseEpoch
+        );
+        // 影响行数无法区分新增与已存在，按唯一键查询确认是否为本次保存的记录
+        String saved = planInstanceEntityRepo.findPlanInstanceId(planId, triggerAt, triggerType.type);
+        return planInstanceId.equals(saved) ? planInstanceId : null;
     }
 
     @Transactional
@@ -314,37 +407,69 @@ public abstract class AbstractScheduleStrategy implements IScheduleStrategy {
         List<TaskEntity> taskEntities = tasks.stream().map(domainConverter::toTaskEntity).collect(Collectors.toList());
         taskEntityRepo.saveAll(taskEntities);
         taskEntityRepo.flush();
-        for (Task task : tasks) {
-            try {
-                metaTaskScheduler.schedule(domainConverter.toTaskScheduleTask(task, triggerAt));
-            } catch (Exception e) {
-                // 调度失败 不要影响事务，事务提交后 由task的状态检查任务去修复task的执行情况
-                log.error("task schedule fail! task={}", task, e);
-            }
+        // 开始新的阶段，重置 job 实例的 task 完成计数
+        Map<String, Long> taskTotals = tasks.stream().collect(Collectors.groupingBy(Task::getJobInstanceId, Collectors.counting()));
+        taskTotals.forEach((jobInstanceId, total) -> jobInstanceEntityRepo.resetTaskCounter(jobInstanceId, total.intValue()));
+
+        // 广播任务已经确定了目标 worker，事务提交后直接并行下发
+        List<Task> broadcasts = tasks.stream().filter(t -> TaskType.BROADCAST == t.getTaskType()).collect(Collectors.toList());
+        if (!broadcasts.isEmpty()) {
+            afterCommit(() -> taskDispatchOutbox.dispatchAll(broadcasts));
+        }
+
+        // 其余任务在事务提交后进入调度，下发时的状态更新不会等待本事务中未提交的 task 行
+        List<Task> scheduled = tasks.stream().filter(t -> TaskType.BROADCAST != t.getTaskType()).collect(Collectors.toList());
+        if (!scheduled.isEmpty()) {
+            afterCommit(() -> {
+                for (Task task : scheduled) {
+                    try {
+                        metaTaskScheduler.schedule(domainConverter.toTaskScheduleTask(task, triggerAt));
+                    } catch (Exception e) {
+                        // 调度失败 由task的状态检查任务去修复task的执行情况
+                        log.error("task schedule fail! task={}", task, e);
+                    }
+                }
+            });
         }
     }
 
 
+    /**
+     * 在当前事务提交后执行，没有事务时直接执行
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+
     public JobInstance getJobInstance(String id) {
         JobInstanceEntity jobInstanceEntity = jobInstanceEntityRepo.findById(id).orElse(null);
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(jobInstanceEntity.getPlanInfoId()).orElse(null);
-        JobInfoEntity jobInfoEntity = jobInfoEntityRepo.findById(jobInstanceEntity.getJobId()).orElse(null);
-
-        JobInfo jobInfo = domainConverter.toJobInfo(jobInfoEntity);
+        // plan、job 从缓存获取，缓存对象是共享的，不能修改
+        PlanDefinitionCache planDefinitionCache = domainConverter.getPlanDefinitionCache();
+        Plan plan = planDefinitionCache.get(jobInstanceEntity.getPlanInfoId());
 
         JobInstance jobInstance;
-        PlanType planType = PlanType.parse(planInfoEntity.getPlanType());
+        PlanType planType = plan.planType();
         if (PlanType.SINGLE == planType) {
             jobInstance = new SingleJobInstance();
-            ((SingleJobInstance) jobInstance).setJobInfo(jobInfo);
+            ((SingleJobInstance) jobInstance).setJobInfo(((SinglePlan) plan).getJobInfo());
         } else if (PlanType.WORKFLOW == planType) {
             jobInstance = new WorkflowJobInstance();
-            DAG<WorkflowJobInfo> dag = domainConverter.toJobDag(planInfoEntity.getJobInfo(), null);
-            WorkflowJobInfo workflowJobInfo = dag.getNode(jobInstanceEntity.getJobId());
-            workflowJobInfo.setJob(jobInfo);
+            WorkflowJobInfo workflowJobInfo = ((WorkflowPlan) plan).getDag().getNode(jobInstanceEntity.getJobId());
+            Verifies.notNull(workflowJobInfo, "does not find job " + jobInstanceEntity.getJobId() + " in plan version--" + plan.getVersion());
             ((WorkflowJobInstance) jobInstance).setWorkflowJobInfo(workflowJobInfo);
         } else {
-            throw new IllegalArgumentException("Illegal PlanType in plan:" + planInfoEntity.getPlanId() + " version:" + planInfoEntity.getPlanInfoId());
+            throw new IllegalArgumentException("Illegal PlanType in plan:" + plan.getPlanId() + " version:" + plan.getVersion());
         }
         jobInstance.setJobInstanceId(jobInstanceEntity.getJobInstanceId());
         jobInstance.setPlanInstanceId(jobInstanceEntity.getPlanInstanceId());
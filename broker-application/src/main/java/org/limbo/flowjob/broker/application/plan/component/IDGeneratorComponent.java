@@ -33,6 +33,9 @@ import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -59,17 +62,33 @@ public class IDGeneratorComponent implements IDGenerator {
         return String.valueOf(randomAutoId);
     }
 
+    @Override
+    @Transactional
+    public List<String> generateIds(IDType type, int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+
+        // 直接从库中占用一段，不经过缓存的号段
+        long startId = gainSegment(type, count);
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            ids.add(String.valueOf(startId + i));
+        }
+        return ids;
+    }
+
     private Long gainRandomAutoId(final IDType type) {
         ID id = ID_MAP.get(type);
         if (id == null) {
-            id = getNewId(type);
+            id = getNewId(type, null);
         }
 
         int time = 0;
         while (time < 10) {
             long currentId = id.getCurrentId().incrementAndGet();
             if (currentId >= id.getEndId()) {
-                id = getNewId(type);
+                id = getNewId(type, id);
             } else {
                 return currentId;
             }
@@ -78,29 +97,46 @@ public class IDGeneratorComponent implements IDGenerator {
         throw new IllegalStateException("The system is busy, Try again later!!!");
     }
 
-    private synchronized ID getNewId(IDType type) {
+    /**
+     * @param exhausted 已经用完的号段，当前缓存的号段不是它时说明已经被其他线程替换
+     */
+    private synchronized ID getNewId(IDType type, ID exhausted) {
         Verifies.notNull(type, MsgConstants.UNKNOWN + " type: " + type);
 
         // 防止并发情况下，重复执行后续代码
-        if (ID_MAP.containsKey(type)) {
-            return ID_MAP.get(type);
+        ID current = ID_MAP.get(type);
+        if (current != null && current != exhausted) {
+            return current;
         }
 
+        IdEntity idEntity = idEntityRepo.findById(type.name()).orElse(null);
+        Verifies.notNull(idEntity, MsgConstants.UNKNOWN + " ID Type of " + type.name());
+        int step = idEntity.getStep();
+        long startId = gainSegment(type, step);
+        ID id = new ID(new AtomicLong(startId), startId + step);
+        ID_MAP.put(type, id);
+        return id;
+    }
+
+    /**
+     * 从库中占用一段 id，返回号段的起始值，可用的 id 为 (startId, startId + size]
+     * @param size 号段大小
+     */
+    private long gainSegment(IDType type, int size) {
+        Verifies.notNull(type, MsgConstants.UNKNOWN + " type: " + type);
         String typeName = type.name();
 
-        int updateNum = 0; // 更新库存的条数
         int time = 0; // 重试次数
-
-        long startId = 0;
-        long endId = 0;
-
-        while (updateNum <= 0 && time < 10) {
-            // 加锁 获取 类型
+        while (time < 10) {
             IdEntity idEntity = idEntityRepo.findById(typeName).orElse(null);
             Verifies.notNull(idEntity, MsgConstants.UNKNOWN + " ID Type of " + typeName);
-            startId = idEntity.getCurrentId();
-            endId = idEntity.getCurrentId() + idEntity.getStep();
-            updateNum = idEntityRepo.casGainId(typeName, endId, startId);
+            long startId = idEntity.getCurrentId();
+            long endId = startId + size;
+            if (idEntityRepo.casGainId(typeName, endId, startId) > 0) {
+                return startId;
+            }
+
+            // 并发占用失败，稍后重试
             try {
                 Thread.sleep(200);
             } catch (InterruptedException e) {
@@ -109,14 +145,7 @@ public class IDGeneratorComponent implements IDGenerator {
             }
             time++;
         }
-
-        if (updateNum < 0) {
-            throw new IllegalStateException("The system is busy, Try again later!!!");
-        }
-
-        ID id = new ID(new AtomicLong(startId), endId);
-        ID_MAP.put(type, id);
-        return id;
+        throw new IllegalStateException("The system is busy, Try again later!!!");
     }
 
     @Getter
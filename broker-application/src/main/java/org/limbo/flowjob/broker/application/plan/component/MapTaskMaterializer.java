@@ -0,0 +1,279 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.application.plan.component;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
+import org.limbo.flowjob.broker.core.domain.IDGenerator;
+import org.limbo.flowjob.broker.core.domain.IDType;
+import org.limbo.flowjob.broker.core.domain.job.JobInfo;
+import org.limbo.flowjob.broker.core.domain.job.JobInstance;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.broker.dao.converter.DomainConverter;
+import org.limbo.flowjob.broker.dao.entity.TaskEntity;
+import org.limbo.flowjob.broker.dao.repositories.JobInstanceEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.TaskEntityRepo;
+import org.limbo.flowjob.common.constants.TaskStatus;
+import org.limbo.flowjob.common.constants.TaskType;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * map 任务的流式创建与按窗口下发。
+ * split 任务返回的子任务参数逐个解析，分批生成 id、批量插入，每批在独立的事务中提交，内存占用只与批次大小有关。
+ * split 结果按字符流读取，不会整体加载为字符串。
+ * 创建完成后每个 job 实例最多有 windowSize 个 map 任务进入调度，每完成一个再从库中加载下一个，避免大量任务同时进入时间轮。
+ * 下发位置保存在 job 实例上，不依赖节点内存。
+ *
+ * @author Brozen
+ * @since 2023-02-20
+ */
+@Slf4j
+public class MapTaskMaterializer {
+
+    private static final String INSERT_SQL = "insert into flowjob_task (task_id, job_instance_id, job_id, plan_id, plan_info_id,"
+            + " attributes, map_attributes, type, status) values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SPLIT_RESULT_SQL = "select result from flowjob_task where job_instance_id = ? and type = ? limit 1";
+
+    private static final TypeReference<Map<String, Object>> ATTRIBUTES_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+
+    /**
+     * 每批插入的任务数
+     */
+    private final int chunkSize;
+
+    /**
+     * 每个 job 实例同时在调度中的 map 任务数
+     */
+    private final int windowSize;
+
+    @Setter(onMethod_ = @Inject)
+    private TaskEntityRepo taskEntityRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private JobInstanceEntityRepo jobInstanceEntityRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private IDGenerator idGenerator;
+
+    @Setter(onMethod_ = @Inject)
+    private JdbcTemplate jdbcTemplate;
+
+    @Setter(onMethod_ = @Inject)
+    private MetaTaskScheduler metaTaskScheduler;
+
+    @Setter(onMethod_ = @Inject)
+    private DomainConverter domainConverter;
+
+    /**
+     * 每批插入、推进下发位置使用独立的事务，不加入调用方的事务
+     */
+    private TransactionTemplate transactionTemplate;
+
+    public MapTaskMaterializer(int chunkSize, int windowSize) {
+        if (chunkSize <= 0 || windowSize <= 0) {
+            throw new IllegalArgumentException("chunkSize and windowSize must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.windowSize = windowSize;
+    }
+
+    @Inject
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+
+    /**
+     * 根据 split 任务的结果创建 map 任务，创建完成后开始下发
+     * @return 创建的 map 任务数量
+     */
+    public int materialize(JobInstance jobInstance) {
+        String jobInstanceId = jobInstance.getJobInstanceId();
+
+        // 调用方事务回滚后重新处理时，跳过已经提交的批次
+        long inserted = taskEntityRepo.countByJobInstanceIdAndType(jobInstanceId, TaskType.MAP.type);
+
+        // split 结果按字符流读取、边读边插入，不在内存中生成完整的字符串
+        Integer total = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SPLIT_RESULT_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // MySQL 驱动下逐行流式读取，不缓存整个结果集
+            ps.setFetchSize(Integer.MIN_VALUE);
+            ps.setString(1, jobInstanceId);
+            ps.setByte(2, TaskType.SPLIT.type);
+            return ps;
+        }, (ResultSetExtractor<Integer>) rs -> {
+            if (!rs.next()) {
+                return 0;
+            }
+            try (Reader reader = rs.getCharacterStream(1)) {
+                return reader == null ? 0 : materialize(jobInstance, reader, inserted);
+            } catch (IOException e) {
+                throw new IllegalStateException("parse split result fail, jobInstance=" + jobInstanceId, e);
+            }
+        });
+        if (total == null || total == 0) {
+            return 0;
+        }
+
+        // 计数在调用方的事务中重置，调用方持有 job 实例的行锁，不能在独立的事务中更新
+        jobInstanceEntityRepo.resetTaskCounter(jobInstanceId, total);
+
+        // 计数重置提交后再开始下发
+        afterCommit(() -> release(jobInstanceId, windowSize));
+        return total;
+    }
+
+
+    /**
+     * 逐个解析子任务参数，跳过已经插入的部分，其余分批插入
+     * @return 子任务总数
+     */
+    private int materialize(JobInstance jobInstance, Reader reader, long inserted) throws IOException {
+        try (JsonParser parser = JacksonUtils.mapper.getFactory().createParser(reader)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return 0;
+            }
+
+            int total = 0;
+            List<Map<String, Object>> chunk = new ArrayList<>(chunkSize);
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (total++ < inserted) {
+                    parser.skipChildren();
+                    continue;
+                }
+                Map<String, Object> attributes = JacksonUtils.mapper.readValue(parser, ATTRIBUTES_TYPE);
+                chunk.add(attributes == null ? Collections.emptyMap() : attributes);
+                if (chunk.size() >= chunkSize) {
+                    insert(jobInstance, chunk);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                insert(jobInstance, chunk);
+            }
+            return total;
+        }
+    }
+
+
+    /**
+     * 从库中加载 job 实例下一批待调度的 map 任务进行调度，每个 map 任务完成时调用。
+     * 下发位置保存在 job 实例上，推进成功的节点负责调度这一批，多个节点同时补充时不会重复下发。
+     * @param count 加载的数量
+     */
+    public void release(String jobInstanceId, int count) {
+        List<TaskEntity> entities = transactionTemplate.execute(status -> {
+            while (true) {
+                Long cursor = jobInstanceEntityRepo.findMapCursor(jobInstanceId);
+                if (cursor == null) {
+                    return Collections.<TaskEntity>emptyList();
+                }
+                List<TaskEntity> next = taskEntityRepo.findByJobInstanceIdAndTypeAndStatusAndIdGreaterThanOrderByIdAsc(
+                        jobInstanceId, TaskType.MAP.type, TaskStatus.SCHEDULING.status, cursor, PageRequest.of(0, count)
+                );
+                // 已经全部进入调度
+                if (next.isEmpty()) {
+                    return next;
+                }
+                if (jobInstanceEntityRepo.updateMapCursor(jobInstanceId, cursor, next.get(next.size() - 1).getId()) > 0) {
+                    return next;
+                }
+            }
+        });
+        if (CollectionUtils.isEmpty(entities)) {
+            return;
+        }
+
+        for (TaskEntity entity : entities) {
+            try {
+                metaTaskScheduler.schedule(domainConverter.toTaskScheduleTask(entity));
+            } catch (Exception e) {
+                log.error("task schedule fail! task={}", entity.getTaskId(), e);
+            }
+        }
+    }
+
+
+    /**
+     * 在当前事务提交后执行，没有事务时直接执行
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+
+    /**
+     * 一批 map 任务：批量生成 id、批量插入
+     */
+    private void insert(JobInstance jobInstance, List<Map<String, Object>> chunk) {
+        JobInfo jobInfo = jobInstance.getJobInfo();
+        String jobInstanceId = jobInstance.getJobInstanceId();
+        String jobId = jobInfo.getId();
+        String planId = jobInstance.getPlanId();
+        String planVersion = jobInstance.getPlanVersion();
+        String attributes = jobInfo.getAttributes() == null ? "{}" : jobInfo.getAttributes().toString();
+        transactionTemplate.executeWithoutResult(status -> {
+            List<String> taskIds = idGenerator.generateIds(IDType.TASK, chunk.size());
+            List<Object[]> args = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                args.add(new Object[]{
+                        taskIds.get(i), jobInstanceId, jobId, planId, planVersion,
+                        attributes, JacksonUtils.toJSONString(chunk.get(i)), TaskType.MAP.type, TaskStatus.SCHEDULING.status
+                });
+            }
+            jdbcTemplate.batchUpdate(INSERT_SQL, args);
+        });
+    }
+
+}
@@ -21,30 +21,40 @@ package org.limbo.flowjob.broker.application.plan.component;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
 import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.AbstractPlanLoadTask;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskType;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.PlanScheduleTask;
 import org.limbo.flowjob.broker.dao.converter.DomainConverter;
+import org.limbo.flowjob.broker.dao.entity.PlanChangeEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanSlotEntity;
+import org.limbo.flowjob.broker.dao.repositories.PlanChangeEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanSlotEntityRepo;
-import org.limbo.flowjob.common.utils.time.DateTimeUtils;
-import org.limbo.flowjob.common.utils.time.Formatters;
-import org.limbo.flowjob.common.utils.time.TimeUtils;
+import org.springframework.data.domain.PageRequest;
 
 import javax.inject.Inject;
 import java.time.Duration;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
  * 获取可以下发的plan 创建对应的 PlanInstance 进行调度
+ * 首次加载或新分配到槽位时全量加载槽位中的plan，之后按序号消费 Plan 变更日志，只处理发生变化的plan。
+ * 变更序号在插入时分配而不是提交时，序号较小的变更可能在游标越过它之后才提交，
+ * 因此消费时记录游标之前缺失的序号，之后每次按序号补查，直到出现或者超时（插入的事务已回滚）。
  */
 @Slf4j
 public class PlanLoadTask extends AbstractPlanLoadTask {
@@ -55,16 +65,68 @@ public class PlanLoadTask extends AbstractPlanLoadTask {
     @Setter(onMethod_ = @Inject)
     private PlanSlotEntityRepo planSlotEntityRepo;
 
+    @Setter(onMethod_ = @Inject)
+    private PlanChangeEntityRepo planChangeEntityRepo;
+
     @Setter(onMethod_ = @Inject)
     private DomainConverter domainConverter;
 
     @Setter(onMethod_ = @Inject)
     private SlotManager slotManager;
 
-    private LocalDateTime loadTimePoint = DateTimeUtils.parse("2000-01-01 00:00:00", Formatters.YMD_HMS);
+    @Setter(onMethod_ = @Inject)
+    private WorkflowInstanceStateMachine workflowInstanceStateMachine;
+
+    /**
+     * 每批加载的plan数量
+     */
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    /**
+     * 每批消费的变更数量
+     */
+    private static final int CHANGE_PAGE_SIZE = 1000;
+
+    /**
+     * 首次加载时，从最大序号往前重放的变更数量，覆盖启动时尚未提交的变更
+     */
+    private static final int INIT_REPLAY_SIZE = 1000;
+
+    /**
+     * 缺失的变更序号的最长等待时间 毫秒，超过后认为插入的事务已回滚
+     */
+    private static final long GAP_TIMEOUT = 300_000;
+
+    /**
+     * 最多记录的缺失序号数量
+     */
+    private static final int MAX_GAPS = 10_000;
+
+    private final MetaTaskScheduler scheduler;
+
+    /**
+     * 已加载的槽位，包括交接中的槽位
+     */
+    private Set<Integer> loadedSlots = Collections.emptySet();
+
+    /**
+     * 已消费的变更序号，小于0表示还未初始化
+     */
+    private long changeCursor = -1;
+
+    /**
+     * 游标之前尚未出现的变更序号，值为发现缺失的时间
+     */
+    private final Map<Long, Long> gaps = new HashMap<>();
+
+    /**
+     * 已经检查过缺失序号的游标位置
+     */
+    private long lastGapCheckCursor = -1;
 
     public PlanLoadTask(Duration interval, BrokerConfig config, NodeManger nodeManger, MetaTaskScheduler scheduler) {
         super(interval, config, nodeManger, scheduler);
+        this.scheduler = scheduler;
     }
 
     /**
@@ -74,23 +136,195 @@ public class PlanLoadTask extends AbstractPlanLoadTask {
      */
     @Override
     protected List<PlanScheduleTask> loadTasks() {
-        List<Integer> slots = slotManager.slots();
-        if (CollectionUtils.isEmpty(slots)) {
-            return Collections.emptyList();
+        SlotManager.SlotSnapshot snapshot = slotManager.snapshot();
+        Set<Integer> slots = new HashSet<>(snapshot.getSlots());
+
+        // 首次加载前按当前槽位数量修正已有plan的槽位，再记录游标，全量加载期间产生的变更会在下次重复处理，处理是幂等的
+        // 游标往前回退一段，启动时尚未提交的变更作为缺失序号等待补查
+        if (changeCursor < 0) {
+            repairSlots();
+            changeCursor = Math.max(0, planChangeEntityRepo.findMaxId() - INIT_REPLAY_SIZE);
+            lastGapCheckCursor = changeCursor;
         }
-        List<PlanSlotEntity> slotEntities = planSlotEntityRepo.findBySlotIn(slots);
-        if (CollectionUtils.isEmpty(slotEntities)) {
-            return Collections.emptyList();
+
+        // 新负责的槽位，全量加载。原节点在交接时间内仍会调度这些槽位，新节点提前加载好避免出现空档
+        List<PlanScheduleTask> plans = new ArrayList<>();
+        Set<Integer> addedSlots = new HashSet<>(slots);
+        addedSlots.removeAll(loadedSlots);
+        if (!addedSlots.isEmpty()) {
+            List<PlanSlotEntity> slotEntities = planSlotEntityRepo.findBySlotIn(new ArrayList<>(addedSlots));
+            List<String> planIds = slotEntities.stream().map(PlanSlotEntity::getPlanId).collect(Collectors.toList());
+            plans.addAll(loadEnabledPlans(planIds));
         }
-        List<String> planIds = slotEntities.stream().map(PlanSlotEntity::getPlanId).collect(Collectors.toList());
-        List<PlanEntity> planEntities = planEntityRepo.loadUpdatedPlans(planIds, loadTimePoint);
-        loadTimePoint = TimeUtils.currentLocalDateTime();
-        if (CollectionUtils.isEmpty(planEntities)) {
+
+        // 不再负责的槽位，交接结束后才移除其中plan的调度
+        Set<Integer> currentSlots = new HashSet<>(slots);
+        Set<Integer> removedSlots = new HashSet<>(loadedSlots);
+        removedSlots.removeAll(slots);
+        if (!removedSlots.isEmpty()) {
+            if (snapshot.isHandoffCompleted()) {
+                for (PlanSlotEntity slotEntity : planSlotEntityRepo.findBySlotIn(new ArrayList<>(removedSlots))) {
+                    scheduler.unschedule(MetaTaskType.PLAN, slotEntity.getPlanId());
+                    domainConverter.getPlanDefinitionCache().removeCurrentVersion(slotEntity.getPlanId());
+                }
+                // 交接出去的 plan 实例状态由新节点重建
+                workflowInstanceStateMachine.evictUnowned();
+            } else {
+                currentSlots.addAll(removedSlots);
+            }
+        }
+
+        // 已负责的槽位，消费变更
+        if (!currentSlots.isEmpty()) {
+            plans.addAll(loadChangedPlans(new ArrayList<>(currentSlots)));
+        }
+
+        // 在其他节点结束的 plan 实例，移除内存中的状态
+        try {
+            workflowInstanceStateMachine.evictFinished();
+        } catch (Exception e) {
+            log.error("evict finished workflow plan instances fail", e);
+        }
+
+        // 全部加载成功后才记录已加载的槽位，否则下次重新全量加载新增的槽位
+        loadedSlots = currentSlots;
+        return plans;
+    }
+
+    /**
+     * 槽位数量调整后，按新的槽位数量修正已有plan的槽位，槽位已正确的不做处理
+     */
+    private void repairSlots() {
+        long cursor = 0;
+        int repaired = 0;
+        List<PlanSlotEntity> slotEntities;
+        do {
+            slotEntities = planSlotEntityRepo.findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, LOAD_PAGE_SIZE));
+            List<PlanSlotEntity> changed = new ArrayList<>();
+            for (PlanSlotEntity slotEntity : slotEntities) {
+                cursor = slotEntity.getId();
+                int slot = slotManager.slot(slotEntity.getPlanId());
+                if (slotEntity.getSlot() == null || slotEntity.getSlot() != slot) {
+                    slotEntity.setSlot(slot);
+                    changed.add(slotEntity);
+                }
+            }
+            if (!changed.isEmpty()) {
+                planSlotEntityRepo.saveAll(changed);
+                repaired += changed.size();
+            }
+        } while (slotEntities.size() >= LOAD_PAGE_SIZE);
+
+        if (repaired > 0) {
+            log.info("repair {} plan slots", repaired);
+        }
+    }
+
+    /**
+     * 消费变更日志，先重新加载发生变更的plan，加载成功后再移除不再启用的plan的调度并推进游标。
+     * 加载失败时游标和缺失序号保持不变，下次检查重新消费这些变更，已调度的plan不受影响。
+     */
+    private List<PlanScheduleTask> loadChangedPlans(List<Integer> slots) {
+        Set<Integer> slotSet = new HashSet<>(slots);
+        List<PlanChangeEntity> gapChanges = loadGapChanges();
+        Set<String> changedPlanIds = gapChanges.stream()
+                .filter(change -> slotSet.contains(change.getSlot()))
+                .map(PlanChangeEntity::getPlanId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        long cursor = changeCursor;
+        List<PlanChangeEntity> changes;
+        do {
+            changes = planChangeEntityRepo.findChanges(cursor, slots, CHANGE_PAGE_SIZE);
+            for (PlanChangeEntity change : changes) {
+                changedPlanIds.add(change.getPlanId());
+                cursor = change.getId();
+            }
+        } while (changes.size() >= CHANGE_PAGE_SIZE);
+
+        // 先加载，加载失败抛出异常时不做任何变更
+        List<PlanScheduleTask> plans = new ArrayList<>();
+        Set<String> enabledPlanIds = new HashSet<>();
+        for (List<String> pagePlanIds : ListUtils.partition(new ArrayList<>(changedPlanIds), LOAD_PAGE_SIZE)) {
+            List<PlanEntity> planEntities = planEntityRepo.loadEnabledPlans(pagePlanIds);
+            if (CollectionUtils.isNotEmpty(planEntities)) {
+                planEntities.forEach(entity -> enabledPlanIds.add(entity.getPlanId()));
+                plans.addAll(domainConverter.toPlanScheduleTasks(planEntities));
+            }
+        }
+
+        // 停用、删除的plan不会被重新加载，移除调度；重新加载的 plan 已经记录了新的当前版本，由调用方替换调度
+        for (String planId : changedPlanIds) {
+            if (!enabledPlanIds.contains(planId)) {
+                scheduler.unschedule(MetaTaskType.PLAN, planId);
+                domainConverter.getPlanDefinitionCache().removeCurrentVersion(planId);
+            }
+        }
+
+        gapChanges.forEach(change -> gaps.remove(change.getId()));
+        changeCursor = cursor;
+        recordGaps(changeCursor);
+        return plans;
+    }
+
+    /**
+     * 补查缺失的变更序号，返回已经出现的变更，由调用方处理成功后从缺失中移除
+     */
+    private List<PlanChangeEntity> loadGapChanges() {
+        if (gaps.isEmpty()) {
             return Collections.emptyList();
         }
+
+        long now = System.currentTimeMillis();
+        gaps.values().removeIf(foundAt -> now - foundAt > GAP_TIMEOUT);
+
+        List<PlanChangeEntity> changes = new ArrayList<>();
+        for (List<Long> ids : ListUtils.partition(new ArrayList<>(gaps.keySet()), CHANGE_PAGE_SIZE)) {
+            changes.addAll(planChangeEntityRepo.findAllById(ids));
+        }
+        return changes;
+    }
+
+    /**
+     * 记录游标之前缺失的变更序号。按槽位过滤的查询看不到其他槽位的变更，
+     * 因此只查询序号，不按槽位过滤，找出 (上次游标, 当前游标] 之间真正缺失的序号
+     */
+    private void recordGaps(long cursor) {
+        if (cursor <= lastGapCheckCursor) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long from = lastGapCheckCursor;
+        List<Long> ids;
+        do {
+            ids = planChangeEntityRepo.findIds(from, cursor, PageRequest.of(0, CHANGE_PAGE_SIZE));
+            long expected = from + 1;
+            for (Long id : ids) {
+                for (long gap = expected; gap < id && gaps.size() < MAX_GAPS; gap++) {
+                    gaps.putIfAbsent(gap, now);
+                }
+                expected = id + 1;
+                from = id;
+            }
+        } while (ids.size() >= CHANGE_PAGE_SIZE);
+
+        if (gaps.size() >= MAX_GAPS) {
+            log.warn("too many missing plan change ids, only {} are tracked", MAX_GAPS);
+        }
+        lastGapCheckCursor = cursor;
+    }
+
+    /**
+     * 分批加载启用中的plan
+     */
+    private List<PlanScheduleTask> loadEnabledPlans(Collection<String> planIds) {
         List<PlanScheduleTask> plans = new ArrayList<>();
-        for (PlanEntity planEntity : planEntities) {
-            plans.add(domainConverter.toPlanScheduleTask(planEntity));
+        for (List<String> pagePlanIds : ListUtils.partition(new ArrayList<>(planIds), LOAD_PAGE_SIZE)) {
+            List<PlanEntity> planEntities = planEntityRepo.loadEnabledPlans(pagePlanIds);
+            if (CollectionUtils.isNotEmpty(planEntities)) {
+                plans.addAll(domainConverter.toPlanScheduleTasks(planEntities));
+            }
         }
         return plans;
     }
@@ -50,13 +50,11 @@ import java.util.List;
 public class SingleJobScheduleStrategy extends AbstractScheduleStrategy {
 
     @Override
-    protected void schedulePlan(TriggerType triggerType, Plan plan, LocalDateTime triggerAt) {
+    protected void schedulePlan(TriggerType triggerType, Plan plan, String planInstanceId, LocalDateTime triggerAt) {
         String planId = plan.getPlanId();
         String version = plan.getVersion();
 
         SinglePlan singlePlan = (SinglePlan) plan;
-        // 保存 planInstance
-        String planInstanceId = savePlanInstanceEntity(planId, version, triggerType, triggerAt);
         JobInstance jobInstance = newJobInstance(planId, version, plan.planType(), planInstanceId, singlePlan.getJobInfo(), TimeUtils.currentLocalDateTime());
         scheduleJobInstance(jobInstance);
     }
@@ -18,22 +18,41 @@
 
 package org.limbo.flowjob.broker.application.plan.component;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import lombok.Getter;
 import lombok.Setter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
 import org.limbo.flowjob.broker.core.cluster.Node;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.dao.support.SlotLeases;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 /**
+ * 槽位管理。槽位归属只在集群成员变化时重新计算，计算结果以不可变快照{@link SlotSnapshot}发布，
+ * 快照带有本地的成员版本号 epoch，可用于判断持有的槽位信息是否过期。
+ *
+ * 槽位通过 rendezvous hash 分配给节点：每个槽位由与其哈希值最大的节点负责，成员变化时只有约 1/N 的槽位更换节点。
+ * 失去的槽位在交接时间内仍由原节点负责，新节点在此期间预加载，避免交接过程中出现调度空档，交接期间新旧节点对同一次触发的重复写入由 plan 实例表的唯一键 uk_plan_trigger 保证只保存一次。
+ *
+ * 各节点的成员视图可能不一致，调度写入以数据库中的槽位租约{@link SlotLeases}为准：
+ * 新分配到的槽位如果原持有节点仍存活，等交接时间结束后再领取租约，领取后原节点持有的租约版本失效，无法再触发该槽位的 plan。
+ *
  * @author Devil
  * @since 2022/8/22
  */
@@ -41,19 +60,52 @@ import java.util.stream.Collectors;
 @Component
 public class SlotManager {
 
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
     @Setter(onMethod_ = @Inject)
     private BrokerConfig brokerConfig;
 
     @Setter(onMethod_ = @Inject)
     private NodeManger nodeManger;
 
-    public static final int SLOT_SIZE = 64;
+    /**
+     * 槽位租约，为空时不领取租约
+     */
+    @Setter(onMethod_ = @Inject)
+    private SlotLeases slotLeases;
+
+    /**
+     * 租约领取失败后的重试间隔 毫秒
+     */
+    private static final long CLAIM_RETRY_INTERVAL = 1000;
+
+    /**
+     * 等待领取租约的槽位 slot -> 领取时间戳
+     */
+    private final Map<Integer, Long> pendingClaims = new HashMap<>();
+
+    /**
+     * 最近一次需要领取租约的时间戳
+     */
+    private volatile long nextClaimAt = Long.MAX_VALUE;
+
+    /**
+     * 当前的槽位快照
+     */
+    private volatile SlotSnapshot snapshot = new SlotSnapshot(-1, 0, Collections.emptyList(), Collections.emptyList(), 0);
 
     /**
      * 计算槽位
      */
     public int slot(String planId) {
-        return planId.hashCode() % SlotManager.SLOT_SIZE;
+        return slot(planId, brokerConfig.getSlotSize());
+    }
+
+    /**
+     * 计算槽位，结果在 [0, slotSize) 之间
+     */
+    public static int slot(String planId, int slotSize) {
+        return Math.floorMod(HASH.hashString(planId, StandardCharsets.UTF_8).asInt(), slotSize);
     }
 
     /**
@@ -62,30 +114,324 @@ public class SlotManager {
      * @return 当前机器对应的所有槽位
      */
     public List<Integer> slots() {
-        List<Node> sortedNodes = nodeManger.allAlive().stream().sorted(Comparator.comparing(Node::getHost).thenComparingInt(Node::getPort)).collect(Collectors.toList());
-
-        // 判断自己所在的id位置
-        int mark = -1;
-        for (int i = 0; i < sortedNodes.size(); i++) {
-            Node node = sortedNodes.get(i);
-            if (Objects.equals(brokerConfig.getHost(), node.getHost()) && Objects.equals(brokerConfig.getPort(), node.getPort())) {
-                mark = i;
-                break;
+        return snapshot().getSlots();
+    }
+
+    /**
+     * 持有租约并且租约仍然有效的槽位，租约被其他节点领取的槽位会从快照中移除租约
+     */
+    public List<Integer> leasedSlots() {
+        SlotSnapshot current = snapshot();
+        List<Integer> slots = new ArrayList<>();
+        for (Integer slot : current.getSlots()) {
+            if (current.leaseEpoch(slot) > 0) {
+                slots.add(slot);
+            }
+        }
+        if (slotLeases == null || slots.isEmpty()) {
+            return slots;
+        }
+
+        Map<Integer, Long> held = slotLeases.held(slots, owner());
+        List<Integer> lost = new ArrayList<>();
+        for (Iterator<Integer> iterator = slots.iterator(); iterator.hasNext(); ) {
+            Integer slot = iterator.next();
+            Long epoch = held.get(slot);
+            if (epoch == null || epoch != current.leaseEpoch(slot)) {
+                lost.add(slot);
+                iterator.remove();
+            }
+        }
+        if (!lost.isEmpty()) {
+            log.warn("slot leases lost slots:{}", lost);
+            synchronized (this) {
+                SlotSnapshot latest = snapshot;
+                long[] leaseEpochs = latest.copyLeaseEpochs();
+                for (Integer slot : lost) {
+                    if (leaseEpochs[slot] == current.leaseEpoch(slot)) {
+                        leaseEpochs[slot] = 0;
+                    }
+                }
+                snapshot = latest.withLeaseEpochs(leaseEpochs);
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * 租约中记录的当前节点
+     */
+    public String owner() {
+        return brokerConfig.getName();
+    }
+
+    /**
+     * plan 是否由当前节点负责，直接根据 planId 计算槽位，无需查询
+     */
+    public boolean owns(String planId) {
+        return snapshot().owns(slot(planId));
+    }
+
+    /**
+     * 获取当前槽位快照，成员发生变化时重新计算，到达领取时间的槽位在此时领取租约
+     */
+    public SlotSnapshot snapshot() {
+        SlotSnapshot current = snapshot;
+        long epoch = nodeManger.epoch();
+        if (current.getEpoch() == epoch && System.currentTimeMillis() < nextClaimAt) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = snapshot;
+            long now = System.currentTimeMillis();
+            if (current.getEpoch() != epoch) {
+                int slotSize = brokerConfig.getSlotSize();
+                List<Integer> slots = assign(nodeManger.allAlive(), brokerConfig.getHost(), brokerConfig.getPort(), slotSize);
+                Set<Integer> slotSet = new HashSet<>(slots);
+
+                // 之前负责（包括仍在交接中）但现在不再负责的槽位，交接时间内继续负责
+                List<Integer> releasing = new ArrayList<>();
+                for (int slot = 0; slot < slotSize; slot++) {
+                    if (current.owns(slot, now) && !slotSet.contains(slot)) {
+                        releasing.add(slot);
+                    }
+                }
+
+                // 继续负责的槽位保留已持有的租约
+                long[] leaseEpochs = new long[slotSize];
+                List<Integer> gained = new ArrayList<>();
+                for (Integer slot : slots) {
+                    leaseEpochs[slot] = current.leaseEpoch(slot);
+                    if (leaseEpochs[slot] <= 0) {
+                        gained.add(slot);
+                    }
+                }
+                for (Integer slot : releasing) {
+                    leaseEpochs[slot] = current.leaseEpoch(slot);
+                }
+                pendingClaims.keySet().retainAll(slotSet);
+
+                long releaseAt = now + brokerConfig.getSlotHandoffTime();
+                current = new SlotSnapshot(epoch, slotSize, slots, releasing, releaseAt, leaseEpochs);
+                snapshot = current;
+                log.info("slots changed epoch:{} slots:{} releasing:{}", epoch, slots.size(), releasing);
+
+                scheduleClaims(gained, now, releaseAt);
+            }
+
+            if (now >= nextClaimAt) {
+                current = claim(current, now);
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * 记录新分配到的槽位的租约领取时间：原持有节点仍存活时，等原节点交接结束后再领取，否则立即领取
+     */
+    private void scheduleClaims(List<Integer> gained, long now, long releaseAt) {
+        if (slotLeases == null || gained.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, String> owners;
+        try {
+            owners = slotLeases.owners(gained);
+        } catch (Exception e) {
+            log.error("load slot lease owners failed, claim after handoff", e);
+            owners = null;
+        }
+
+        String self = owner();
+        for (Integer slot : gained) {
+            String owner = owners == null ? null : owners.get(slot);
+            boolean free = owners != null && (owner == null || owner.equals(self) || !nodeManger.alive(owner));
+            pendingClaims.putIfAbsent(slot, free ? now : releaseAt);
+        }
+        nextClaimAt = Collections.min(pendingClaims.values());
+    }
+
+    /**
+     * 领取到达领取时间的槽位租约，返回带有新租约的快照
+     */
+    private SlotSnapshot claim(SlotSnapshot current, long now) {
+        List<Integer> due = new ArrayList<>();
+        for (Map.Entry<Integer, Long> entry : pendingClaims.entrySet()) {
+            if (entry.getValue() <= now) {
+                due.add(entry.getKey());
+            }
+        }
+
+        if (!due.isEmpty()) {
+            Map<Integer, Long> leases;
+            try {
+                leases = slotLeases.claim(due, owner());
+            } catch (Exception e) {
+                log.error("claim slot leases failed slots:{}", due.size(), e);
+                nextClaimAt = now + CLAIM_RETRY_INTERVAL;
+                return current;
+            }
+
+            long[] leaseEpochs = current.copyLeaseEpochs();
+            for (Map.Entry<Integer, Long> lease : leases.entrySet()) {
+                leaseEpochs[lease.getKey()] = lease.getValue();
+                pendingClaims.remove(lease.getKey());
             }
+            current = current.withLeaseEpochs(leaseEpochs);
+            log.info("slot leases claimed slots:{}", leases.keySet());
         }
 
-        if (mark < 0) {
-            log.warn("can't find in alive nodes host:{} port:{}", brokerConfig.getHost(), brokerConfig.getPort());
+        nextClaimAt = pendingClaims.isEmpty() ? Long.MAX_VALUE : Collections.min(pendingClaims.values());
+        return current;
+    }
+
+    /**
+     * 计算节点负责的槽位
+     *
+     * @param nodes 所有存活节点
+     * @param host 节点 host
+     * @param port 节点 port
+     * @param slotSize 槽位数量
+     */
+    public static List<Integer> assign(Collection<Node> nodes, String host, Integer port, int slotSize) {
+        String self = nodeKey(host, port);
+        List<String> nodeKeys = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            nodeKeys.add(nodeKey(node.getHost(), node.getPort()));
+        }
+
+        if (!nodeKeys.contains(self)) {
+            log.warn("can't find in alive nodes host:{} port:{}", host, port);
             return Collections.emptyList();
         }
 
         List<Integer> slots = new ArrayList<>();
-        while (mark < SLOT_SIZE) {
-            slots.add(mark);
-            mark += sortedNodes.size();
+        for (int slot = 0; slot < slotSize; slot++) {
+            String owner = null;
+            long max = Long.MIN_VALUE;
+            for (String nodeKey : nodeKeys) {
+                long weight = HASH.newHasher().putString(nodeKey, StandardCharsets.UTF_8).putInt(slot).hash().asLong();
+                // 权重相同时按 key 比较，保证各节点计算结果一致
+                if (owner == null || weight > max || (weight == max && nodeKey.compareTo(owner) > 0)) {
+                    owner = nodeKey;
+                    max = weight;
+                }
+            }
+            if (self.equals(owner)) {
+                slots.add(slot);
+            }
         }
-        log.info("find slots:{}", slots);
         return slots;
     }
 
+    private static String nodeKey(String host, Integer port) {
+        return host + ":" + port;
+    }
+
+
+    /**
+     * 某个成员版本下，当前节点负责的槽位以及持有的租约，不可变
+     */
+    @ToString(of = {"epoch", "slots", "releasingSlots", "releaseAt"})
+    public static class SlotSnapshot {
+
+        /**
+         * 本地的成员版本号，成员变化后递增，不能用于跨节点的写入校验
+         */
+        @Getter
+        private final long epoch;
+
+        /**
+         * 负责的槽位
+         */
+        @Getter
+        private final List<Integer> slots;
+
+        /**
+         * 正在交接给其他节点的槽位，在 releaseAt 之前仍由当前节点负责
+         */
+        @Getter
+        private final List<Integer> releasingSlots;
+
+        /**
+         * 交接结束的时间戳，毫秒
+         */
+        @Getter
+        private final long releaseAt;
+
+        private final boolean[] owned;
+
+        private final boolean[] releasing;
+
+        /**
+         * 持有的槽位租约版本，0 表示未持有
+         */
+        private final long[] leaseEpochs;
+
+        public SlotSnapshot(long epoch, int slotSize, List<Integer> slots, List<Integer> releasingSlots, long releaseAt) {
+            this(epoch, slotSize, slots, releasingSlots, releaseAt, new long[slotSize]);
+        }
+
+        public SlotSnapshot(long epoch, int slotSize, List<Integer> slots, List<Integer> releasingSlots, long releaseAt, long[] leaseEpochs) {
+            if (leaseEpochs.length != slotSize) {
+                throw new IllegalArgumentException("lease epochs length must be slot size");
+            }
+            this.leaseEpochs = leaseEpochs;
+            this.epoch = epoch;
+            this.slots = Collections.unmodifiableList(new ArrayList<>(slots));
+            this.releasingSlots = Collections.unmodifiableList(new ArrayList<>(releasingSlots));
+            this.releaseAt = releaseAt;
+            this.owned = new boolean[slotSize];
+            this.releasing = new boolean[slotSize];
+            for (Integer slot : slots) {
+                owned[slot] = true;
+            }
+            for (Integer slot : releasingSlots) {
+                releasing[slot] = true;
+            }
+        }
+
+        /**
+         * 槽位是否由当前节点负责，包括交接中的槽位
+         */
+        public boolean owns(int slot) {
+            return owns(slot, System.currentTimeMillis());
+        }
+
+        boolean owns(int slot, long now) {
+            if (slot < 0 || slot >= owned.length) {
+                return false;
+            }
+            return owned[slot] || (releasing[slot] && now < releaseAt);
+        }
+
+        /**
+         * 槽位的租约版本，未持有时返回 0
+         */
+        public long leaseEpoch(int slot) {
+            if (slot < 0 || slot >= leaseEpochs.length) {
+                return 0;
+            }
+            return leaseEpochs[slot];
+        }
+
+        long[] copyLeaseEpochs() {
+            return Arrays.copyOf(leaseEpochs, leaseEpochs.length);
+        }
+
+        SlotSnapshot withLeaseEpochs(long[] leaseEpochs) {
+            return new SlotSnapshot(epoch, owned.length, slots, releasingSlots, releaseAt, leaseEpochs);
+        }
+
+        /**
+         * 交接是否已结束，结束后可以移除交接槽位中 plan 的调度
+         */
+        public boolean isHandoffCompleted() {
+            return releasingSlots.isEmpty() || System.currentTimeMillis() >= releaseAt;
+        }
+
+    }
+
 }
@@ -0,0 +1,181 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.application.plan.component;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.broker.core.dispatch.TaskDispatcher;
+import org.limbo.flowjob.broker.core.domain.task.Task;
+import org.limbo.flowjob.broker.core.schedule.scheduler.PartitionedExecutor;
+import org.limbo.flowjob.broker.core.schedule.strategy.ScheduleStrategyFactory;
+import org.limbo.flowjob.broker.dao.support.TaskStatusBuffer;
+import org.limbo.flowjob.common.constants.MsgConstants;
+import org.limbo.flowjob.common.constants.TaskStatus;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Task 下发发件箱。
+ * 下发分为两个阶段：
+ * 1. 准备：将 task 状态由 SCHEDULING 更新为 DISPATCHING，提交后 task 即为"待下发"
+ * 2. 下发：在下发线程池中调用 worker，不持有事务，下发结果再单独提交
+ * 状态更新都通过{@link TaskStatusBuffer}与其他 task 的更新合并为批量语句提交。
+ * 这样 worker 响应慢或者宕机时，只会占用下发线程，不会长时间占用数据库连接和行锁。
+ * 准备成功但下发前节点宕机的 task 一直处于 DISPATCHING，由 task 状态检查任务重新下发。
+ *
+ * @author Brozen
+ * @since 2023-02-17
+ */
+@Slf4j
+public class TaskDispatchOutbox {
+
+    /**
+     * 下发线程池，按 taskId 分区
+     */
+    private final PartitionedExecutor dispatchExecutor;
+
+    /**
+     * 当前节点正在下发的 task，避免状态检查任务对同一个 task 重复下发
+     */
+    private final Set<String> dispatching = ConcurrentHashMap.newKeySet();
+
+    @Setter(onMethod_ = @Inject)
+    private TaskStatusBuffer taskStatusBuffer;
+
+    @Setter(onMethod_ = @Inject)
+    private TaskDispatcher taskDispatcher;
+
+    @Setter(onMethod_ = @Inject)
+    private ScheduleStrategyFactory scheduleStrategyFactory;
+
+    public TaskDispatchOutbox(PartitionedExecutor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
+
+    /**
+     * 准备下发，将 task 标记为下发中，状态更新通过缓冲批量提交，返回时已经提交
+     * @return 是否由当前线程完成了状态更新，返回 false 表示 task 已经被其他节点处理
+     */
+    public boolean prepare(Task task) {
+        int num = taskStatusBuffer.updateStatusDispatching(task.getTaskId(), TimeUtils.currentLocalDateTime());
+        if (num < 1) {
+            return false; // 可能多个节点操作同个task
+        }
+        task.setStatus(TaskStatus.DISPATCHING);
+
+        // 下面两个可能会被其他task更新 但是这是正常的
+        taskStatusBuffer.planInstanceExecuting(task.getPlanId(), TimeUtils.currentLocalDateTime());
+        taskStatusBuffer.jobInstanceExecuting(task.getJobInstanceId());
+        return true;
+    }
+
+
+    /**
+     * 异步下发已经提交为 DISPATCHING 的 task，当前节点正在下发的 task 会被忽略
+     */
+    public void dispatch(Task task) {
+        submit(task, false);
+    }
+
+
+    /**
+     * 批量准备并下发一组 task，用于目标 worker 已经确定的广播任务。
+     * 每个 task 的准备和下发都在下发线程池中并行进行，并行度受下发线程池分区数限制，队列满时在提交线程中只完成准备；
+     * 同时进行的准备会被状态缓冲合并为一次批量更新，不再逐个经过元任务调度
+     */
+    public void dispatchAll(List<Task> tasks) {
+        for (Task task : tasks) {
+            submit(task, true);
+        }
+    }
+
+
+    /**
+     * 提交到下发线程池
+     * @param prepare 是否需要先在下发线程中完成准备
+     */
+    private void submit(Task task, boolean prepare) {
+        String taskId = task.getTaskId();
+        if (!dispatching.add(taskId)) {
+            return;
+        }
+
+        boolean accepted;
+        try {
+            accepted = dispatchExecutor.execute(taskId, () -> {
+                try {
+                    if (!prepare || prepare(task)) {
+                        doDispatch(task);
+                    }
+                } finally {
+                    dispatching.remove(taskId);
+                }
+            });
+        } catch (RuntimeException e) {
+            dispatching.remove(taskId);
+            throw e;
+        }
+
+        if (!accepted) {
+            // 下发通道已满时不阻塞提交线程，task 保持 DISPATCHING，由 task 状态检查任务在下发超时后重新下发
+            dispatching.remove(taskId);
+            if (prepare) {
+                prepare(task);
+            }
+            log.warn("task dispatch lane is full, leave it to status check, task={}", taskId);
+        }
+    }
+
+
+    private void doDispatch(Task task) {
+        boolean dispatched;
+        try {
+            dispatched = taskDispatcher.dispatch(task);
+        } catch (Exception e) {
+            log.error("task dispatch fail! task={}", task, e);
+            dispatched = false;
+        }
+
+        if (dispatched) {
+            // 下发成功，CAS 更新状态，task 可能已经被状态检查任务处理，或者 worker 已经反馈了结果
+            LocalDateTime startAt = TimeUtils.currentLocalDateTime();
+            if (taskStatusBuffer.updateStatusExecuting(task.getTaskId(), task.getWorkerId(), startAt) < 1) {
+                taskStatusBuffer.recordWorker(task.getTaskId(), task.getWorkerId(), startAt);
+            }
+        } else {
+            // 下发失败
+            scheduleStrategyFactory.build(task.getPlanType()).handleTaskFail(task, MsgConstants.DISPATCH_FAIL, "");
+        }
+    }
+
+
+    /**
+     * 当前节点正在下发的 task 数量
+     */
+    public int dispatchingCount() {
+        return dispatching.size();
+    }
+
+}
@@ -30,12 +30,17 @@ import org.limbo.flowjob.broker.core.worker.WorkerRepository;
 import org.limbo.flowjob.broker.dao.converter.DomainConverter;
 import org.limbo.flowjob.broker.dao.entity.PlanSlotEntity;
 import org.limbo.flowjob.broker.dao.entity.TaskEntity;
+import org.limbo.flowjob.broker.dao.repositories.JobInstanceEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanSlotEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.TaskEntityRepo;
+import org.limbo.flowjob.broker.dao.support.TaskStatusBuffer;
 import org.limbo.flowjob.common.constants.TaskStatus;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
 
 import javax.inject.Inject;
 import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -61,21 +66,52 @@ public class TaskStatusCheckTask extends AbstractTaskStatusCheckTask {
     @Setter(onMethod_ = @Inject)
     private SlotManager slotManager;
 
+    @Setter(onMethod_ = @Inject)
+    private TaskStatusBuffer taskStatusBuffer;
+
+    @Setter(onMethod_ = @Inject)
+    private JobInstanceEntityRepo jobInstanceEntityRepo;
+
+    /**
+     * 检查间隔，job 实例的 task 全部完成超过一个检查间隔仍在执行中，才认为完成后的处理没有提交
+     */
+    private final Duration interval;
+
+    /**
+     * 下发超时时间，下发中超过该时间的 task 才会重新下发
+     */
+    private final Duration dispatchTimeout;
+
     public TaskStatusCheckTask(Duration interval,
+                               Duration dispatchTimeout,
                                BrokerConfig config,
                                NodeManger nodeManger,
                                MetaTaskScheduler metaTaskScheduler,
                                WorkerRepository workerRepository,
                                ScheduleStrategyFactory scheduleStrategyFactory) {
         super(interval, config, nodeManger, metaTaskScheduler, workerRepository, scheduleStrategyFactory);
+        this.dispatchTimeout = dispatchTimeout;
+        this.interval = interval;
     }
 
 
+    /**
+     * 加载下发超时的 task，续期成功才重新下发，避免每次检查都重复下发正在下发的 task，多个节点也不会同时下发
+     */
     @Override
     protected List<TaskScheduleTask> loadDispatchingTasks() {
         List<String> planIds = loadPlanIds();
-        List<TaskEntity> taskEntities = taskEntityRepo.findByPlanIdInAndStatus(planIds, TaskStatus.DISPATCHING.status);
-        return taskEntities.stream().map(entity -> domainConverter.toTaskScheduleTask(entity)).collect(Collectors.toList());
+        if (CollectionUtils.isEmpty(planIds)) {
+            return Collections.emptyList();
+        }
+
+        LocalDateTime now = TimeUtils.currentLocalDateTime();
+        LocalDateTime expiredBefore = now.minus(dispatchTimeout);
+        List<TaskEntity> taskEntities = taskEntityRepo.findDispatchTimeout(planIds, expiredBefore);
+        return taskEntities.stream()
+                .filter(entity -> taskStatusBuffer.renewDispatching(entity.getTaskId(), now, expiredBefore) > 0)
+                .map(entity -> domainConverter.toTaskScheduleTask(entity))
+                .collect(Collectors.toList());
     }
 
     @Override
@@ -85,8 +121,27 @@ public class TaskStatusCheckTask extends AbstractTaskStatusCheckTask {
         return taskEntities.stream().map(entity -> domainConverter.toTaskScheduleTask(entity)).collect(Collectors.toList());
     }
 
+    @Override
+    protected List<TaskScheduleTask> loadStalledJobTasks() {
+        List<String> planIds = loadPlanIds();
+        if (CollectionUtils.isEmpty(planIds)) {
+            return Collections.emptyList();
+        }
+
+        LocalDateTime updatedBefore = TimeUtils.currentLocalDateTime().minus(interval);
+        List<TaskScheduleTask> tasks = new ArrayList<>();
+        for (String jobInstanceId : jobInstanceEntityRepo.findStalledExecuting(planIds, updatedBefore)) {
+            TaskEntity entity = taskEntityRepo.findTopByJobInstanceIdOrderByIdDesc(jobInstanceId);
+            if (entity != null) {
+                tasks.add(domainConverter.toTaskScheduleTask(entity));
+            }
+        }
+        return tasks;
+    }
+
     private List<String> loadPlanIds() {
-        List<Integer> slots = slotManager.slots();
+        // 只检查租约仍然有效的槽位，避免与已经领取租约的节点重复下发
+        List<Integer> slots = slotManager.leasedSlots();
         if (CollectionUtils.isEmpty(slots)) {
             return Collections.emptyList();
         }
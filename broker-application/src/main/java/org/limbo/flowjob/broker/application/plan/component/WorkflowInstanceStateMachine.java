@@ -0,0 +1,289 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.application.plan.component;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.ListUtils;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInfo;
+import org.limbo.flowjob.broker.core.domain.plan.WorkflowInstanceState;
+import org.limbo.flowjob.broker.dao.entity.JobInstanceEntity;
+import org.limbo.flowjob.broker.dao.repositories.JobInstanceEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.PlanInstanceEntityRepo;
+import org.limbo.flowjob.common.constants.JobStatus;
+import org.limbo.flowjob.common.utils.dag.DAG;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 工作流 plan 实例状态机管理。
+ * 负责 plan 的节点在内存中为每个运行中的 plan 实例维护{@link WorkflowInstanceState}，节点完成时判断可触发的子节点无需查询；
+ * 槽位交接到当前节点或重启后，首次访问时从库中重建。不负责的 plan 每次从库中构建临时状态，不做缓存。
+ *
+ * Worker 的任务反馈可能发送到其他 broker，由其他 broker 处理的节点完成不会反映到内存中。
+ * 集群中有多个节点时，内存中仍在等待的前置节点会到库中确认一次，单节点时内存状态就是准确的。
+ * 状态变化与库中的节点状态在同一个事务中，事务回滚时移除内存状态，下次访问时从库中重建。
+ * plan 实例可能在其他 broker 上结束，内存中的状态由{@link #evictFinished()}定期到库中确认后移除。
+ *
+ * @author Brozen
+ * @since 2023-02-22
+ */
+@Slf4j
+@Component
+public class WorkflowInstanceStateMachine {
+
+    @Setter(onMethod_ = @Inject)
+    private JobInstanceEntityRepo jobInstanceEntityRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private SlotManager slotManager;
+
+    @Setter(onMethod_ = @Inject)
+    private NodeManger nodeManger;
+
+    @Setter(onMethod_ = @Inject)
+    private PlanInstanceEntityRepo planInstanceEntityRepo;
+
+    /**
+     * 清理已结束的 plan 实例的最小间隔 毫秒
+     */
+    private static final long EVICT_INTERVAL = 60_000;
+
+    /**
+     * 每批确认的 plan 实例数量
+     */
+    private static final int EVICT_PAGE_SIZE = 1000;
+
+    /**
+     * 运行中的 plan 实例状态，key 为 planInstanceId
+     */
+    private final Map<String, WorkflowInstanceState> states = new ConcurrentHashMap<>();
+
+    /**
+     * 上次清理已结束的 plan 实例的时间
+     */
+    private volatile long lastEvictAt = 0;
+
+
+    /**
+     * plan 实例开始调度时创建状态机，无需从库中加载
+     *
+     * @param triggeredJobIds 已经触发的节点
+     */
+    public void start(String planId, String planInstanceId, DAG<WorkflowJobInfo> dag, Collection<String> triggeredJobIds) {
+        if (!slotManager.owns(planId)) {
+            return;
+        }
+
+        WorkflowInstanceState state = new WorkflowInstanceState(planId, dag);
+        triggeredJobIds.forEach(state::triggered);
+        states.put(planInstanceId, state);
+        removeOnRollback(planInstanceId);
+    }
+
+
+    /**
+     * 节点完成（成功或可忽略的失败），计算可触发的子节点以及 plan 实例是否已经完成
+     */
+    public Transition complete(String planId, String planInstanceId, DAG<WorkflowJobInfo> dag, String jobId) {
+        boolean cached = slotManager.owns(planId);
+        WorkflowInstanceState state;
+        if (cached) {
+            // 在 computeIfAbsent 之外查库，避免查询期间持有 map 的锁
+            state = states.get(planInstanceId);
+            if (state == null) {
+                WorkflowInstanceState loaded = load(planId, planInstanceId, dag, jobId);
+                state = states.putIfAbsent(planInstanceId, loaded);
+                state = state == null ? loaded : state;
+            }
+        } else {
+            states.remove(planInstanceId);
+            state = load(planId, planInstanceId, dag, jobId);
+        }
+
+        if (cached) {
+            removeOnRollback(planInstanceId);
+        }
+        List<WorkflowJobInfo> ready = new ArrayList<>(state.complete(jobId));
+
+        // 内存中仍在等待的节点可能已由其他 broker 处理完成，到库中确认
+        if (cached && nodeManger.allAlive().size() > 1) {
+            boolean last = dag.childCount(dag.indexOf(jobId)) == 0;
+            List<String> waiting = last ? state.waitingLasts() : state.waitingParents(jobId);
+            if (!waiting.isEmpty()) {
+                ready.addAll(sync(state, planInstanceId, waiting));
+            }
+        }
+
+        boolean completed = state.isCompleted();
+        if (completed) {
+            states.remove(planInstanceId);
+        }
+        return new Transition(ready, completed);
+    }
+
+
+    /**
+     * 移除 plan 实例的状态，plan 实例结束或者处理异常时调用，异常时下次访问会从库中重建
+     */
+    public void remove(String planInstanceId) {
+        states.remove(planInstanceId);
+    }
+
+
+    /**
+     * 移除不再负责的 plan 的实例状态，槽位交接结束后调用
+     */
+    public void evictUnowned() {
+        states.values().removeIf(state -> !slotManager.owns(state.getPlanId()));
+    }
+
+
+    /**
+     * 移除已经结束的 plan 实例的状态。plan 实例的最后一个节点完成、或者失败终止由其他 broker 处理时，
+     * 当前节点不会经过{@link #complete}，需要到库中确认。距上次清理不足{@link #EVICT_INTERVAL}时不处理。
+     */
+    public void evictFinished() {
+        long now = System.currentTimeMillis();
+        if (now - lastEvictAt < EVICT_INTERVAL || states.isEmpty()) {
+            return;
+        }
+        lastEvictAt = now;
+
+        int evicted = 0;
+        for (List<String> planInstanceIds : ListUtils.partition(new ArrayList<>(states.keySet()), EVICT_PAGE_SIZE)) {
+            for (String planInstanceId : planInstanceEntityRepo.findFinished(planInstanceIds)) {
+                if (states.remove(planInstanceId) != null) {
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            log.info("evict {} finished workflow plan instances", evicted);
+        }
+    }
+
+
+    /**
+     * 内存中的 plan 实例数量
+     */
+    public int size() {
+        return states.size();
+    }
+
+
+    /**
+     * 当前事务回滚时移除 plan 实例的状态，没有事务时不处理
+     */
+    private void removeOnRollback(String planInstanceId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    states.remove(planInstanceId);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * 从库中重建 plan 实例状态
+     *
+     * @param completingJobId 正在完成的节点，由调用方标记完成，以便得到它触发的子节点
+     */
+    private WorkflowInstanceState load(String planId, String planInstanceId, DAG<WorkflowJobInfo> dag, String completingJobId) {
+        WorkflowInstanceState state = new WorkflowInstanceState(planId, dag);
+        List<JobInstanceEntity> entities = jobInstanceEntityRepo.findByPlanInstanceId(planInstanceId);
+        for (JobInstanceEntity entity : entities) {
+            if (dag.indexOf(entity.getJobId()) >= 0) {
+                state.triggered(entity.getJobId());
+            }
+        }
+        for (JobInstanceEntity entity : entities) {
+            if (!entity.getJobId().equals(completingJobId) && isCompleted(entity, dag)) {
+                state.complete(entity.getJobId());
+            }
+        }
+        return state;
+    }
+
+
+    /**
+     * 到库中确认等待中的节点，返回因此满足触发条件的子节点
+     */
+    private List<WorkflowJobInfo> sync(WorkflowInstanceState state, String planInstanceId, List<String> jobIds) {
+        List<WorkflowJobInfo> ready = new ArrayList<>();
+        for (JobInstanceEntity entity : jobInstanceEntityRepo.findByPlanInstanceIdAndJobIdIn(planInstanceId, jobIds)) {
+            if (isCompleted(entity, state.getDag())) {
+                ready.addAll(state.complete(entity.getJobId()));
+            }
+        }
+        return ready;
+    }
+
+
+    /**
+     * 节点是否完成：执行成功，或者执行失败但可以忽略失败
+     */
+    private boolean isCompleted(JobInstanceEntity entity, DAG<WorkflowJobInfo> dag) {
+        WorkflowJobInfo jobInfo = dag.getNode(entity.getJobId());
+        if (jobInfo == null) {
+            return false;
+        }
+        return JobStatus.SUCCEED.is(entity.getStatus())
+                || (JobStatus.FAILED.is(entity.getStatus()) && !jobInfo.isTerminateWithFail());
+    }
+
+
+    /**
+     * 节点完成后的状态变化
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Transition {
+
+        /**
+         * 可以触发的子节点
+         */
+        private final List<WorkflowJobInfo> readyJobs;
+
+        /**
+         * plan 实例是否已经完成
+         */
+        private final boolean planCompleted;
+
+    }
+
+}
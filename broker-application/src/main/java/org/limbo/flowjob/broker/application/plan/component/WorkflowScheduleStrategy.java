@@ -18,6 +18,7 @@
 
 package org.limbo.flowjob.broker.application.plan.component;
 
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.broker.core.domain.IDType;
@@ -37,18 +38,15 @@ import org.limbo.flowjob.common.constants.MsgConstants;
 import org.limbo.flowjob.common.constants.PlanType;
 import org.limbo.flowjob.common.constants.TaskType;
 import org.limbo.flowjob.common.constants.TriggerType;
-import org.limbo.flowjob.common.utils.Verifies;
 import org.limbo.flowjob.common.utils.dag.DAG;
-import org.limbo.flowjob.common.utils.dag.DAGNode;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
 import org.springframework.stereotype.Component;
 
+import javax.inject.Inject;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -59,20 +57,15 @@ import java.util.stream.Collectors;
 @Component
 public class WorkflowScheduleStrategy extends AbstractScheduleStrategy {
 
+    @Setter(onMethod_ = @Inject)
+    private WorkflowInstanceStateMachine workflowInstanceStateMachine;
+
     @Override
-    protected void schedulePlan(TriggerType triggerType, Plan plan, LocalDateTime triggerAt) {
+    protected void schedulePlan(TriggerType triggerType, Plan plan, String planInstanceId, LocalDateTime triggerAt) {
         String planId = plan.getPlanId();
         String version = plan.getVersion();
         WorkflowPlan workflowPlan = (WorkflowPlan) plan;
 
-        DAG<WorkflowJobInfo> dag = workflowPlan.getDag();
-        List<String> jobIds = dag.nodes().stream().map(DAGNode::getId).collect(Collectors.toList());
-        List<JobInfoEntity> jobInfoEntities = jobInfoEntityRepo.findAllById(jobIds);
-        Verifies.notEmpty(jobInfoEntities, "does not find " + planId + " plan's job info by version--" + version + "");
-
-        // 保存 planInstance
-        String planInstanceId = savePlanInstanceEntity(planId, version, triggerType, triggerAt);
-
         // 获取头部节点
         List<JobInstance> rootJobs = new ArrayList<>();
 
@@ -82,6 +75,9 @@ public class WorkflowScheduleStrategy extends AbstractScheduleStrategy {
             }
         }
 
+        workflowInstanceStateMachine.start(planId, planInstanceId, workflowPlan.getDag(),
+                rootJobs.stream().map(job -> job.getJobInfo().getId()).collect(Collectors.toList()));
+
         // 如果root都为api触发则为空 交由api创建
         if (CollectionUtils.isNotEmpty(rootJobs)) {
             scheduleJobInstances(rootJobs, triggerAt);
@@ -108,37 +104,39 @@ public class WorkflowScheduleStrategy extends AbstractScheduleStrategy {
         JobInfo jobInfo = jobInstance.getJobInfo();
         String jobId = jobInfo.getId();
 
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(version).orElse(null);
-
-        DAG<WorkflowJobInfo> dag = domainConverter.toJobDag(planInfoEntity.getJobInfo(), null);
-        List<String> jobIds = dag.nodes().stream().map(DAGNode::getId).collect(Collectors.toList());
-        List<JobInfoEntity> jobInfoEntities = jobInfoEntityRepo.findAllById(jobIds);
-        dag = domainConverter.toJobDag(planInfoEntity.getJobInfo(), jobInfoEntities);
+        // 版本对应的 DAG 不会变化，从缓存获取，不能修改
+        Plan plan = domainConverter.getPlanDefinitionCache().get(version);
+        DAG<WorkflowJobInfo> dag = ((WorkflowPlan) plan).getDag();
+
+        // 内存状态机中标记节点完成，得到可以触发的子节点，代价为 O(出度)
+        WorkflowInstanceStateMachine.Transition transition;
+        try {
+            transition = workflowInstanceStateMachine.complete(planId, planInstanceId, dag, jobId);
+        } catch (RuntimeException e) {
+            workflowInstanceStateMachine.remove(planInstanceId);
+            throw e;
+        }
 
-        // 当前节点的子节点
-        List<WorkflowJobInfo> subJobInfos = dag.subNodes(jobId);
+        if (transition.isPlanCompleted()) {
+            // 所有叶子节点都已经成功或者可忽略地失败，这里只关心plan的成功更新，失败是在task回调
+            planInstanceEntityRepo.success(planInstanceId, TimeUtils.currentLocalDateTime());
+            return;
+        }
 
-        if (CollectionUtils.isEmpty(subJobInfos)) {
-            // 当前节点为叶子节点 检测 Plan 实例是否已经执行完成
-            // 1. 所有节点都已经成功或者失败 2. 这里只关心plan的成功更新，失败是在task回调
-            if (checkJobsSuccessOrIgnoreError(planInstanceId, dag.lasts())) {
-                planInstanceEntityRepo.success(planInstanceId, TimeUtils.currentLocalDateTime());
-            }
-        } else {
+        if (CollectionUtils.isNotEmpty(transition.getReadyJobs())) {
             LocalDateTime triggerAt = TimeUtils.currentLocalDateTime();
-            // 后续作业存在，则检测是否可触发，并继续下发作业
             List<JobInstance> subJobInstances = new ArrayList<>();
-            for (WorkflowJobInfo subJobInfo : subJobInfos) {
-                // 前置节点已经完成则可以下发
-                if (checkJobsSuccessOrIgnoreError(planInstanceId, dag.preNodes(subJobInfo.getId()))) {
-                    subJobInstances.add(newJobInstance(planId, version, PlanType.parse(planInfoEntity.getPlanType()), planInstanceId, subJobInfo, triggerAt));
-                }
+            for (WorkflowJobInfo subJobInfo : transition.getReadyJobs()) {
+                subJobInstances.add(newJobInstance(planId, version, plan.planType(), planInstanceId, subJobInfo, triggerAt));
             }
 
-            if (CollectionUtils.isNotEmpty(subJobInstances)) {
+            try {
                 scheduleJobInstances(subJobInstances, triggerAt);
+            } catch (RuntimeException e) {
+                // 事务会回滚，内存状态中已标记触发的节点需要从库中重建
+                workflowInstanceStateMachine.remove(planInstanceId);
+                throw e;
             }
-
         }
     }
 
@@ -154,6 +152,7 @@ public class WorkflowScheduleStrategy extends AbstractScheduleStrategy {
                 scheduleJobInstances(Collections.singletonList(jobInstance), TimeUtils.currentLocalDateTime());
             } else {
                 planInstanceEntityRepo.fail(jobInstance.getPlanInstanceId(), TimeUtils.currentLocalDateTime());
+                workflowInstanceStateMachine.remove(jobInstance.getPlanInstanceId());
             }
         } else {
             handleJobSuccess(jobInstance);
@@ -204,38 +203,6 @@ public class WorkflowScheduleStrategy extends AbstractScheduleStrategy {
         saveAndScheduleTask(tasks, triggerAt);
     }
 
-    /**
-     * 校验 planInstance 下对应 job 的 jobInstance 是否都执行成功 或者失败了但是可以忽略失败
-     */
-    private boolean checkJobsSuccessOrIgnoreError(String planInstanceId, List<WorkflowJobInfo> jobInfos) {
-        if (CollectionUtils.isEmpty(jobInfos)) {
-            return true;
-        }
-        Map<String, WorkflowJobInfo> jobInfoMap = jobInfos.stream().collect(Collectors.toMap(DAGNode::getId, jobInfo -> jobInfo));
-        List<JobInstanceEntity> entities = jobInstanceEntityRepo.findByPlanInstanceIdAndJobIdIn(planInstanceId, new LinkedList<>(jobInfoMap.keySet()));
-        if (CollectionUtils.isEmpty(entities) || jobInfos.size() > entities.size()) {
-            // 按新流程 job 应该统一创建 不存在有些job还未创建情况的
-            log.warn("job doesn't create completable in PlanInstance:{} where jobIds:{}", planInstanceId, jobInfoMap.keySet());
-            return false;
-        }
-        for (JobInstanceEntity entity : entities) {
-            if (entity.getStatus() == JobStatus.SUCCEED.status) {
-                // 成功的
-            } else if (entity.getStatus() == JobStatus.FAILED.status) {
-                // 失败的 看是否忽略失败
-                WorkflowJobInfo jobInfo = jobInfoMap.get(entity.getJobId());
-                if (jobInfo.isTerminateWithFail()) {
-                    return false;
-                }
-            } else {
-                // 执行中
-                return false;
-            }
-        }
-
-        return true;
-    }
-
     public JobInstance newJobInstance(String planId, String planVersion, PlanType planType, String planInstanceId, WorkflowJobInfo workflowJobInfo, LocalDateTime triggerAt) {
         WorkflowJobInstance instance = new WorkflowJobInstance();
         instance.setJobInstanceId(idGenerator.generateId(IDType.JOB_INSTANCE));
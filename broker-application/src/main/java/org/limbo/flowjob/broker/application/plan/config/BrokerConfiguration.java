@@ -20,8 +20,10 @@ import com.google.common.collect.Maps;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.broker.application.plan.component.BrokerStarter;
+import org.limbo.flowjob.broker.application.plan.component.MapTaskMaterializer;
 import org.limbo.flowjob.broker.application.plan.component.PlanLoadTask;
 import org.limbo.flowjob.broker.application.plan.component.SingleJobScheduleStrategy;
+import org.limbo.flowjob.broker.application.plan.component.TaskDispatchOutbox;
 import org.limbo.flowjob.broker.application.plan.component.TaskStatusCheckTask;
 import org.limbo.flowjob.broker.application.plan.component.WorkflowScheduleStrategy;
 import org.limbo.flowjob.broker.application.plan.support.NodeMangerImpl;
@@ -32,32 +34,37 @@ import org.limbo.flowjob.broker.core.cluster.NodeRegistry;
 import org.limbo.flowjob.broker.core.cluster.WorkerManager;
 import org.limbo.flowjob.broker.core.cluster.WorkerManagerImpl;
 import org.limbo.flowjob.broker.core.dispatch.TaskDispatcher;
+import org.limbo.flowjob.broker.core.dispatch.TaskSubmitCoalescer;
+import org.limbo.flowjob.broker.core.dispatcher.WorkerResourceReservations;
 import org.limbo.flowjob.broker.core.dispatcher.WorkerSelectorFactory;
 import org.limbo.flowjob.broker.core.domain.IDGenerator;
 import org.limbo.flowjob.broker.core.domain.task.TaskFactory;
 import org.limbo.flowjob.broker.core.domain.task.TaskManager;
+import org.limbo.flowjob.broker.core.schedule.scheduler.PartitionedExecutor;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTask;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.WorkerSyncTask;
 import org.limbo.flowjob.broker.core.schedule.strategy.IScheduleStrategy;
 import org.limbo.flowjob.broker.core.schedule.strategy.ScheduleStrategyFactory;
 import org.limbo.flowjob.broker.core.statistics.WorkerStatisticsRepository;
 import org.limbo.flowjob.broker.core.worker.WorkerRepository;
+import org.limbo.flowjob.broker.core.worker.rpc.WorkerRpcFactory;
 import org.limbo.flowjob.broker.dao.domain.SingletonWorkerStatisticsRepo;
+import org.limbo.flowjob.broker.dao.support.SlotLeases;
+import org.limbo.flowjob.broker.dao.support.TaskStatusBuffer;
 import org.limbo.flowjob.common.constants.PlanType;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.inject.Inject;
 import java.time.Duration;
 import java.util.EnumMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author Brozen
@@ -98,6 +105,19 @@ public class BrokerConfiguration {
         return new WorkerManagerImpl(workerRepository);
     }
 
+    /**
+     * Worker RPC 工厂，SPI 加载的单例，RPC 客户端在 broker 内共享，此处配置通信超时
+     */
+    @Bean
+    public WorkerRpcFactory workerRpcFactory() {
+        WorkerRpcFactory factory = WorkerRpcFactory.getInstance();
+        factory.setTimeout(
+                Duration.ofMillis(brokerProperties.getWorkerRpcConnectTimeout()),
+                Duration.ofMillis(brokerProperties.getWorkerRpcReadTimeout())
+        );
+        return factory;
+    }
+
     @Bean
     public TaskFactory taskFactory(WorkerManager workerManager, TaskManager taskManager, IDGenerator idGenerator) {
         return new TaskFactory(workerManager, taskManager, idGenerator);
@@ -114,13 +134,23 @@ public class BrokerConfiguration {
     }
 
 
+    /**
+     * Worker 资源预留，两次心跳之间下发的任务从上报的可用资源中扣除
+     */
+    @Bean
+    public WorkerResourceReservations workerResourceReservations() {
+        return new WorkerResourceReservations();
+    }
+
+
     /**
      * 用于生成 Worker 选择器，内部封装了 LB 算法的调用。
      */
     @Bean
-    public WorkerSelectorFactory workerSelectorFactory(WorkerStatisticsRepository statisticsRepository) {
+    public WorkerSelectorFactory workerSelectorFactory(WorkerStatisticsRepository statisticsRepository, WorkerResourceReservations reservations) {
         WorkerSelectorFactory factory = new WorkerSelectorFactory();
         factory.setLbServerStatisticsProvider(statisticsRepository);
+        factory.setReservations(reservations);
         return factory;
     }
 
@@ -129,8 +159,10 @@ public class BrokerConfiguration {
      * 用于分发任务
      */
     @Bean
-    public TaskDispatcher taskDispatcher(WorkerManager workerManager, WorkerSelectorFactory factory, WorkerStatisticsRepository statisticsRepository) {
-        return new TaskDispatcher(workerManager, factory, statisticsRepository);
+    public TaskDispatcher taskDispatcher(WorkerManager workerManager, WorkerSelectorFactory factory,
+                                         WorkerStatisticsRepository statisticsRepository, WorkerResourceReservations reservations) {
+        TaskSubmitCoalescer coalescer = new TaskSubmitCoalescer(brokerProperties.getTaskSubmitBatchSize(), brokerProperties.getTaskSubmitLinger());
+        return new TaskDispatcher(workerManager, factory, statisticsRepository, reservations, coalescer);
     }
 
     @Bean
@@ -146,8 +178,8 @@ public class BrokerConfiguration {
      * 元任务调度器
      */
     @Bean
-    public MetaTaskScheduler metaTaskScheduler() {
-        return new MetaTaskScheduler();
+    public MetaTaskScheduler metaTaskScheduler(PartitionedExecutor planSchedulePool, PartitionedExecutor taskSchedulePool) {
+        return new MetaTaskScheduler(planSchedulePool, taskSchedulePool);
     }
 
 
@@ -171,6 +203,7 @@ public class BrokerConfiguration {
                                         ScheduleStrategyFactory scheduleStrategyFactory) {
         return new TaskStatusCheckTask(
                 Duration.ofMillis(brokerProperties.getStatusCheckInterval()),
+                Duration.ofMillis(brokerProperties.getTaskDispatchTimeout()),
                 config,
                 nodeManger,
                 metaTaskScheduler,
@@ -179,26 +212,62 @@ public class BrokerConfiguration {
         );
     }
 
+    /**
+     * 元任务：可用 worker 同步到内存
+     */
+    @Bean
+    public MetaTask workerSyncTask(WorkerManager workerManager, MetaTaskScheduler metaTaskScheduler) {
+        return new WorkerSyncTask(Duration.ofMillis(brokerProperties.getWorkerSyncInterval()), workerManager, metaTaskScheduler);
+    }
+
+    /**
+     * Plan 触发执行器，按 planId 分区，保证同一个 Plan 的触发顺序
+     */
+    @Bean
+    public PartitionedExecutor planSchedulePool() {
+        return new PartitionedExecutor("plan-schedule", Runtime.getRuntime().availableProcessors() * 4, 256);
+    }
+
+    /**
+     * Task 下发执行器，按 taskId 分区
+     */
     @Bean
-    public ExecutorService planSchedulePool() {
-        return new ThreadPoolExecutor(
-                Runtime.getRuntime().availableProcessors() * 4,
-                Runtime.getRuntime().availableProcessors() * 4,
-                60,
-                TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(256),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+    public PartitionedExecutor taskSchedulePool() {
+        return new PartitionedExecutor("task-schedule", Runtime.getRuntime().availableProcessors() * 8, 1024);
     }
 
+    /**
+     * 槽位租约，调度写入时校验
+     */
+    @Bean
+    public SlotLeases slotLeases(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        return new SlotLeases(jdbcTemplate, transactionTemplate);
+    }
+
+    /**
+     * Task 状态更新缓冲，多个 task 的状态更新合并为批量语句提交
+     */
+    @Bean
+    public TaskStatusBuffer taskStatusBuffer(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        return new TaskStatusBuffer(jdbcTemplate, transactionTemplate,
+                brokerProperties.getTaskStatusBatchSize(), brokerProperties.getTaskStatusFlushInterval(),
+                brokerProperties.getTaskStatusAwaitTimeout());
+    }
+
+    /**
+     * map 任务分批创建，按窗口下发
+     */
+    @Bean
+    public MapTaskMaterializer mapTaskMaterializer() {
+        return new MapTaskMaterializer(brokerProperties.getMapTaskChunkSize(), brokerProperties.getMapTaskWindowSize());
+    }
+
+    /**
+     * Task 下发发件箱，调用 worker 的下发请求在独立的线程池中执行，不占用数据库事务
+     */
     @Bean
-    public ExecutorService taskSchedulePool() {
-        return new ThreadPoolExecutor(
-                Runtime.getRuntime().availableProcessors() * 8,
-                Runtime.getRuntime().availableProcessors() * 8,
-                60,
-                TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(1024),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+    public TaskDispatchOutbox taskDispatchOutbox() {
+        return new TaskDispatchOutbox(new PartitionedExecutor("task-dispatch", Runtime.getRuntime().availableProcessors() * 8, 1024));
     }
 
 }
@@ -28,4 +28,59 @@ public class BrokerProperties extends BrokerConfig {
      */
     private long statusCheckInterval = 10000;
 
+    /**
+     * 可用 worker 从数据库同步到内存的间隔 毫秒
+     */
+    private long workerSyncInterval = 10000;
+
+    /**
+     * 与 worker 通信的连接超时 毫秒
+     */
+    private long workerRpcConnectTimeout = 10000;
+
+    /**
+     * 与 worker 通信的读超时 毫秒
+     */
+    private long workerRpcReadTimeout = 10000;
+
+    /**
+     * task 下发超时 毫秒，下发中超过该时间的 task 由状态检查重新下发，需要大于与 worker 通信的超时
+     */
+    private long taskDispatchTimeout = 60000;
+
+    /**
+     * task 状态更新批量提交的最大条数
+     */
+    private int taskStatusBatchSize = 256;
+
+    /**
+     * task 状态更新攒批的最长等待时间 毫秒
+     */
+    private long taskStatusFlushInterval = 2;
+
+    /**
+     * task 状态更新等待提交的最长时间 毫秒，提交被阻塞超过该时间后，尚未提交的更新由调用方直接执行
+     */
+    private long taskStatusAwaitTimeout = 1000;
+
+    /**
+     * 发往同一个 worker 的 task 合并为一次请求的最大条数，为 1 时不合并
+     */
+    private int taskSubmitBatchSize = 64;
+
+    /**
+     * task 下发等待攒批的最长时间 毫秒
+     */
+    private long taskSubmitLinger = 2;
+
+    /**
+     * map 任务每批插入的数量
+     */
+    private int mapTaskChunkSize = 1000;
+
+    /**
+     * 每个 job 实例同时在调度中的 map 任务数量
+     */
+    private int mapTaskWindowSize = 1000;
+
 }
@@ -22,7 +22,9 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.Setter;
 import org.limbo.flowjob.api.ResponseDTO;
+import org.limbo.flowjob.api.remote.dto.ReduceInputPageDTO;
 import org.limbo.flowjob.api.remote.dto.WorkerRegisterDTO;
+import org.limbo.flowjob.api.remote.param.ReduceInputQueryParam;
 import org.limbo.flowjob.api.remote.param.TaskFeedbackParam;
 import org.limbo.flowjob.api.remote.param.WorkerHeartbeatParam;
 import org.limbo.flowjob.api.remote.param.WorkerRegisterParam;
@@ -85,4 +87,14 @@ public class WorkerRpcController {
         return ResponseDTO.<Void>builder().ok().build();
     }
 
+    /**
+     * 分页拉取 reduce 任务需要合并的结果，reduce 任务执行时使用
+     */
+    @Operation(summary = "分页拉取reduce任务输入")
+    @PostMapping("/task/{taskId}/reduce-inputs")
+    public ResponseDTO<ReduceInputPageDTO> reduceInputs(@Validated @NotNull(message = "no taskId") @PathVariable("taskId") String taskId,
+                                                        @RequestBody ReduceInputQueryParam param) {
+        return ResponseDTO.<ReduceInputPageDTO>builder().ok(taskService.pageReduceInputs(taskId, param)).build();
+    }
+
 }
@@ -115,6 +115,7 @@ public class PlanConverter {
                 .retry(param.getRetry())
                 .retryInterval(param.getRetryInterval())
                 .tagFilter(null) // TODO v1
+                .reduceFanIn(param.getReduceFanIn())
                 .build();
     }
 
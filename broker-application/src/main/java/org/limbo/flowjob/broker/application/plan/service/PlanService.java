@@ -18,14 +18,17 @@ import org.limbo.flowjob.broker.core.domain.IDType;
 import org.limbo.flowjob.broker.core.domain.job.JobInfo;
 import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInfo;
 import org.limbo.flowjob.broker.dao.entity.JobInfoEntity;
+import org.limbo.flowjob.broker.dao.entity.PlanChangeEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanInfoEntity;
 import org.limbo.flowjob.broker.dao.entity.PlanSlotEntity;
 import org.limbo.flowjob.broker.dao.repositories.JobInfoEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.PlanChangeEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanInfoEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanSlotEntityRepo;
 import org.limbo.flowjob.common.constants.MsgConstants;
+import org.limbo.flowjob.common.constants.PlanChangeType;
 import org.limbo.flowjob.common.constants.PlanType;
 import org.limbo.flowjob.common.exception.VerifyException;
 import org.limbo.flowjob.common.utils.Verifies;
@@ -66,6 +69,9 @@ public class PlanService {
     @Setter(onMethod_ = @Inject)
     private JobInfoEntityRepo jobInfoEntityRepo;
 
+    @Setter(onMethod_ = @Inject)
+    private PlanChangeEntityRepo planChangeEntityRepo;
+
     @Setter(onMethod_ = @Inject)
     private IDGenerator idGenerator;
 
@@ -89,6 +95,7 @@ public class PlanService {
 
         String planInfoId = idGenerator.generateId(IDType.PLAN_INFO);
 
+        int slot;
         if (StringUtils.isBlank(planId)) {
             planId = idGenerator.generateId(IDType.PLAN);
 
@@ -106,6 +113,7 @@ public class PlanService {
             planSlotEntity.setSlot(slotManager.slot(planEntity.getPlanId()));
             planSlotEntity.setPlanId(planEntity.getPlanId());
             planSlotEntityRepo.saveAndFlush(planSlotEntity);
+            slot = planSlotEntity.getSlot();
         } else {
             PlanEntity planEntity = planEntityRepo.findById(planId).orElse(null);
 
@@ -116,6 +124,7 @@ public class PlanService {
             if (effected <= 0) {
                 throw new IllegalStateException("更新Plan版本失败");
             }
+            slot = slotManager.slot(planId);
         }
 
         PlanInfoEntity planInfoEntity = new PlanInfoEntity();
@@ -159,6 +168,8 @@ public class PlanService {
         // 保存版本信息
         planInfoEntityRepo.saveAndFlush(planInfoEntity);
 
+        saveChange(planId, planInfoId, slot, PlanChangeType.VERSION_CHANGE);
+
         return planId;
     }
 
@@ -178,7 +189,12 @@ public class PlanService {
             return true;
         }
 
-        return planEntityRepo.updateEnable(planEntity.getPlanId(), false, true) == 1;
+        if (planEntityRepo.updateEnable(planEntity.getPlanId(), false, true) != 1) {
+            return false;
+        }
+
+        saveChange(planEntity.getPlanId(), planEntity.getCurrentVersion(), slotManager.slot(planId), PlanChangeType.ENABLE);
+        return true;
     }
 
     /**
@@ -198,7 +214,24 @@ public class PlanService {
         }
 
         // 停用计划
-        return planEntityRepo.updateEnable(planEntity.getPlanId(), true, false) == 1;
+        if (planEntityRepo.updateEnable(planEntity.getPlanId(), true, false) != 1) {
+            return false;
+        }
+
+        saveChange(planEntity.getPlanId(), planEntity.getCurrentVersion(), slotManager.slot(planId), PlanChangeType.DISABLE);
+        return true;
+    }
+
+    /**
+     * 记录变更日志，与变更在同一事务中提交，broker 通过变更日志感知 Plan 的变化
+     */
+    private void saveChange(String planId, String planInfoId, int slot, PlanChangeType changeType) {
+        PlanChangeEntity change = new PlanChangeEntity();
+        change.setPlanId(planId);
+        change.setPlanInfoId(planInfoId);
+        change.setSlot(slot);
+        change.setChangeType(changeType.type);
+        planChangeEntityRepo.saveAndFlush(change);
     }
 
     public PageDTO<PlanVO> page(PlanQueryParam param) {
@@ -18,8 +18,12 @@
 
 package org.limbo.flowjob.broker.application.plan.service;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.limbo.flowjob.api.remote.dto.ReduceInputPageDTO;
+import org.limbo.flowjob.api.remote.param.ReduceInputQueryParam;
 import org.limbo.flowjob.api.remote.param.TaskFeedbackParam;
 import org.limbo.flowjob.broker.core.domain.task.Task;
 import org.limbo.flowjob.broker.core.schedule.strategy.IScheduleStrategy;
@@ -28,11 +32,16 @@ import org.limbo.flowjob.broker.dao.converter.DomainConverter;
 import org.limbo.flowjob.broker.dao.entity.TaskEntity;
 import org.limbo.flowjob.broker.dao.repositories.TaskEntityRepo;
 import org.limbo.flowjob.common.constants.ExecuteResult;
+import org.limbo.flowjob.common.constants.TaskType;
 import org.limbo.flowjob.common.utils.Verifies;
+import org.limbo.flowjob.common.utils.json.JacksonUtils;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
 import javax.transaction.Transactional;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Devil
@@ -42,6 +51,16 @@ import javax.transaction.Transactional;
 @Service
 public class TaskService {
 
+    /**
+     * 分页拉取 reduce 输入时，默认的每页条数
+     */
+    private static final int DEFAULT_REDUCE_INPUT_PAGE_SIZE = 100;
+
+    /**
+     * 分页拉取 reduce 输入时，每页条数上限，避免 worker 一次拉取过多结果
+     */
+    private static final int MAX_REDUCE_INPUT_PAGE_SIZE = 1000;
+
     @Setter(onMethod_ = @Inject)
     private TaskEntityRepo taskEntityRepo;
 
@@ -89,4 +108,43 @@ public class TaskService {
         }
     }
 
+
+    /**
+     * 按自增 id 游标分页查询 reduce 任务需要合并的结果，供 worker 执行 reduce 时拉取。
+     * 第 1 层 reduce 合并 map 任务的结果，更高层的 reduce 合并上一层 reduce 任务的结果
+     *
+     * @param taskId reduce 任务 id
+     * @param param 分页参数
+     */
+    public ReduceInputPageDTO pageReduceInputs(String taskId, ReduceInputQueryParam param) {
+        TaskEntity reduceTask = taskEntityRepo.findById(taskId).orElse(null);
+        Verifies.notNull(reduceTask, "task is null");
+        Verifies.verify(TaskType.REDUCE.is(reduceTask.getType()), "task is not a reduce task");
+
+        int level = reduceTask.getReduceLevel() == null || reduceTask.getReduceLevel() <= 0 ? 1 : reduceTask.getReduceLevel();
+        TaskType inputType = level == 1 ? TaskType.MAP : TaskType.REDUCE;
+        long fromId = reduceTask.getReduceFromId() == null ? 0L : reduceTask.getReduceFromId();
+        long toId = reduceTask.getReduceToId() == null ? Long.MAX_VALUE : reduceTask.getReduceToId();
+
+        long cursor = param.getCursor() == null ? 0L : param.getCursor();
+        int size = param.getSize() == null || param.getSize() <= 0
+                ? DEFAULT_REDUCE_INPUT_PAGE_SIZE : Math.min(param.getSize(), MAX_REDUCE_INPUT_PAGE_SIZE);
+
+        List<TaskEntity> entities = taskEntityRepo.findByJobInstanceIdAndTypeAndReduceLevelAndIdBetweenOrderByIdAsc(
+                reduceTask.getJobInstanceId(), inputType.type, level - 1, Math.max(cursor + 1, fromId), toId, PageRequest.of(0, size)
+        );
+
+        ReduceInputPageDTO page = new ReduceInputPageDTO();
+        for (TaskEntity entity : entities) {
+            if (StringUtils.isBlank(entity.getResult())) {
+                continue;
+            }
+            page.getResults().add(JacksonUtils.parseObject(entity.getResult(), new TypeReference<Map<String, Object>>() {
+            }));
+        }
+        page.setCursor(entities.isEmpty() ? cursor : entities.get(entities.size() - 1).getId());
+        page.setHasMore(entities.size() >= size);
+        return page;
+    }
+
 }
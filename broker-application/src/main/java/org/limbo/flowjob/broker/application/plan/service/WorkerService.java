@@ -24,6 +24,7 @@ import org.limbo.flowjob.api.remote.param.WorkerRegisterParam;
 import org.limbo.flowjob.broker.application.plan.converter.WorkerConverter;
 import org.limbo.flowjob.broker.application.plan.support.WorkerFactory;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.cluster.WorkerManager;
 import org.limbo.flowjob.broker.core.domain.IDGenerator;
 import org.limbo.flowjob.broker.core.domain.IDType;
 import org.limbo.flowjob.broker.core.worker.Worker;
@@ -50,6 +51,9 @@ public class WorkerService {
     @Setter(onMethod_ = @Inject)
     private WorkerRepository workerRepository;
 
+    @Setter(onMethod_ = @Inject)
+    private WorkerManager workerManager;
+
     @Setter(onMethod_ = @Inject)
     private NodeManger nodeManger;
 
@@ -86,8 +90,8 @@ public class WorkerService {
                 WorkerConverter.toWorkerMetric(options)
         );
 
-        // 保存 worker
-        workerRepository.save(worker);
+        // 保存 worker，同时更新内存中的注册表
+        workerManager.registerWorker(worker);
         log.info("worker registered " + worker);
 
         return WorkerConverter.toRegisterDTO(worker, nodeManger.allAlive());
@@ -100,7 +104,7 @@ public class WorkerService {
     @Transactional(rollbackOn = Throwable.class)
     public WorkerRegisterDTO heartbeat(String workerId, WorkerHeartbeatParam option) {
         // 查询worker并校验
-        Worker worker = workerRepository.get(workerId);
+        Worker worker = workerManager.get(workerId);
         Verifies.requireNotNull(worker, "worker不存在！");
 
         // 更新metric
@@ -24,25 +24,33 @@ import org.limbo.flowjob.broker.core.cluster.NodeManger;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 内存中缓存的 broker节点信息
+ * 内存中缓存的 broker节点信息。成员版本号只记录本节点观察到的成员变化，各节点之间不一致，
+ * 跨节点的写入校验使用数据库中的槽位租约版本
  *
  * @author Devil
  * @since 2022/7/20
  */
 public class NodeMangerImpl implements NodeManger {
 
-    private static final Map<String, Node> map = new ConcurrentHashMap<>();
+    private final Map<String, Node> map = new ConcurrentHashMap<>();
+
+    private final AtomicLong epoch = new AtomicLong();
 
     @Override
     public void online(Node node) {
-        map.putIfAbsent(node.getName(), node);
+        if (map.putIfAbsent(node.getName(), node) == null) {
+            epoch.incrementAndGet();
+        }
     }
 
     @Override
     public void offline(Node node) {
-        map.remove(node.getName());
+        if (map.remove(node.getName()) != null) {
+            epoch.incrementAndGet();
+        }
     }
 
     @Override
@@ -55,4 +63,9 @@ public class NodeMangerImpl implements NodeManger {
         return map.values();
     }
 
+    @Override
+    public long epoch() {
+        return epoch.get();
+    }
+
 }
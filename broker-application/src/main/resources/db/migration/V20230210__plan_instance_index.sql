@@ -0,0 +1,7 @@
+--
+-- 加载plan时按plan_id批量查询最近一次触发/反馈时间
+--
+
+ALTER TABLE `flowjob_plan_instance`
+    ADD KEY `idx_plan_trigger_at` (`plan_id`, `trigger_at`),
+    ADD KEY `idx_plan_feedback_at` (`plan_id`, `feedback_at`);
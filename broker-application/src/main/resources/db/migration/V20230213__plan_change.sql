@@ -0,0 +1,17 @@
+--
+-- Plan 变更日志，broker 通过自增id作为游标按顺序消费
+--
+
+CREATE TABLE `flowjob_plan_change`
+(
+    `id`           bigint unsigned NOT NULL AUTO_INCREMENT,
+    `plan_id`      varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
+    `plan_info_id` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
+    `slot`         int                                                    NOT NULL,
+    `change_type`  tinyint                                                NOT NULL,
+    `is_deleted`   bit(1)                                                 NOT NULL DEFAULT 0,
+    `created_at`   datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    `updated_at`   datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`),
+    KEY            `idx_slot_id` (`slot`, `id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
@@ -0,0 +1,8 @@
+--
+-- 同一 plan 的同一次触发只会创建一条调度记录，触发时通过 insert ignore 保证幂等，不再对 plan 加行锁
+-- 唯一键的前缀 (plan_id, trigger_at) 可以替代原有的 idx_plan_trigger_at
+--
+
+ALTER TABLE `flowjob_plan_instance`
+    ADD UNIQUE KEY `uk_plan_trigger` (`plan_id`, `trigger_at`, `trigger_type`),
+    DROP KEY `idx_plan_trigger_at`;
@@ -0,0 +1,13 @@
+--
+-- job 实例当前阶段的 task 完成计数，task 进入终态时在同一条语句中累加，判断阶段是否完成无需再查询全部 task
+-- task、job 实例的更新都按业务 id 进行，补充对应的唯一索引
+--
+
+ALTER TABLE `flowjob_job_instance`
+    ADD COLUMN `task_total`   int NOT NULL DEFAULT 0 AFTER `error_msg`,
+    ADD COLUMN `task_succeed` int NOT NULL DEFAULT 0 AFTER `task_total`,
+    ADD COLUMN `task_failed`  int NOT NULL DEFAULT 0 AFTER `task_succeed`,
+    ADD UNIQUE KEY `uk_job_instance_id` (`job_instance_id`);
+
+ALTER TABLE `flowjob_task`
+    ADD UNIQUE KEY `uk_task_id` (`task_id`);
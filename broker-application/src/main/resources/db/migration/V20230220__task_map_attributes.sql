@@ -0,0 +1,7 @@
+--
+-- map 任务分批创建、按窗口下发，下发时从库中加载 task，需要保存 map 任务的参数
+--
+
+ALTER TABLE `flowjob_task`
+    ADD COLUMN `map_attributes` text COLLATE utf8mb4_bin DEFAULT NULL AFTER `attributes`,
+    ADD KEY `idx_job_instance_type_status` (`job_instance_id`, `type`, `status`);
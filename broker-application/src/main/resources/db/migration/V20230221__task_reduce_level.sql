@@ -0,0 +1,10 @@
+--
+-- 树形 reduce：reduce 任务分层执行，每个 reduce 任务只合并上一层中 id 在 [reduce_from_id, reduce_to_id] 内的结果
+-- map 任务为第 0 层，范围为空时表示合并上一层的全部结果
+--
+
+ALTER TABLE `flowjob_task`
+    ADD COLUMN `reduce_level` int NOT NULL DEFAULT 0 AFTER `map_attributes`,
+    ADD COLUMN `reduce_from_id` bigint DEFAULT NULL AFTER `reduce_level`,
+    ADD COLUMN `reduce_to_id` bigint DEFAULT NULL AFTER `reduce_from_id`,
+    ADD KEY `idx_job_instance_type_level` (`job_instance_id`, `type`, `reduce_level`, `id`);
@@ -0,0 +1,6 @@
+--
+-- 工作流按 plan 实例重建节点状态、确认前置节点状态时按 plan_instance_id、job_id 查询
+--
+
+ALTER TABLE `flowjob_job_instance`
+    ADD KEY `idx_plan_instance_job` (`plan_instance_id`, `job_id`);
@@ -0,0 +1,13 @@
+--
+-- 槽位租约：槽位归属发生变化时，新节点领取租约并递增 epoch，触发 plan 时校验租约，旧节点持有的 epoch 过期后无法再写入
+--
+
+CREATE TABLE `flowjob_slot_lease`
+(
+    `slot`       int                                                    NOT NULL,
+    `owner`      varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL DEFAULT '',
+    `epoch`      bigint unsigned                                        NOT NULL DEFAULT 0,
+    `created_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    `updated_at` datetime                                               NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`slot`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
@@ -0,0 +1,6 @@
+--
+-- task 进入下发中的时间，状态检查只重新下发超过下发超时时间仍未下发成功的 task，重新下发前需要先续期
+--
+
+ALTER TABLE `flowjob_task`
+    ADD COLUMN `dispatch_at` datetime(6) DEFAULT NULL AFTER `worker_id`;
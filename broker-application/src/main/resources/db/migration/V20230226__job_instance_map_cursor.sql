@@ -0,0 +1,6 @@
+--
+-- job 实例已经进入调度的最大的 map 任务自增 id，map 任务按窗口下发时从该位置继续加载，多个节点、节点重启后窗口不会丢失
+--
+
+ALTER TABLE `flowjob_job_instance`
+    ADD COLUMN `map_cursor` bigint unsigned NOT NULL DEFAULT 0 AFTER `task_failed`;
@@ -52,4 +52,14 @@ public class BrokerConfig {
      */
     protected long heartbeatTimeout = 10;
 
+    /**
+     * 槽位数量，集群内所有节点必须一致，修改后启动时会重新计算已有 plan 的槽位
+     */
+    protected int slotSize = 1024;
+
+    /**
+     * 槽位交接时间，毫秒。失去的槽位在此时间内仍由原节点调度，应大于 plan 加载间隔
+     */
+    protected long slotHandoffTime = 20000;
+
 }
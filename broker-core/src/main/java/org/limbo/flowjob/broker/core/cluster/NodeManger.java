@@ -47,4 +47,9 @@ public interface NodeManger {
      */
     Collection<Node> allAlive();
 
+    /**
+     * 本节点的成员版本号，节点上线、下线导致存活节点变化时递增，只用于判断本地缓存是否需要刷新
+     */
+    long epoch();
+
 }
@@ -18,6 +18,7 @@
 
 package org.limbo.flowjob.broker.core.cluster;
 
+import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
 import org.limbo.flowjob.broker.core.worker.Worker;
 import org.limbo.flowjob.broker.core.worker.WorkerRepository;
 
@@ -53,6 +54,19 @@ public interface WorkerManager {
      */
     List<Worker> availableWorkers();
 
+    /**
+     * 获取有指定执行器、且满足分发配置中标签过滤条件的可用 worker。
+     * @param executorName 执行器名称
+     * @param dispatchOption 作业分发配置，可以为 null
+     * @return 可用的worker。
+     */
+    List<Worker> availableWorkers(String executorName, DispatchOption dispatchOption);
+
+    /**
+     * 从持久化数据同步可用 worker，多个 broker 时由此获取其他 broker 上注册的 worker。
+     */
+    void syncWorkers();
+
     /**
      * 移除一个worker节点。
      * @param workerId worker id。
@@ -18,12 +18,17 @@
 
 package org.limbo.flowjob.broker.core.cluster;
 
+import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
 import org.limbo.flowjob.broker.core.worker.Worker;
 import org.limbo.flowjob.broker.core.worker.WorkerRepository;
+import org.limbo.flowjob.broker.core.worker.rpc.WorkerRpcFactory;
 
 import java.util.List;
 
 /**
+ * 可用 worker 保存在内存中的{@link WorkerRegistry}，注册、心跳时更新，并定期从{@link WorkerRepository}全量同步。
+ * worker 下线、移除时，清理{@link WorkerRpcFactory}中缓存的 RPC 客户端。
+ *
  * @author Devil
  * @since 2021/8/9
  */
@@ -33,13 +38,36 @@ public class WorkerManagerImpl implements WorkerManager {
      */
     private final WorkerRepository workerRepository;
 
+    private final WorkerRegistry registry = new WorkerRegistry();
+
+    /**
+     * 是否已经从 repository 同步过
+     */
+    private volatile boolean synced = false;
+
     public WorkerManagerImpl(WorkerRepository workerRepository) {
         this.workerRepository = workerRepository;
     }
 
+    /**
+     * {@inheritDoc}
+     * 内存中不存在时从 repository 查询，可用的 worker 会加入注册表。
+     *
+     * @param workerId workerId
+     * @return
+     */
     @Override
     public Worker get(String workerId) {
-        return workerRepository.get(workerId);
+        Worker worker = registry.get(workerId);
+        if (worker != null) {
+            return worker;
+        }
+
+        worker = workerRepository.get(workerId);
+        if (worker != null && worker.isAlive()) {
+            registry.put(worker);
+        }
+        return worker;
     }
 
     /**
@@ -51,6 +79,10 @@ public class WorkerManagerImpl implements WorkerManager {
     @Override
     public Worker registerWorker(Worker worker) {
         workerRepository.save(worker);
+        registry.put(worker);
+        if (!worker.isAlive()) {
+            WorkerRpcFactory.getInstance().evict(worker);
+        }
         return worker;
     }
 
@@ -61,7 +93,31 @@ public class WorkerManagerImpl implements WorkerManager {
      */
     @Override
     public List<Worker> availableWorkers() {
-        return workerRepository.listAvailableWorkers();
+        ensureSynced();
+        return registry.all();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param executorName 执行器名称
+     * @param dispatchOption 作业分发配置，可以为 null
+     * @return
+     */
+    @Override
+    public List<Worker> availableWorkers(String executorName, DispatchOption dispatchOption) {
+        ensureSynced();
+        return registry.find(executorName, dispatchOption);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void syncWorkers() {
+        List<Worker> removed = registry.sync(workerRepository.listAvailableWorkers());
+        removed.forEach(WorkerRpcFactory.getInstance()::evict);
+        synced = true;
     }
 
     /**
@@ -74,6 +130,23 @@ public class WorkerManagerImpl implements WorkerManager {
     public Worker unregisterWorker(String workerId) {
         Worker worker = workerRepository.get(workerId);
         workerRepository.delete(workerId);
+        Worker removed = registry.remove(workerId);
+        if (removed != null) {
+            WorkerRpcFactory.getInstance().evict(removed);
+        }
         return worker;
     }
+
+    /**
+     * 首次使用时同步一次，避免定时同步执行前注册表为空
+     */
+    private void ensureSynced() {
+        if (!synced) {
+            synchronized (this) {
+                if (!synced) {
+                    syncWorkers();
+                }
+            }
+        }
+    }
 }
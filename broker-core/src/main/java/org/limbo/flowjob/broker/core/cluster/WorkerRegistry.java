@@ -0,0 +1,256 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.cluster;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
+import org.limbo.flowjob.broker.core.dispatch.TagFilterOption;
+import org.limbo.flowjob.broker.core.dispatcher.WorkerFilter;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.core.worker.executor.WorkerExecutor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存中的可用 worker 注册表，维护执行器名称、标签到 worker 的倒排索引，下发时通过集合求交得到候选 worker。
+ * 写操作串行执行，读操作无锁；读取时索引与 worker 数据可能短暂不一致，因此候选结果会再经过{@link WorkerFilter}校验。
+ *
+ * @author Brozen
+ * @since 2023-02-23
+ */
+public class WorkerRegistry {
+
+    /**
+     * 可用的 worker，key 为 workerId
+     */
+    private final Map<String, Worker> workers = new ConcurrentHashMap<>();
+
+    /**
+     * 建立索引时 worker 的执行器和标签，worker 更新时据此移除旧索引
+     */
+    private final Map<String, IndexedKeys> indexedKeys = new HashMap<>();
+
+    /**
+     * 执行器名称 -> workerId
+     */
+    private final Map<String, Set<String>> executorIndex = new ConcurrentHashMap<>();
+
+    /**
+     * 标签名 -> workerId
+     */
+    private final Map<String, Set<String>> tagIndex = new ConcurrentHashMap<>();
+
+    /**
+     * 标签名 -> 标签值 -> workerId
+     */
+    private final Map<String, Map<String, Set<String>>> tagValueIndex = new ConcurrentHashMap<>();
+
+
+    /**
+     * 新增或更新 worker，不可用的 worker 会被移除
+     */
+    public synchronized void put(Worker worker) {
+        unindex(worker.getId());
+        if (!worker.isAlive() || Boolean.FALSE.equals(worker.getIsEnabled())) {
+            return;
+        }
+
+        IndexedKeys keys = new IndexedKeys(worker);
+        for (String executor : keys.executors) {
+            executorIndex.computeIfAbsent(executor, k -> ConcurrentHashMap.newKeySet()).add(worker.getId());
+        }
+        keys.tags.forEach((name, values) -> {
+            tagIndex.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).add(worker.getId());
+            Map<String, Set<String>> valueIndex = tagValueIndex.computeIfAbsent(name, k -> new ConcurrentHashMap<>());
+            for (String value : values) {
+                valueIndex.computeIfAbsent(value, k -> ConcurrentHashMap.newKeySet()).add(worker.getId());
+            }
+        });
+        indexedKeys.put(worker.getId(), keys);
+        workers.put(worker.getId(), worker);
+    }
+
+
+    /**
+     * 移除 worker
+     *
+     * @return 被移除的 worker，不存在时返回 null
+     */
+    public synchronized Worker remove(String workerId) {
+        return unindex(workerId);
+    }
+
+
+    /**
+     * 使用全量可用 worker 替换注册表中的数据，不在列表中的 worker 会被移除
+     *
+     * @return 被移除的 worker
+     */
+    public synchronized List<Worker> sync(Collection<Worker> availableWorkers) {
+        Set<String> ids = new HashSet<>();
+        for (Worker worker : availableWorkers) {
+            ids.add(worker.getId());
+            put(worker);
+        }
+
+        List<Worker> removed = new ArrayList<>();
+        for (String workerId : new ArrayList<>(workers.keySet())) {
+            if (!ids.contains(workerId)) {
+                removed.add(unindex(workerId));
+            }
+        }
+        return removed;
+    }
+
+
+    /**
+     * 根据 workerId 获取可用 worker
+     */
+    public Worker get(String workerId) {
+        return workers.get(workerId);
+    }
+
+
+    /**
+     * 所有可用 worker
+     */
+    public List<Worker> all() {
+        return new ArrayList<>(workers.values());
+    }
+
+
+    /**
+     * 可用 worker 数量
+     */
+    public int size() {
+        return workers.size();
+    }
+
+
+    /**
+     * 查找有指定执行器、且满足标签过滤条件的 worker。
+     *
+     * @param executorName 执行器名称
+     * @param dispatchOption 作业分发配置，可以为 null
+     */
+    public List<Worker> find(String executorName, DispatchOption dispatchOption) {
+        Set<String> candidates = executorIndex.getOrDefault(executorName, Collections.emptySet());
+
+        TagFilterOption tagFilter = dispatchOption == null ? null : dispatchOption.getTagFilter();
+        Set<String> tagCandidates = null;
+        if (tagFilter != null && tagFilter.requiresTagValue()) {
+            tagCandidates = tagValueIndex.getOrDefault(tagFilter.tagName, Collections.emptyMap())
+                    .getOrDefault(tagFilter.tagValue, Collections.emptySet());
+        } else if (tagFilter != null && tagFilter.requiresTag()) {
+            tagCandidates = tagIndex.getOrDefault(tagFilter.tagName, Collections.emptySet());
+        }
+
+        // 遍历较小的集合，在较大的集合中判断是否存在
+        Set<String> iterated = candidates;
+        Set<String> probed = tagCandidates;
+        if (tagCandidates != null && tagCandidates.size() < candidates.size()) {
+            iterated = tagCandidates;
+            probed = candidates;
+        }
+
+        List<Worker> found = new ArrayList<>();
+        for (String workerId : iterated) {
+            if (probed != null && !probed.contains(workerId)) {
+                continue;
+            }
+            Worker worker = workers.get(workerId);
+            if (worker != null) {
+                found.add(worker);
+            }
+        }
+
+        // 其余标签条件以及并发修改下的一致性，由过滤器校验
+        return WorkerFilter.filter(executorName, dispatchOption, found);
+    }
+
+
+    private Worker unindex(String workerId) {
+        Worker worker = workers.remove(workerId);
+        IndexedKeys keys = indexedKeys.remove(workerId);
+        if (keys == null) {
+            return worker;
+        }
+
+        for (String executor : keys.executors) {
+            removeFromIndex(executorIndex, executor, workerId);
+        }
+        keys.tags.forEach((name, values) -> {
+            removeFromIndex(tagIndex, name, workerId);
+            Map<String, Set<String>> valueIndex = tagValueIndex.get(name);
+            if (valueIndex != null) {
+                for (String value : values) {
+                    removeFromIndex(valueIndex, value, workerId);
+                }
+                if (valueIndex.isEmpty()) {
+                    tagValueIndex.remove(name);
+                }
+            }
+        });
+        return worker;
+    }
+
+
+    private void removeFromIndex(Map<String, Set<String>> index, String key, String workerId) {
+        Set<String> ids = index.get(key);
+        if (ids == null) {
+            return;
+        }
+        ids.remove(workerId);
+        if (ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+
+    /**
+     * 建立索引时 worker 的执行器名称与标签
+     */
+    private static class IndexedKeys {
+
+        private final List<String> executors = new ArrayList<>();
+
+        private final Map<String, List<String>> tags = new HashMap<>();
+
+        IndexedKeys(Worker worker) {
+            if (CollectionUtils.isNotEmpty(worker.getExecutors())) {
+                for (WorkerExecutor executor : worker.getExecutors()) {
+                    executors.add(executor.getName());
+                }
+            }
+            if (worker.getTags() != null) {
+                worker.getTags().forEach((name, values) -> tags.put(name, new ArrayList<>(values)));
+            }
+        }
+
+    }
+
+}
@@ -76,6 +76,12 @@ public class DispatchOption implements Serializable {
      */
     private TagFilterOption tagFilter;
 
+    /**
+     * MAP_REDUCE 作业树形 reduce 的扇入数，每个 reduce 任务最多合并这么多个上一层任务的结果。
+     * 为空或小于等于 1 时不启用树形 reduce，由一个 reduce 任务合并全部 map 结果
+     */
+    private Integer reduceFanIn;
+
 //    @JsonCreator // @JsonProperty("scheduleType") 不去掉mapstruct会用set方式，比较奇怪
 //    public DispatchOption(@JsonProperty("loadBalanceType") LoadBalanceType loadBalanceType,
 //                          @JsonProperty("retry") Integer retry,
@@ -16,13 +16,11 @@
 
 package org.limbo.flowjob.broker.core.dispatch;
 
-import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.broker.core.dispatcher.WorkerSelectArgument;
 import org.limbo.flowjob.broker.core.domain.task.Task;
 import org.limbo.flowjob.common.utils.attribute.Attributes;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -73,11 +71,6 @@ public class SimpleWorkerSelectArguments implements WorkerSelectArgument {
             putStringEntry(attr, task.getMapAttributes());
         }
 
-        List<Attributes> reduceAttrs = task.getReduceAttributes();
-        if (CollectionUtils.isNotEmpty(reduceAttrs)) {
-            reduceAttrs.forEach(a -> putStringEntry(attr, a));
-        }
-
         return attr;
     }
 
@@ -84,7 +84,23 @@ public class TagFilterOption {
     }
 
 
-    enum Condition {
+    /**
+     * 是否要求 worker 存在此标签，为 true 时可以通过标签名索引缩小候选 worker 范围
+     */
+    public boolean requiresTag() {
+        return this.condition != null && this.condition != Condition.NOT_EXISTS;
+    }
+
+
+    /**
+     * 是否要求标签匹配指定值，为 true 时可以通过标签值索引缩小候选 worker 范围
+     */
+    public boolean requiresTagValue() {
+        return this.condition == Condition.MUST_MATCH_VALUE;
+    }
+
+
+    public enum Condition {
 
         /**
          * 存在指定名称的标签
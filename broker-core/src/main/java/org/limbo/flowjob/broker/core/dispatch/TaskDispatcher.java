@@ -22,6 +22,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.limbo.flowjob.broker.core.cluster.WorkerManager;
+import org.limbo.flowjob.broker.core.dispatcher.WorkerResourceReservations;
 import org.limbo.flowjob.broker.core.dispatcher.WorkerSelector;
 import org.limbo.flowjob.broker.core.dispatcher.WorkerSelectorFactory;
 import org.limbo.flowjob.broker.core.domain.task.Task;
@@ -30,9 +31,9 @@ import org.limbo.flowjob.broker.core.statistics.WorkerStatisticsRepository;
 import org.limbo.flowjob.broker.core.worker.Worker;
 import org.limbo.flowjob.common.constants.TaskStatus;
 
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
  * @author Devil
@@ -47,10 +48,26 @@ public class TaskDispatcher {
 
     private final WorkerStatisticsRepository statisticsRepository;
 
-    public TaskDispatcher(WorkerManager workerManager, WorkerSelectorFactory workerSelectorFactory, WorkerStatisticsRepository statisticsRepository) {
+    private final WorkerResourceReservations reservations;
+
+    private final TaskSubmitCoalescer coalescer;
+
+    public TaskDispatcher(WorkerManager workerManager, WorkerSelectorFactory workerSelectorFactory,
+                          WorkerStatisticsRepository statisticsRepository, WorkerResourceReservations reservations) {
+        this(workerManager, workerSelectorFactory, statisticsRepository, reservations, new TaskSubmitCoalescer(1, 0));
+    }
+
+    /**
+     * @param coalescer 将发往同一个 worker 的 task 合并为批量请求
+     */
+    public TaskDispatcher(WorkerManager workerManager, WorkerSelectorFactory workerSelectorFactory,
+                          WorkerStatisticsRepository statisticsRepository, WorkerResourceReservations reservations,
+                          TaskSubmitCoalescer coalescer) {
         this.workerManager = workerManager;
         this.workerSelectorFactory = workerSelectorFactory;
         this.statisticsRepository = statisticsRepository;
+        this.reservations = reservations;
+        this.coalescer = coalescer;
     }
 
     /**
@@ -66,7 +83,7 @@ public class TaskDispatcher {
             throw new JobDispatchException(task.getJobId(), task.getTaskId(), "Cannot startup context due to current status: " + task.getStatus());
         }
 
-        if (StringUtils.isBlank(task.getWorkerId())) {
+        if (StringUtils.isNotBlank(task.getWorkerId())) {
             return dispatchWithWorkerId(task);
         } else {
             return dispatchNoWorker(task);
@@ -81,7 +98,7 @@ public class TaskDispatcher {
 
         try {
             // 发送任务到worker，根据worker返回结果，更新状态
-            boolean dispatched = worker.sendTask(task);
+            boolean dispatched = sendTask(task, worker);
             if (dispatched) {
                 onDispatchSucceed(task, worker);
                 return true;
@@ -98,21 +115,23 @@ public class TaskDispatcher {
     }
 
     private boolean dispatchNoWorker(Task task) {
-        List<Worker> availableWorkers = workerManager.availableWorkers();
+        List<Worker> availableWorkers = workerManager.availableWorkers(task.getExecutorName(), task.getDispatchOption());
         if (CollectionUtils.isEmpty(availableWorkers)) {
             return false;
         }
-        WorkerSelector workerSelector = workerSelectorFactory.newSelector(task.getDispatchOption().getLoadBalanceType());
+        WorkerSelector workerSelector = workerSelectorFactory.getSelector(task.getDispatchOption().getLoadBalanceType());
+        SimpleWorkerSelectArguments args = new SimpleWorkerSelectArguments(task);
+        // 重试时排除已经尝试过的 worker，候选列表保持不变，避免有状态的 LB 策略重建哈希环、轮询索引
+        Set<String> triedWorkerIds = new HashSet<>();
         for (int i = 0; i < 3; i++) {
             try {
-                SimpleWorkerSelectArguments args = new SimpleWorkerSelectArguments(task);
-                Worker worker = workerSelector.select(args, availableWorkers);
+                Worker worker = workerSelector.select(args, availableWorkers, w -> !triedWorkerIds.contains(w.getId()));
                 if (worker == null) {
                     return false;
                 }
 
                 // 发送任务到worker，根据worker返回结果，更新状态
-                boolean dispatched = worker.sendTask(task);
+                boolean dispatched = sendTask(task, worker);
                 if (dispatched) {
                     onDispatchSucceed(task, worker);
                     return true;
@@ -120,7 +139,7 @@ public class TaskDispatcher {
                     onDispatchToWorkerFailed(task, worker);
                 }
 
-                availableWorkers = availableWorkers.stream().filter(w -> !Objects.equals(w.getId(), worker.getId())).collect(Collectors.toList());
+                triedWorkerIds.add(worker.getId());
             } catch (Exception e) {
                 log.error("Task dispatch with error task={}", task, e);
             }
@@ -132,6 +151,24 @@ public class TaskDispatcher {
     }
 
 
+    /**
+     * 预留任务所需资源后发送任务到 worker，发送失败或异常时释放预留。
+     * 同时发往同一个 worker 的任务会合并为一次批量请求，每个任务拿到自己的接受结果。
+     */
+    private boolean sendTask(Task task, Worker worker) {
+        reservations.reserve(worker, task.getDispatchOption());
+        boolean dispatched = false;
+        try {
+            dispatched = coalescer.submit(worker, task);
+            return dispatched;
+        } finally {
+            if (!dispatched) {
+                reservations.release(worker, task.getDispatchOption());
+            }
+        }
+    }
+
+
     /**
      * 下发任务到 worker 成功时的流程
      */
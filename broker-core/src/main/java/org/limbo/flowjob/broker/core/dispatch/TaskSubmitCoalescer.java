@@ -0,0 +1,243 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.dispatch;
+
+import org.limbo.flowjob.broker.core.domain.task.Task;
+import org.limbo.flowjob.broker.core.worker.Worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 将发往同一个 worker 的 task 合并为一次批量请求。
+ * 第一个加入批次的下发线程作为发送方，最多等待 linger 毫秒或者批次攒满 batchSize 个 task 后发送整批，
+ * 其他加入同一批次的下发线程阻塞到批次发送完成，拿到自己这个 task 的接受结果，与直接调用 worker 的语义一致。
+ * 批次按 worker 区分，一个 worker 响应慢不会阻塞发往其他 worker 的批次；不额外创建线程。
+ * 批次中只有一个 task 时使用单个下发接口。
+ *
+ * @author Brozen
+ * @since 2023-02-24
+ */
+public class TaskSubmitCoalescer {
+
+    /**
+     * 默认一个批次的最大 task 数
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * 默认等待攒批的最长时间 毫秒
+     */
+    public static final long DEFAULT_LINGER = 2;
+
+    private final int batchSize;
+
+    private final long lingerNanos;
+
+    /**
+     * 正在攒批的批次，key 为 workerId
+     */
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    /**
+     * 发送的请求数
+     */
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * 发送的 task 数
+     */
+    private final LongAdder tasks = new LongAdder();
+
+    public TaskSubmitCoalescer() {
+        this(DEFAULT_BATCH_SIZE, DEFAULT_LINGER);
+    }
+
+    /**
+     * @param batchSize 一个批次的最大 task 数，为 1 时不合并
+     * @param linger 等待攒批的最长时间 毫秒，为 0 时只合并同时到达的 task
+     */
+    public TaskSubmitCoalescer(int batchSize, long linger) {
+        if (batchSize <= 0 || linger < 0) {
+            throw new IllegalArgumentException("batchSize must be positive and linger must not be negative");
+        }
+
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(linger);
+    }
+
+
+    /**
+     * 发送 task 到 worker，阻塞到所在批次发送完成
+     * @return worker 是否接受了此 task
+     */
+    public boolean submit(Worker worker, Task task) {
+        if (batchSize == 1) {
+            requests.increment();
+            tasks.increment();
+            return worker.sendTask(task);
+        }
+
+        Submission submission = new Submission(task);
+        String workerId = worker.getId();
+        Batch batch;
+        boolean sender;
+        while (true) {
+            batch = batches.computeIfAbsent(workerId, id -> new Batch());
+            synchronized (batch) {
+                if (batch.closed) {
+                    // 批次已经开始发送，移除后重新创建
+                    batches.remove(workerId, batch);
+                    continue;
+                }
+
+                batch.submissions.add(submission);
+                sender = batch.submissions.size() == 1;
+                if (batch.submissions.size() >= batchSize) {
+                    close(workerId, batch);
+                    batch.notifyAll();
+                }
+            }
+            break;
+        }
+
+        if (sender) {
+            linger(workerId, batch);
+            send(worker, batch.submissions);
+        }
+        return submission.await();
+    }
+
+
+    /**
+     * 等待其他 task 加入批次，超时或者批次已满后关闭批次
+     */
+    private void linger(String workerId, Batch batch) {
+        synchronized (batch) {
+            long deadline = System.nanoTime() + lingerNanos;
+            long remaining;
+            while (!batch.closed && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(batch, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            close(workerId, batch);
+        }
+    }
+
+
+    private void close(String workerId, Batch batch) {
+        batch.closed = true;
+        batches.remove(workerId, batch);
+    }
+
+
+    /**
+     * 发送整个批次，并通知批次中的每个 task
+     */
+    private void send(Worker worker, List<Submission> submissions) {
+        requests.increment();
+        tasks.add(submissions.size());
+        try {
+            if (submissions.size() == 1) {
+                Submission submission = submissions.get(0);
+                submission.result.complete(worker.sendTask(submission.task));
+                return;
+            }
+
+            List<Task> batchTasks = new ArrayList<>(submissions.size());
+            for (Submission submission : submissions) {
+                batchTasks.add(submission.task);
+            }
+            List<Boolean> accepted = worker.sendTasks(batchTasks);
+            for (int i = 0; i < submissions.size(); i++) {
+                submissions.get(i).result.complete(i < accepted.size() && Boolean.TRUE.equals(accepted.get(i)));
+            }
+        } catch (Throwable e) {
+            for (Submission submission : submissions) {
+                submission.result.completeExceptionally(e);
+            }
+        }
+    }
+
+
+    /**
+     * 发送的请求数
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * 发送的 task 数
+     */
+    public long getTaskCount() {
+        return tasks.sum();
+    }
+
+
+    /**
+     * 发往同一个 worker 的一批 task，关闭后不再加入 task
+     */
+    private static class Batch {
+
+        private final List<Submission> submissions = new ArrayList<>();
+
+        private boolean closed = false;
+
+    }
+
+
+    private static class Submission {
+
+        private final Task task;
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private Submission(Task task) {
+            this.task = task;
+        }
+
+        private boolean await() {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while sending task " + task.getTaskId(), e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("send task fail " + task.getTaskId(), cause);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.dispatcher;
+
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
+import org.limbo.flowjob.common.constants.LoadBalanceType;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * {@link LoadBalanceType#BEST_FIT} 资源最佳匹配选择器。
+ * 在资源满足作业需求的 Worker 中，选择放入作业后剩余资源最少的，尽量把作业集中在已有负载的 Worker 上，
+ * 为资源需求大的作业保留空闲的 Worker。
+ *
+ * @author Brozen
+ * @since 2023-02-23
+ */
+public class BestFitWorkerSelector extends FilteringWorkerSelector {
+
+    private final WorkerResourceReservations reservations;
+
+    public BestFitWorkerSelector(WorkerResourceReservations reservations) {
+        super(null, reservations);
+        this.reservations = reservations;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * 作业有 CPU、内存需求时，按需求占可用资源的比例之和评分，比例越大越匹配；
+     * 没有资源需求时，选择任务队列剩余空位最少的 Worker。
+     *
+     * @param args worker 选择参数
+     * @param workers 有执行器且满足标签过滤的 worker
+     * @param selectable worker 是否可以被选中
+     */
+    @Override
+    protected Worker doSelect(WorkerSelectArgument args, List<Worker> workers, Predicate<Worker> selectable) {
+        float cpu = WorkerResourceReservations.cpuRequirement(args.getDispatchOption());
+        float ram = WorkerResourceReservations.ramRequirement(args.getDispatchOption());
+
+        Worker selected = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (Worker worker : workers) {
+            if (!selectable.test(worker)) {
+                continue;
+            }
+            WorkerAvailableResource available = reservations.available(worker);
+            double score = available == null ? Double.NEGATIVE_INFINITY : score(available, cpu, ram);
+            if (selected == null || score > bestScore) {
+                selected = worker;
+                bestScore = score;
+            }
+        }
+        return selected;
+    }
+
+
+    private double score(WorkerAvailableResource available, float cpu, float ram) {
+        if (cpu <= 0 && ram <= 0) {
+            return -available.getAvailableQueueLimit();
+        }
+
+        double score = 0;
+        if (cpu > 0) {
+            score += cpu / Math.max(available.getAvailableCpu(), cpu);
+        }
+        if (ram > 0) {
+            score += ram / Math.max(available.getAvailableRam(), ram);
+        }
+        return score;
+    }
+
+}
@@ -19,16 +19,12 @@
 package org.limbo.flowjob.broker.core.dispatcher;
 
 import org.apache.commons.collections4.CollectionUtils;
-import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
-import org.limbo.flowjob.broker.core.dispatch.TagFilterOption;
 import org.limbo.flowjob.broker.core.worker.Worker;
-import org.limbo.flowjob.broker.core.worker.executor.WorkerExecutor;
 import org.limbo.flowjob.common.lb.LBStrategy;
 import org.limbo.flowjob.common.lb.RPCInvocation;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 /**
  * @author Brozen
@@ -38,8 +34,18 @@ public class FilteringWorkerSelector implements WorkerSelector {
 
     private final LBStrategy<Worker> strategy;
 
+    /**
+     * 资源预留，为 null 时不根据资源过滤 Worker
+     */
+    private final WorkerResourceReservations reservations;
+
     public FilteringWorkerSelector(LBStrategy<Worker> strategy) {
+        this(strategy, null);
+    }
+
+    public FilteringWorkerSelector(LBStrategy<Worker> strategy, WorkerResourceReservations reservations) {
         this.strategy = strategy;
+        this.reservations = reservations;
     }
 
     /**
@@ -50,6 +56,19 @@ public class FilteringWorkerSelector implements WorkerSelector {
      */
     @Override
     public Worker select(WorkerSelectArgument args, List<Worker> workers) {
+        return select(args, workers, worker -> true);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * @param args worker 选择参数
+     * @param workers 待下发上下文可用的worker
+     * @param acceptable worker 是否可以被选择
+     * @return
+     */
+    @Override
+    public Worker select(WorkerSelectArgument args, List<Worker> workers, Predicate<Worker> acceptable) {
         if (CollectionUtils.isEmpty(workers)) {
             return null;
         }
@@ -60,49 +79,26 @@ public class FilteringWorkerSelector implements WorkerSelector {
             return null;
         }
 
-        // 从过滤出的 worker 中，选择合适的
-        return doSelect(args, availableWorkers);
+        // 从过滤出的 worker 中，选择满足条件且资源足够的
+        return doSelect(args, availableWorkers, worker -> acceptable.test(worker) && fits(args, worker));
     }
 
 
     /**
      * 过滤 Worker，从入参 worker 列表中选择合适的 Worker 作为 LB 策略的候选项。
-     * 目前过滤条件有：
-     * 1. executor 过滤
-     * 2. tag 过滤
+     * 过滤条件见 {@link WorkerFilter}。剩余资源是瞬时数据，不参与候选项过滤，见 {@link #fits}
      */
     protected List<Worker> filterWorkers(WorkerSelectArgument args, List<Worker> workers) {
-        DispatchOption dispatchOption = args.getDispatchOption();
-        String executorName = args.getExecutorName();
-        List<Worker> availableWorkers = new ArrayList<>();
-
-        // 过滤出有指定 executor 的 Worker
-        WORKER:
-        for (Worker worker : workers) {
-            List<WorkerExecutor> executors = worker.getExecutors();
-            if (CollectionUtils.isEmpty(executors)) {
-                continue;
-            }
-            // 判断是否有对应的执行器
-            for (WorkerExecutor executor : executors) {
-                if (executor.getName().equals(executorName)) {
-                    availableWorkers.add(worker);
-                    continue WORKER;
-                }
-            }
-        }
-
-        // TODO ??? 根据 CPU、内存剩余资源过滤
+        return WorkerFilter.filter(args.getExecutorName(), args.getDispatchOption(), workers);
+    }
 
-        // 根据标签过滤
-        TagFilterOption tagFilter = dispatchOption.getTagFilter();
-        if (tagFilter != null) {
-            availableWorkers = availableWorkers.stream()
-                    .filter(tagFilter.asPredicate())
-                    .collect(Collectors.toList());
-        }
 
-        return availableWorkers;
+    /**
+     * 扣除预留后 CPU、内存满足作业需求，且任务队列未满的 Worker 才能被选中，见{@link WorkerResourceReservations#fits}。
+     * 不满足的 Worker 仍保留在候选项中，有状态的 LB 策略不会因剩余资源变化而重建哈希环、轮询索引，只在选择时跳过。
+     */
+    protected boolean fits(WorkerSelectArgument args, Worker worker) {
+        return reservations == null || reservations.fits(worker, args.getDispatchOption());
     }
 
 
@@ -112,13 +108,14 @@ public class FilteringWorkerSelector implements WorkerSelector {
      *
      * @param args 执行器名称
      * @param workers 待下发上下文可用的worker
+     * @param selectable worker 是否可以被选中，不满足的 worker 仍作为 LB 策略的候选项
      */
-    protected Worker doSelect(WorkerSelectArgument args, List<Worker> workers) {
+    protected Worker doSelect(WorkerSelectArgument args, List<Worker> workers, Predicate<Worker> selectable) {
         RPCInvocation lbInvocation = RPCInvocation.builder()
                 .path(args.getExecutorName())
                 .lbParameters(args.getAttributes())
                 .build();
-        return strategy.select(workers, lbInvocation).orElse(null);
+        return strategy.select(workers, lbInvocation, selectable).orElse(null);
     }
 
 }
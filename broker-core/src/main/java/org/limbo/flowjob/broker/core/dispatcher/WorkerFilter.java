@@ -0,0 +1,87 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.dispatcher;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
+import org.limbo.flowjob.broker.core.dispatch.TagFilterOption;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.core.worker.executor.WorkerExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Worker 过滤，选出有能力执行作业的 Worker。
+ * 单个 Worker 的下发选择和广播作业的目标解析使用同一套过滤条件：
+ * 1. executor 过滤
+ * 2. tag 过滤
+ *
+ * @author Brozen
+ * @since 2023-02-22
+ */
+public final class WorkerFilter {
+
+    private WorkerFilter() {
+    }
+
+    /**
+     * 从入参 worker 列表中过滤出有指定执行器、且满足标签过滤条件的 Worker
+     *
+     * @param executorName 执行器名称
+     * @param dispatchOption 作业分发配置，可以为 null
+     * @param workers 待过滤的 worker
+     */
+    public static List<Worker> filter(String executorName, DispatchOption dispatchOption, List<Worker> workers) {
+        List<Worker> availableWorkers = new ArrayList<>();
+        if (CollectionUtils.isEmpty(workers)) {
+            return availableWorkers;
+        }
+
+        TagFilterOption tagFilter = dispatchOption == null ? null : dispatchOption.getTagFilter();
+        Predicate<Worker> tagPredicate = tagFilter == null ? null : tagFilter.asPredicate();
+        for (Worker worker : workers) {
+            // CPU、内存剩余资源是瞬时数据，由 FilteringWorkerSelector 在下发选择时跳过，广播目标不受影响
+            if (hasExecutor(worker, executorName) && (tagPredicate == null || tagPredicate.test(worker))) {
+                availableWorkers.add(worker);
+            }
+        }
+        return availableWorkers;
+    }
+
+
+    /**
+     * 判断 Worker 是否有对应的执行器
+     */
+    private static boolean hasExecutor(Worker worker, String executorName) {
+        List<WorkerExecutor> executors = worker.getExecutors();
+        if (CollectionUtils.isEmpty(executors)) {
+            return false;
+        }
+
+        for (WorkerExecutor executor : executors) {
+            if (executor.getName().equals(executorName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
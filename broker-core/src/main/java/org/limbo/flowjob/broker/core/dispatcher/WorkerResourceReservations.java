@@ -0,0 +1,173 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.dispatcher;
+
+import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerMetric;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Worker 资源预留。Worker 通过心跳上报可用资源，两次心跳之间下发的任务不会反映在上报数据中，
+ * 下发时预留任务所需的资源，计算可用资源时从上报数据中扣除；收到新的心跳（指标对象被替换）后预留清零。
+ *
+ * @author Brozen
+ * @since 2023-02-23
+ */
+public class WorkerResourceReservations {
+
+    /**
+     * 各 Worker 的预留资源，key 为 workerId
+     */
+    private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+
+    /**
+     * 计算 Worker 扣除预留后的可用资源，Worker 未上报资源时返回 null
+     */
+    public WorkerAvailableResource available(Worker worker) {
+        WorkerMetric metric = worker.getMetric();
+        if (metric == null || metric.getAvailableResource() == null) {
+            return null;
+        }
+
+        WorkerAvailableResource reported = metric.getAvailableResource();
+        Reservation reservation = reservations.get(worker.getId());
+        if (reservation == null) {
+            return reported;
+        }
+        return reservation.subtract(metric);
+    }
+
+
+    /**
+     * 判断 Worker 扣除预留后的资源是否满足作业需求，并且任务队列还有空位。Worker 未上报资源时视为满足。
+     *
+     * @param worker worker
+     * @param dispatchOption 作业分发配置，可以为 null
+     */
+    public boolean fits(Worker worker, DispatchOption dispatchOption) {
+        WorkerAvailableResource available = available(worker);
+        if (available == null) {
+            return true;
+        }
+
+        return available.getAvailableQueueLimit() > 0
+                && available.getAvailableCpu() >= cpuRequirement(dispatchOption)
+                && available.getAvailableRam() >= ramRequirement(dispatchOption);
+    }
+
+
+    /**
+     * 估计 Worker 的任务队列负载，数值越小越空闲。
+     * 心跳只上报任务队列剩余空位，取上报的剩余空位扣除心跳后已下发任务数的相反数；未上报资源时为 0。
+     */
+    public double queueLoad(Worker worker) {
+        WorkerAvailableResource available = available(worker);
+        return available == null ? 0 : -available.getAvailableQueueLimit();
+    }
+
+
+    /**
+     * 任务下发给 Worker 前预留资源
+     */
+    public void reserve(Worker worker, DispatchOption dispatchOption) {
+        reservations.computeIfAbsent(worker.getId(), id -> new Reservation())
+                .add(worker.getMetric(), cpuRequirement(dispatchOption), ramRequirement(dispatchOption), 1);
+    }
+
+
+    /**
+     * 任务下发失败时释放预留的资源
+     */
+    public void release(Worker worker, DispatchOption dispatchOption) {
+        Reservation reservation = reservations.get(worker.getId());
+        if (reservation != null) {
+            reservation.add(worker.getMetric(), -cpuRequirement(dispatchOption), -ramRequirement(dispatchOption), -1);
+        }
+    }
+
+
+    /**
+     * 作业所需 CPU 核心数，未定义时为 0
+     */
+    public static float cpuRequirement(DispatchOption dispatchOption) {
+        return dispatchOption == null ? 0 : requirement(dispatchOption.getCpuRequirement());
+    }
+
+
+    /**
+     * 作业所需内存 GB 数，未定义时为 0
+     */
+    public static float ramRequirement(DispatchOption dispatchOption) {
+        return dispatchOption == null ? 0 : requirement(dispatchOption.getRamRequirement());
+    }
+
+
+    private static float requirement(BigDecimal requirement) {
+        return requirement == null || requirement.signum() <= 0 ? 0 : requirement.floatValue();
+    }
+
+
+    /**
+     * 基于某次上报指标的预留，指标对象变化说明收到了新的心跳，之前的预留已反映在新指标中
+     */
+    private static class Reservation {
+
+        private WorkerMetric basis;
+
+        private float cpu;
+
+        private float ram;
+
+        private int tasks;
+
+        synchronized void add(WorkerMetric metric, float cpu, float ram, int tasks) {
+            reset(metric);
+            this.cpu = Math.max(this.cpu + cpu, 0);
+            this.ram = Math.max(this.ram + ram, 0);
+            this.tasks = Math.max(this.tasks + tasks, 0);
+        }
+
+        synchronized WorkerAvailableResource subtract(WorkerMetric metric) {
+            reset(metric);
+            WorkerAvailableResource reported = metric.getAvailableResource();
+            return new WorkerAvailableResource(
+                    reported.getAvailableCpu() - cpu,
+                    reported.getAvailableRam() - ram,
+                    reported.getAvailableQueueLimit() - tasks
+            );
+        }
+
+        private void reset(WorkerMetric metric) {
+            if (this.basis != metric) {
+                this.basis = metric;
+                this.cpu = 0;
+                this.ram = 0;
+                this.tasks = 0;
+            }
+        }
+
+    }
+
+}
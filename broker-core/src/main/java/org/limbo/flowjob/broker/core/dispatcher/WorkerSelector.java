@@ -21,6 +21,8 @@ import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
 import org.limbo.flowjob.broker.core.worker.Worker;
 
 import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * worker选择器，封装了作业分发时的worker选择规则{@link LoadBalanceType}：
@@ -31,6 +33,8 @@ import java.util.List;
  *     <li>{@link LoadBalanceType#LEAST_FREQUENTLY_USED}</li>
  *     <li>{@link LoadBalanceType#LEAST_RECENTLY_USED}</li>
  *     <li>{@link LoadBalanceType#CONSISTENT_HASH}</li>
+ *     <li>{@link LoadBalanceType#BEST_FIT}</li>
+ *     <li>{@link LoadBalanceType#POWER_OF_TWO_CHOICES}</li>
  * </ul>
  *
  * @author Brozen
@@ -46,4 +50,17 @@ public interface WorkerSelector {
      */
     Worker select(WorkerSelectArgument args, List<Worker> workers);
 
+
+    /**
+     * 选择作业上下文应当下发给的worker，只选择满足条件的 worker。
+     * 用于下发重试时排除已经尝试过的 worker，传入的 worker 列表保持不变，有状态的选择规则不会因此重建。
+     *
+     * @param args worker 选择参数
+     * @param workers 待下发上下文可用的worker
+     * @param acceptable worker 是否可以被选择
+     */
+    default Worker select(WorkerSelectArgument args, List<Worker> workers, Predicate<Worker> acceptable) {
+        return select(args, workers.stream().filter(acceptable).collect(Collectors.toList()));
+    }
+
 }
@@ -16,7 +16,6 @@
 
 package org.limbo.flowjob.broker.core.dispatcher;
 
-import lombok.Setter;
 import org.limbo.flowjob.common.constants.LoadBalanceType;
 import org.limbo.flowjob.common.constants.MsgConstants;
 import org.limbo.flowjob.common.lb.LBServerStatisticsProvider;
@@ -24,12 +23,14 @@ import org.limbo.flowjob.common.lb.strategies.AppointLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.ConsistentHashLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.LFULBStrategy;
 import org.limbo.flowjob.common.lb.strategies.LRULBStrategy;
+import org.limbo.flowjob.common.lb.strategies.PowerOfTwoChoicesLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.RandomLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.RoundRobinLBStrategy;
 
 import java.util.EnumMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 /**
@@ -44,20 +45,65 @@ public class WorkerSelectorFactory {
      * 用于获取 LB 服务的统计信息，LRU、LFU 算法会用到。
      * 如果确认不使用 LRU、LFU 算法，可以不设置此属性
      */
-    @Setter
     private LBServerStatisticsProvider lbServerStatisticsProvider = LBServerStatisticsProvider.EMPTY_PROVIDER;
 
     private final Map<LoadBalanceType, Supplier<WorkerSelector>> selectors = new EnumMap<>(LoadBalanceType.class);
 
+    /**
+     * 复用的选择器，每种 LB 类型一个实例。LB 策略内部按执行器（调用目标）区分状态，如轮询索引、哈希环，
+     * 状态只在 worker 列表变化时重建。
+     */
+    private final Map<LoadBalanceType, WorkerSelector> sharedSelectors = new ConcurrentHashMap<>();
+
+    /**
+     * Worker 资源预留，用于资源过滤以及资源最佳匹配选择
+     */
+    private WorkerResourceReservations reservations = new WorkerResourceReservations();
+
     public WorkerSelectorFactory() {
-        selectors.put(LoadBalanceType.ROUND_ROBIN, () -> new FilteringWorkerSelector(new RoundRobinLBStrategy<>()));
-        selectors.put(LoadBalanceType.RANDOM, () -> new FilteringWorkerSelector(new RandomLBStrategy<>()));
-        selectors.put(LoadBalanceType.LEAST_FREQUENTLY_USED, () -> new FilteringWorkerSelector(new LFULBStrategy<>(this.lbServerStatisticsProvider)));
-        selectors.put(LoadBalanceType.LEAST_RECENTLY_USED, () -> new FilteringWorkerSelector(new LRULBStrategy<>(this.lbServerStatisticsProvider)));
-        selectors.put(LoadBalanceType.APPOINT, () -> new FilteringWorkerSelector(new AppointLBStrategy<>()));
-        selectors.put(LoadBalanceType.CONSISTENT_HASH, () -> new FilteringWorkerSelector(new ConsistentHashLBStrategy<>()));
+        selectors.put(LoadBalanceType.ROUND_ROBIN, () -> new FilteringWorkerSelector(new RoundRobinLBStrategy<>(), this.reservations));
+        selectors.put(LoadBalanceType.RANDOM, () -> new FilteringWorkerSelector(new RandomLBStrategy<>(), this.reservations));
+        selectors.put(LoadBalanceType.LEAST_FREQUENTLY_USED, () -> new FilteringWorkerSelector(new LFULBStrategy<>(this.lbServerStatisticsProvider), this.reservations));
+        selectors.put(LoadBalanceType.LEAST_RECENTLY_USED, () -> new FilteringWorkerSelector(new LRULBStrategy<>(this.lbServerStatisticsProvider), this.reservations));
+        selectors.put(LoadBalanceType.APPOINT, () -> new FilteringWorkerSelector(new AppointLBStrategy<>(), this.reservations));
+        selectors.put(LoadBalanceType.CONSISTENT_HASH, () -> new FilteringWorkerSelector(new ConsistentHashLBStrategy<>(), this.reservations));
+        selectors.put(LoadBalanceType.BEST_FIT, () -> new BestFitWorkerSelector(this.reservations));
+        selectors.put(LoadBalanceType.POWER_OF_TWO_CHOICES, () -> new FilteringWorkerSelector(new PowerOfTwoChoicesLBStrategy<>(this.reservations::queueLoad), this.reservations));
     }
 
+
+    /**
+     * 设置 Worker 资源预留，需要与{@link org.limbo.flowjob.broker.core.dispatch.TaskDispatcher}使用同一实例，已创建的复用选择器会失效
+     */
+    public void setReservations(WorkerResourceReservations reservations) {
+        this.reservations = reservations;
+        this.sharedSelectors.clear();
+    }
+
+
+    /**
+     * 设置 LB 服务统计信息来源，已创建的复用选择器会失效
+     */
+    public void setLbServerStatisticsProvider(LBServerStatisticsProvider lbServerStatisticsProvider) {
+        this.lbServerStatisticsProvider = lbServerStatisticsProvider;
+        this.sharedSelectors.clear();
+    }
+
+
+    /**
+     * 获取作业分发方式对应的选择器，同一分发方式返回同一实例，有状态的 LB 策略在多次下发间保持状态。
+     *
+     * @param loadBalanceType 分发类型
+     * @return 作业分发器
+     */
+    public WorkerSelector getSelector(LoadBalanceType loadBalanceType) {
+        if (loadBalanceType == null) {
+            throw new IllegalArgumentException(MsgConstants.UNKNOWN + " load balance type: null");
+        }
+        return sharedSelectors.computeIfAbsent(loadBalanceType, this::newSelector);
+    }
+
+
     /**
      * 根据作业的分发方式，创建一个分发器实例。委托给{@link LoadBalanceType}执行。
      *
@@ -18,6 +18,8 @@
 
 package org.limbo.flowjob.broker.core.domain;
 
+import java.util.List;
+
 /**
  * @author Devil
  * @since 2022/11/20
@@ -26,4 +28,10 @@ public interface IDGenerator {
 
     String generateId(IDType type);
 
+    /**
+     * 批量生成 id，一次占用一段连续的号段
+     * @param count 数量
+     */
+    List<String> generateIds(IDType type, int count);
+
 }
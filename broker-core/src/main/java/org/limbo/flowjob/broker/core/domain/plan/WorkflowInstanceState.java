@@ -0,0 +1,198 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.domain.plan;
+
+import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInfo;
+import org.limbo.flowjob.common.utils.dag.DAG;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 工作流 plan 实例的运行状态机，基于缓存的 DAG 记录每个节点的状态和未完成的父节点数。
+ * 节点完成时只遍历它的子节点，判断哪些子节点可以触发的代价为 O(出度)。
+ * 节点完成指执行成功，或执行失败但配置了忽略失败。
+ *
+ * @author Brozen
+ * @since 2023-02-22
+ */
+public class WorkflowInstanceState {
+
+    /**
+     * 节点未触发
+     */
+    private static final byte PENDING = 0;
+
+    /**
+     * 节点已触发，未完成
+     */
+    private static final byte TRIGGERED = 1;
+
+    /**
+     * 节点已完成
+     */
+    private static final byte COMPLETED = 2;
+
+    private final String planId;
+
+    private final DAG<WorkflowJobInfo> dag;
+
+    /**
+     * 每个节点的状态，按 DAG 中的下标存储
+     */
+    private final byte[] states;
+
+    /**
+     * 每个节点未完成的父节点数
+     */
+    private final int[] remainingParents;
+
+    /**
+     * 未完成的叶子节点数，为 0 时 plan 实例执行完成
+     */
+    private int remainingLasts;
+
+    public WorkflowInstanceState(String planId, DAG<WorkflowJobInfo> dag) {
+        this.planId = planId;
+        this.dag = dag;
+        this.states = new byte[dag.size()];
+        this.remainingParents = new int[dag.size()];
+        for (int i = 0; i < dag.size(); i++) {
+            remainingParents[i] = dag.inDegree(i);
+        }
+        this.remainingLasts = dag.lasts().size();
+    }
+
+
+    /**
+     * 标记节点已触发，已完成的节点不受影响
+     */
+    public synchronized void triggered(String jobId) {
+        int index = requireIndex(jobId);
+        if (states[index] == PENDING) {
+            states[index] = TRIGGERED;
+        }
+    }
+
+
+    /**
+     * 标记节点已完成，重复标记时不会重复计数
+     *
+     * @return 因此满足触发条件的子节点，返回的节点已标记为触发
+     */
+    public synchronized List<WorkflowJobInfo> complete(String jobId) {
+        int index = requireIndex(jobId);
+        if (states[index] == COMPLETED) {
+            return Collections.emptyList();
+        }
+
+        states[index] = COMPLETED;
+        int childCount = dag.childCount(index);
+        if (childCount == 0) {
+            remainingLasts--;
+            return Collections.emptyList();
+        }
+
+        List<WorkflowJobInfo> ready = new ArrayList<>(childCount);
+        for (int i = 0; i < childCount; i++) {
+            int child = dag.childAt(index, i);
+            if (--remainingParents[child] == 0 && states[child] == PENDING) {
+                states[child] = TRIGGERED;
+                ready.add(dag.getNode(child));
+            }
+        }
+        return ready;
+    }
+
+
+    /**
+     * 节点的子节点中还在等待的，它们尚未完成的父节点
+     */
+    public synchronized List<String> waitingParents(String jobId) {
+        int index = requireIndex(jobId);
+        List<String> waiting = new ArrayList<>();
+        for (int i = 0; i < dag.childCount(index); i++) {
+            int child = dag.childAt(index, i);
+            if (states[child] != PENDING || remainingParents[child] == 0) {
+                continue;
+            }
+            for (int p = 0; p < dag.inDegree(child); p++) {
+                int parent = dag.parentAt(child, p);
+                if (states[parent] != COMPLETED) {
+                    String parentId = dag.getNode(parent).getId();
+                    if (!waiting.contains(parentId)) {
+                        waiting.add(parentId);
+                    }
+                }
+            }
+        }
+        return waiting;
+    }
+
+
+    /**
+     * 尚未完成的叶子节点
+     */
+    public synchronized List<String> waitingLasts() {
+        List<String> waiting = new ArrayList<>();
+        for (WorkflowJobInfo last : dag.lasts()) {
+            if (states[dag.indexOf(last.getId())] != COMPLETED) {
+                waiting.add(last.getId());
+            }
+        }
+        return waiting;
+    }
+
+
+    /**
+     * 节点是否已完成
+     */
+    public synchronized boolean isCompleted(String jobId) {
+        return states[requireIndex(jobId)] == COMPLETED;
+    }
+
+
+    /**
+     * 所有叶子节点都已完成，plan 实例执行完成
+     */
+    public synchronized boolean isCompleted() {
+        return remainingLasts == 0;
+    }
+
+
+    public String getPlanId() {
+        return planId;
+    }
+
+
+    public DAG<WorkflowJobInfo> getDag() {
+        return dag;
+    }
+
+
+    private int requireIndex(String jobId) {
+        int index = dag.indexOf(jobId);
+        if (index < 0) {
+            throw new IllegalArgumentException("job " + jobId + " not in dag");
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.domain.task;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 树形 reduce 中，一个 reduce 任务需要合并的上一层任务的自增 id 范围，两端都包含
+ *
+ * @author Brozen
+ * @since 2023-02-21
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class ReduceRange {
+
+    private final long fromId;
+
+    private final long toId;
+
+    /**
+     * 将按自增 id 升序排列的上一层任务，每 fanIn 个划分为一组
+     *
+     * @param sortedIds 升序排列的任务自增 id
+     * @param fanIn 每组个数
+     */
+    public static List<ReduceRange> partition(List<Long> sortedIds, int fanIn) {
+        if (fanIn <= 0) {
+            throw new IllegalArgumentException("fanIn must be positive: " + fanIn);
+        }
+
+        List<ReduceRange> ranges = new ArrayList<>((sortedIds.size() + fanIn - 1) / fanIn);
+        for (int from = 0; from < sortedIds.size(); from += fanIn) {
+            int to = Math.min(from + fanIn, sortedIds.size()) - 1;
+            ranges.add(new ReduceRange(sortedIds.get(from), sortedIds.get(to)));
+        }
+        return ranges;
+    }
+
+}
@@ -29,7 +29,6 @@ import org.limbo.flowjob.common.constants.TaskType;
 import org.limbo.flowjob.common.utils.attribute.Attributes;
 
 import java.time.LocalDateTime;
-import java.util.List;
 
 /**
  * 作业执行上下文
@@ -99,8 +98,13 @@ public class Task {
     private Attributes mapAttributes;
 
     /**
-     * reduce属性
+     * reduce 层级，map 任务为第 0 层，第 n 层的 reduce 任务合并第 n - 1 层任务的结果
      */
-    private List<Attributes> reduceAttributes;
+    private int reduceLevel;
+
+    /**
+     * reduce 任务合并的上一层任务范围，为 null 表示合并上一层全部任务
+     */
+    private ReduceRange reduceRange;
 
 }
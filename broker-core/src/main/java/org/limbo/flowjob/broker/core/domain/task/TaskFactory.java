@@ -74,6 +74,17 @@ public class TaskFactory {
         return creator.tasks(instance);
     }
 
+    /**
+     * 创建树形 reduce 中第 level 层的 reduce 任务，每个范围对应一个任务
+     *
+     * @param level reduce 层级，从 1 开始
+     * @param ranges 每个任务合并的上一层任务范围，为 null 时只创建一个合并上一层全部任务的 reduce 任务
+     */
+    public List<Task> createReduce(JobInstance instance, int level, List<ReduceRange> ranges) {
+        ReduceTaskCreator creator = (ReduceTaskCreator) creators.get(TaskType.REDUCE);
+        return creator.tasks(instance, level, ranges);
+    }
+
     /**
      * Task 创建策略接口，在这里对 Task 进行多种代理（装饰），实现下发重试策略。
      */
@@ -130,7 +141,9 @@ public class TaskFactory {
 
         @Override
         public List<Task> tasks(JobInstance instance) {
-            List<Worker> workers = workerManager.availableWorkers();
+            // 广播目标只解析一次，没有对应执行器或不满足标签过滤的 worker 不会生成 task
+            JobInfo jobInfo = instance.getJobInfo();
+            List<Worker> workers = workerManager.availableWorkers(jobInfo.getExecutorName(), jobInfo.getDispatchOption());
             if (CollectionUtils.isEmpty(workers)) {
                 return Collections.emptyList();
             }
@@ -208,16 +221,32 @@ public class TaskFactory {
 
         @Override
         public List<Task> tasks(JobInstance instance) {
-            List<TaskResult> taskResults = taskManager.getTaskResults(instance.getJobInstanceId(), TaskType.MAP);
-            List<Attributes> reduceAttributes = new ArrayList<>();
-            for (TaskResult taskResult : taskResults) {
-                reduceAttributes.add(new Attributes(taskResult.getResultAttributes()));
-            }
+            // map 结果不随任务下发，worker 执行 reduce 时按页向 broker 拉取
             Task task = initTask(TaskType.REDUCE, instance, null);
-            task.setReduceAttributes(reduceAttributes);
+            task.setReduceLevel(1);
             return Collections.singletonList(task);
         }
 
+        /**
+         * 树形 reduce，每个范围生成一个 reduce 任务，合并上一层中对应范围内任务的结果
+         */
+        public List<Task> tasks(JobInstance instance, int level, List<ReduceRange> ranges) {
+            if (ranges == null) {
+                Task task = initTask(TaskType.REDUCE, instance, null);
+                task.setReduceLevel(level);
+                return Collections.singletonList(task);
+            }
+
+            List<Task> tasks = new ArrayList<>(ranges.size());
+            for (ReduceRange range : ranges) {
+                Task task = initTask(TaskType.REDUCE, instance, null);
+                task.setReduceLevel(level);
+                task.setReduceRange(range);
+                tasks.add(task);
+            }
+            return tasks;
+        }
+
         /**
          * 此策略仅适用于 {@link TaskType#REDUCE} 类型的任务
          */
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.core.schedule.calculator;
+
+import com.cronutils.model.CronType;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.model.time.ExecutionTime;
+import com.cronutils.parser.CronParser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 已编译CRON表达式的缓存，避免每次计算触发时间都重新解析CRON表达式。
+ * 解析结果只与表达式和表达式类型有关，同一表达式的不同版本作业共享一份{@link ExecutionTime}。
+ *
+ * @author Brozen
+ * @since 2023-02-06
+ */
+public class CronExecutionTimeCache {
+
+    /**
+     * 默认最多缓存的表达式数量
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /**
+     * 每种CRON类型对应的解析器，解析器本身是线程安全的
+     */
+    private static final Map<CronType, CronParser> parsers = new EnumMap<>(CronType.class);
+
+    static {
+        for (CronType cronType : CronType.values()) {
+            parsers.put(cronType, new CronParser(CronDefinitionBuilder.instanceDefinitionFor(cronType)));
+        }
+    }
+
+    private final Cache<CronKey, ExecutionTime> cache;
+
+    public CronExecutionTimeCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public CronExecutionTimeCache(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+
+    /**
+     * 获取已编译的CRON表达式，不存在则解析并缓存。
+     * @param cron CRON表达式
+     * @param cronType CRON表达式类型 {@link CronType}
+     * @return 可用于计算触发时间的{@link ExecutionTime}
+     * @throws IllegalArgumentException 表达式或类型非法时抛出
+     */
+    public ExecutionTime get(String cron, String cronType) {
+        try {
+            return cache.get(new CronKey(cron, cronType), () -> compile(cron, cronType));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) cause;
+            }
+            throw new IllegalArgumentException("parse cron expression " + cron + " " + cronType + " failed", cause);
+        }
+    }
+
+
+    /**
+     * 缓存中的表达式数量
+     */
+    public long size() {
+        return cache.size();
+    }
+
+
+    /**
+     * 缓存命中率
+     */
+    public double hitRate() {
+        return cache.stats().hitRate();
+    }
+
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+
+    private ExecutionTime compile(String cron, String cronType) {
+        CronParser parser = parsers.get(CronType.valueOf(cronType));
+        return ExecutionTime.forCron(parser.parse(cron));
+    }
+
+
+    /**
+     * 缓存key
+     */
+    @ToString
+    @EqualsAndHashCode
+    private static class CronKey {
+
+        private final String cron;
+
+        private final String cronType;
+
+        CronKey(String cron, String cronType) {
+            this.cron = cron;
+            this.cronType = cronType;
+        }
+    }
+
+}
@@ -16,20 +16,15 @@
 
 package org.limbo.flowjob.broker.core.schedule.calculator;
 
-import com.cronutils.model.CronType;
-import com.cronutils.model.definition.CronDefinition;
-import com.cronutils.model.definition.CronDefinitionBuilder;
 import com.cronutils.model.time.ExecutionTime;
-import com.cronutils.parser.CronParser;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.common.constants.ScheduleType;
 import org.limbo.flowjob.broker.core.schedule.Calculated;
 import org.limbo.flowjob.broker.core.schedule.ScheduleCalculator;
 import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
-import org.limbo.flowjob.common.utils.time.TimeUtils;
 
-import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.Optional;
 
 /**
@@ -41,8 +36,23 @@ import java.util.Optional;
 @Slf4j
 public class CronScheduleCalculator extends ScheduleCalculator {
 
+    /**
+     * 没有触发时间时返回的空窗口
+     */
+    private static final long[] EMPTY_WINDOW = new long[0];
+
+    /**
+     * 已编译的CRON表达式
+     */
+    private final CronExecutionTimeCache executionTimeCache;
+
     protected CronScheduleCalculator() {
+        this(new CronExecutionTimeCache());
+    }
+
+    protected CronScheduleCalculator(CronExecutionTimeCache executionTimeCache) {
         super(ScheduleType.CRON);
+        this.executionTimeCache = executionTimeCache;
     }
 
     /**
@@ -52,28 +62,49 @@ public class CronScheduleCalculator extends ScheduleCalculator {
      */
     @Override
     public Long doCalculate(Calculated calculated) {
+        long[] window = calculateWindow(calculated, 1);
+        return window.length > 0 ? window[0] : ScheduleCalculator.NO_TRIGGER;
+    }
+
+    /**
+     * 从当前时间开始，预先计算之后的多个触发时间戳。
+     * @param calculated 待调度对象
+     * @param size 最多计算的触发次数
+     * @return 递增的触发时间戳，CRON表达式不会再触发或解析失败时返回空数组。
+     */
+    public long[] calculateWindow(Calculated calculated, int size) {
         ScheduleOption scheduleOption = calculated.scheduleOption();
-        // 计算下一次调度
         String cron = scheduleOption.getScheduleCron();
         String cronType = scheduleOption.getScheduleCronType();
         try {
-            // 校验CRON表达式
-            CronDefinition cronDefinition = CronDefinitionBuilder.instanceDefinitionFor(CronType.valueOf(cronType));
-            CronParser parser = new CronParser(cronDefinition);
-            ExecutionTime executionTime = ExecutionTime.forCron(parser.parse(cron));
+            ExecutionTime executionTime = executionTimeCache.get(cron, cronType);
+
+            // 解析之后的触发时间
+            long[] window = new long[size];
+            int count = 0;
+            ZonedDateTime from = ZonedDateTime.now();
+            while (count < size) {
+                Optional<ZonedDateTime> nextSchedule = executionTime.nextExecution(from);
+                if (!nextSchedule.isPresent()) {
+                    break;
+                }
+                from = nextSchedule.get();
+                window[count++] = from.toInstant().toEpochMilli();
+            }
 
-            // 解析下次触发时间
-            Optional<ZonedDateTime> nextSchedule = executionTime.nextExecution(ZonedDateTime.now());
-            if (!nextSchedule.isPresent()) {
+            if (count == 0) {
                 log.error("cron expression {} {} next schedule is null", cron, cronType);
-                return ScheduleCalculator.NO_TRIGGER;
+                return EMPTY_WINDOW;
             }
-            return nextSchedule.get().toInstant().toEpochMilli();
+            return count == size ? window : Arrays.copyOf(window, count);
         } catch (Exception e) {
             log.error("parse cron expression {} {} failed!", cron, cronType, e);
-            return ScheduleCalculator.NO_TRIGGER;
+            return EMPTY_WINDOW;
         }
+    }
 
+    public CronExecutionTimeCache getExecutionTimeCache() {
+        return executionTimeCache;
     }
 
 }
@@ -29,6 +29,11 @@ import java.util.Map;
  */
 public class ScheduleCalculatorFactory {
 
+    /**
+     * CRON计算器，所有CRON作业共享同一份已编译表达式缓存
+     */
+    private static final CronScheduleCalculator CRON_CALCULATOR = new CronScheduleCalculator();
+
     /**
      * 全部策略
      */
@@ -36,17 +41,22 @@ public class ScheduleCalculatorFactory {
 
     static {
         scheduleCalculators.put(ScheduleType.UNKNOWN, new NeverScheduleCalculator());
-        scheduleCalculators.put(ScheduleType.CRON, new CronScheduleCalculator());
+        scheduleCalculators.put(ScheduleType.CRON, CRON_CALCULATOR);
         scheduleCalculators.put(ScheduleType.FIXED_DELAY, new FixDelayScheduleCalculator());
         scheduleCalculators.put(ScheduleType.FIXED_RATE, new FixRateScheduleCalculator());
     }
 
     /**
-     * 根据作业调度类型，创建作业触发时间计算器
+     * 根据作业调度类型，创建作业触发时间计算器。
+     * CRON类型的计算器会缓存预计算的触发时间，每个待调度对象应持有自己的实例。
      * @param scheduleType 调度方式
      * @return 触发时间计算器
      */
     public static ScheduleCalculator create(ScheduleType scheduleType) {
+        if (scheduleType == ScheduleType.CRON) {
+            return new WindowedCronScheduleCalculator(CRON_CALCULATOR, WindowedCronScheduleCalculator.DEFAULT_WINDOW_SIZE);
+        }
+
         ScheduleCalculator calculator = scheduleCalculators.get(scheduleType);
         if (calculator != null) {
             return new DelegatedScheduleCalculator(calculator);
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.core.schedule.calculator;
+
+import org.limbo.flowjob.broker.core.schedule.Calculated;
+import org.limbo.flowjob.broker.core.schedule.DelegatedScheduleCalculator;
+import org.limbo.flowjob.broker.core.schedule.ScheduleCalculator;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+/**
+ * 预先计算一段CRON触发时间的计算器，每个待调度对象持有一个实例，非线程安全。
+ * 窗口内还有未过期的触发时间时直接返回，用完后再通过{@link CronScheduleCalculator}计算下一段。
+ *
+ * @author Brozen
+ * @since 2023-02-06
+ */
+public class WindowedCronScheduleCalculator extends DelegatedScheduleCalculator {
+
+    /**
+     * 默认预计算的触发次数
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 16;
+
+    private final CronScheduleCalculator cronCalculator;
+
+    private final int windowSize;
+
+    /**
+     * 预计算的触发时间戳
+     */
+    private long[] window = new long[0];
+
+    /**
+     * 第一个未过期的触发时间戳下标
+     */
+    private int cursor = 0;
+
+    public WindowedCronScheduleCalculator(CronScheduleCalculator cronCalculator, int windowSize) {
+        super(cronCalculator);
+        this.cronCalculator = cronCalculator;
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * @param calculated 待调度对象
+     * @return
+     */
+    @Override
+    public Long calculate(Calculated calculated) {
+        // 第一次调度仍然按开始时间计算
+        if (calculated.lastTriggerAt() == null) {
+            return cronCalculator.calculate(calculated);
+        }
+        return doCalculate(calculated);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * @param calculated 待调度对象
+     * @return
+     */
+    @Override
+    public Long doCalculate(Calculated calculated) {
+        long now = TimeUtils.currentInstant().toEpochMilli();
+        // 跳过已过期的触发时间
+        while (cursor < window.length && window[cursor] <= now) {
+            cursor++;
+        }
+
+        if (cursor >= window.length) {
+            window = cronCalculator.calculateWindow(calculated, windowSize);
+            cursor = 0;
+            if (window.length == 0) {
+                return ScheduleCalculator.NO_TRIGGER;
+            }
+        }
+
+        return window[cursor];
+    }
+
+}
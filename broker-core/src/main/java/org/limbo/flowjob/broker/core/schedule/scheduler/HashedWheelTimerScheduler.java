@@ -19,7 +19,8 @@
 package org.limbo.flowjob.broker.core.schedule.scheduler;
 
 import io.netty.util.HashedWheelTimer;
-import io.netty.util.Timer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.broker.core.schedule.Scheduled;
 import org.limbo.flowjob.common.utils.time.TimeUtils;
@@ -40,7 +41,7 @@ public abstract class HashedWheelTimerScheduler<T extends Scheduled> implements
     /**
      * 依赖netty的时间轮算法进行作业调度
      */
-    private final Timer timer;
+    private final HashedWheelTimer timer;
 
     /**
      * 使用指定执行器构造一个调度器，该调度器基于哈希时间轮算法。
@@ -49,29 +50,50 @@ public abstract class HashedWheelTimerScheduler<T extends Scheduled> implements
         this.timer = new HashedWheelTimer(NamedThreadFactory.newInstance(this.getClass().getSimpleName() + "-timer-"));
     }
 
-    protected void calAndSchedule(T scheduled) {
+    /**
+     * 计算延迟时间，并在时间轮上注册到期后执行的逻辑。
+     * 到期逻辑在时间轮线程中执行，应只做判断和转交，实际执行通过{@link #dispatch(Scheduled, Runnable)}交给执行器。
+     * @param scheduled 待调度的对象
+     * @param timerTask 到期后执行的逻辑
+     * @return 时间轮上的句柄，可用于取消调度
+     */
+    protected Timeout calAndSchedule(T scheduled, TimerTask timerTask) {
         // 计算延迟时间
         long delay = Duration.between(TimeUtils.currentLocalDateTime(), scheduled.scheduleAt()).toMillis();
         delay = delay < 0 ? 0 : delay;
 
         // 在timer上调度作业执行
-        this.timer.newTimeout(timeout -> {
-            try {
-                // 已经取消调度了，则不再重新调度作业
-                if (!isScheduling(scheduled.scheduleId())) {
-                    return;
-                }
-
-                scheduled.execute();
+        return this.timer.newTimeout(timerTask, delay, TimeUnit.MILLISECONDS);
+    }
 
-            } catch (Exception e) {
-                log.error("[HashedWheelTimerScheduler] schedule fail id:{}", scheduled.scheduleId(), e);
-            } finally {
+    /**
+     * 在时间轮上注册延迟 delay 毫秒后执行的逻辑，用于转交失败后稍后重试。
+     * @param timerTask 到期后执行的逻辑
+     * @param delay 延迟时间 毫秒
+     * @return 时间轮上的句柄，可用于取消调度
+     */
+    protected Timeout delay(TimerTask timerTask, long delay) {
+        return this.timer.newTimeout(timerTask, delay, TimeUnit.MILLISECONDS);
+    }
 
-            }
-        }, delay, TimeUnit.MILLISECONDS);
+    /**
+     * 将到期的作业交给执行器执行，默认在时间轮线程中直接执行。
+     * 子类应覆盖此方法将执行转移到其他线程，避免耗时的作业阻塞时间轮上的其他作业。
+     * 实现不能阻塞时间轮线程，执行器繁忙时返回 false。
+     * @param scheduled 到期的作业
+     * @param execution 作业执行逻辑
+     * @return 是否已经交给执行器
+     */
+    protected boolean dispatch(T scheduled, Runnable execution) {
+        execution.run();
+        return true;
     }
 
-    protected void afterExecute(T scheduled) {}
+    /**
+     * 时间轮上等待到期的调度数量，包含已取消但尚未被时间轮清理的调度
+     */
+    public long pendingTimeouts() {
+        return timer.pendingTimeouts();
+    }
 
 }
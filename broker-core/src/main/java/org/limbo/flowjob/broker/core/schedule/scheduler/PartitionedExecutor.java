@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.core.schedule.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按分区执行任务的线程池。同一个分区key的任务总是交给同一个单线程通道，保证按提交顺序执行；不同分区之间并行执行。
+ * 每个通道的队列有界，队列满时提交线程最多等待 offerTimeout 毫秒，仍然没有空位则拒绝任务，由调用方决定稍后重试或者放弃。
+ * 提交线程通常是时间轮线程或者事务提交后的回调线程，不能无限阻塞，否则一个通道满了会拖住所有其他通道的提交。
+ *
+ * @author Brozen
+ * @since 2023-02-07
+ */
+@Slf4j
+public class PartitionedExecutor {
+
+    /**
+     * 名称，用于线程名和日志
+     */
+    private final String name;
+
+    /**
+     * 执行通道，每个通道只有一个线程
+     */
+    private final ThreadPoolExecutor[] lanes;
+
+    /**
+     * 每个通道的队列容量
+     */
+    private final int queueCapacity;
+
+    /**
+     * 队列满时提交线程的最长等待时间 纳秒
+     */
+    private final long offerTimeoutNanos;
+
+    /**
+     * 提交的任务数
+     */
+    private final LongAdder submitted = new LongAdder();
+
+    /**
+     * 执行完成的任务数，包括执行异常的任务
+     */
+    private final LongAdder completed = new LongAdder();
+
+    /**
+     * 执行异常的任务数
+     */
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * 因队列已满导致提交线程等待的次数
+     */
+    private final LongAdder blocked = new LongAdder();
+
+    /**
+     * 等待超时后仍然无法入队而被拒绝的任务数
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * 队列满时不等待，直接拒绝
+     * @param name 名称
+     * @param partitions 分区数量，即并行度
+     * @param queueCapacity 每个分区的队列容量
+     */
+    public PartitionedExecutor(String name, int partitions, int queueCapacity) {
+        this(name, partitions, queueCapacity, 0);
+    }
+
+    /**
+     * @param name 名称
+     * @param partitions 分区数量，即并行度
+     * @param queueCapacity 每个分区的队列容量
+     * @param offerTimeout 队列满时提交线程的最长等待时间 毫秒
+     */
+    public PartitionedExecutor(String name, int partitions, int queueCapacity, long offerTimeout) {
+        if (partitions <= 0 || queueCapacity <= 0 || offerTimeout < 0) {
+            throw new IllegalArgumentException("partitions and queueCapacity must be positive and offerTimeout must not be negative");
+        }
+
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeout);
+        this.lanes = new ThreadPoolExecutor[partitions];
+
+        NamedThreadFactory threadFactory = NamedThreadFactory.newInstance(name + "-");
+        RejectedExecutionHandler rejectedHandler = new OfferTimeoutPolicy();
+        for (int i = 0; i < partitions; i++) {
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), threadFactory, rejectedHandler);
+        }
+    }
+
+
+    /**
+     * 提交任务，同一分区key的任务按提交顺序执行
+     * @param partitionKey 分区key
+     * @param task 任务
+     * @return 是否提交成功，通道队列已满且等待超时后返回 false，任务不会被执行
+     * @throws RejectedExecutionException 执行器已经停止
+     */
+    public boolean execute(Object partitionKey, Runnable task) {
+        ThreadPoolExecutor lane = lane(partitionKey);
+        try {
+            lane.execute(() -> {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    failed.increment();
+                    log.error("[PartitionedExecutor] {} execute task failed", name, e);
+                } finally {
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (lane.isShutdown()) {
+                throw e;
+            }
+            rejected.increment();
+            log.warn("[PartitionedExecutor] {} lane is full, reject task of partition {}", name, partitionKey);
+            return false;
+        }
+
+        submitted.increment();
+        return true;
+    }
+
+
+    private ThreadPoolExecutor lane(Object partitionKey) {
+        int hash = partitionKey == null ? 0 : partitionKey.hashCode();
+        // 打散高位，避免相近的hash集中在同一通道
+        hash ^= (hash >>> 16);
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+
+
+    /**
+     * 停止接收任务，已提交的任务会继续执行完
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 分区数量
+     */
+    public int getPartitions() {
+        return lanes.length;
+    }
+
+    /**
+     * 每个分区的队列容量
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * 所有分区排队中的任务数
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            size += lane.getQueue().size();
+        }
+        return size;
+    }
+
+    /**
+     * 排队任务最多的分区的队列长度，用于发现热点分区
+     */
+    public int getMaxQueueSize() {
+        int max = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            max = Math.max(max, lane.getQueue().size());
+        }
+        return max;
+    }
+
+    /**
+     * 正在执行任务的分区数
+     */
+    public int getActiveCount() {
+        int active = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            active += lane.getActiveCount();
+        }
+        return active;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionedExecutor{" +
+                "name=" + name +
+                ", partitions=" + lanes.length +
+                ", queueSize=" + getQueueSize() +
+                ", maxQueueSize=" + getMaxQueueSize() +
+                ", active=" + getActiveCount() +
+                ", submitted=" + getSubmittedCount() +
+                ", completed=" + getCompletedCount() +
+                ", failed=" + getFailedCount() +
+                ", blocked=" + getBlockedCount() +
+                ", rejected=" + getRejectedCount() +
+                '}';
+    }
+
+
+    /**
+     * 队列满时提交线程最多等待 offerTimeout，仍然没有空位则拒绝
+     */
+    private class OfferTimeoutPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException(name + " is shutdown");
+            }
+
+            if (offerTimeoutNanos <= 0) {
+                throw new RejectedExecutionException(name + " lane is full");
+            }
+
+            blocked.increment();
+            try {
+                if (!executor.getQueue().offer(r, offerTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                    throw new RejectedExecutionException(name + " lane is full");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(name + " interrupted while waiting for queue", e);
+            }
+        }
+    }
+
+}
@@ -66,9 +66,10 @@ public abstract class AbstractPlanLoadTask extends FixDelayMetaTask {
             // 调度当前时间以及未来的任务
             List<PlanScheduleTask> plans = loadTasks();
 
-            // 重新调度 新增/版本变更的plan
+            // 重新调度 新增/版本变更的plan，先移除原有调度，再以新加载的数据调度
             if (CollectionUtils.isNotEmpty(plans)) {
                 for (PlanScheduleTask plan : plans) {
+                    scheduler.unschedule(plan.getType(), plan.getMetaId());
                     scheduler.schedule(plan);
                 }
             }
@@ -79,7 +80,7 @@ public abstract class AbstractPlanLoadTask extends FixDelayMetaTask {
 
 
     /**
-     * 加载触发时间在指定时间之前的 Plan。
+     * 加载需要（重新）调度的 Plan，返回的 Plan 会替换调度器中已有的同一 Plan 的调度。
      */
     protected abstract List<PlanScheduleTask> loadTasks();
 
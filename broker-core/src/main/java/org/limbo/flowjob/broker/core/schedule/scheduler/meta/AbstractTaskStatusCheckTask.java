@@ -19,6 +19,7 @@
 package org.limbo.flowjob.broker.core.schedule.scheduler.meta;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
 import org.limbo.flowjob.broker.core.cluster.NodeManger;
@@ -38,6 +39,7 @@ import java.util.List;
  * 2. worker服务假死
  * 3. worker完成task调用broker的接口失败
  */
+@Slf4j
 public abstract class AbstractTaskStatusCheckTask extends FixDelayMetaTask {
 
     @Getter
@@ -73,8 +75,10 @@ public abstract class AbstractTaskStatusCheckTask extends FixDelayMetaTask {
 
         List<TaskScheduleTask> dispatchingTasks = loadDispatchingTasks();
         if (CollectionUtils.isNotEmpty(dispatchingTasks)) {
+            // 下发超时的 task 已经提交了状态，但是下发结果一直未记录，重新下发
             for (TaskScheduleTask scheduleTask : dispatchingTasks) {
-                scheduleTask.execute();
+                Task task = scheduleTask.getTask();
+                scheduleStrategyFactory.build(task.getPlanType()).dispatch(task);
             }
         }
 
@@ -90,10 +94,23 @@ public abstract class AbstractTaskStatusCheckTask extends FixDelayMetaTask {
                 }
             }
         }
+
+        List<TaskScheduleTask> stalledTasks = loadStalledJobTasks();
+        if (CollectionUtils.isNotEmpty(stalledTasks)) {
+            // job 实例的 task 已经全部完成，但是完成后的处理没有提交，重新处理
+            for (TaskScheduleTask scheduleTask : stalledTasks) {
+                Task task = scheduleTask.getTask();
+                try {
+                    scheduleStrategyFactory.build(task.getPlanType()).handleJobStageCompleted(task);
+                } catch (Exception e) {
+                    log.error("handle stalled job instance fail, jobInstance={}", task.getJobInstanceId(), e);
+                }
+            }
+        }
     }
 
     /**
-     * 加载下发中的 task。
+     * 加载需要重新下发的下发中 task，实现方需要保证同一个 task 在下发超时之前不会被重复加载。
      */
     protected abstract List<TaskScheduleTask> loadDispatchingTasks();
 
@@ -102,6 +119,11 @@ public abstract class AbstractTaskStatusCheckTask extends FixDelayMetaTask {
      */
     protected abstract List<TaskScheduleTask> loadExecutingTasks();
 
+    /**
+     * 加载 task 已经全部完成但仍在执行中的 job 实例，每个 job 实例返回其当前阶段的一个 task。
+     */
+    protected abstract List<TaskScheduleTask> loadStalledJobTasks();
+
     @Override
     public MetaTaskType getType() {
         return MetaTaskType.TASK_STATUS_CHECK;
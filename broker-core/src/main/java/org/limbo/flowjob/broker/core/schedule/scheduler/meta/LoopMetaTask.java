@@ -175,9 +175,4 @@ public abstract class LoopMetaTask implements MetaTask, Calculated {
         }
         return scheduleCalculator;
     }
-
-    @Override
-    public String scheduleId() {
-        return MetaTask.super.scheduleId() + "-" + scheduleAt();
-    }
 }
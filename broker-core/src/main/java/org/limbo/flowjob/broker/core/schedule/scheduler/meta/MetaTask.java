@@ -38,4 +38,11 @@ public interface MetaTask extends Scheduled {
         return getType().name() + "-" + getMetaId();
     }
 
+    /**
+     * 执行时的分区key，相同分区key的任务按触发顺序串行执行
+     */
+    default String partitionKey() {
+        return getMetaId();
+    }
+
 }
@@ -16,74 +16,258 @@
 
 package org.limbo.flowjob.broker.core.schedule.scheduler.meta;
 
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.broker.core.schedule.scheduler.HashedWheelTimerScheduler;
+import org.limbo.flowjob.broker.core.schedule.scheduler.PartitionedExecutor;
 
+import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
+ * 元任务调度器。同一类型下，每个元任务id同时只有一次调度登记，登记中持有时间轮上的句柄，取消调度时同时从时间轮上取消。
+ *
  * @author Brozen
  * @since 2022-10-11
  */
 @Slf4j
 public class MetaTaskScheduler extends HashedWheelTimerScheduler<MetaTask> {
 
-    private final Map<MetaTaskType, Map<String, MetaTask>> scheduling;
+    /**
+     * 执行器通道已满时，重新放回时间轮等待的时间 毫秒
+     */
+    private static final long REDISPATCH_DELAY = 100;
+
+    /**
+     * 调度中的元任务，按类型和元任务id登记
+     */
+    private final Map<MetaTaskType, Map<String, Registration>> scheduling;
+
+    /**
+     * 各类型元任务的执行器，未配置的类型直接在时间轮线程中执行
+     */
+    private final Map<MetaTaskType, PartitionedExecutor> executors;
 
     public MetaTaskScheduler() {
+        this(null, null);
+    }
+
+    /**
+     * @param planExecutor 执行 Plan 相关元任务的执行器
+     * @param taskExecutor 执行 Task 相关元任务的执行器
+     */
+    public MetaTaskScheduler(PartitionedExecutor planExecutor, PartitionedExecutor taskExecutor) {
         super();
         this.scheduling = new EnumMap<>(MetaTaskType.class);
         for (MetaTaskType type : MetaTaskType.values()) {
             this.scheduling.put(type, new ConcurrentHashMap<>());
         }
+
+        this.executors = new EnumMap<>(MetaTaskType.class);
+        if (planExecutor != null) {
+            this.executors.put(MetaTaskType.PLAN, planExecutor);
+            this.executors.put(MetaTaskType.PLAN_LOAD, planExecutor);
+        }
+        if (taskExecutor != null) {
+            this.executors.put(MetaTaskType.TASK, taskExecutor);
+            this.executors.put(MetaTaskType.TASK_STATUS_CHECK, taskExecutor);
+            this.executors.put(MetaTaskType.WORKER_SYNC, taskExecutor);
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     * 其他对象已经登记了相同的元任务时不会重复调度；同一个对象再次调度（循环任务计算出下次触发时间）时替换原有登记。
+     * @param task 待调度的对象
+     */
     @Override
     public void schedule(MetaTask task) {
         try {
-            if (isScheduling(task.scheduleId())) {
-                return;
-            }
+            Registration registration = new Registration(task);
+            Map<String, Registration> registrations = scheduling.get(registration.type);
+            Registration existing;
+            synchronized (registrations) {
+                existing = registrations.get(registration.metaId);
+                if (existing != null && (existing.task != task || existing.isDuplicate(registration))) {
+                    return;
+                }
 
-            // 放入缓存
-            scheduling.get(task.getType()).put(task.scheduleId(), task);
+                registrations.put(registration.metaId, registration);
+                registration.timeout = calAndSchedule(task, registration);
+            }
 
-            calAndSchedule(task);
+            if (existing != null) {
+                existing.cancel();
+            }
         } catch (Exception e) {
             log.error("Meta task [{}] execute failed", task.scheduleId(), e);
         }
     }
 
     @Override
-    protected void afterExecute(MetaTask task) {
-        unschedule(task.scheduleId());
+    protected boolean dispatch(MetaTask task, Runnable execution) {
+        PartitionedExecutor executor = executors.get(task.getType());
+        if (executor == null) {
+            execution.run();
+            return true;
+        } else {
+            return executor.execute(task.partitionKey(), execution);
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     * @param id 格式为 {@link MetaTask#scheduleId()}
+     */
     @Override
     public void unschedule(String id) {
-        Map<String, MetaTask> metaTaskMap = scheduling.get(getType(id));
-        metaTaskMap.remove(id);
+        int idx = id.indexOf('-');
+        if (idx <= 0) {
+            return;
+        }
+        unschedule(MetaTaskType.parse(id.substring(0, idx)), id.substring(idx + 1));
     }
 
+    /**
+     * 停止调度，并从时间轮上取消
+     * @param type 元任务类型
+     * @param metaId 元任务id
+     */
+    public void unschedule(MetaTaskType type, String metaId) {
+        if (type == null) {
+            return;
+        }
+
+        Registration registration = scheduling.get(type).remove(metaId);
+        if (registration != null) {
+            registration.cancel();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * @param id 格式为 {@link MetaTask#scheduleId()}
+     */
     @Override
     public boolean isScheduling(String id) {
-        Map<String, MetaTask> metaTaskMap = scheduling.get(getType(id));
-        return metaTaskMap.containsKey(id);
+        int idx = id.indexOf('-');
+        if (idx <= 0) {
+            return false;
+        }
+        return isScheduling(MetaTaskType.parse(id.substring(0, idx)), id.substring(idx + 1));
     }
 
-    private MetaTaskType getType(String scheduleId) {
-        String[] split = scheduleId.split("-");
-        return MetaTaskType.parse(split[0]);
+    /**
+     * 判断是否在调度中
+     * @param type 元任务类型
+     * @param metaId 元任务id
+     */
+    public boolean isScheduling(MetaTaskType type, String metaId) {
+        return type != null && scheduling.get(type).containsKey(metaId);
     }
 
     /**
      * 返回调度中的数据
      */
     public Collection<MetaTask> getSchedulingByType(MetaTaskType type) {
-        return scheduling.get(type).values();
+        return scheduling.get(type).values().stream()
+                .map(r -> r.task)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 调度中的元任务数量
+     */
+    public int schedulingCount(MetaTaskType type) {
+        return scheduling.get(type).size();
+    }
+
+
+    /**
+     * 一次调度登记，key在登记时计算好，到期时直接通过引用判断登记是否仍然有效
+     */
+    private class Registration implements TimerTask, Runnable {
+
+        private final MetaTaskType type;
+
+        private final String metaId;
+
+        private final MetaTask task;
+
+        /**
+         * 登记时的触发时间
+         */
+        private final LocalDateTime scheduleAt;
+
+        private volatile Timeout timeout;
+
+        Registration(MetaTask task) {
+            this.type = task.getType();
+            this.metaId = task.getMetaId();
+            this.task = task;
+            this.scheduleAt = task.scheduleAt();
+        }
+
+        /**
+         * 时间轮到期，仍是当前登记时交给执行器。执行器通道已满时不阻塞时间轮线程，稍后重新放回时间轮
+         */
+        @Override
+        public void run(Timeout timeout) {
+            try {
+                if (!isCurrent()) {
+                    return;
+                }
+                if (!dispatch(task, this)) {
+                    this.timeout = delay(this, REDISPATCH_DELAY);
+                }
+            } catch (Exception e) {
+                log.error("[MetaTaskScheduler] dispatch fail type:{} id:{}", type, metaId, e);
+            }
+        }
+
+        /**
+         * 执行器中执行元任务
+         */
+        @Override
+        public void run() {
+            try {
+                // 排队期间可能被取消调度
+                if (!isCurrent()) {
+                    return;
+                }
+                task.execute();
+            } catch (Exception e) {
+                log.error("[MetaTaskScheduler] schedule fail type:{} id:{}", type, metaId, e);
+            } finally {
+                // 执行过程中没有重新调度的，释放登记
+                scheduling.get(type).remove(metaId, this);
+            }
+        }
+
+        private boolean isCurrent() {
+            return scheduling.get(type).get(metaId) == this;
+        }
+
+        /**
+         * 同一对象对同一触发时间重复调度
+         */
+        private boolean isDuplicate(Registration other) {
+            Timeout t = this.timeout;
+            return t != null && !t.isExpired() && Objects.equals(scheduleAt, other.scheduleAt);
+        }
+
+        private void cancel() {
+            Timeout t = this.timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
     }
 
 }
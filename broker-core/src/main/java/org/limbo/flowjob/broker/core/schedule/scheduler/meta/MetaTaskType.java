@@ -33,6 +33,8 @@ public enum MetaTaskType {
     TASK,
 
     TASK_STATUS_CHECK,
+
+    WORKER_SYNC,
     ;
 
     public static MetaTaskType parse(String value) {
@@ -63,8 +63,11 @@ public class PlanScheduleTask extends LoopMetaTask {
         return MetaTaskType.PLAN;
     }
 
+    /**
+     * 同一个plan只保留一个调度，版本变更时由新版本替换旧版本
+     */
     @Override
     public String getMetaId() {
-        return plan.getPlanId() + "-" + plan.getVersion();
+        return plan.getPlanId();
     }
 }
@@ -0,0 +1,63 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.core.schedule.scheduler.meta;
+
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.broker.core.cluster.WorkerManager;
+
+import java.time.Duration;
+
+/**
+ * 元任务：定时从持久化数据全量同步可用 worker 到内存注册表，
+ * 用于获取其他 broker 上注册的 worker，以及移除已下线的 worker。
+ *
+ * @author Brozen
+ * @since 2023-02-23
+ */
+@Slf4j
+public class WorkerSyncTask extends FixDelayMetaTask {
+
+    private final WorkerManager workerManager;
+
+    public WorkerSyncTask(Duration interval, WorkerManager workerManager, MetaTaskScheduler metaTaskScheduler) {
+        super(interval, metaTaskScheduler);
+        this.workerManager = workerManager;
+    }
+
+
+    @Override
+    protected void executeTask() {
+        try {
+            workerManager.syncWorkers();
+        } catch (Exception e) {
+            log.error("{} sync workers fail", scheduleId(), e);
+        }
+    }
+
+    @Override
+    public MetaTaskType getType() {
+        return MetaTaskType.WORKER_SYNC;
+    }
+
+    @Override
+    public String getMetaId() {
+        return "WorkerSyncTask";
+    }
+
+}
@@ -35,8 +35,19 @@ public interface IScheduleStrategy {
 
     void schedule(Task task);
 
+    /**
+     * 重新下发已经处于下发中状态的 task
+     */
+    void dispatch(Task task);
+
     void handleTaskSuccess(Task task, Map<String, Object> resultAttributes);
 
     void handleTaskFail(Task task, String errorMsg, String errorStackTrace);
 
+    /**
+     * job 实例当前阶段的 task 已经全部完成，但完成后的处理没有提交时，重新处理
+     * @param task 当前阶段的 task
+     */
+    void handleJobStageCompleted(Task task);
+
 }
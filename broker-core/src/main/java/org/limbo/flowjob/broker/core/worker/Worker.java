@@ -126,6 +126,10 @@ public class Worker implements WorkerRpc, LBServer {
      */
     public void register(URL rpcBaseUrl, Map<String, List<String>> tags,
                          List<WorkerExecutor> executors, WorkerMetric metric) {
+        if (!Objects.equals(this.rpcBaseUrl, rpcBaseUrl)) {
+            // 通信地址变化，重新获取 RPC
+            this.rpc = null;
+        }
         this.rpcBaseUrl = Objects.requireNonNull(rpcBaseUrl, "rpcBaseUrl");
         setTags(tags);
         setExecutors(executors);
@@ -156,16 +160,22 @@ public class Worker implements WorkerRpc, LBServer {
 
 
     /**
-     * 懒加载 Worker RPC 模块
+     * 懒加载 Worker RPC 模块，RPC 由工厂按通信地址缓存，多个 Worker 对象间共享。
      */
     @Delegate(types = WorkerRpc.class)
-    private synchronized WorkerRpc getRPC() {
-        if (this.rpc == null) {
-            WorkerRpcFactory factory = WorkerRpcFactory.getInstance();
-            this.rpc = factory.createRPC(this);
+    private WorkerRpc getRPC() {
+        WorkerRpc rpc = this.rpc;
+        if (rpc == null) {
+            synchronized (this) {
+                rpc = this.rpc;
+                if (rpc == null) {
+                    rpc = WorkerRpcFactory.getInstance().createRPC(this);
+                    this.rpc = rpc;
+                }
+            }
         }
 
-        return this.rpc;
+        return rpc;
     }
 
 }
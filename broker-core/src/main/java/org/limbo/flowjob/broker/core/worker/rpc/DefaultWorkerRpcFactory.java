@@ -16,19 +16,56 @@
 
 package org.limbo.flowjob.broker.core.worker.rpc;
 
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
 import org.limbo.flowjob.common.constants.Protocol;
 import org.limbo.flowjob.broker.core.worker.Worker;
 
 import java.net.URL;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 默认的 Worker RPC 协议工厂，先在这里写死，后面提取到独立的模块中，通过 SPI 加载。
  *
+ * 所有 HTTP RPC 共享同一个 OkHttp 客户端（连接池、keep-alive），RPC 按 Worker 通信地址缓存，
+ * 避免每个 Worker 对象各自创建 Retrofit、OkHttp 实例并建立新连接。
+ *
  * @author Brozen
  * @since 2022-08-12
  */
 public class DefaultWorkerRpcFactory implements WorkerRpcFactory {
 
+    /**
+     * 连接池最大空闲连接数
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 64;
+
+    /**
+     * 空闲连接保持时间
+     */
+    private static final Duration KEEP_ALIVE = Duration.ofMinutes(5);
+
+    /**
+     * 共享的连接池，超时配置变化后新建的客户端继续使用此连接池
+     */
+    private final ConnectionPool connectionPool = new ConnectionPool(
+            MAX_IDLE_CONNECTIONS, KEEP_ALIVE.toMillis(), TimeUnit.MILLISECONDS
+    );
+
+    /**
+     * 共享的 OkHttp 客户端
+     */
+    private volatile OkHttpClient client = newClient(Duration.ofSeconds(10), Duration.ofSeconds(10));
+
+    /**
+     * 已创建的 RPC，key 为 Worker 通信基础地址
+     */
+    private final Map<String, WorkerRpc> rpcs = new ConcurrentHashMap<>();
+
 
     /**
      * {@inheritDoc}
@@ -42,12 +79,60 @@ public class DefaultWorkerRpcFactory implements WorkerRpcFactory {
         switch (protocol) {
             case HTTP:
             case HTTPS:
-                return new RetrofitHttpWorkerRpc(worker);
+                // 同一地址上的 Worker 重新注册后 ID 可能变化，此时替换缓存
+                return rpcs.compute(rpcBaseUrl.toString(), (url, rpc) ->
+                        rpc != null && Objects.equals(rpc.workerId(), worker.getId())
+                                ? rpc : new RetrofitHttpWorkerRpc(worker, client)
+                );
             default:
                 throw new IllegalArgumentException("不支持的 Worker 通信协议：" + rpcBaseUrl.getProtocol());
         }
     }
 
 
+    /**
+     * {@inheritDoc}
+     * @param connectTimeout 连接超时
+     * @param readTimeout 读超时
+     */
+    @Override
+    public synchronized void setTimeout(Duration connectTimeout, Duration readTimeout) {
+        this.client = newClient(connectTimeout, readTimeout);
+        this.rpcs.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * @param worker
+     */
+    @Override
+    public void evict(Worker worker) {
+        URL rpcBaseUrl = worker.getRpcBaseUrl();
+        if (rpcBaseUrl == null) {
+            return;
+        }
+
+        rpcs.computeIfPresent(rpcBaseUrl.toString(), (url, rpc) ->
+                Objects.equals(rpc.workerId(), worker.getId()) ? null : rpc
+        );
+    }
+
+
+    /**
+     * 已缓存的 RPC 数量
+     */
+    public int size() {
+        return rpcs.size();
+    }
+
+
+    private OkHttpClient newClient(Duration connectTimeout, Duration readTimeout) {
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .connectTimeout(connectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
 
 }
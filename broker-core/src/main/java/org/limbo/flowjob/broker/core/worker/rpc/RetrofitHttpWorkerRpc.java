@@ -16,32 +16,52 @@
 
 package org.limbo.flowjob.broker.core.worker.rpc;
 
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
 import org.apache.commons.lang3.BooleanUtils;
 import org.limbo.flowjob.api.remote.constants.HttpWorkerApi;
 import org.limbo.flowjob.api.ResponseDTO;
+import org.limbo.flowjob.api.remote.dto.TaskSubmitResultDTO;
+import org.limbo.flowjob.api.remote.param.TaskBatchSubmitParam;
 import org.limbo.flowjob.api.remote.param.TaskSubmitParam;
 import org.limbo.flowjob.broker.core.domain.task.Task;
 import org.limbo.flowjob.broker.core.exceptions.WorkerException;
 import org.limbo.flowjob.broker.core.worker.Worker;
 import retrofit2.Call;
+import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.http.Body;
 import retrofit2.http.Headers;
 import retrofit2.http.POST;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author Brozen
  * @since 2022-08-26
  */
+@Slf4j
 public class RetrofitHttpWorkerRpc extends HttpWorkerRpc {
 
     private final RetrofitWorkerApi api;
 
     public RetrofitHttpWorkerRpc(Worker worker) {
+        this(worker, new OkHttpClient());
+    }
+
+    /**
+     * @param worker 通信的 Worker
+     * @param client 使用的 OkHttp 客户端，多个 RPC 可共享同一个客户端以复用连接池
+     */
+    public RetrofitHttpWorkerRpc(Worker worker, OkHttpClient client) {
         super(worker);
         this.api = new Retrofit.Builder()
                 .baseUrl(getBaseUrl())
+                .client(client)
                 .addConverterFactory(GsonConverterFactory.create())
                 .build().create(RetrofitWorkerApi.class);
     }
@@ -58,6 +78,57 @@ public class RetrofitHttpWorkerRpc extends HttpWorkerRpc {
         return BooleanUtils.isTrue(result);
     }
 
+    /**
+     * {@inheritDoc}
+     * 不支持批量接口的 worker 返回 404，此时逐个发送。
+     *
+     * @param tasks 作业实例
+     * @return
+     */
+    @Override
+    public List<Boolean> sendTasks(List<Task> tasks) {
+        List<TaskSubmitParam> params = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            params.add(WorkerConverter.toTaskSubmitParam(task));
+        }
+        TaskBatchSubmitParam param = new TaskBatchSubmitParam();
+        param.setTasks(params);
+
+        Response<ResponseDTO<List<TaskSubmitResultDTO>>> response;
+        try {
+            response = api.sendTasks(param).execute();
+        } catch (Exception e) {
+            throw new WorkerException(workerId(), "http api execute error", e);
+        }
+
+        List<Boolean> accepted = new ArrayList<>(tasks.size());
+        if (response.code() == 404) {
+            // 已经被接受的 task 不能因为后面的 task 失败而被重新下发，单个失败只影响自己
+            for (Task task : tasks) {
+                try {
+                    accepted.add(sendTask(task));
+                } catch (WorkerException e) {
+                    log.warn("send task to worker fail, worker={} task={}", workerId(), task.getTaskId(), e);
+                    accepted.add(false);
+                }
+            }
+            return accepted;
+        }
+
+        // 按 taskId 对应结果，未返回结果的 task 视为未接受
+        List<TaskSubmitResultDTO> results = getResponseData(response::body);
+        Map<String, Boolean> resultMap = new HashMap<>();
+        if (results != null) {
+            for (TaskSubmitResultDTO result : results) {
+                resultMap.put(result.getTaskId(), result.isAccepted());
+            }
+        }
+        for (Task task : tasks) {
+            accepted.add(BooleanUtils.isTrue(resultMap.get(task.getTaskId())));
+        }
+        return accepted;
+    }
+
     private <T> T send(Call<ResponseDTO<T>> call) {
         return getResponseData(() -> {
             try {
@@ -80,6 +151,12 @@ public class RetrofitHttpWorkerRpc extends HttpWorkerRpc {
         @POST(HttpWorkerApi.API_SEND_TASK)
         Call<ResponseDTO<Boolean>> sendTask(@Body TaskSubmitParam param);
 
+        @Headers(
+                "Content-Type: application/json"
+        )
+        @POST(HttpWorkerApi.API_SEND_TASK_BATCH)
+        Call<ResponseDTO<List<TaskSubmitResultDTO>>> sendTasks(@Body TaskBatchSubmitParam param);
+
     }
 
 }
@@ -18,20 +18,15 @@
 
 package org.limbo.flowjob.broker.core.worker.rpc;
 
-import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.api.remote.dto.WorkerAvailableResourceDTO;
 import org.limbo.flowjob.api.remote.dto.WorkerMetricDTO;
 import org.limbo.flowjob.api.remote.param.TaskSubmitParam;
 import org.limbo.flowjob.broker.core.domain.task.Task;
 import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
 import org.limbo.flowjob.broker.core.worker.metric.WorkerMetric;
-import org.limbo.flowjob.common.utils.attribute.Attributes;
+import org.limbo.flowjob.common.constants.TaskType;
 
 import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * @author Devil
@@ -56,23 +51,10 @@ public class WorkerConverter {
         taskSubmitParam.setExecutorName(task.getExecutorName());
         taskSubmitParam.setContext(task.getContext() == null ? Collections.emptyMap() : task.getContext().toMap());
         taskSubmitParam.setAttributes(task.getAttributes() == null ? Collections.emptyMap() : task.getAttributes().toMap());
+        taskSubmitParam.setType(task.getTaskType().type);
 
-        switch (task.getTaskType()) {
-            case MAP:
-                taskSubmitParam.setMapAttributes(task.getMapAttributes() == null ? Collections.emptyMap() : task.getMapAttributes().toMap());
-                break;
-            case REDUCE:
-                List<Map<String, Object>> reduceAttrs = new LinkedList<>();
-                if (CollectionUtils.isNotEmpty(task.getReduceAttributes())) {
-                    reduceAttrs = task.getReduceAttributes().stream()
-                            .filter(attrs -> attrs != null && !attrs.isEmpty())
-                            .map(Attributes::toMap)
-                            .collect(Collectors.toList());
-                }
-                taskSubmitParam.setReduceAttributes(reduceAttrs);
-                break;
-            default:
-                break;
+        if (task.getTaskType() == TaskType.MAP) {
+            taskSubmitParam.setMapAttributes(task.getMapAttributes() == null ? Collections.emptyMap() : task.getMapAttributes().toMap());
         }
         return taskSubmitParam;
     }
@@ -21,6 +21,8 @@ import org.limbo.flowjob.common.constants.WorkerStatus;
 import org.limbo.flowjob.broker.core.domain.task.Task;
 import org.limbo.flowjob.broker.core.worker.metric.WorkerMetric;
 
+import java.util.List;
+
 /**
  * Worker 通信接口
  *
@@ -36,6 +38,13 @@ public interface WorkerRpc {
      */
     boolean sendTask(Task task);
 
+    /**
+     * 批量发送作业到worker执行，worker 对每个 task 单独判断是否接受
+     * @param tasks 作业实例
+     * @return 按 tasks 的顺序返回每个 task 是否被 worker 接受
+     */
+    List<Boolean> sendTasks(List<Task> tasks);
+
     String workerId();
 
     Protocol protocol();
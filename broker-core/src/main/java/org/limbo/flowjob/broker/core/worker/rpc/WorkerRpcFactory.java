@@ -18,6 +18,8 @@ package org.limbo.flowjob.broker.core.worker.rpc;
 
 import org.limbo.flowjob.broker.core.worker.Worker;
 
+import java.time.Duration;
+
 /**
  * @author Brozen
  * @since 2022-08-12
@@ -40,5 +42,23 @@ public interface WorkerRpcFactory {
     WorkerRpc createRPC(Worker worker);
 
 
+    /**
+     * 设置与 Worker 通信的连接超时、读超时。已缓存的 RPC 客户端会失效，之后创建的 RPC 使用新的超时配置。
+     * 默认不做处理。
+     *
+     * @param connectTimeout 连接超时
+     * @param readTimeout 读超时
+     */
+    default void setTimeout(Duration connectTimeout, Duration readTimeout) {
+    }
+
+
+    /**
+     * Worker 下线时，移除为其缓存的 RPC 客户端。默认不做处理。
+     */
+    default void evict(Worker worker) {
+    }
+
+
 
 }
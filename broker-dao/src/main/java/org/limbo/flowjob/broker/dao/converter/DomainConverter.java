@@ -19,7 +19,9 @@
 package org.limbo.flowjob.broker.dao.converter;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import lombok.Getter;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
 import org.limbo.flowjob.broker.core.domain.job.JobInfo;
@@ -28,6 +30,7 @@ import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInfo;
 import org.limbo.flowjob.broker.core.domain.plan.Plan;
 import org.limbo.flowjob.broker.core.domain.plan.SinglePlan;
 import org.limbo.flowjob.broker.core.domain.plan.WorkflowPlan;
+import org.limbo.flowjob.broker.core.domain.task.ReduceRange;
 import org.limbo.flowjob.broker.core.domain.task.Task;
 import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
 import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
@@ -43,6 +46,7 @@ import org.limbo.flowjob.broker.dao.entity.TaskEntity;
 import org.limbo.flowjob.broker.dao.repositories.JobInfoEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanInfoEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.PlanInstanceEntityRepo;
+import org.limbo.flowjob.broker.dao.support.PlanDefinitionCache;
 import org.limbo.flowjob.common.constants.JobType;
 import org.limbo.flowjob.common.constants.PlanType;
 import org.limbo.flowjob.common.constants.ScheduleType;
@@ -60,8 +64,15 @@ import org.springframework.stereotype.Component;
 import javax.inject.Inject;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -70,6 +81,7 @@ import java.util.stream.Collectors;
  * @author Devil
  * @since 2022/8/11
  */
+@Slf4j
 @Component
 public class DomainConverter {
 
@@ -88,15 +100,117 @@ public class DomainConverter {
     @Setter(onMethod_ = @Inject)
     private MetaTaskScheduler metaTaskScheduler;
 
+    /**
+     * 按版本缓存的计划定义，PlanInfo、JobInfo 按版本不可变，无需失效
+     */
+    @Getter
+    private final PlanDefinitionCache planDefinitionCache = new PlanDefinitionCache(this::loadPlans);
+
     public PlanScheduleTask toPlanScheduleTask(PlanEntity entity) {
         // 获取plan 的当前版本
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(entity.getCurrentVersion()).orElse(null);
-        Verifies.notNull(planInfoEntity, "does not find " + entity.getPlanId() + " plan's info by version--" + entity.getCurrentVersion() + "");
+        Plan plan = planDefinitionCache.get(entity.getCurrentVersion());
+        planDefinitionCache.updateCurrentVersion(entity.getPlanId(), entity.getCurrentVersion());
+
+        // 获取最近一次调度的planInstance和最近一次结束的planInstance
+        PlanInstanceEntity latelyTrigger = planInstanceEntityRepo.findLatelyTrigger(entity.getPlanId());
+        PlanInstanceEntity latelyFeedback = planInstanceEntityRepo.findLatelyFeedback(entity.getPlanId());
+
+        return toPlanScheduleTask(
+                plan,
+                latelyTrigger == null ? null : latelyTrigger.getTriggerAt(),
+                latelyFeedback == null ? null : latelyFeedback.getFeedbackAt()
+        );
+    }
+
+    /**
+     * 批量转换，plan信息通过缓存批量获取，最近触发/反馈时间通过批量查询获取，再并行构建调度任务。
+     * 单个plan数据异常时跳过该plan，不影响其他plan。
+     * @param entities 一批plan，数量应控制在单次 in 查询可接受的范围内
+     */
+    public List<PlanScheduleTask> toPlanScheduleTasks(List<PlanEntity> entities) {
+        if (CollectionUtils.isEmpty(entities)) {
+            return Collections.emptyList();
+        }
 
-        Plan plan;
+        // plan 的当前版本，未缓存的版本批量加载
+        Set<String> versions = entities.stream().map(PlanEntity::getCurrentVersion).collect(Collectors.toSet());
+        Map<String, Plan> plans = planDefinitionCache.getAll(versions);
+
+        // 最近一次触发时间和最近一次反馈时间
+        Set<String> planIds = entities.stream().map(PlanEntity::getPlanId).collect(Collectors.toSet());
+        Map<String, LocalDateTime> latelyTriggerAt = toTimeMap(planInstanceEntityRepo.findLatelyTriggerAt(planIds));
+        Map<String, LocalDateTime> latelyFeedbackAt = toTimeMap(planInstanceEntityRepo.findLatelyFeedbackAt(planIds));
+
+        return entities.parallelStream()
+                .map(entity -> {
+                    try {
+                        Plan plan = plans.get(entity.getCurrentVersion());
+                        Verifies.notNull(plan, "does not find " + entity.getPlanId() + " plan's info by version--" + entity.getCurrentVersion() + "");
+                        planDefinitionCache.updateCurrentVersion(entity.getPlanId(), entity.getCurrentVersion());
+                        return toPlanScheduleTask(
+                                plan,
+                                latelyTriggerAt.get(entity.getPlanId()),
+                                latelyFeedbackAt.get(entity.getPlanId())
+                        );
+                    } catch (Exception e) {
+                        log.error("convert plan {} version {} to schedule task failed", entity.getPlanId(), entity.getCurrentVersion(), e);
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private PlanScheduleTask toPlanScheduleTask(Plan plan, LocalDateTime latelyTriggerAt, LocalDateTime latelyFeedbackAt) {
+        return new PlanScheduleTask(
+                plan,
+                latelyTriggerAt,
+                latelyFeedbackAt,
+                scheduleStrategyFactory.build(plan.planType()),
+                metaTaskScheduler
+        );
+    }
+
+    /**
+     * 根据版本批量构建计划，作为{@link PlanDefinitionCache}的加载方法。
+     * 数据异常的版本跳过，不影响其他版本。
+     */
+    private Map<String, Plan> loadPlans(Collection<String> versions) {
+        List<PlanInfoEntity> planInfoEntities = planInfoEntityRepo.findAllById(versions);
+
+        // 工作流 plan 的全部 job
+        Set<String> jobIds = new HashSet<>();
+        for (PlanInfoEntity planInfoEntity : planInfoEntities) {
+            if (PlanType.WORKFLOW == PlanType.parse(planInfoEntity.getPlanType())) {
+                jobIds.addAll(workflowJobIds(planInfoEntity));
+            }
+        }
+        Map<String, JobInfoEntity> jobInfoEntities = jobIds.isEmpty() ? Collections.emptyMap()
+                : jobInfoEntityRepo.findAllById(jobIds).stream()
+                .collect(Collectors.toMap(JobInfoEntity::getJobInfoId, Function.identity(), (e1, e2) -> e1));
+
+        Map<String, Plan> plans = new HashMap<>();
+        for (PlanInfoEntity planInfoEntity : planInfoEntities) {
+            try {
+                List<JobInfoEntity> planJobInfoEntities = null;
+                if (PlanType.WORKFLOW == PlanType.parse(planInfoEntity.getPlanType())) {
+                    planJobInfoEntities = workflowJobIds(planInfoEntity).stream()
+                            .map(jobInfoEntities::get)
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.toList());
+                }
+                plans.put(planInfoEntity.getPlanInfoId(), toPlan(planInfoEntity, planJobInfoEntities));
+            } catch (Exception e) {
+                log.error("build plan {} version {} failed", planInfoEntity.getPlanId(), planInfoEntity.getPlanInfoId(), e);
+            }
+        }
+        return plans;
+    }
+
+    public Plan toPlan(PlanInfoEntity planInfoEntity, List<JobInfoEntity> jobInfoEntities) {
         PlanType planType = PlanType.parse(planInfoEntity.getPlanType());
         if (PlanType.SINGLE == planType) {
-            plan = new SinglePlan(
+            return new SinglePlan(
                     planInfoEntity.getPlanId(),
                     planInfoEntity.getPlanInfoId(),
                     TriggerType.parse(planInfoEntity.getTriggerType()),
@@ -104,11 +218,8 @@ public class DomainConverter {
                     JacksonUtils.parseObject(planInfoEntity.getJobInfo(), JobInfo.class)
             );
         } else if (PlanType.WORKFLOW == planType) {
-            DAG<WorkflowJobInfo> dag = toJobDag(planInfoEntity.getJobInfo(), null);
-            List<String> jobIds = dag.nodes().stream().map(DAGNode::getId).collect(Collectors.toList());
-            List<JobInfoEntity> jobInfoEntities = jobInfoEntityRepo.findAllById(jobIds);
-            Verifies.notEmpty(jobInfoEntities, "does not find " + entity.getPlanId() + " plan's job info by version--" + entity.getCurrentVersion() + "");
-            plan = new WorkflowPlan(
+            Verifies.notEmpty(jobInfoEntities, "does not find " + planInfoEntity.getPlanId() + " plan's job info by version--" + planInfoEntity.getPlanInfoId() + "");
+            return new WorkflowPlan(
                     planInfoEntity.getPlanId(),
                     planInfoEntity.getPlanInfoId(),
                     TriggerType.parse(planInfoEntity.getTriggerType()),
@@ -116,21 +227,29 @@ public class DomainConverter {
                     toJobDag(planInfoEntity.getJobInfo(), jobInfoEntities)
             );
         } else {
-            throw new IllegalArgumentException("Illegal PlanType in plan:" + entity.getPlanId() + " version:" + entity.getCurrentVersion());
+            throw new IllegalArgumentException("Illegal PlanType in plan:" + planInfoEntity.getPlanId() + " version:" + planInfoEntity.getPlanInfoId());
         }
+    }
 
-        // 获取最近一次调度的planInstance和最近一次结束的planInstance
-        PlanInstanceEntity latelyTrigger = planInstanceEntityRepo.findLatelyTrigger(entity.getPlanId());
-        PlanInstanceEntity latelyFeedback = planInstanceEntityRepo.findLatelyFeedback(entity.getPlanId());
-
-        return new PlanScheduleTask(
-                plan,
-                latelyTrigger == null ? null : latelyTrigger.getTriggerAt(),
-                latelyFeedback == null ? null : latelyFeedback.getFeedbackAt(),
-                scheduleStrategyFactory.build(plan.planType()),
-                metaTaskScheduler
-        );
+    /**
+     * 工作流中的全部 jobId
+     */
+    private List<String> workflowJobIds(PlanInfoEntity planInfoEntity) {
+        DAG<WorkflowJobInfo> dag = toJobDag(planInfoEntity.getJobInfo(), null);
+        return dag.nodes().stream().map(DAGNode::getId).collect(Collectors.toList());
+    }
 
+    /**
+     * [planId, time] 转为 map
+     */
+    private Map<String, LocalDateTime> toTimeMap(List<Object[]> rows) {
+        Map<String, LocalDateTime> times = new HashMap<>();
+        for (Object[] row : rows) {
+            if (row[1] != null) {
+                times.put((String) row[0], (LocalDateTime) row[1]);
+            }
+        }
+        return times;
     }
 
     public ScheduleOption toScheduleOption(PlanInfoEntity entity) {
@@ -181,6 +300,14 @@ public class DomainConverter {
         taskEntity.setStatus(task.getStatus().status);
         taskEntity.setWorkerId(task.getWorkerId());
         taskEntity.setAttributes(task.getAttributes() == null ? "{}" : task.getAttributes().toString());
+        if (task.getMapAttributes() != null) {
+            taskEntity.setMapAttributes(task.getMapAttributes().toString());
+        }
+        taskEntity.setReduceLevel(task.getReduceLevel());
+        if (task.getReduceRange() != null) {
+            taskEntity.setReduceFromId(task.getReduceRange().getFromId());
+            taskEntity.setReduceToId(task.getReduceRange().getToId());
+        }
         taskEntity.setTaskId(task.getTaskId());
         return taskEntity;
     }
@@ -194,24 +321,24 @@ public class DomainConverter {
         task.setTaskType(TaskType.parse(entity.getType()));
         task.setWorkerId(entity.getWorkerId());
         task.setAttributes(new Attributes(entity.getAttributes()));
+        if (entity.getMapAttributes() != null) {
+            task.setMapAttributes(new Attributes(entity.getMapAttributes()));
+        }
+        task.setReduceLevel(entity.getReduceLevel() == null ? 0 : entity.getReduceLevel());
+        if (entity.getReduceFromId() != null && entity.getReduceToId() != null) {
+            task.setReduceRange(new ReduceRange(entity.getReduceFromId(), entity.getReduceToId()));
+        }
         task.setPlanId(entity.getPlanId());
         task.setPlanVersion(entity.getPlanInfoId());
 
-        // plan
-        PlanInfoEntity planInfoEntity = planInfoEntityRepo.findById(entity.getPlanInfoId()).orElse(null);
-        PlanType planType = PlanType.parse(planInfoEntity.getPlanType());
-        task.setPlanType(planType);
+        // plan 和 job 从缓存获取
+        Plan plan = planDefinitionCache.get(entity.getPlanInfoId());
+        task.setPlanType(plan.planType());
 
-        // job
-        if (PlanType.SINGLE == planType) {
-            JobInfo jobInfo = JacksonUtils.parseObject(planInfoEntity.getJobInfo(), JobInfo.class);
-            task.setDispatchOption(jobInfo.getDispatchOption());
-            task.setExecutorName(jobInfo.getExecutorName());
-        } else {
-            JobInfoEntity jobInfoEntity = jobInfoEntityRepo.findById(entity.getJobId()).orElse(null);
-            task.setDispatchOption(JacksonUtils.parseObject(jobInfoEntity.getDispatchOption(), DispatchOption.class));
-            task.setExecutorName(jobInfoEntity.getExecutorName());
-        }
+        JobInfo jobInfo = planDefinitionCache.getJobInfo(entity.getPlanInfoId(), entity.getJobId());
+        Verifies.notNull(jobInfo, "does not find job " + entity.getJobId() + " in plan version--" + entity.getPlanInfoId());
+        task.setDispatchOption(jobInfo.getDispatchOption());
+        task.setExecutorName(jobInfo.getExecutorName());
         return task;
     }
 
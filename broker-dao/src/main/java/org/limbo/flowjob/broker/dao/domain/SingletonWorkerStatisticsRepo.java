@@ -16,42 +16,55 @@
 
 package org.limbo.flowjob.broker.dao.domain;
 
-import lombok.AllArgsConstructor;
 import lombok.Setter;
 import org.limbo.flowjob.broker.core.domain.task.Task;
 import org.limbo.flowjob.broker.core.statistics.WorkerLBStatistics;
 import org.limbo.flowjob.broker.core.statistics.WorkerStatisticsRepository;
 import org.limbo.flowjob.broker.core.worker.Worker;
-import org.limbo.flowjob.common.utils.concurrent.Lockable;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * 单机内存存储 Worker 统计数据
+ * 单机内存存储 Worker 统计数据。
+ * 每个 Worker 一个按时间分桶的环形计数器，桶内使用{@link LongAdder}计数，记录下发为 O(1) 且无锁竞争；
+ * 查询时只累加查询区间覆盖的桶，复杂度为 O(Worker 数量 * 区间桶数量)。
+ * 统计精度为一个桶的时长，查询时间点所在的桶会整体计入。
  *
  * @author Brozen
  * @since 2022-12-21
  */
-public class SingletonWorkerStatisticsRepo extends Lockable<List<SingletonWorkerStatisticsRepo.WorkerDispatchRecord>> implements WorkerStatisticsRepository {
+public class SingletonWorkerStatisticsRepo implements WorkerStatisticsRepository {
 
     /**
-     * 最久统计多长时间的数据，默认 12H。
+     * 最久统计多长时间的数据，默认 12H。需要在记录数据之前设置。
      */
     @Setter
     private Duration maxStatisticDuration = Duration.ofHours(12);
 
+    /**
+     * 每个桶统计的时长，默认 1 分钟。需要在记录数据之前设置。
+     */
+    @Setter
+    private Duration bucketDuration = Duration.ofMinutes(1);
 
-    public SingletonWorkerStatisticsRepo() {
-        super(new ArrayList<>());
-    }
+    /**
+     * 各 Worker 的下发计数器
+     */
+    private final Map<String, DispatchCounter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * 上次清理过期计数器的时间
+     */
+    private final AtomicLong lastSweepAt = new AtomicLong(System.currentTimeMillis());
 
 
     /**
@@ -59,29 +72,20 @@ public class SingletonWorkerStatisticsRepo extends Lockable<List<SingletonWorker
      */
     @Override
     public void recordTaskDispatched(Task task, Worker worker) {
-        runInWriteLock(records -> {
-            // 新增记录
-            records.add(new WorkerDispatchRecord(
-                    task.getWorkerId(), Instant.now()
-            ));
-
-            // 同时检测头部 10 条记录是否过时，如过时需要移除
-            int maxDetectItems = 10;
-            Instant expiresLimit = Instant.now().plusSeconds(-maxStatisticDuration.getSeconds());
-            Iterator<WorkerDispatchRecord> iterator = records.iterator();
-            for (int i = 0; i < maxDetectItems; i++) {
-                if (!iterator.hasNext()) {
-                    break;
-                }
+        long now = System.currentTimeMillis();
+        // 先 get 再 computeIfAbsent，JDK8 的 computeIfAbsent 在 key 存在时也会加锁
+        DispatchCounter counter = counters.get(worker.getId());
+        if (counter == null) {
+            counter = counters.computeIfAbsent(worker.getId(), id -> new DispatchCounter(buckets()));
+        }
+        counter.record(now, bucketMillis());
 
-                WorkerDispatchRecord r = iterator.next();
-                if (r.dispatchAt.isBefore(expiresLimit)) {
-                    iterator.remove();
-                } else {
-                    break;
-                }
-            }
-        });
+        // 每个桶的时长清理一次长时间没有下发的 Worker，避免已下线的 Worker 一直占用内存
+        long sweepAt = lastSweepAt.get();
+        if (now - sweepAt > bucketMillis() && lastSweepAt.compareAndSet(sweepAt, now)) {
+            long expiresAt = now - maxStatisticDuration.toMillis();
+            counters.values().removeIf(c -> c.lastDispatchAt < expiresAt);
+        }
     }
 
 
@@ -93,57 +97,102 @@ public class SingletonWorkerStatisticsRepo extends Lockable<List<SingletonWorker
      */
     @Override
     public List<WorkerLBStatistics> list(Set<String> workerIds, Instant limit) {
-        // 读取所有统计数据
-        Map<String, MutableWorkerLBStatistics> statistics = new HashMap<>();
-        runInReadLock(records -> {
-            for (int i = records.size() - 1; i >= 0; i--) {
-                WorkerDispatchRecord record = records.get(i);
-                if (workerIds.contains(record.workerId)
-                        && record.dispatchAt.isAfter(limit)) {
-                    MutableWorkerLBStatistics s = statistics.computeIfAbsent(
-                            record.workerId,
-                            MutableWorkerLBStatistics::new
-                    );
-                    s.statisticRecord(record);
-                }
+        long now = System.currentTimeMillis();
+        long bucketMillis = bucketMillis();
+        long limitMillis = limit.toEpochMilli();
+
+        List<WorkerLBStatistics> statistics = new ArrayList<>();
+        for (String workerId : workerIds) {
+            DispatchCounter counter = counters.get(workerId);
+            if (counter == null || counter.lastDispatchAt <= limitMillis) {
+                continue;
             }
-        });
 
-        return statistics.values().stream()
-                .map(s -> new WorkerLBStatistics(s.workerId, s.lastDispatchTaskAt, s.dispatchTimes))
-                .collect(Collectors.toList());
+            long times = counter.sum(now, limitMillis, bucketMillis);
+            if (times > 0) {
+                statistics.add(new WorkerLBStatistics(
+                        workerId, Instant.ofEpochMilli(counter.lastDispatchAt), (int) Math.min(times, Integer.MAX_VALUE)
+                ));
+            }
+        }
+        return statistics;
     }
 
 
+    private long bucketMillis() {
+        return Math.max(bucketDuration.toMillis(), 1);
+    }
+
+
+    private int buckets() {
+        return (int) (maxStatisticDuration.toMillis() / bucketMillis()) + 1;
+    }
+
 
-    public static class MutableWorkerLBStatistics {
-        private final String workerId;
-        private Instant lastDispatchTaskAt;
-        private int dispatchTimes;
+    /**
+     * 单个 Worker 的环形计数器，第 n 个时间片的计数保存在 n % 桶数量 的位置，时间片过期后被新的桶替换
+     */
+    static class DispatchCounter {
+
+        private final AtomicReferenceArray<Bucket> buckets;
 
-        MutableWorkerLBStatistics(String workerId) {
-            this.workerId = workerId;
+        /**
+         * 最近一次下发时间，并发记录时可能不是最大值，误差在并发写入的时间差内
+         */
+        private volatile long lastDispatchAt;
+
+        DispatchCounter(int size) {
+            this.buckets = new AtomicReferenceArray<>(size);
         }
 
-        void statisticRecord(WorkerDispatchRecord record) {
-            if (this.lastDispatchTaskAt == null
-                    || this.lastDispatchTaskAt.isBefore(record.dispatchAt)) {
-                this.lastDispatchTaskAt = record.dispatchAt;
+        void record(long now, long bucketMillis) {
+            long epoch = now / bucketMillis;
+            int idx = (int) (epoch % buckets.length());
+            Bucket bucket = buckets.get(idx);
+            while (bucket == null || bucket.epoch != epoch) {
+                if (bucket != null && bucket.epoch > epoch) {
+                    // 时间回拨或当前线程记录晚于其他线程，计入较新的桶
+                    break;
+                }
+                Bucket created = new Bucket(epoch);
+                if (buckets.compareAndSet(idx, bucket, created)) {
+                    bucket = created;
+                } else {
+                    bucket = buckets.get(idx);
+                }
             }
+            bucket.count.increment();
+            lastDispatchAt = now;
+        }
 
-            this.dispatchTimes++;
+        long sum(long now, long limit, long bucketMillis) {
+            long current = now / bucketMillis;
+            long first = Math.max(limit / bucketMillis, current - buckets.length() + 1);
+            long times = 0;
+            for (long epoch = current; epoch >= first; epoch--) {
+                Bucket bucket = buckets.get((int) (epoch % buckets.length()));
+                if (bucket != null && bucket.epoch == epoch) {
+                    times += bucket.count.sum();
+                }
+            }
+            return times;
         }
 
     }
 
 
+    /**
+     * 一个时间片内的下发次数
+     */
+    static class Bucket {
 
-    @AllArgsConstructor
-    public static class WorkerDispatchRecord {
+        final long epoch;
 
-        public final String workerId;
+        final LongAdder count = new LongAdder();
 
-        public final Instant dispatchAt;
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
 
     }
 
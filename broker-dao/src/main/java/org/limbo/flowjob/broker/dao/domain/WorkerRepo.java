@@ -38,9 +38,13 @@ import org.springframework.stereotype.Repository;
 
 import javax.inject.Inject;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -150,10 +154,35 @@ public class WorkerRepo implements WorkerRepository {
      */
     @Override
     public List<Worker> listAvailableWorkers() {
-        return workerEntityRepo.findByStatusAndDeleted(WorkerStatus.RUNNING.status, false)
-                .stream()
-                .map(this::toWorkerWithLazyInit)
-                .collect(Collectors.toList());
+        List<WorkerEntity> entities = workerEntityRepo.findByStatusAndDeleted(WorkerStatus.RUNNING.status, false);
+        if (CollectionUtils.isEmpty(entities)) {
+            return Collections.emptyList();
+        }
+
+        // 标签、执行器、指标批量查询，避免每个 worker 单独查询
+        List<String> workerIds = entities.stream().map(WorkerEntity::getWorkerId).collect(Collectors.toList());
+        Map<String, List<WorkerTagEntity>> tags = tagEntityRepo.findByWorkerIdIn(workerIds).stream()
+                .collect(Collectors.groupingBy(WorkerTagEntity::getWorkerId));
+        Map<String, List<WorkerExecutorEntity>> executors = executorEntityRepo.findByWorkerIdIn(workerIds).stream()
+                .collect(Collectors.groupingBy(WorkerExecutorEntity::getWorkerId));
+        Map<String, WorkerMetricEntity> metrics = metricEntityRepo.findAllById(workerIds).stream()
+                .collect(Collectors.toMap(WorkerMetricEntity::getWorkerId, Function.identity()));
+
+        List<Worker> workers = new ArrayList<>(entities.size());
+        for (WorkerEntity entity : entities) {
+            String workerId = entity.getWorkerId();
+            WorkerMetricEntity metric = metrics.get(workerId);
+            if (metric == null) {
+                // 注册时 worker 与指标在同一事务保存，没有指标的数据不完整，跳过
+                continue;
+            }
+            workers.add(converter.toWorker(entity,
+                    converter.toTags(tags.getOrDefault(workerId, Collections.emptyList())),
+                    converter.toExecutors(executors.getOrDefault(workerId, Collections.emptyList())),
+                    converter.toMetric(metric)
+            ));
+        }
+        return workers;
     }
 
 
@@ -0,0 +1,76 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.entity;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.DynamicInsert;
+import org.hibernate.annotations.DynamicUpdate;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Plan 变更日志，自增id即变更序号
+ *
+ * @author Brozen
+ * @since 2023-02-13
+ */
+@Setter
+@Getter
+@Table(name = "flowjob_plan_change")
+@Entity
+@DynamicInsert
+@DynamicUpdate
+public class PlanChangeEntity extends BaseEntity {
+
+    private static final long serialVersionUID = -2416307713926870212L;
+
+    /**
+     * 变更序号，单调递增
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String planId;
+
+    /**
+     * 变更后的版本
+     */
+    private String planInfoId;
+
+    /**
+     * plan 所在槽位，用于 broker 只消费自己负责的变更
+     */
+    private Integer slot;
+
+    /**
+     * 变更类型 {@link org.limbo.flowjob.common.constants.PlanChangeType}
+     */
+    private Byte changeType;
+
+    @Override
+    public Object getUid() {
+        return id;
+    }
+}
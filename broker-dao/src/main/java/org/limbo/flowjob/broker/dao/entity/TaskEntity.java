@@ -67,6 +67,26 @@ public class TaskEntity extends BaseEntity {
      */
     private String attributes;
 
+    /**
+     * map 任务的参数
+     */
+    private String mapAttributes;
+
+    /**
+     * reduce 层级，map 任务为第 0 层
+     */
+    private Integer reduceLevel;
+
+    /**
+     * reduce 任务合并的上一层任务起始自增 id，为空表示合并上一层全部任务
+     */
+    private Long reduceFromId;
+
+    /**
+     * reduce 任务合并的上一层任务结束自增 id（包含），为空表示合并上一层全部任务
+     */
+    private Long reduceToId;
+
     /**
      * 此次执行返回的参数
      */
@@ -82,6 +102,11 @@ public class TaskEntity extends BaseEntity {
      */
     private String errorStackTrace;
 
+    /**
+     * 进入下发中的时间，重新下发时续期
+     */
+    private LocalDateTime dispatchAt;
+
     /**
      * 开始时间
      */
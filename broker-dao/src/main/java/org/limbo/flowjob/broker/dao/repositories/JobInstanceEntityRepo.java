@@ -25,6 +25,8 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -41,10 +43,47 @@ public interface JobInstanceEntityRepo extends JpaRepository<JobInstanceEntity,
 
     List<JobInstanceEntity> findByPlanInstanceIdAndJobIdIn(String planInstanceId, List<String> jobIds);
 
+    List<JobInstanceEntity> findByPlanInstanceId(String planInstanceId);
+
     @Modifying(clearAutomatically = true)
     @Query(value = "update JobInstanceEntity set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING + " where jobInstanceId = :jobInstanceId and status = " + ConstantsPool.SCHEDULE_STATUS_SCHEDULING)
     int updateStatusExecuting(@Param("jobInstanceId") String jobInstanceId);
 
+    /**
+     * 锁定 job 实例，读取当前阶段的 task 完成计数和状态
+     * @return [task_total, task_succeed, task_failed, status]，job 实例不存在时为空
+     */
+    @Query(value = "select task_total, task_succeed, task_failed, status from flowjob_job_instance where job_instance_id = :jobInstanceId for update", nativeQuery = true)
+    List<Object[]> lockTaskCounter(@Param("jobInstanceId") String jobInstanceId);
+
+    /**
+     * 查询 task 已经全部完成但仍在执行中的 job 实例，即完成后的处理没有提交
+     * @param updatedBefore 最后一次更新早于该时间，避免与正在进行的处理竞争
+     */
+    @Query(value = "select job_instance_id from flowjob_job_instance where plan_id in :planIds and status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING
+            + " and task_total > 0 and task_succeed + task_failed >= task_total and updated_at < :updatedBefore", nativeQuery = true)
+    List<String> findStalledExecuting(@Param("planIds") Collection<String> planIds, @Param("updatedBefore") LocalDateTime updatedBefore);
+
+    /**
+     * 开始新的阶段时重置 task 完成计数
+     */
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update flowjob_job_instance set task_total = :taskTotal, task_succeed = 0, task_failed = 0 where job_instance_id = :jobInstanceId", nativeQuery = true)
+    int resetTaskCounter(@Param("jobInstanceId") String jobInstanceId, @Param("taskTotal") int taskTotal);
+
+    /**
+     * 查询已经进入调度的最大的 map 任务自增 id，job 实例不存在时为 null
+     */
+    @Query(value = "select map_cursor from flowjob_job_instance where job_instance_id = :jobInstanceId", nativeQuery = true)
+    Long findMapCursor(@Param("jobInstanceId") String jobInstanceId);
+
+    /**
+     * 推进 map 任务的下发位置，只有位置未被其他节点推进过才能更新成功
+     */
+    @Modifying(clearAutomatically = true)
+    @Query(value = "update flowjob_job_instance set map_cursor = :cursor where job_instance_id = :jobInstanceId and map_cursor = :expect", nativeQuery = true)
+    int updateMapCursor(@Param("jobInstanceId") String jobInstanceId, @Param("expect") long expect, @Param("cursor") long cursor);
+
     @Modifying(clearAutomatically = true)
     @Query(value = "update JobInstanceEntity set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_SUCCEED + " where jobInstanceId = :jobInstanceId and status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING)
     int updateStatusSuccess(@Param("jobInstanceId") String jobInstanceId);
@@ -0,0 +1,53 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.repositories;
+
+import org.limbo.flowjob.broker.dao.entity.PlanChangeEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+/**
+ * @author Brozen
+ * @since 2023-02-13
+ */
+public interface PlanChangeEntityRepo extends JpaRepository<PlanChangeEntity, Long> {
+
+    /**
+     * 按序号顺序获取指定槽位中，序号大于游标的变更
+     */
+    @Query(value = "select * from flowjob_plan_change where id > :cursor and slot in :slots order by id limit :limit", nativeQuery = true)
+    List<PlanChangeEntity> findChanges(@Param("cursor") long cursor, @Param("slots") List<Integer> slots, @Param("limit") int limit);
+
+    /**
+     * 按序号顺序获取 (from, to] 之间已经存在的变更序号，不区分槽位，用于发现尚未提交的变更
+     */
+    @Query(value = "select c.id from PlanChangeEntity c where c.id > :from and c.id <= :to order by c.id")
+    List<Long> findIds(@Param("from") long from, @Param("to") long to, Pageable pageable);
+
+    /**
+     * 当前最大的变更序号，没有变更时返回0
+     */
+    @Query(value = "select coalesce(max(id), 0) from PlanChangeEntity")
+    Long findMaxId();
+
+}
@@ -25,7 +25,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
-import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 
@@ -39,10 +39,10 @@ public interface PlanEntityRepo extends JpaRepository<PlanEntity, String>, JpaSp
     PlanEntity selectForUpdate(@Param("planId") String planId);
 
     /**
-     * 修改过的plan
+     * 启用中的plan
      */
-    @Query(value = "select * from flowjob_plan where plan_id in :planIds and updated_at > :updatedAt and is_enabled = true and is_deleted = false", nativeQuery = true)
-    List<PlanEntity> loadUpdatedPlans(@Param("planIds") List<String> planIds, @Param("updatedAt") LocalDateTime updatedAt);
+    @Query(value = "select * from flowjob_plan where plan_id in :planIds and is_enabled = true and is_deleted = false", nativeQuery = true)
+    List<PlanEntity> loadEnabledPlans(@Param("planIds") Collection<String> planIds);
 
     @Modifying(clearAutomatically = true)
     @Query(value = "update PlanEntity set currentVersion = :newCurrentVersion, recentlyVersion = :newRecentlyVersion, name = :name" +
@@ -26,6 +26,8 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author Devil
@@ -35,12 +37,65 @@ public interface PlanInstanceEntityRepo extends JpaRepository<PlanInstanceEntity
 
     PlanInstanceEntity findByPlanIdAndTriggerAtAndTriggerType(String planId, LocalDateTime triggerAt, Byte triggerType);
 
+    /**
+     * 查询一次触发的调度记录ID
+     */
+    @Query(value = "select planInstanceId from PlanInstanceEntity where planId = :planId and triggerAt = :triggerAt and triggerType = :triggerType")
+    String findPlanInstanceId(@Param("planId") String planId, @Param("triggerAt") LocalDateTime triggerAt, @Param("triggerType") Byte triggerType);
+
+    /**
+     * 保存调度记录，(plan_id, trigger_at, trigger_type) 已存在时保留原记录。
+     * 不使用 insert ignore，避免其他错误被降级为警告而被忽略。
+     * 驱动默认返回匹配行数，已存在时也可能返回 1，是否由本次保存需要通过{@link #findPlanInstanceId}确认
+     */
+    @Modifying
+    @Query(value = "insert into flowjob_plan_instance (plan_instance_id, plan_id, plan_info_id, trigger_type, status, trigger_at) " +
+            "values (:planInstanceId, :planId, :planInfoId, :triggerType, :status, :triggerAt) " +
+            "on duplicate key update id = id", nativeQuery = true)
+    int insertIfAbsent(@Param("planInstanceId") String planInstanceId, @Param("planId") String planId, @Param("planInfoId") String planInfoId,
+                       @Param("triggerType") Byte triggerType, @Param("status") Byte status, @Param("triggerAt") LocalDateTime triggerAt);
+
+    /**
+     * 持有槽位租约时保存调度记录，租约 (slot, owner, epoch) 不匹配时不保存，(plan_id, trigger_at, trigger_type) 已存在时保留原记录。
+     * 可重复读隔离级别下读取租约行会加共享锁，事务提交前其他节点无法领取该槽位。
+     * 是否由本次保存需要通过{@link #findPlanInstanceId}确认，见{@link #insertIfAbsent}
+     */
+    @Modifying
+    @Query(value = "insert into flowjob_plan_instance (plan_instance_id, plan_id, plan_info_id, trigger_type, status, trigger_at) " +
+            "select :planInstanceId, :planId, :planInfoId, :triggerType, :status, :triggerAt from flowjob_slot_lease " +
+            "where slot = :slot and owner = :owner and epoch = :epoch " +
+            "on duplicate key update id = flowjob_plan_instance.id", nativeQuery = true)
+    int insertIfAbsentWithLease(@Param("planInstanceId") String planInstanceId, @Param("planId") String planId, @Param("planInfoId") String planInfoId,
+                                @Param("triggerType") Byte triggerType, @Param("status") Byte status, @Param("triggerAt") LocalDateTime triggerAt,
+                                @Param("slot") Integer slot, @Param("owner") String owner, @Param("epoch") Long epoch);
+
     @Query(value = "select * from flowjob_plan_instance where plan_id = :planId order by trigger_at desc limit 1", nativeQuery = true)
     PlanInstanceEntity findLatelyTrigger(@Param("planId") String planId);
 
     @Query(value = "select * from flowjob_plan_instance where plan_id = :planId order by feedback_at desc limit 1", nativeQuery = true)
     PlanInstanceEntity findLatelyFeedback(@Param("planId") String planId);
 
+    /**
+     * 批量查询plan最近一次触发时间
+     * @return [planId, triggerAt]
+     */
+    @Query(value = "select planId, max(triggerAt) from PlanInstanceEntity where planId in :planIds group by planId")
+    List<Object[]> findLatelyTriggerAt(@Param("planIds") Collection<String> planIds);
+
+    /**
+     * 批量查询plan最近一次反馈时间
+     * @return [planId, feedbackAt]
+     */
+    @Query(value = "select planId, max(feedbackAt) from PlanInstanceEntity where planId in :planIds group by planId")
+    List<Object[]> findLatelyFeedbackAt(@Param("planIds") Collection<String> planIds);
+
+    /**
+     * 查询已经结束（执行成功或失败）的 plan 实例
+     */
+    @Query(value = "select planInstanceId from PlanInstanceEntity where planInstanceId in :planInstanceIds and status in ("
+            + ConstantsPool.SCHEDULE_STATUS_EXECUTE_SUCCEED + ", " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_FAILED + ")")
+    List<String> findFinished(@Param("planInstanceIds") Collection<String> planInstanceIds);
+
     @Modifying(clearAutomatically = true)
     @Query(value = "update PlanInstanceEntity set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING + ", startAt = :startAt where planInstanceId = :planInstanceId and status = " + ConstantsPool.SCHEDULE_STATUS_SCHEDULING)
     int executing(@Param("planInstanceId") String planInstanceId, @Param("startAt") LocalDateTime startAt);
@@ -19,6 +19,7 @@
 package org.limbo.flowjob.broker.dao.repositories;
 
 import org.limbo.flowjob.broker.dao.entity.PlanSlotEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.util.List;
@@ -33,4 +34,9 @@ public interface PlanSlotEntityRepo extends JpaRepository<PlanSlotEntity, Long>
 
     PlanSlotEntity findByPlanId(String planId);
 
+    /**
+     * 按 id 顺序分页遍历
+     */
+    List<PlanSlotEntity> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
 }
@@ -20,6 +20,7 @@ package org.limbo.flowjob.broker.dao.repositories;
 
 import org.limbo.flowjob.broker.dao.entity.TaskEntity;
 import org.limbo.flowjob.common.constants.ConstantsPool;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -36,8 +37,29 @@ public interface TaskEntityRepo extends JpaRepository<TaskEntity, String> {
 
     List<TaskEntity> findByJobInstanceIdAndType(String jobInstanceId, Byte type);
 
+    long countByJobInstanceIdAndType(String jobInstanceId, Byte type);
+
+    /**
+     * job 实例最后创建的 task，即当前阶段的 task
+     */
+    TaskEntity findTopByJobInstanceIdOrderByIdDesc(String jobInstanceId);
+
     List<TaskEntity> findByPlanIdInAndStatus(List<String> planIds, Byte status);
 
+    /**
+     * 查询下发超时的 task，即下发时间早于 expiredBefore 仍为下发中
+     */
+    @Query(value = "select t from TaskEntity t where t.planId in :planIds and t.status = " + ConstantsPool.SCHEDULE_STATUS_DISPATCHING
+            + " and (t.dispatchAt is null or t.dispatchAt < :expiredBefore)")
+    List<TaskEntity> findDispatchTimeout(@Param("planIds") List<String> planIds, @Param("expiredBefore") LocalDateTime expiredBefore);
+
+    List<TaskEntity> findByJobInstanceIdAndTypeAndReduceLevelAndIdBetweenOrderByIdAsc(String jobInstanceId, Byte type, Integer reduceLevel, Long fromId, Long toId, Pageable pageable);
+
+    @Query(value = "select id from TaskEntity where jobInstanceId = :jobInstanceId and type = :type and reduceLevel = :reduceLevel and id > :id order by id asc")
+    List<Long> findIdsByReduceLevel(@Param("jobInstanceId") String jobInstanceId, @Param("type") Byte type, @Param("reduceLevel") Integer reduceLevel, @Param("id") Long id, Pageable pageable);
+
+    List<TaskEntity> findByJobInstanceIdAndTypeAndStatusAndIdGreaterThanOrderByIdAsc(String jobInstanceId, Byte type, Byte status, Long id, Pageable pageable);
+
     @Modifying(clearAutomatically = true)
     @Query(value = "update TaskEntity set status = " + ConstantsPool.SCHEDULE_STATUS_DISPATCHING + " where taskId = :taskId and status = " + ConstantsPool.SCHEDULE_STATUS_SCHEDULING)
     int updateStatusDispatching(@Param("taskId") String taskId);
@@ -47,10 +69,10 @@ public interface TaskEntityRepo extends JpaRepository<TaskEntity, String> {
     int updateStatusExecuting(@Param("taskId") String taskId, @Param("workerId") String workerId, @Param("startAt") LocalDateTime startAt);
 
     @Modifying(clearAutomatically = true)
-    @Query(value = "update TaskEntity set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_SUCCEED + ", result = :result, endAt = :endAt where taskId = :taskId and status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING)
+    @Query(value = "update TaskEntity set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_SUCCEED + ", result = :result, endAt = :endAt where taskId = :taskId and status in (" + ConstantsPool.SCHEDULE_STATUS_DISPATCHING + ", " + ConstantsPool.SCHEDULE_STATUS_EXECUTING + ")")
     int updateStatusSuccess(@Param("taskId") String taskId, @Param("endAt") LocalDateTime endAt, @Param("result") String result);
 
     @Modifying(clearAutomatically = true)
-    @Query(value = "update TaskEntity set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_SUCCEED + ", errorMsg = :errorMsg, errorStackTrace = :errorStack, endAt = :endAt where taskId = :taskId and status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING)
+    @Query(value = "update TaskEntity set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_FAILED + ", errorMsg = :errorMsg, errorStackTrace = :errorStack, endAt = :endAt where taskId = :taskId and status in (" + ConstantsPool.SCHEDULE_STATUS_DISPATCHING + ", " + ConstantsPool.SCHEDULE_STATUS_EXECUTING + ")")
     int updateStatusFail(@Param("taskId") String taskId, @Param("endAt") LocalDateTime endAt, @Param("errorMsg") String errorMsg, @Param("errorStack") String errorStack);
 }
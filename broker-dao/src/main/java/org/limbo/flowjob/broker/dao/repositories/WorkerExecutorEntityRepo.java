@@ -24,6 +24,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -38,4 +39,6 @@ public interface WorkerExecutorEntityRepo extends JpaRepository<WorkerExecutorEn
 
     List<WorkerExecutorEntity> findByWorkerId(String workerId);
 
+    List<WorkerExecutorEntity> findByWorkerIdIn(Collection<String> workerIds);
+
 }
@@ -0,0 +1,250 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.support;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.collections4.CollectionUtils;
+import org.limbo.flowjob.broker.core.domain.job.JobInfo;
+import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInfo;
+import org.limbo.flowjob.broker.core.domain.plan.Plan;
+import org.limbo.flowjob.broker.core.domain.plan.SinglePlan;
+import org.limbo.flowjob.broker.core.domain.plan.WorkflowPlan;
+import org.limbo.flowjob.common.utils.dag.DAG;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * 按版本缓存已构建好的计划定义{@link Plan}，包括其中的{@link JobInfo}和{@link DAG}。
+ * PlanInfo、JobInfo 一旦保存就不会再修改，修改计划只会产生新的版本，因此缓存无需失效，只按容量淘汰。
+ * 缓存中的对象会被多个线程共享，使用方只能读取，不能修改。
+ * 另外记录了每个 plan 当前生效的版本，由加载 plan 时更新，移除 plan 的调度时删除，同样按容量淘汰，未记录时由调用方查库。
+ *
+ * @author Brozen
+ * @since 2023-02-14
+ */
+public class PlanDefinitionCache {
+
+    /**
+     * 默认最多缓存的版本数量
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /**
+     * 最多记录当前版本的 plan 数量
+     */
+    public static final int MAXIMUM_CURRENT_VERSIONS = 100000;
+
+    private final LoadingCache<String, Plan> cache;
+
+    /**
+     * plan 当前生效的版本，加载 plan 时更新，用于触发时判断版本是否已经变化
+     */
+    private final Cache<String, String> currentVersions = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_CURRENT_VERSIONS)
+            .build();
+
+    /**
+     * @param loader 根据版本批量构建计划，不存在的版本不返回即可
+     */
+    public PlanDefinitionCache(Function<Collection<String>, Map<String, Plan>> loader) {
+        this(DEFAULT_MAXIMUM_SIZE, loader);
+    }
+
+    public PlanDefinitionCache(long maximumSize, Function<Collection<String>, Map<String, Plan>> loader) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build(new CacheLoader<String, Plan>() {
+                    @Override
+                    public Plan load(String version) {
+                        Plan plan = loader.apply(Collections.singletonList(version)).get(version);
+                        if (plan == null) {
+                            throw new IllegalArgumentException("does not find plan's info by version--" + version);
+                        }
+                        return plan;
+                    }
+
+                    @Override
+                    public Map<String, Plan> loadAll(Iterable<? extends String> versions) {
+                        return loader.apply(toCollection(versions));
+                    }
+                });
+    }
+
+
+    /**
+     * 获取指定版本的计划，不存在则加载并缓存。
+     * @param version 计划版本，即 planInfoId
+     * @throws IllegalArgumentException 版本不存在或者数据异常时抛出
+     */
+    public Plan get(String version) {
+        try {
+            return cache.get(version);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw unwrap(version, e);
+        }
+    }
+
+
+    /**
+     * 批量获取，未缓存的版本通过一次批量加载获取。不存在的版本不会出现在返回值中。
+     * @param versions 计划版本
+     */
+    public Map<String, Plan> getAll(Collection<String> versions) {
+        if (CollectionUtils.isEmpty(versions)) {
+            return Collections.emptyMap();
+        }
+        try {
+            return cache.getAll(versions);
+        } catch (CacheLoader.InvalidCacheLoadException e) {
+            // 部分版本不存在，已加载的部分已经放入缓存，返回存在的部分
+            return cache.getAllPresent(versions);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw unwrap(String.valueOf(versions), e);
+        }
+    }
+
+
+    /**
+     * 获取计划版本下的作业信息
+     * @param version 计划版本
+     * @param jobId 作业ID
+     * @return 作业不存在时返回 null
+     */
+    public JobInfo getJobInfo(String version, String jobId) {
+        Plan plan = get(version);
+        if (plan instanceof SinglePlan) {
+            return ((SinglePlan) plan).getJobInfo();
+        } else if (plan instanceof WorkflowPlan) {
+            WorkflowJobInfo workflowJobInfo = ((WorkflowPlan) plan).getDag().getNode(jobId);
+            return workflowJobInfo == null ? null : workflowJobInfo.getJob();
+        }
+        return null;
+    }
+
+
+    /**
+     * 获取工作流计划版本的作业DAG
+     * @param version 计划版本
+     * @throws IllegalArgumentException 版本不是工作流计划时抛出
+     */
+    public DAG<WorkflowJobInfo> getDag(String version) {
+        Plan plan = get(version);
+        if (!(plan instanceof WorkflowPlan)) {
+            throw new IllegalArgumentException("plan version " + version + " is not workflow plan");
+        }
+        return ((WorkflowPlan) plan).getDag();
+    }
+
+
+    /**
+     * 预热，批量加载尚未缓存的版本。一般在启动后全量加载计划时调用。
+     * @param versions 计划版本
+     */
+    public void warmUp(Collection<String> versions) {
+        getAll(versions);
+    }
+
+
+    /**
+     * 直接放入已经构建好的计划，用于批量加载计划时顺带填充缓存。已存在的版本不会被覆盖。
+     */
+    public void putIfAbsent(Plan plan) {
+        cache.asMap().putIfAbsent(plan.getVersion(), plan);
+    }
+
+
+    /**
+     * 记录 plan 当前生效的版本
+     */
+    public void updateCurrentVersion(String planId, String version) {
+        currentVersions.put(planId, version);
+    }
+
+
+    /**
+     * plan 当前生效的版本，未记录时返回 null
+     */
+    public String getCurrentVersion(String planId) {
+        return currentVersions.getIfPresent(planId);
+    }
+
+
+    /**
+     * 移除 plan 当前生效的版本，plan 不再由当前节点调度时调用
+     */
+    public void removeCurrentVersion(String planId) {
+        currentVersions.invalidate(planId);
+    }
+
+
+    /**
+     * 缓存中的版本数量
+     */
+    public long size() {
+        return cache.size();
+    }
+
+
+    /**
+     * 命中、加载、淘汰等统计信息
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+
+    /**
+     * 缓存命中率
+     */
+    public double hitRate() {
+        return cache.stats().hitRate();
+    }
+
+
+    private RuntimeException unwrap(String version, Exception e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalArgumentException("load plan version " + version + " failed", cause);
+    }
+
+
+    private static Collection<String> toCollection(Iterable<? extends String> versions) {
+        if (versions instanceof Collection) {
+            return Collections.unmodifiableCollection((Collection<? extends String>) versions);
+        }
+        List<String> list = new ArrayList<>();
+        versions.forEach(list::add);
+        return list;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.support;
+
+import com.google.common.collect.Lists;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 槽位租约，保存在 flowjob_slot_lease 表中，每个槽位一行，记录持有的节点和租约版本 epoch。
+ * 节点领取槽位时 epoch 递增，调度写入时带上自己持有的 epoch 校验（fencing），租约被其他节点领取后，旧节点的写入不会生效。
+ * 与节点内存中的成员版本不同，epoch 由数据库保证所有节点看到的是同一个值。
+ * 领取在独立事务中提交，不受调用方事务回滚的影响。
+ *
+ * @author Brozen
+ * @since 2023-02-24
+ */
+public class SlotLeases {
+
+    /**
+     * 一条语句中最多操作的槽位数
+     */
+    private static final int PARTITION_SIZE = 1000;
+
+    private static final String CLAIM_SQL = "insert into flowjob_slot_lease (slot, owner, epoch) values (?, ?, 1) " +
+            "on duplicate key update owner = values(owner), epoch = epoch + 1";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public SlotLeases(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+
+    /**
+     * 领取槽位租约，epoch 递增
+     *
+     * @param slots 槽位
+     * @param owner 节点名称
+     * @return 领取后的租约 slot -> epoch
+     */
+    public Map<Integer, Long> claim(Collection<Integer> slots, String owner) {
+        if (slots.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<Integer, Long> leases = transactionTemplate.execute(status -> {
+            for (List<Integer> partition : Lists.partition(new ArrayList<>(slots), PARTITION_SIZE)) {
+                jdbcTemplate.batchUpdate(CLAIM_SQL, partition, partition.size(), (ps, slot) -> {
+                    ps.setInt(1, slot);
+                    ps.setString(2, owner);
+                });
+            }
+            return held(slots, owner);
+        });
+        return leases == null ? Collections.emptyMap() : leases;
+    }
+
+
+    /**
+     * 查询槽位当前的持有节点，未被领取过的槽位不返回
+     *
+     * @return slot -> owner
+     */
+    public Map<Integer, String> owners(Collection<Integer> slots) {
+        Map<Integer, String> owners = new HashMap<>();
+        for (List<Integer> partition : Lists.partition(new ArrayList<>(slots), PARTITION_SIZE)) {
+            jdbcTemplate.query("select slot, owner from flowjob_slot_lease where slot in (" + placeholders(partition.size()) + ")",
+                    rs -> {
+                        owners.put(rs.getInt(1), rs.getString(2));
+                    }, partition.toArray());
+        }
+        return owners;
+    }
+
+
+    /**
+     * 查询节点仍然持有的租约
+     *
+     * @param slots 槽位
+     * @param owner 节点名称
+     * @return slot -> epoch
+     */
+    public Map<Integer, Long> held(Collection<Integer> slots, String owner) {
+        Map<Integer, Long> leases = new HashMap<>();
+        for (List<Integer> partition : Lists.partition(new ArrayList<>(slots), PARTITION_SIZE)) {
+            List<Object> args = new ArrayList<>(partition);
+            args.add(owner);
+            jdbcTemplate.query("select slot, epoch from flowjob_slot_lease where slot in (" + placeholders(partition.size()) + ") and owner = ?",
+                    rs -> {
+                        leases.put(rs.getInt(1), rs.getLong(2));
+                    }, args.toArray());
+        }
+        return leases;
+    }
+
+
+    private static String placeholders(int size) {
+        return String.join(", ", Collections.nCopies(size, "?"));
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.support;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * job 实例当前阶段 task 的完成计数，在更新 task 终态的同一条语句中累加。
+ * 每个 task 拿到的是自己这次更新之后的值，因此只有最后一个完成的 task 会看到全部完成。
+ *
+ * @author Brozen
+ * @since 2023-02-19
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class TaskCounter {
+
+    /**
+     * 当前阶段的 task 总数
+     */
+    private final int total;
+
+    /**
+     * 执行成功的 task 数
+     */
+    private final int succeed;
+
+    /**
+     * 执行失败的 task 数
+     */
+    private final int failed;
+
+    /**
+     * 当前阶段的 task 是否都已经完成
+     */
+    public boolean isCompleted() {
+        return succeed + failed >= total;
+    }
+
+    /**
+     * 当前阶段的 task 是否都执行成功
+     */
+    public boolean isAllSucceed() {
+        return failed == 0 && succeed >= total;
+    }
+
+}
@@ -0,0 +1,531 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.dao.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.common.constants.ConstantsPool;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * task 状态变更的写缓冲，将多个 task 的状态更新合并为 JDBC 批量语句，在同一个事务中提交（组提交）。
+ * 缓冲中的更新在攒够 batchSize 条或者等待超过 flushInterval 毫秒后提交。
+ * 每条更新仍然带有状态条件（CAS），调用方会阻塞到事务提交后，拿到自己这条更新的影响行数，与直接调用 Repo 的语义一致。
+ * 同一批次中对同一行的相同更新只会执行一次，重复的调用方得到 0，与顺序执行的结果一致。
+ * task 进入终态的更新会同时累加 job 实例上的完成计数{@link TaskCounter}，调用方拿到自己这次更新之后的计数。
+ * 注意：调用方不能持有待更新行的锁，否则会与提交线程互相等待。
+ * 提交线程可能因为等待其他事务持有的行锁而阻塞，调用方等待超过 awaitTimeout 毫秒后，仍在缓冲中未被取出的更新由调用方直接执行，
+ * 不会因为一个阻塞的批次让所有状态更新停顿；已经在提交中的更新继续等待提交结果。
+ *
+ * @author Brozen
+ * @since 2023-02-18
+ */
+@Slf4j
+public class TaskStatusBuffer {
+
+    /**
+     * 默认一个批次的最大更新数
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * 默认等待攒批的最长时间 毫秒
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 2;
+
+    /**
+     * 默认调用方等待提交的最长时间 毫秒，超过后由调用方直接执行
+     */
+    public static final long DEFAULT_AWAIT_TIMEOUT = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    private final long flushIntervalNanos;
+
+    private final long awaitTimeoutNanos;
+
+    /**
+     * 待提交的更新，有界队列，提交跟不上时调用方阻塞
+     */
+    private final BlockingQueue<Update> queue;
+
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    /**
+     * 提交的批次数
+     */
+    private final LongAdder flushed = new LongAdder();
+
+    /**
+     * 提交的更新数
+     */
+    private final LongAdder updates = new LongAdder();
+
+    /**
+     * 等待超时后由调用方直接执行的更新数
+     */
+    private final LongAdder fallbacks = new LongAdder();
+
+    public TaskStatusBuffer(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this(jdbcTemplate, transactionTemplate, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param batchSize 一个批次的最大更新数
+     * @param flushInterval 等待攒批的最长时间 毫秒
+     */
+    public TaskStatusBuffer(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, int batchSize, long flushInterval) {
+        this(jdbcTemplate, transactionTemplate, batchSize, flushInterval, DEFAULT_AWAIT_TIMEOUT);
+    }
+
+    /**
+     * @param batchSize 一个批次的最大更新数
+     * @param flushInterval 等待攒批的最长时间 毫秒
+     * @param awaitTimeout 调用方等待提交的最长时间 毫秒，超过后未被取出的更新由调用方直接执行
+     */
+    public TaskStatusBuffer(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, int batchSize, long flushInterval, long awaitTimeout) {
+        if (batchSize <= 0 || flushInterval < 0 || awaitTimeout <= 0) {
+            throw new IllegalArgumentException("batchSize and awaitTimeout must be positive and flushInterval must not be negative");
+        }
+
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        this.awaitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(awaitTimeout);
+        this.queue = new LinkedBlockingQueue<>(batchSize * 16);
+        this.flusher = new Thread(this::flushLoop, "task-status-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+
+    /**
+     * task 状态 SCHEDULING -> DISPATCHING
+     * @return 影响行数
+     */
+    public int updateStatusDispatching(String taskId, LocalDateTime dispatchAt) {
+        return submit(Sql.TASK_DISPATCHING, taskId, dispatchAt, taskId);
+    }
+
+    /**
+     * 续期下发中 task 的下发时间，只有超过下发超时时间的 task 可以续期，续期成功的节点负责重新下发
+     * @param dispatchAt 新的下发时间
+     * @param expiredBefore 下发时间早于该时间视为下发超时
+     * @return 影响行数
+     */
+    public int renewDispatching(String taskId, LocalDateTime dispatchAt, LocalDateTime expiredBefore) {
+        return submit(Sql.TASK_DISPATCH_RENEW, taskId, dispatchAt, taskId, expiredBefore);
+    }
+
+    /**
+     * task 状态 DISPATCHING -> EXECUTING
+     * @return 影响行数
+     */
+    public int updateStatusExecuting(String taskId, String workerId, LocalDateTime startAt) {
+        return submit(Sql.TASK_EXECUTING, taskId, workerId, startAt, taskId);
+    }
+
+    /**
+     * 下发成功但 task 已经结束时，补充记录执行的 worker 和开始时间。
+     * worker 可能在下发请求返回、状态更新为 EXECUTING 之前就反馈了结果
+     * @return 影响行数
+     */
+    public int recordWorker(String taskId, String workerId, LocalDateTime startAt) {
+        return submit(Sql.TASK_WORKER, taskId, workerId, startAt, taskId);
+    }
+
+    /**
+     * task 状态 DISPATCHING/EXECUTING -> EXECUTE_SUCCEED，同时累加 job 实例的成功计数。
+     * worker 的反馈可能先于 EXECUTING 状态的更新到达，因此 DISPATCHING 状态也可以直接成功
+     * @return 更新后 job 实例的计数，task 状态已经被修改时返回 null
+     */
+    public TaskCounter updateStatusSuccess(String taskId, String jobInstanceId, LocalDateTime endAt, String result) {
+        return complete(Sql.TASK_SUCCEED, taskId, jobInstanceId, result, endAt, taskId);
+    }
+
+    /**
+     * task 状态 DISPATCHING/EXECUTING -> EXECUTE_FAILED，同时累加 job 实例的失败计数
+     * @return 更新后 job 实例的计数，task 状态已经被修改时返回 null
+     */
+    public TaskCounter updateStatusFail(String taskId, String jobInstanceId, LocalDateTime endAt, String errorMsg, String errorStack) {
+        return complete(Sql.TASK_FAILED, taskId, jobInstanceId, errorMsg, errorStack, endAt, taskId);
+    }
+
+    /**
+     * plan 实例状态 SCHEDULING -> EXECUTING，同一批次中同一个 plan 实例只更新一次
+     * @return 影响行数
+     */
+    public int planInstanceExecuting(String planInstanceId, LocalDateTime startAt) {
+        return submit(Sql.PLAN_INSTANCE_EXECUTING, planInstanceId, startAt, planInstanceId);
+    }
+
+    /**
+     * job 实例状态 SCHEDULING -> EXECUTING，同一批次中同一个 job 实例只更新一次
+     * @return 影响行数
+     */
+    public int jobInstanceExecuting(String jobInstanceId) {
+        return submit(Sql.JOB_INSTANCE_EXECUTING, jobInstanceId, jobInstanceId);
+    }
+
+
+    private int submit(Sql sql, String key, Object... args) {
+        return await(new Update(sql, key, null, args));
+    }
+
+
+    private TaskCounter complete(Sql sql, String taskId, String jobInstanceId, Object... args) {
+        Update update = new Update(sql, taskId, jobInstanceId, args);
+        return await(update) > 0 ? update.counter : null;
+    }
+
+
+    private int await(Update update) {
+        if (!running) {
+            throw new IllegalStateException("TaskStatusBuffer is shutdown");
+        }
+
+        String key = update.key;
+        try {
+            // 缓冲已满说明提交线程跟不上或者被阻塞，由调用方直接执行
+            if (!queue.offer(update, awaitTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                fallbacks.increment();
+                executeSingle(update);
+            }
+
+            try {
+                return update.result.get(awaitTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // 还在缓冲中的更新不会再被提交线程执行，由调用方直接执行；已经被取出的更新继续等待
+                if (queue.remove(update)) {
+                    log.warn("[TaskStatusBuffer] flush is blocked, execute update directly, key={}", key);
+                    fallbacks.increment();
+                    executeSingle(update);
+                }
+                return update.result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting task status update " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("task status update fail " + key, cause);
+        }
+    }
+
+
+    private void flushLoop() {
+        List<Update> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Update first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                // 攒批，直到批次已满或者等待超时
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Update next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable e) {
+                log.error("[TaskStatusBuffer] flush fail", e);
+                for (Update update : batch) {
+                    update.result.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+
+        // 停止后未提交的更新直接失败
+        Update update;
+        while ((update = queue.poll()) != null) {
+            update.result.completeExceptionally(new IllegalStateException("TaskStatusBuffer is shutdown"));
+        }
+    }
+
+
+    /**
+     * 在一个事务中按 task 生命周期的顺序执行各类批量更新，事务提交后再通知调用方
+     */
+    void flush(List<Update> batch) {
+        Map<Update, Integer> results = new HashMap<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                results.clear();
+                apply(batch, results);
+            });
+        } catch (RuntimeException e) {
+            // 批量失败时逐条执行，避免一条异常的更新影响同批次的其他调用方
+            log.warn("[TaskStatusBuffer] batch update fail, fallback to single update, size={}", batch.size(), e);
+            for (Update update : batch) {
+                executeSingle(update);
+            }
+            return;
+        }
+
+        flushed.increment();
+        updates.add(batch.size());
+        results.forEach((update, count) -> update.result.complete(count));
+    }
+
+
+    private void apply(List<Update> batch, Map<Update, Integer> results) {
+        Map<Sql, List<Update>> grouped = new EnumMap<>(Sql.class);
+        for (Update update : batch) {
+            grouped.computeIfAbsent(update.sql, s -> new ArrayList<>()).add(update);
+        }
+
+        List<Update> completed = new ArrayList<>();
+        grouped.forEach((sql, updates) -> executeBatch(sql, updates, results, completed));
+        if (!completed.isEmpty()) {
+            loadCounters(completed);
+        }
+    }
+
+
+    private void executeBatch(Sql sql, List<Update> batch, Map<Update, Integer> results, List<Update> completed) {
+        // 同一行的重复更新只执行第一条，后面的视为 CAS 失败
+        Map<String, Update> unique = new HashMap<>();
+        List<Update> executes = new ArrayList<>(batch.size());
+        for (Update update : batch) {
+            if (unique.putIfAbsent(update.key, update) == null) {
+                executes.add(update);
+            } else {
+                results.put(update, 0);
+            }
+        }
+
+        List<Object[]> args = new ArrayList<>(executes.size());
+        for (Update update : executes) {
+            args.add(update.args);
+        }
+        int[] counts = jdbcTemplate.batchUpdate(sql.sql, args);
+        for (int i = 0; i < executes.size(); i++) {
+            if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                // 驱动未返回每条语句的影响行数，无法保证 CAS 语义
+                throw new IllegalStateException("batch update returns no update count, sql=" + sql.sql);
+            }
+
+            Update update = executes.get(i);
+            if (update.jobInstanceId != null && counts[i] > 0) {
+                // 多表更新的影响行数包含 job 实例，对调用方来说只更新了一个 task
+                results.put(update, 1);
+                completed.add(update);
+            } else {
+                results.put(update, counts[i]);
+            }
+        }
+    }
+
+
+    /**
+     * 读取本事务更新之后的计数，再按执行顺序倒推出每个 task 更新之后看到的计数。
+     * 事务持有 job 实例的行锁，读到的值只包含已提交的更新和本批次的更新。
+     */
+    private void loadCounters(List<Update> completed) {
+        Set<String> jobInstanceIds = new LinkedHashSet<>();
+        for (Update update : completed) {
+            jobInstanceIds.add(update.jobInstanceId);
+        }
+
+        Map<String, int[]> counters = new HashMap<>();
+        String placeholders = String.join(", ", Collections.nCopies(jobInstanceIds.size(), "?"));
+        jdbcTemplate.query(
+                "select job_instance_id, task_total, task_succeed, task_failed from flowjob_job_instance where job_instance_id in (" + placeholders + ") for update",
+                rs -> {
+                    counters.put(rs.getString(1), new int[]{rs.getInt(2), rs.getInt(3), rs.getInt(4)});
+                },
+                jobInstanceIds.toArray()
+        );
+
+        for (int i = completed.size() - 1; i >= 0; i--) {
+            Update update = completed.get(i);
+            int[] counter = counters.get(update.jobInstanceId);
+            if (counter == null) {
+                throw new IllegalStateException("job instance not found " + update.jobInstanceId);
+            }
+
+            update.counter = new TaskCounter(counter[0], counter[1], counter[2]);
+            if (update.sql == Sql.TASK_SUCCEED) {
+                counter[1]--;
+            } else {
+                counter[2]--;
+            }
+        }
+    }
+
+
+    private void executeSingle(Update update) {
+        try {
+            Map<Update, Integer> results = new HashMap<>();
+            transactionTemplate.executeWithoutResult(status -> {
+                results.clear();
+                apply(Collections.singletonList(update), results);
+            });
+            update.result.complete(results.getOrDefault(update, 0));
+        } catch (Throwable e) {
+            update.result.completeExceptionally(e);
+        }
+    }
+
+
+    /**
+     * 停止接收更新，已经在缓冲中的更新会提交完
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getFlushCount() {
+        return flushed.sum();
+    }
+
+    public long getUpdateCount() {
+        return updates.sum();
+    }
+
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+
+    /**
+     * 缓冲支持的更新语句，声明顺序即同一批次中的执行顺序
+     */
+    enum Sql {
+
+        TASK_DISPATCHING("update flowjob_task set status = " + ConstantsPool.SCHEDULE_STATUS_DISPATCHING
+                + ", dispatch_at = ? where task_id = ? and status = " + ConstantsPool.SCHEDULE_STATUS_SCHEDULING),
+
+        TASK_DISPATCH_RENEW("update flowjob_task set dispatch_at = ? where task_id = ? and status = " + ConstantsPool.SCHEDULE_STATUS_DISPATCHING
+                + " and (dispatch_at is null or dispatch_at < ?)"),
+
+        PLAN_INSTANCE_EXECUTING("update flowjob_plan_instance set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING
+                + ", start_at = ? where plan_instance_id = ? and status = " + ConstantsPool.SCHEDULE_STATUS_SCHEDULING),
+
+        JOB_INSTANCE_EXECUTING("update flowjob_job_instance set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING
+                + " where job_instance_id = ? and status = " + ConstantsPool.SCHEDULE_STATUS_SCHEDULING),
+
+        TASK_EXECUTING("update flowjob_task set status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTING
+                + ", worker_id = ?, start_at = ? where task_id = ? and status = " + ConstantsPool.SCHEDULE_STATUS_DISPATCHING),
+
+        TASK_SUCCEED("update flowjob_task t join flowjob_job_instance j on j.job_instance_id = t.job_instance_id"
+                + " set t.status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_SUCCEED + ", t.result = ?, t.end_at = ?, j.task_succeed = j.task_succeed + 1"
+                + " where t.task_id = ? and t.status in (" + ConstantsPool.SCHEDULE_STATUS_DISPATCHING + ", " + ConstantsPool.SCHEDULE_STATUS_EXECUTING + ")"),
+
+        TASK_FAILED("update flowjob_task t join flowjob_job_instance j on j.job_instance_id = t.job_instance_id"
+                + " set t.status = " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_FAILED + ", t.error_msg = ?, t.error_stack_trace = ?, t.end_at = ?, j.task_failed = j.task_failed + 1"
+                + " where t.task_id = ? and t.status in (" + ConstantsPool.SCHEDULE_STATUS_DISPATCHING + ", " + ConstantsPool.SCHEDULE_STATUS_EXECUTING + ")"),
+
+        TASK_WORKER("update flowjob_task set worker_id = ?, start_at = coalesce(start_at, ?)"
+                + " where task_id = ? and worker_id = '' and status in (" + ConstantsPool.SCHEDULE_STATUS_EXECUTE_SUCCEED + ", " + ConstantsPool.SCHEDULE_STATUS_EXECUTE_FAILED + ")"),
+        ;
+
+        final String sql;
+
+        Sql(String sql) {
+            this.sql = sql;
+        }
+    }
+
+
+    /**
+     * 一次待提交的更新
+     */
+    static class Update {
+
+        final Sql sql;
+
+        /**
+         * 被更新行的主键，用于批次内去重
+         */
+        final String key;
+
+        /**
+         * task 进入终态时所属的 job 实例，其余更新为 null
+         */
+        final String jobInstanceId;
+
+        final Object[] args;
+
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        /**
+         * task 进入终态后 job 实例的计数，在通知调用方之前设置
+         */
+        volatile TaskCounter counter;
+
+        Update(Sql sql, String key, String jobInstanceId, Object[] args) {
+            this.sql = sql;
+            this.key = key;
+            this.jobInstanceId = jobInstanceId;
+            this.args = args;
+        }
+    }
+
+}
@@ -26,11 +26,16 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
 import org.limbo.flowjob.broker.core.dispatcher.FilteringWorkerSelector;
+import org.limbo.flowjob.broker.core.dispatcher.WorkerFilter;
+import org.limbo.flowjob.broker.core.dispatcher.WorkerResourceReservations;
 import org.limbo.flowjob.broker.core.dispatcher.WorkerSelectArgument;
+import org.limbo.flowjob.broker.core.dispatcher.WorkerSelector;
+import org.limbo.flowjob.broker.core.dispatcher.WorkerSelectorFactory;
 import org.limbo.flowjob.broker.core.worker.Worker;
 import org.limbo.flowjob.broker.core.worker.executor.WorkerExecutor;
 import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
 import org.limbo.flowjob.broker.core.worker.metric.WorkerMetric;
+import org.limbo.flowjob.common.constants.LoadBalanceType;
 import org.limbo.flowjob.common.constants.WorkerStatus;
 import org.limbo.flowjob.common.lb.LBServerStatistics;
 import org.limbo.flowjob.common.lb.LBServerStatisticsProvider;
@@ -41,15 +46,18 @@ import org.limbo.flowjob.common.lb.strategies.LRULBStrategy;
 import org.limbo.flowjob.common.lb.strategies.RandomLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.RoundRobinLBStrategy;
 
+import java.math.BigDecimal;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntFunction;
 
 /**
  * @author Brozen
@@ -71,6 +79,16 @@ public class WorkerDispatcherTest {
 
 
     private Worker generateMockWorker(String id) throws MalformedURLException {
+        return generateMockWorker(id, "hello");
+    }
+
+
+    private Worker generateMockWorker(String id, String executorName) throws MalformedURLException {
+        return generateMockWorker(id, executorName, new WorkerAvailableResource(4f, 8f, 10));
+    }
+
+
+    private Worker generateMockWorker(String id, String executorName, WorkerAvailableResource resource) throws MalformedURLException {
         return Worker.builder()
                 .id(id)
                 .name(id)
@@ -79,18 +97,31 @@ public class WorkerDispatcherTest {
                 .isEnabled(true)
                 .executors(Lists.newArrayList(
                         WorkerExecutor.builder()
-                                .name("hello")
+                                .name(executorName)
                                 .build()
                 ))
                 .tags(new HashMap<>())
                 .metric(new WorkerMetric(
                         Lists.newArrayList(),
-                        new WorkerAvailableResource(4f, 8f, 10)
+                        resource
                 ))
                 .build();
     }
 
 
+    @Test
+    public void testFilter() throws MalformedURLException {
+        // 广播目标解析与单个 worker 选择使用相同的过滤条件
+        List<Worker> candidates = new ArrayList<>(workers);
+        candidates.add(generateMockWorker("Worker3", "other"));
+
+        List<Worker> filtered = WorkerFilter.filter("hello", DispatchOption.builder().build(), candidates);
+        assert filtered.size() == 2;
+        assert filtered.stream().noneMatch(w -> w.getId().equals("Worker3"));
+        assert WorkerFilter.filter("other", null, candidates).size() == 1;
+    }
+
+
     @Test
     public void testRoundRobin() {
         FilteringWorkerSelector selector = new FilteringWorkerSelector(new RoundRobinLBStrategy<>());
@@ -174,6 +205,169 @@ public class WorkerDispatcherTest {
     }
 
 
+    /**
+     * 下发重试时排除已经尝试过的 worker，候选列表不变，选择器状态保留
+     */
+    @Test
+    public void testRetryExclude() throws MalformedURLException {
+        List<Worker> candidates = generateMockWorkers(3);
+        MockWorkerSelectArgument args = new MockWorkerSelectArgument();
+        args.getAttributes().put(ConsistentHashLBStrategy.HASH_PARAM_NAME, "hashKey");
+        args.getAttributes().put("hashKey", "123");
+
+        WorkerSelector hash = new FilteringWorkerSelector(new ConsistentHashLBStrategy<>());
+        Worker hit = hash.select(args, candidates);
+        Worker retry = hash.select(args, candidates, w -> !w.getId().equals(hit.getId()));
+        assert retry != null && !retry.getId().equals(hit.getId());
+        assert hash.select(args, candidates) == hit;
+        assert hash.select(args, candidates, w -> false) == null;
+
+        WorkerSelector roundRobin = new FilteringWorkerSelector(new RoundRobinLBStrategy<>());
+        Worker first = roundRobin.select(args, candidates);
+        assert !roundRobin.select(args, candidates, w -> w != first).getId().equals(first.getId());
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            counts.merge(roundRobin.select(args, candidates).getId(), 1, Integer::sum);
+        }
+        assert counts.size() == 3 && counts.values().stream().allMatch(count -> Math.abs(count - 10) <= 1);
+    }
+
+
+    @Test
+    public void testSharedSelector() throws MalformedURLException {
+        WorkerSelectorFactory factory = new WorkerSelectorFactory();
+        WorkerSelector selector = factory.getSelector(LoadBalanceType.ROUND_ROBIN);
+        assert selector == factory.getSelector(LoadBalanceType.ROUND_ROBIN);
+        assert selector != factory.getSelector(LoadBalanceType.RANDOM);
+
+        // 每次下发从仓储获取的 worker 都是新实例，轮询状态仍然保留
+        Set<String> selected = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            List<Worker> candidates = generateMockWorkers(1000);
+            selected.add(factory.getSelector(LoadBalanceType.ROUND_ROBIN).select(new MockWorkerSelectArgument(), candidates).getId());
+        }
+        assert selected.size() == 1000;
+    }
+
+
+    @Test
+    public void testSelectCost() throws MalformedURLException {
+        // 1k worker，两组 ID 相同的不同实例交替使用，模拟每次下发重新查询 worker
+        List<List<Worker>> candidates = Lists.newArrayList(generateMockWorkers(1000), generateMockWorkers(1000));
+        MockWorkerSelectArgument args = new MockWorkerSelectArgument();
+        args.getAttributes().put(ConsistentHashLBStrategy.HASH_PARAM_NAME, "hashKey");
+
+        WorkerSelectorFactory factory = new WorkerSelectorFactory();
+        for (LoadBalanceType type : Lists.newArrayList(LoadBalanceType.ROUND_ROBIN, LoadBalanceType.CONSISTENT_HASH)) {
+            // 每次新建选择器时一致性哈希要重建哈希环，耗时较长，减少轮次
+            int rounds = type == LoadBalanceType.CONSISTENT_HASH ? 10 : 200;
+            long newCost = selectCost(rounds, i -> factory.newSelector(type), args, candidates);
+            long sharedCost = selectCost(rounds, i -> factory.getSelector(type), args, candidates);
+            log.info("{} select from 1k workers: new selector {} ns/op, shared selector {} ns/op",
+                    type, newCost / rounds, sharedCost / rounds);
+
+            if (type == LoadBalanceType.CONSISTENT_HASH) {
+                // 复用时哈希环只构建一次
+                assert sharedCost < newCost;
+            }
+        }
+    }
+
+
+    private long selectCost(int rounds, IntFunction<WorkerSelector> selectors, MockWorkerSelectArgument args,
+                            List<List<Worker>> candidates) {
+        // 预热
+        for (int i = 0; i < rounds; i++) {
+            args.getAttributes().put("hashKey", String.valueOf(i));
+            selectors.apply(i).select(args, candidates.get(i % 2));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            args.getAttributes().put("hashKey", String.valueOf(i));
+            assert selectors.apply(i).select(args, candidates.get(i % 2)) != null;
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    private List<Worker> generateMockWorkers(int count) throws MalformedURLException {
+        List<Worker> workers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            workers.add(generateMockWorker("Worker" + i));
+        }
+        return workers;
+    }
+
+
+    @Test
+    public void testResourceFit() throws MalformedURLException {
+        WorkerResourceReservations reservations = new WorkerResourceReservations();
+        Worker small = generateMockWorker("small", "hello", new WorkerAvailableResource(1f, 2f, 10));
+        Worker large = generateMockWorker("large", "hello", new WorkerAvailableResource(8f, 16f, 2));
+        List<Worker> candidates = Lists.newArrayList(small, large);
+
+        MockWorkerSelectArgument args = new MockWorkerSelectArgument();
+        args.setDispatchOption(DispatchOption.builder()
+                .cpuRequirement(new BigDecimal("2"))
+                .ramRequirement(new BigDecimal("4"))
+                .build());
+        FilteringWorkerSelector selector = new FilteringWorkerSelector(new RoundRobinLBStrategy<>(), reservations);
+
+        // 只有 large 满足需求，两次预留后任务队列占满
+        for (int i = 0; i < 2; i++) {
+            Worker worker = selector.select(args, candidates);
+            assert worker == large;
+            reservations.reserve(worker, args.getDispatchOption());
+        }
+        assert selector.select(args, candidates) == null;
+
+        // 下发失败释放预留
+        reservations.release(large, args.getDispatchOption());
+        assert selector.select(args, candidates) == large;
+        reservations.reserve(large, args.getDispatchOption());
+        assert reservations.available(large).getAvailableCpu() == 4f;
+
+        // 新的心跳上报后预留清零
+        large.heartbeat(new WorkerMetric(Lists.newArrayList(), new WorkerAvailableResource(6f, 12f, 2)));
+        assert reservations.available(large).getAvailableCpu() == 6f;
+        assert selector.select(args, candidates) == large;
+    }
+
+
+    @Test
+    public void testBestFit() throws MalformedURLException {
+        WorkerResourceReservations reservations = new WorkerResourceReservations();
+        Worker small = generateMockWorker("small", "hello", new WorkerAvailableResource(2f, 4f, 10));
+        Worker medium = generateMockWorker("medium", "hello", new WorkerAvailableResource(4f, 8f, 10));
+        Worker large = generateMockWorker("large", "hello", new WorkerAvailableResource(16f, 32f, 10));
+        List<Worker> candidates = Lists.newArrayList(large, small, medium);
+
+        WorkerSelectorFactory factory = new WorkerSelectorFactory();
+        factory.setReservations(reservations);
+        WorkerSelector selector = factory.getSelector(LoadBalanceType.BEST_FIT);
+
+        MockWorkerSelectArgument args = new MockWorkerSelectArgument();
+        args.setDispatchOption(DispatchOption.builder()
+                .loadBalanceType(LoadBalanceType.BEST_FIT)
+                .cpuRequirement(new BigDecimal("3"))
+                .ramRequirement(new BigDecimal("4"))
+                .build());
+
+        // small CPU 不足，medium 放入后剩余最少
+        assert selector.select(args, candidates) == medium;
+        reservations.reserve(medium, args.getDispatchOption());
+        // medium 已预留 3 核，只剩 1 核
+        assert selector.select(args, candidates) == large;
+
+        // 没有资源需求时，优先填满队列剩余空位少的 worker，medium 已预留一个空位
+        assert selector.select(new MockWorkerSelectArgument(), candidates) == medium;
+        reservations.reserve(small, null);
+        reservations.reserve(small, null);
+        assert selector.select(new MockWorkerSelectArgument(), candidates) == small;
+    }
+
+
     @Setter
     static class MockWorkerSelectArgument implements WorkerSelectArgument {
 
@@ -0,0 +1,175 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.broker.test.repo;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.limbo.flowjob.broker.dao.entity.PlanEntity;
+import org.limbo.flowjob.broker.dao.entity.PlanInstanceEntity;
+import org.limbo.flowjob.broker.dao.repositories.PlanEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.PlanInstanceEntityRepo;
+import org.limbo.flowjob.common.constants.PlanStatus;
+import org.limbo.flowjob.common.constants.TriggerType;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Brozen
+ * @since 2023-02-16
+ */
+@Slf4j
+@SpringBootTest
+@ExtendWith(SpringExtension.class)
+class PlanInstanceRepoTest {
+
+    @Setter(onMethod_ = @Inject)
+    private PlanEntityRepo planEntityRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private PlanInstanceEntityRepo planInstanceEntityRepo;
+
+    @Setter(onMethod_ = @Inject)
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void insertIfAbsent() {
+        String planId = UUID.randomUUID().toString();
+        LocalDateTime triggerAt = TimeUtils.currentLocalDateTime();
+        Assertions.assertTrue(insert(planId, triggerAt));
+        Assertions.assertFalse(insert(planId, triggerAt));
+    }
+
+    /**
+     * 多个高频 plan 并发触发，每次触发由两个线程同时处理，对比行锁方式与唯一键方式的吞吐
+     */
+    @Test
+    void throughput() throws Exception {
+        int planCount = 50;
+        int triggers = 20;
+        // 模拟创建 job、task 的耗时
+        long workMillis = 5;
+
+        List<String> planIds = new ArrayList<>();
+        for (int i = 0; i < planCount; i++) {
+            PlanEntity planEntity = new PlanEntity();
+            planEntity.setPlanId(UUID.randomUUID().toString());
+            planEntity.setCurrentVersion("1");
+            planEntity.setRecentlyVersion("1");
+            planEntity.setName("throughput");
+            planEntity.setEnabled(true);
+            planEntityRepo.saveAndFlush(planEntity);
+            planIds.add(planEntity.getPlanId());
+        }
+
+        AtomicInteger lockCreated = new AtomicInteger();
+        long lockCost = run(planIds, triggers, (planId, triggerAt) -> transactionTemplate.execute(status -> {
+            planEntityRepo.selectForUpdate(planId);
+            PlanInstanceEntity exist = planInstanceEntityRepo.findByPlanIdAndTriggerAtAndTriggerType(planId, triggerAt, TriggerType.SCHEDULE.type);
+            if (exist == null) {
+                PlanInstanceEntity entity = new PlanInstanceEntity();
+                entity.setPlanInstanceId(UUID.randomUUID().toString());
+                entity.setPlanId(planId);
+                entity.setPlanInfoId("1");
+                entity.setStatus(PlanStatus.SCHEDULING.status);
+                entity.setTriggerType(TriggerType.SCHEDULE.type);
+                entity.setTriggerAt(triggerAt);
+                planInstanceEntityRepo.saveAndFlush(entity);
+                lockCreated.incrementAndGet();
+                sleep(workMillis);
+            }
+            return null;
+        }));
+
+        AtomicInteger uniqueCreated = new AtomicInteger();
+        long uniqueCost = run(planIds, triggers, (planId, triggerAt) -> transactionTemplate.execute(status -> {
+            if (insert(planId, triggerAt.plusYears(1))) {
+                uniqueCreated.incrementAndGet();
+                sleep(workMillis);
+            }
+            return null;
+        }));
+
+        Assertions.assertEquals(planCount * triggers, lockCreated.get());
+        Assertions.assertEquals(planCount * triggers, uniqueCreated.get());
+        log.info("{} plans x {} triggers: select for update {} ms ({} triggers/s), unique key {} ms ({} triggers/s)",
+                planCount, triggers,
+                lockCost, planCount * triggers * 1000L / Math.max(lockCost, 1),
+                uniqueCost, planCount * triggers * 1000L / Math.max(uniqueCost, 1));
+    }
+
+    private boolean insert(String planId, LocalDateTime triggerAt) {
+        String planInstanceId = UUID.randomUUID().toString();
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            planInstanceEntityRepo.insertIfAbsent(
+                    planInstanceId, planId, "1", TriggerType.SCHEDULE.type, PlanStatus.SCHEDULING.status, triggerAt
+            );
+            return planInstanceId.equals(planInstanceEntityRepo.findPlanInstanceId(planId, triggerAt, TriggerType.SCHEDULE.type));
+        }));
+    }
+
+    private long run(List<String> planIds, int triggers, Trigger trigger) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        LocalDateTime base = TimeUtils.currentLocalDateTime();
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < triggers; t++) {
+            LocalDateTime triggerAt = base.plusSeconds(t);
+            for (String planId : planIds) {
+                // 同一次触发由两个线程同时处理
+                for (int r = 0; r < 2; r++) {
+                    futures.add(executor.submit(() -> trigger.trigger(planId, triggerAt)));
+                }
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long cost = System.currentTimeMillis() - start;
+        executor.shutdown();
+        return cost;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    interface Trigger {
+        void trigger(String planId, LocalDateTime triggerAt);
+    }
+
+}
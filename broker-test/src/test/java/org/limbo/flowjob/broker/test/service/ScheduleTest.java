@@ -10,6 +10,7 @@ import org.limbo.flowjob.api.remote.param.TaskFeedbackParam;
 import org.limbo.flowjob.broker.application.plan.component.SlotManager;
 import org.limbo.flowjob.broker.application.plan.service.PlanService;
 import org.limbo.flowjob.broker.application.plan.service.TaskService;
+import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
 import org.limbo.flowjob.broker.core.dispatch.TaskDispatcher;
 import org.limbo.flowjob.broker.core.domain.plan.Plan;
 import org.limbo.flowjob.broker.core.domain.task.Task;
@@ -23,6 +24,7 @@ import org.limbo.flowjob.broker.dao.entity.PlanInstanceEntity;
 import org.limbo.flowjob.broker.dao.entity.TaskEntity;
 import org.limbo.flowjob.broker.dao.repositories.PlanEntityRepo;
 import org.limbo.flowjob.broker.dao.repositories.TaskEntityRepo;
+import org.limbo.flowjob.broker.dao.support.SlotLeases;
 import org.limbo.flowjob.broker.test.support.PlanParamFactory;
 import org.limbo.flowjob.common.constants.ExecuteResult;
 import org.limbo.flowjob.common.constants.TaskStatus;
@@ -78,10 +80,14 @@ public class ScheduleTest {
     @Setter(onMethod_ = @Inject)
     private PlanParamFactory planParamFactory;
 
+    @Setter(onMethod_ = @Inject)
+    private SlotLeases slotLeases;
+
     @BeforeEach
     public void before(){
         List<Integer> slots = new ArrayList<>();
-        for (int i = 0; i < SlotManager.SLOT_SIZE; i++) {
+        int slotSize = new BrokerConfig().getSlotSize();
+        for (int i = 0; i < slotSize; i++) {
             slots.add(i);
         }
         Mockito.doAnswer(new Answer<Boolean>() {
@@ -93,7 +99,15 @@ public class ScheduleTest {
                 return true;
             }
         }).when(taskDispatcher).dispatch(Mockito.any(Task.class));
+        String owner = "schedule-test";
+        long[] leaseEpochs = new long[slotSize];
+        slotLeases.claim(slots, owner).forEach((slot, epoch) -> leaseEpochs[slot] = epoch);
         Mockito.when(slotManager.slots()).thenReturn(slots);
+        Mockito.when(slotManager.leasedSlots()).thenReturn(slots);
+        Mockito.when(slotManager.owner()).thenReturn(owner);
+        Mockito.when(slotManager.slot(Mockito.anyString())).thenAnswer(invocation -> SlotManager.slot(invocation.getArgument(0), slotSize));
+        Mockito.when(slotManager.snapshot()).thenReturn(new SlotManager.SlotSnapshot(0, slotSize, slots, Collections.emptyList(), 0, leaseEpochs));
+        Mockito.when(slotManager.owns(Mockito.anyString())).thenReturn(true);
         Mockito.doAnswer(new Answer<Void>() {
             @Override
             public Void answer(InvocationOnMock invocationOnMock) {
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.test.util;
+
+import com.cronutils.model.CronType;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.model.time.ExecutionTime;
+import com.cronutils.parser.CronParser;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.schedule.Calculated;
+import org.limbo.flowjob.broker.core.schedule.ScheduleCalculator;
+import org.limbo.flowjob.broker.core.schedule.ScheduleOption;
+import org.limbo.flowjob.broker.core.schedule.calculator.ScheduleCalculatorFactory;
+import org.limbo.flowjob.common.constants.ScheduleType;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+
+/**
+ * @author Brozen
+ * @since 2023-02-06
+ */
+@Slf4j
+public class CronScheduleCalculatorTest {
+
+    private static final String CRON = "0 0/5 * * * ?";
+
+    private static final String CRON_TYPE = CronType.QUARTZ.name();
+
+    @Test
+    public void testSameAsParseEveryTime() {
+        ScheduleCalculator calculator = ScheduleCalculatorFactory.create(ScheduleType.CRON);
+        MockCalculated calculated = new MockCalculated(CRON, CRON_TYPE);
+
+        for (int i = 0; i < 100; i++) {
+            Long expected = parseEveryTime(CRON, CRON_TYPE);
+            Long actual = calculator.calculate(calculated);
+            Assertions.assertEquals(expected, actual);
+        }
+    }
+
+
+    @Test
+    public void testIllegalCron() {
+        ScheduleCalculator calculator = ScheduleCalculatorFactory.create(ScheduleType.CRON);
+        MockCalculated calculated = new MockCalculated("not a cron", CRON_TYPE);
+        Assertions.assertEquals(ScheduleCalculator.NO_TRIGGER, calculator.calculate(calculated));
+    }
+
+
+    /**
+     * 与每次都解析CRON表达式的实现对比耗时
+     */
+    @Test
+    public void benchmark() {
+        int times = 20000;
+        MockCalculated calculated = new MockCalculated(CRON, CRON_TYPE);
+
+        // 预热
+        for (int i = 0; i < times; i++) {
+            parseEveryTime(CRON, CRON_TYPE);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            parseEveryTime(CRON, CRON_TYPE);
+        }
+        long parseCost = System.nanoTime() - start;
+
+        ScheduleCalculator calculator = ScheduleCalculatorFactory.create(ScheduleType.CRON);
+        for (int i = 0; i < times; i++) {
+            calculator.calculate(calculated);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            calculator.calculate(calculated);
+        }
+        long cachedCost = System.nanoTime() - start;
+
+        log.info("parse every time: {} ns/op, cached window: {} ns/op", parseCost / times, cachedCost / times);
+    }
+
+
+    /**
+     * 修改前的计算方式，每次都重新解析表达式
+     */
+    private Long parseEveryTime(String cron, String cronType) {
+        CronParser parser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(CronType.valueOf(cronType)));
+        ExecutionTime executionTime = ExecutionTime.forCron(parser.parse(cron));
+        return executionTime.nextExecution(ZonedDateTime.now())
+                .map(t -> t.toInstant().toEpochMilli())
+                .orElse(ScheduleCalculator.NO_TRIGGER);
+    }
+
+
+    static class MockCalculated implements Calculated {
+
+        private final ScheduleOption scheduleOption;
+
+        private final LocalDateTime lastTriggerAt = TimeUtils.currentLocalDateTime();
+
+        MockCalculated(String cron, String cronType) {
+            this.scheduleOption = new ScheduleOption(ScheduleType.CRON, null, null, null, cron, cronType);
+        }
+
+        @Override
+        public ScheduleOption scheduleOption() {
+            return scheduleOption;
+        }
+
+        @Override
+        public LocalDateTime lastTriggerAt() {
+            return lastTriggerAt;
+        }
+
+        @Override
+        public LocalDateTime lastFeedbackAt() {
+            return null;
+        }
+
+        @Override
+        public String scheduleId() {
+            return "mock";
+        }
+
+        @Override
+        public LocalDateTime scheduleAt() {
+            return null;
+        }
+
+        @Override
+        public void execute() {
+        }
+    }
+
+}
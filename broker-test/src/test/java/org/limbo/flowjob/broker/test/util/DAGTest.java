@@ -19,6 +19,8 @@
 package org.limbo.flowjob.broker.test.util;
 
 import com.google.common.collect.Sets;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.limbo.flowjob.common.utils.Verifies;
 import org.limbo.flowjob.common.utils.dag.DAG;
@@ -26,6 +28,7 @@ import org.limbo.flowjob.common.utils.dag.DAGNode;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -33,6 +36,7 @@ import java.util.Set;
  * @author Devil
  * @since 2021/8/30
  */
+@Slf4j
 public class DAGTest {
 
     @Test
@@ -106,6 +110,118 @@ public class DAGTest {
         }
     }
 
+    @Test
+    public void testTopological() {
+        List<DAGNode> jobInfos = new ArrayList<>();
+        jobInfos.add(job("5", Sets.newHashSet("7", "8")));
+        jobInfos.add(job("1", Sets.newHashSet("3", "6")));
+        jobInfos.add(job("3", Sets.newHashSet("5")));
+        jobInfos.add(job("2", Sets.newHashSet("3", "4")));
+        jobInfos.add(job("4", Sets.newHashSet("5")));
+        jobInfos.add(job("6", Sets.newHashSet("7")));
+        jobInfos.add(job("7", null));
+        jobInfos.add(job("8", null));
+        DAG<DAGNode> dag = new DAG<>(jobInfos);
+
+        Assertions.assertEquals(8, dag.size());
+        Assertions.assertEquals(Sets.newHashSet("1", "2"), ids(dag.origins()));
+        Assertions.assertEquals(Sets.newHashSet("7", "8"), ids(dag.lasts()));
+        Assertions.assertEquals(Sets.newHashSet("3", "4"), ids(dag.preNodes("5")));
+        Assertions.assertEquals(Sets.newHashSet("7", "8"), ids(dag.subNodes("5")));
+        Assertions.assertEquals(2, dag.inDegree(dag.indexOf("5")));
+        Assertions.assertEquals(2, dag.childCount(dag.indexOf("5")));
+
+        // 拓扑序中父节点都在子节点之前
+        int[] positions = new int[dag.size()];
+        for (int i = 0; i < dag.size(); i++) {
+            positions[dag.topologicalAt(i)] = i;
+        }
+        for (int i = 0; i < dag.size(); i++) {
+            for (int c = 0; c < dag.childCount(i); c++) {
+                Assertions.assertTrue(positions[i] < positions[dag.childAt(i, c)]);
+            }
+        }
+    }
+
+    @Test
+    public void testCyclicRejected() {
+        List<DAGNode> jobInfos = new ArrayList<>();
+        jobInfos.add(job("1", Collections.singleton("3")));
+        jobInfos.add(job("2", Collections.singleton("3")));
+        jobInfos.add(job("3", Collections.singleton("4")));
+        jobInfos.add(job("4", Sets.newHashSet("3", "5")));
+        jobInfos.add(job("5", null));
+        Assertions.assertThrows(Exception.class, () -> new DAG<>(jobInfos));
+    }
+
+    @Test
+    public void testDeepChain() {
+        // 深度很大的链路，递归校验会栈溢出
+        int size = 100_000;
+        List<DAGNode> jobInfos = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            jobInfos.add(job(String.valueOf(i), i == size - 1 ? null : Collections.singleton(String.valueOf(i + 1))));
+        }
+        DAG<DAGNode> dag = new DAG<>(jobInfos);
+        Assertions.assertEquals(1, dag.origins().size());
+        Assertions.assertEquals(String.valueOf(size - 1), dag.lasts().get(0).getId());
+    }
+
+    @Test
+    public void benchmark() {
+        // 10 层，每层 1000 个节点，每个节点连接下一层的 3 个节点
+        int layers = 10;
+        int width = 1000;
+        int rounds = 20;
+
+        long buildCost = 0;
+        long traverseCost = 0;
+        long visited = 0;
+        for (int r = 0; r < rounds; r++) {
+            List<DAGNode> jobInfos = layeredJobs(layers, width, 3);
+
+            long start = System.nanoTime();
+            DAG<DAGNode> dag = new DAG<>(jobInfos);
+            buildCost += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < dag.size(); i++) {
+                for (int c = 0; c < dag.childCount(i); c++) {
+                    visited += dag.childAt(i, c);
+                }
+                visited += dag.inDegree(i);
+            }
+            traverseCost += System.nanoTime() - start;
+        }
+
+        log.info("dag nodes {}: build {} ms/op, traverse {} us/op ({})",
+                layers * width, buildCost / rounds / 1_000_000, traverseCost / rounds / 1_000, visited);
+    }
+
+    private List<DAGNode> layeredJobs(int layers, int width, int fanOut) {
+        List<DAGNode> jobInfos = new ArrayList<>(layers * width);
+        for (int l = 0; l < layers; l++) {
+            for (int w = 0; w < width; w++) {
+                Set<String> childrenIds = new HashSet<>();
+                if (l < layers - 1) {
+                    for (int f = 0; f < fanOut; f++) {
+                        childrenIds.add((l + 1) + "-" + ((w + f) % width));
+                    }
+                }
+                jobInfos.add(job(l + "-" + w, childrenIds));
+            }
+        }
+        return jobInfos;
+    }
+
+    private Set<String> ids(List<DAGNode> nodes) {
+        Set<String> ids = new HashSet<>();
+        for (DAGNode node : nodes) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
     private DAGNode job(String id, Set<String> childrenIds) {
         return new DAGNode(id, childrenIds);
     }
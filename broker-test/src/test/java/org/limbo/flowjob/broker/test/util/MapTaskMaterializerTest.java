@@ -0,0 +1,271 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.application.plan.component.MapTaskMaterializer;
+import org.limbo.flowjob.broker.core.domain.IDGenerator;
+import org.limbo.flowjob.broker.core.domain.job.JobInfo;
+import org.limbo.flowjob.broker.core.domain.job.JobInstance;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.broker.dao.converter.DomainConverter;
+import org.limbo.flowjob.broker.dao.entity.TaskEntity;
+import org.limbo.flowjob.broker.dao.repositories.JobInstanceEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.TaskEntityRepo;
+import org.limbo.flowjob.common.constants.TaskType;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.io.StringReader;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * @author Brozen
+ * @since 2023-02-20
+ */
+@Slf4j
+public class MapTaskMaterializerTest {
+
+    @Test
+    public void testChunkedMaterialize() {
+        int items = 200_000;
+        int chunkSize = 1000;
+        int windowSize = 100;
+
+        // split 结果
+        StringBuilder splitResult = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            splitResult.append(i == 0 ? "" : ",").append("{\"index\":").append(i).append('}');
+        }
+        splitResult.append(']');
+
+        // 插入的 map 任务
+        List<TaskEntity> inserted = new ArrayList<>();
+        AtomicInteger batches = new AtomicInteger();
+        AtomicInteger maxBatch = new AtomicInteger();
+        JdbcTemplate jdbcTemplate = new SplitJdbcTemplate(splitResult.toString()) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                batches.incrementAndGet();
+                maxBatch.accumulateAndGet(batchArgs.size(), Math::max);
+                for (Object[] args : batchArgs) {
+                    TaskEntity entity = new TaskEntity();
+                    entity.setId((long) inserted.size() + 1);
+                    entity.setTaskId((String) args[0]);
+                    entity.setMapAttributes((String) args[6]);
+                    inserted.add(entity);
+                }
+                return new int[batchArgs.size()];
+            }
+        };
+
+        TaskEntityRepo taskEntityRepo = Mockito.mock(TaskEntityRepo.class);
+        Mockito.when(taskEntityRepo.findByJobInstanceIdAndTypeAndStatusAndIdGreaterThanOrderByIdAsc(
+                eq("job-instance-1"), eq(TaskType.MAP.type), any(), anyLong(), any()
+        )).thenAnswer(invocation -> {
+            long cursor = invocation.getArgument(3);
+            Pageable pageable = invocation.getArgument(4);
+            return inserted.stream().filter(e -> e.getId() > cursor).limit(pageable.getPageSize()).collect(Collectors.toList());
+        });
+
+        // 下发位置保存在 job 实例上
+        AtomicLong cursor = new AtomicLong();
+        JobInstanceEntityRepo jobInstanceEntityRepo = Mockito.mock(JobInstanceEntityRepo.class);
+        Mockito.when(jobInstanceEntityRepo.findMapCursor("job-instance-1")).thenAnswer(invocation -> cursor.get());
+        Mockito.when(jobInstanceEntityRepo.updateMapCursor(eq("job-instance-1"), anyLong(), anyLong()))
+                .thenAnswer(invocation -> cursor.compareAndSet(invocation.getArgument(1), invocation.getArgument(2)) ? 1 : 0);
+        AtomicLong ids = new AtomicLong();
+        AtomicInteger idAllocations = new AtomicInteger();
+        IDGenerator idGenerator = Mockito.mock(IDGenerator.class);
+        Mockito.when(idGenerator.generateIds(any(), anyInt())).thenAnswer(invocation -> {
+            idAllocations.incrementAndGet();
+            int count = invocation.getArgument(1);
+            List<String> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(String.valueOf(ids.incrementAndGet()));
+            }
+            return result;
+        });
+        MetaTaskScheduler metaTaskScheduler = Mockito.mock(MetaTaskScheduler.class);
+
+        MapTaskMaterializer materializer = new MapTaskMaterializer(chunkSize, windowSize);
+        materializer.setTaskEntityRepo(taskEntityRepo);
+        materializer.setJobInstanceEntityRepo(jobInstanceEntityRepo);
+        materializer.setIdGenerator(idGenerator);
+        materializer.setJdbcTemplate(jdbcTemplate);
+        materializer.setMetaTaskScheduler(metaTaskScheduler);
+        materializer.setDomainConverter(Mockito.mock(DomainConverter.class));
+        materializer.setTransactionManager(new NoopTransactionManager());
+
+        JobInstance jobInstance = Mockito.mock(JobInstance.class);
+        Mockito.when(jobInstance.getJobInstanceId()).thenReturn("job-instance-1");
+        Mockito.when(jobInstance.getJobInfo()).thenReturn(Mockito.mock(JobInfo.class));
+
+        long start = System.nanoTime();
+        Assertions.assertEquals(items, materializer.materialize(jobInstance));
+        log.info("materialize {} map tasks cost {}ms, batches {}", items, (System.nanoTime() - start) / 1000000, batches.get());
+
+        // 计数在插入后设置，分批插入，按批次分配 id
+        Mockito.verify(jobInstanceEntityRepo).resetTaskCounter("job-instance-1", items);
+        Assertions.assertEquals(items, inserted.size());
+        Assertions.assertEquals(items / chunkSize, batches.get());
+        Assertions.assertEquals(chunkSize, maxBatch.get());
+        Assertions.assertEquals(items / chunkSize, idAllocations.get());
+        Assertions.assertEquals("{\"index\":199999}", inserted.get(items - 1).getMapAttributes());
+
+        // 只有窗口内的任务进入调度，每完成一个补充一个
+        Mockito.verify(metaTaskScheduler, Mockito.times(windowSize)).schedule(any());
+        materializer.release("job-instance-1", 1);
+        Mockito.verify(metaTaskScheduler, Mockito.times(windowSize + 1)).schedule(any());
+        Assertions.assertEquals(windowSize + 1, cursor.get());
+
+        // 其他节点或重启后的节点从保存的位置继续下发
+        DomainConverter domainConverter = Mockito.mock(DomainConverter.class);
+        MapTaskMaterializer other = new MapTaskMaterializer(chunkSize, windowSize);
+        other.setTaskEntityRepo(taskEntityRepo);
+        other.setJobInstanceEntityRepo(jobInstanceEntityRepo);
+        other.setMetaTaskScheduler(metaTaskScheduler);
+        other.setDomainConverter(domainConverter);
+        other.setTransactionManager(new NoopTransactionManager());
+        other.release("job-instance-1", 1);
+        Mockito.verify(domainConverter).toTaskScheduleTask(inserted.get(windowSize + 1));
+        Assertions.assertEquals(windowSize + 2, cursor.get());
+    }
+
+
+    /**
+     * 调用方事务回滚后重新处理，已经提交的批次不再插入
+     */
+    @Test
+    public void testResumeMaterialize() {
+        StringBuilder splitResult = new StringBuilder("[");
+        for (int i = 0; i < 25; i++) {
+            splitResult.append(i == 0 ? "" : ",").append("{\"index\":").append(i).append(",\"nested\":[{\"a\":1}]}");
+        }
+        splitResult.append(']');
+
+        List<String> inserted = new ArrayList<>();
+        JdbcTemplate jdbcTemplate = new SplitJdbcTemplate(splitResult.toString()) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                batchArgs.forEach(args -> inserted.add((String) args[6]));
+                return new int[batchArgs.size()];
+            }
+        };
+        TaskEntityRepo taskEntityRepo = Mockito.mock(TaskEntityRepo.class);
+        Mockito.when(taskEntityRepo.countByJobInstanceIdAndType("job-instance-1", TaskType.MAP.type)).thenReturn(20L);
+        IDGenerator idGenerator = Mockito.mock(IDGenerator.class);
+        Mockito.when(idGenerator.generateIds(any(), anyInt())).thenAnswer(invocation -> Collections.nCopies(invocation.getArgument(1), "id"));
+        JobInstanceEntityRepo jobInstanceEntityRepo = Mockito.mock(JobInstanceEntityRepo.class);
+
+        MapTaskMaterializer materializer = new MapTaskMaterializer(10, 10);
+        materializer.setTaskEntityRepo(taskEntityRepo);
+        materializer.setJobInstanceEntityRepo(jobInstanceEntityRepo);
+        materializer.setIdGenerator(idGenerator);
+        materializer.setJdbcTemplate(jdbcTemplate);
+        materializer.setMetaTaskScheduler(Mockito.mock(MetaTaskScheduler.class));
+        materializer.setDomainConverter(Mockito.mock(DomainConverter.class));
+        materializer.setTransactionManager(new NoopTransactionManager());
+
+        JobInstance jobInstance = Mockito.mock(JobInstance.class);
+        Mockito.when(jobInstance.getJobInstanceId()).thenReturn("job-instance-1");
+        Mockito.when(jobInstance.getJobInfo()).thenReturn(Mockito.mock(JobInfo.class));
+
+        Assertions.assertEquals(25, materializer.materialize(jobInstance));
+        Mockito.verify(jobInstanceEntityRepo).resetTaskCounter("job-instance-1", 25);
+        Assertions.assertEquals(5, inserted.size());
+        Assertions.assertTrue(inserted.get(0).startsWith("{\"index\":20"));
+    }
+
+
+    @Test
+    public void testEmptySplit() {
+        MapTaskMaterializer materializer = new MapTaskMaterializer(10, 10);
+        materializer.setTaskEntityRepo(Mockito.mock(TaskEntityRepo.class));
+        materializer.setJdbcTemplate(new SplitJdbcTemplate("[]"));
+        materializer.setTransactionManager(new NoopTransactionManager());
+
+        JobInstance jobInstance = Mockito.mock(JobInstance.class);
+        Mockito.when(jobInstance.getJobInstanceId()).thenReturn("job-instance-1");
+        Assertions.assertEquals(0, materializer.materialize(jobInstance));
+    }
+
+
+    /**
+     * 以字符流返回 split 结果
+     */
+    private static class SplitJdbcTemplate extends JdbcTemplate {
+
+        private final String splitResult;
+
+        SplitJdbcTemplate(String splitResult) {
+            this.splitResult = splitResult;
+        }
+
+        @Override
+        public <T> T query(PreparedStatementCreator psc, ResultSetExtractor<T> rse) {
+            try {
+                ResultSet rs = Mockito.mock(ResultSet.class);
+                Mockito.when(rs.next()).thenReturn(true, false);
+                Mockito.when(rs.getCharacterStream(1)).thenReturn(new StringReader(splitResult));
+                return rse.extractData(rs);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+
+    private static class NoopTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+
+}
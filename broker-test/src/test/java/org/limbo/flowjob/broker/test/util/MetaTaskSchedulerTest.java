@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.test.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.schedule.scheduler.PartitionedExecutor;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTask;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskType;
+import org.limbo.flowjob.common.utils.time.TimeUtils;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Brozen
+ * @since 2023-02-08
+ */
+@Slf4j
+public class MetaTaskSchedulerTest {
+
+    @Test
+    public void testUnscheduleCancelTimeout() throws InterruptedException {
+        MetaTaskScheduler scheduler = new MetaTaskScheduler();
+        MockMetaTask task = new MockMetaTask("plan-1", TimeUtils.currentLocalDateTime().plusHours(1), null);
+
+        scheduler.schedule(task);
+        Assertions.assertTrue(scheduler.isScheduling(MetaTaskType.PLAN, "plan-1"));
+        Assertions.assertTrue(scheduler.isScheduling(task.scheduleId()));
+        Assertions.assertEquals(1, scheduler.pendingTimeouts());
+
+        // 重复调度不会产生新的timeout
+        scheduler.schedule(new MockMetaTask("plan-1", task.scheduleAt(), null));
+        Assertions.assertEquals(1, scheduler.pendingTimeouts());
+
+        scheduler.unschedule(task.scheduleId());
+        Assertions.assertFalse(scheduler.isScheduling(MetaTaskType.PLAN, "plan-1"));
+
+        // 取消的timeout在下一次tick时从时间轮移除
+        Thread.sleep(500);
+        Assertions.assertEquals(0, scheduler.pendingTimeouts());
+    }
+
+
+    @Test
+    public void testReleaseAfterExecute() throws InterruptedException {
+        MetaTaskScheduler scheduler = new MetaTaskScheduler();
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(new MockMetaTask("task-1", TimeUtils.currentLocalDateTime(), latch));
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assertions.assertFalse(scheduler.isScheduling(MetaTaskType.PLAN, "task-1"));
+        Assertions.assertEquals(0, scheduler.schedulingCount(MetaTaskType.PLAN));
+    }
+
+
+    /**
+     * 执行器通道已满时不阻塞时间轮，元任务稍后重新转交，不会丢失
+     */
+    @Test
+    public void testRedispatchWhenLaneFull() throws InterruptedException {
+        PartitionedExecutor planExecutor = new PartitionedExecutor("test-plan", 1, 1);
+        MetaTaskScheduler scheduler = new MetaTaskScheduler(planExecutor, null);
+
+        // 占住唯一的通道线程并填满队列
+        CountDownLatch blocking = new CountDownLatch(1);
+        Assertions.assertTrue(planExecutor.execute("other", () -> {
+            try {
+                blocking.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Thread.sleep(100);
+        Assertions.assertTrue(planExecutor.execute("other", () -> {}));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(new MockMetaTask("plan-1", TimeUtils.currentLocalDateTime(), latch));
+        Thread.sleep(500);
+        Assertions.assertTrue(planExecutor.getRejectedCount() > 0);
+        Assertions.assertEquals(1, latch.getCount());
+
+        // 通道空闲后重新转交执行
+        blocking.countDown();
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        planExecutor.shutdown();
+    }
+
+
+    /**
+     * 100万个plan调度中时，与原先按字符串id登记（id中拼接触发时间，查找时split）的方式对比内存与耗时
+     */
+    @Test
+    public void benchmark() throws InterruptedException {
+        int size = 1_000_000;
+        LocalDateTime scheduleAt = TimeUtils.currentLocalDateTime().plusHours(1);
+        MockMetaTask[] tasks = new MockMetaTask[size];
+        for (int i = 0; i < size; i++) {
+            tasks[i] = new MockMetaTask("plan-" + i, scheduleAt, null);
+        }
+        String[] oldIds = new String[size];
+
+        // 原方式：id拼接触发时间，查找时split解析类型
+        long baseHeap = usedHeap();
+        Map<String, MetaTask> oldRegistry = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            String id = tasks[i].scheduleId() + "-" + tasks[i].scheduleAt();
+            oldIds[i] = id;
+            oldRegistry.put(id, tasks[i]);
+        }
+        long oldScheduleCost = System.nanoTime() - start;
+        long oldHeap = usedHeap() - baseHeap;
+
+        start = System.nanoTime();
+        int hit = 0;
+        for (int i = 0; i < size; i++) {
+            String id = tasks[i].scheduleId() + "-" + tasks[i].scheduleAt();
+            MetaTaskType.parse(id.split("-")[0]);
+            hit += oldRegistry.containsKey(id) ? 1 : 0;
+        }
+        long oldLookupCost = System.nanoTime() - start;
+        Assertions.assertEquals(size, hit);
+        oldRegistry.clear();
+        oldIds = null;
+
+        // 新方式：按类型和元任务id登记，持有timeout
+        MetaTaskScheduler scheduler = new MetaTaskScheduler();
+        baseHeap = usedHeap();
+        start = System.nanoTime();
+        for (MockMetaTask task : tasks) {
+            scheduler.schedule(task);
+        }
+        long newScheduleCost = System.nanoTime() - start;
+        long newHeap = usedHeap() - baseHeap;
+
+        start = System.nanoTime();
+        hit = 0;
+        for (MockMetaTask task : tasks) {
+            hit += scheduler.isScheduling(MetaTaskType.PLAN, task.getMetaId()) ? 1 : 0;
+        }
+        long newLookupCost = System.nanoTime() - start;
+        Assertions.assertEquals(size, hit);
+
+        // 全部取消，timeout随之从时间轮释放
+        for (MockMetaTask task : tasks) {
+            scheduler.unschedule(MetaTaskType.PLAN, task.getMetaId());
+        }
+        Thread.sleep(500);
+        long afterUnscheduleHeap = usedHeap() - baseHeap;
+        Assertions.assertEquals(0, scheduler.pendingTimeouts());
+
+        log.info("old registry: schedule {} ms, lookup {} ns/op, heap {} MB (timeouts not included, never released)",
+                TimeUnit.NANOSECONDS.toMillis(oldScheduleCost), oldLookupCost / size, oldHeap >> 20);
+        log.info("new registry: schedule {} ms (including timer), lookup {} ns/op, heap {} MB, after unschedule {} MB",
+                TimeUnit.NANOSECONDS.toMillis(newScheduleCost), newLookupCost / size, newHeap >> 20, afterUnscheduleHeap >> 20);
+    }
+
+
+    private long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    static class MockMetaTask implements MetaTask {
+
+        private final String metaId;
+
+        private final LocalDateTime scheduleAt;
+
+        private final CountDownLatch latch;
+
+        MockMetaTask(String metaId, LocalDateTime scheduleAt, CountDownLatch latch) {
+            this.metaId = metaId;
+            this.scheduleAt = scheduleAt;
+            this.latch = latch;
+        }
+
+        @Override
+        public MetaTaskType getType() {
+            return MetaTaskType.PLAN;
+        }
+
+        @Override
+        public String getMetaId() {
+            return metaId;
+        }
+
+        @Override
+        public void execute() {
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+
+        @Override
+        public LocalDateTime scheduleAt() {
+            return scheduleAt;
+        }
+    }
+
+}
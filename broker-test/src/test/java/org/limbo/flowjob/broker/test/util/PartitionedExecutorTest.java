@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.test.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.schedule.scheduler.PartitionedExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Brozen
+ * @since 2023-02-07
+ */
+public class PartitionedExecutorTest {
+
+    @Test
+    public void testOrderInPartition() throws InterruptedException {
+        // 队列满时等待空位，保证所有任务都能提交
+        PartitionedExecutor executor = new PartitionedExecutor("test", 4, 8, 10000);
+        int keys = 16;
+        int times = 500;
+
+        Map<String, List<Integer>> results = new HashMap<>();
+        for (int k = 0; k < keys; k++) {
+            results.put("plan" + k, Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        CountDownLatch latch = new CountDownLatch(keys * times);
+        for (int i = 0; i < times; i++) {
+            for (int k = 0; k < keys; k++) {
+                String key = "plan" + k;
+                int seq = i;
+                executor.execute(key, () -> {
+                    results.get(key).add(seq);
+                    latch.countDown();
+                });
+            }
+        }
+
+        Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (List<Integer> result : results.values()) {
+            Assertions.assertEquals(times, result.size());
+            for (int i = 0; i < times; i++) {
+                Assertions.assertEquals(i, result.get(i));
+            }
+        }
+
+        Assertions.assertEquals(keys * times, executor.getSubmittedCount());
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void testFailedTaskNotBreakPartition() throws InterruptedException {
+        PartitionedExecutor executor = new PartitionedExecutor("test", 1, 4);
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.execute("plan", () -> {
+            throw new IllegalStateException("mock");
+        });
+        executor.execute("plan", latch::countDown);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, executor.getFailedCount());
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void testRejectWhenLaneFull() throws InterruptedException {
+        PartitionedExecutor executor = new PartitionedExecutor("test", 2, 1);
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Assertions.assertTrue(executor.execute(0, () -> {
+            started.countDown();
+            try {
+                blocking.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // 通道线程被占用，队列容量为 1，第二个任务入队，第三个任务被拒绝，提交线程不阻塞
+        Assertions.assertTrue(executor.execute(0, () -> {}));
+        long start = System.nanoTime();
+        Assertions.assertFalse(executor.execute(0, () -> {}));
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        Assertions.assertEquals(1, executor.getRejectedCount());
+        Assertions.assertEquals(2, executor.getSubmittedCount());
+
+        // 其他通道不受影响
+        CountDownLatch other = new CountDownLatch(1);
+        Assertions.assertTrue(executor.execute(1, other::countDown));
+        Assertions.assertTrue(other.await(5, TimeUnit.SECONDS));
+
+        blocking.countDown();
+        executor.shutdown();
+    }
+
+}
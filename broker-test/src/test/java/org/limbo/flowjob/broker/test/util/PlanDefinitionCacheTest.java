@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.test.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.domain.job.JobInfo;
+import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInfo;
+import org.limbo.flowjob.broker.core.domain.plan.Plan;
+import org.limbo.flowjob.broker.core.domain.plan.SinglePlan;
+import org.limbo.flowjob.broker.core.domain.plan.WorkflowPlan;
+import org.limbo.flowjob.broker.dao.support.PlanDefinitionCache;
+import org.limbo.flowjob.common.constants.TriggerType;
+import org.limbo.flowjob.common.utils.dag.DAG;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Brozen
+ * @since 2023-02-14
+ */
+public class PlanDefinitionCacheTest {
+
+    private final AtomicInteger loadTimes = new AtomicInteger();
+
+    private final PlanDefinitionCache cache = new PlanDefinitionCache(this::load);
+
+    @Test
+    public void testLoadOnce() {
+        Plan plan = cache.get("single-v1");
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertSame(plan, cache.get("single-v1"));
+        }
+        Assertions.assertEquals(1, loadTimes.get());
+        Assertions.assertEquals(1, cache.stats().missCount());
+        Assertions.assertEquals(100, cache.stats().hitCount());
+    }
+
+
+    @Test
+    public void testBatchLoad() {
+        cache.warmUp(Arrays.asList("single-v1", "workflow-v1", "not-exist"));
+        Assertions.assertEquals(1, loadTimes.get());
+        Assertions.assertEquals(2, cache.size());
+
+        Map<String, Plan> plans = cache.getAll(Arrays.asList("single-v1", "workflow-v1"));
+        Assertions.assertEquals(2, plans.size());
+        Assertions.assertEquals(1, loadTimes.get());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> cache.get("not-exist"));
+    }
+
+
+    @Test
+    public void testJobInfo() {
+        Assertions.assertEquals("job-s", cache.getJobInfo("single-v1", "job-s").getId());
+        Assertions.assertEquals("job-2", cache.getJobInfo("workflow-v1", "job-2").getId());
+        Assertions.assertNull(cache.getJobInfo("workflow-v1", "job-3"));
+
+        DAG<WorkflowJobInfo> dag = cache.getDag("workflow-v1");
+        Assertions.assertEquals(1, dag.subNodes("job-1").size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> cache.getDag("single-v1"));
+    }
+
+
+    @Test
+    public void testCurrentVersion() {
+        cache.updateCurrentVersion("plan-1", "single-v1");
+        Assertions.assertEquals("single-v1", cache.getCurrentVersion("plan-1"));
+
+        // 移除调度后不再保留
+        cache.removeCurrentVersion("plan-1");
+        Assertions.assertNull(cache.getCurrentVersion("plan-1"));
+    }
+
+
+    private Map<String, Plan> load(Collection<String> versions) {
+        loadTimes.incrementAndGet();
+        Map<String, Plan> plans = new HashMap<>();
+        for (String version : versions) {
+            if (version.startsWith("single")) {
+                plans.put(version, new SinglePlan("single", version, TriggerType.SCHEDULE, null, jobInfo("job-s")));
+            } else if (version.startsWith("workflow")) {
+                WorkflowJobInfo job1 = new WorkflowJobInfo("job-1", new HashSet<>(Collections.singletonList("job-2")));
+                job1.setJob(jobInfo("job-1"));
+                WorkflowJobInfo job2 = new WorkflowJobInfo("job-2", Collections.emptySet());
+                job2.setJob(jobInfo("job-2"));
+                plans.put(version, new WorkflowPlan("workflow", version, TriggerType.SCHEDULE, null, new DAG<>(Arrays.asList(job1, job2))));
+            }
+        }
+        return plans;
+    }
+
+
+    private JobInfo jobInfo(String id) {
+        JobInfo jobInfo = new JobInfo();
+        jobInfo.setId(id);
+        return jobInfo;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.test.util;
+
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.application.plan.component.PlanLoadTask;
+import org.limbo.flowjob.broker.application.plan.component.SlotManager;
+import org.limbo.flowjob.broker.application.plan.component.WorkflowInstanceStateMachine;
+import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskScheduler;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.MetaTaskType;
+import org.limbo.flowjob.broker.core.schedule.scheduler.meta.PlanScheduleTask;
+import org.limbo.flowjob.broker.dao.converter.DomainConverter;
+import org.limbo.flowjob.broker.dao.entity.PlanChangeEntity;
+import org.limbo.flowjob.broker.dao.entity.PlanEntity;
+import org.limbo.flowjob.broker.dao.repositories.PlanChangeEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.PlanEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.PlanSlotEntityRepo;
+import org.limbo.flowjob.broker.dao.support.PlanDefinitionCache;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * @author Brozen
+ * @since 2023-02-26
+ */
+public class PlanLoadTaskTest {
+
+    /**
+     * 重新加载变更的plan失败时，已有的调度保持不变，游标不推进，下次检查重新消费
+     */
+    @Test
+    public void testReloadFailKeepsSchedule() {
+        BrokerConfig config = new BrokerConfig();
+        config.setName("broker-1");
+        NodeManger nodeManger = Mockito.mock(NodeManger.class);
+        Mockito.when(nodeManger.alive("broker-1")).thenReturn(true);
+        MetaTaskScheduler scheduler = Mockito.mock(MetaTaskScheduler.class);
+
+        SlotManager slotManager = Mockito.mock(SlotManager.class);
+        Mockito.when(slotManager.snapshot()).thenReturn(new SlotManager.SlotSnapshot(0, 1, Collections.singletonList(0), Collections.emptyList(), 0));
+
+        PlanChangeEntity change = new PlanChangeEntity();
+        change.setId(1L);
+        change.setPlanId("plan-1");
+        change.setSlot(0);
+        PlanChangeEntityRepo planChangeEntityRepo = Mockito.mock(PlanChangeEntityRepo.class);
+        Mockito.when(planChangeEntityRepo.findMaxId()).thenReturn(0L);
+        Mockito.when(planChangeEntityRepo.findChanges(eq(0L), anyList(), anyInt())).thenReturn(Collections.singletonList(change));
+        Mockito.when(planChangeEntityRepo.findIds(anyLong(), anyLong(), any())).thenReturn(Collections.singletonList(1L));
+
+        PlanEntity planEntity = new PlanEntity();
+        planEntity.setPlanId("plan-1");
+        PlanEntityRepo planEntityRepo = Mockito.mock(PlanEntityRepo.class);
+        Mockito.when(planEntityRepo.loadEnabledPlans(anyList()))
+                .thenThrow(new IllegalStateException("db unavailable"))
+                .thenReturn(Collections.singletonList(planEntity));
+
+        PlanScheduleTask planTask = Mockito.mock(PlanScheduleTask.class);
+        Mockito.when(planTask.getType()).thenReturn(MetaTaskType.PLAN);
+        Mockito.when(planTask.getMetaId()).thenReturn("plan-1");
+        PlanDefinitionCache planDefinitionCache = Mockito.mock(PlanDefinitionCache.class);
+        DomainConverter domainConverter = Mockito.mock(DomainConverter.class);
+        Mockito.when(domainConverter.toPlanScheduleTasks(anyList())).thenReturn(Collections.singletonList(planTask));
+        Mockito.when(domainConverter.getPlanDefinitionCache()).thenReturn(planDefinitionCache);
+
+        PlanLoadTask task = new PlanLoadTask(Duration.ofSeconds(1), config, nodeManger, scheduler);
+        task.setSlotManager(slotManager);
+        task.setPlanChangeEntityRepo(planChangeEntityRepo);
+        task.setPlanEntityRepo(planEntityRepo);
+        task.setPlanSlotEntityRepo(Mockito.mock(PlanSlotEntityRepo.class));
+        task.setDomainConverter(domainConverter);
+        task.setWorkflowInstanceStateMachine(Mockito.mock(WorkflowInstanceStateMachine.class));
+
+        // 加载失败，不移除已有调度
+        task.execute();
+        Mockito.verify(scheduler, Mockito.never()).unschedule(MetaTaskType.PLAN, "plan-1");
+        Mockito.verify(planDefinitionCache, Mockito.never()).removeCurrentVersion(any());
+
+        // 下次检查从原游标重新消费，以新加载的数据替换调度
+        task.execute();
+        Mockito.verify(planChangeEntityRepo, Mockito.times(2)).findChanges(eq(0L), anyList(), anyInt());
+        Mockito.verify(scheduler).unschedule(MetaTaskType.PLAN, "plan-1");
+        Mockito.verify(scheduler).schedule(planTask);
+        Mockito.verify(planDefinitionCache, Mockito.never()).removeCurrentVersion(any());
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.broker.test.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.remote.dto.ReduceInputPageDTO;
+import org.limbo.flowjob.api.remote.param.ReduceInputQueryParam;
+import org.limbo.flowjob.broker.application.plan.service.TaskService;
+import org.limbo.flowjob.broker.core.domain.task.ReduceRange;
+import org.limbo.flowjob.broker.dao.entity.TaskEntity;
+import org.limbo.flowjob.broker.dao.repositories.TaskEntityRepo;
+import org.limbo.flowjob.common.constants.TaskType;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * @author Brozen
+ * @since 2023-02-21
+ */
+@Slf4j
+public class ReduceInputPageTest {
+
+    private static final int ITEMS = 10_000;
+
+    @Test
+    public void testPageByCursor() {
+        int pageSize = 300;
+        TaskService taskService = taskService();
+
+        // 按游标拉取全部结果
+        List<Map<String, Object>> results = pullAll(taskService, "reduce-all", pageSize);
+        Assertions.assertEquals(ITEMS - ITEMS / 7, results.size());
+        Assertions.assertEquals(1, results.get(0).get("index"));
+        Assertions.assertEquals(ITEMS, results.get(results.size() - 1).get("index"));
+
+        // 每页条数有上限
+        ReduceInputPageDTO page = taskService.pageReduceInputs("reduce-all", new ReduceInputQueryParam(null, Integer.MAX_VALUE));
+        Assertions.assertTrue(page.getResults().size() <= 1000);
+        Assertions.assertTrue(page.isHasMore());
+    }
+
+    @Test
+    public void testPageInRange() {
+        // 树形 reduce 中间层任务只拉取自己范围内的结果
+        List<Map<String, Object>> results = pullAll(taskService(), "reduce-range", 30);
+        Assertions.assertEquals(100 - 100 / 7, results.size());
+        Assertions.assertEquals(101, results.get(0).get("index"));
+        Assertions.assertEquals(200, results.get(results.size() - 1).get("index"));
+    }
+
+    @Test
+    public void testPartition() {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 1; i <= 1050; i++) {
+            ids.add(i);
+        }
+        List<ReduceRange> ranges = ReduceRange.partition(ids, 100);
+        Assertions.assertEquals(11, ranges.size());
+        Assertions.assertEquals(new ReduceRange(1, 100), ranges.get(0));
+        Assertions.assertEquals(new ReduceRange(1001, 1050), ranges.get(10));
+
+        // 10 万个 map 任务，扇入数为 100 时三层完成 reduce
+        int count = 100_000;
+        int levels = 0;
+        while (count > 1) {
+            count = count > 100 ? (count + 99) / 100 : 1;
+            levels++;
+        }
+        Assertions.assertEquals(3, levels);
+    }
+
+    private List<Map<String, Object>> pullAll(TaskService taskService, String taskId, int pageSize) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        Long cursor = null;
+        int pages = 0;
+        ReduceInputPageDTO page;
+        do {
+            page = taskService.pageReduceInputs(taskId, new ReduceInputQueryParam(cursor, pageSize));
+            Assertions.assertTrue(page.getResults().size() <= pageSize);
+            results.addAll(page.getResults());
+            cursor = page.getCursor();
+            pages++;
+        } while (page.isHasMore());
+
+        log.info("task {} pulled {} results in {} pages", taskId, results.size(), pages);
+        return results;
+    }
+
+    private TaskService taskService() {
+        // map 任务，每隔 7 个有一个没有结果
+        List<TaskEntity> mapTasks = new ArrayList<>();
+        for (long i = 1; i <= ITEMS; i++) {
+            TaskEntity entity = new TaskEntity();
+            entity.setId(i);
+            entity.setResult(i % 7 == 0 ? null : "{\"index\":" + i + "}");
+            mapTasks.add(entity);
+        }
+
+        TaskEntityRepo taskEntityRepo = Mockito.mock(TaskEntityRepo.class);
+        Mockito.when(taskEntityRepo.findById("reduce-all")).thenReturn(Optional.of(reduceTask(null, null)));
+        Mockito.when(taskEntityRepo.findById("reduce-range")).thenReturn(Optional.of(reduceTask(101L, 200L)));
+        Mockito.when(taskEntityRepo.findByJobInstanceIdAndTypeAndReduceLevelAndIdBetweenOrderByIdAsc(eq("job-instance"), eq(TaskType.MAP.type), eq(0), anyLong(), anyLong(), any(Pageable.class)))
+                .thenAnswer(invocation -> {
+                    long fromId = invocation.getArgument(3);
+                    long toId = invocation.getArgument(4);
+                    Pageable pageable = invocation.getArgument(5);
+                    return mapTasks.stream()
+                            .filter(t -> t.getId() >= fromId && t.getId() <= toId)
+                            .limit(pageable.getPageSize())
+                            .collect(Collectors.toList());
+                });
+
+        TaskService taskService = new TaskService();
+        taskService.setTaskEntityRepo(taskEntityRepo);
+        return taskService;
+    }
+
+    private TaskEntity reduceTask(Long fromId, Long toId) {
+        TaskEntity entity = new TaskEntity();
+        entity.setJobInstanceId("job-instance");
+        entity.setType(TaskType.REDUCE.type);
+        entity.setReduceLevel(1);
+        entity.setReduceFromId(fromId);
+        entity.setReduceToId(toId);
+        return entity;
+    }
+
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.application.plan.component.SlotManager;
+import org.limbo.flowjob.broker.application.plan.support.NodeMangerImpl;
+import org.limbo.flowjob.broker.core.cluster.BrokerConfig;
+import org.limbo.flowjob.broker.core.cluster.Node;
+import org.limbo.flowjob.broker.dao.support.SlotLeases;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brozen
+ * @since 2023-02-15
+ */
+@Slf4j
+public class SlotManagerTest {
+
+    @Test
+    public void testSnapshotByEpoch() {
+        NodeMangerImpl nodeManger = new NodeMangerImpl();
+        Node self = new Node("slot-test-1", "127.0.0.1", 18081);
+        Node other = new Node("slot-test-2", "127.0.0.1", 18082);
+        nodeManger.online(self);
+
+        SlotManager slotManager = slotManager(nodeManger, self, 0);
+        SlotManager.SlotSnapshot snapshot = slotManager.snapshot();
+        Assertions.assertSame(snapshot, slotManager.snapshot());
+
+        // 重复上线不会改变版本
+        nodeManger.online(self);
+        Assertions.assertSame(snapshot, slotManager.snapshot());
+
+        nodeManger.online(other);
+        SlotManager.SlotSnapshot changed = slotManager.snapshot();
+        Assertions.assertTrue(changed.getEpoch() > snapshot.getEpoch());
+        Assertions.assertTrue(changed.getSlots().size() < snapshot.getSlots().size());
+
+        // 两个节点负责的槽位互不重叠，且覆盖全部槽位
+        Set<Integer> slots = new HashSet<>(changed.getSlots());
+        for (Integer slot : slotManager(nodeManger, other, 0).slots()) {
+            Assertions.assertTrue(slots.add(slot));
+        }
+        Assertions.assertEquals(new BrokerConfig().getSlotSize(), slots.size());
+
+        // 内存判断与槽位列表一致
+        for (int i = 0; i < 1000; i++) {
+            String planId = "plan-" + i;
+            int slot = slotManager.slot(planId);
+            Assertions.assertEquals(changed.getSlots().contains(slot), slotManager.owns(planId));
+        }
+
+        nodeManger.offline(other);
+        nodeManger.offline(self);
+    }
+
+
+    @Test
+    public void testHandoff() {
+        NodeMangerImpl nodeManger = new NodeMangerImpl();
+        Node self = new Node("slot-test-3", "127.0.0.1", 18083);
+        Node other = new Node("slot-test-4", "127.0.0.1", 18084);
+        nodeManger.online(self);
+
+        SlotManager slotManager = slotManager(nodeManger, self, 60000);
+        SlotManager.SlotSnapshot snapshot = slotManager.snapshot();
+        Assertions.assertTrue(snapshot.isHandoffCompleted());
+
+        nodeManger.online(other);
+        SlotManager.SlotSnapshot changed = slotManager.snapshot();
+        Assertions.assertFalse(changed.getReleasingSlots().isEmpty());
+        Assertions.assertFalse(changed.isHandoffCompleted());
+        // 交接中的槽位仍由原节点负责
+        for (Integer slot : changed.getReleasingSlots()) {
+            Assertions.assertFalse(changed.getSlots().contains(slot));
+            Assertions.assertTrue(changed.owns(slot));
+        }
+
+        nodeManger.offline(other);
+        nodeManger.offline(self);
+    }
+
+
+    @Test
+    public void testLeaseClaim() {
+        NodeMangerImpl nodeManger = new NodeMangerImpl();
+        Node self = new Node("slot-test-5", "127.0.0.1", 18085);
+        Node other = new Node("slot-test-6", "127.0.0.1", 18086);
+        nodeManger.online(other);
+
+        SlotLeases slotLeases = Mockito.mock(SlotLeases.class);
+        Map<Integer, String> owners = new HashMap<>();
+        Mockito.when(slotLeases.owners(Mockito.anyCollection())).thenReturn(owners);
+        Mockito.when(slotLeases.claim(Mockito.anyCollection(), Mockito.eq(self.getName()))).thenAnswer(invocation -> {
+            Map<Integer, Long> leases = new HashMap<>();
+            for (Integer slot : invocation.<Collection<Integer>>getArgument(0)) {
+                leases.put(slot, 2L);
+            }
+            return leases;
+        });
+
+        // 未被领取的槽位立即领取
+        SlotManager slotManager = slotManager(nodeManger, self, 60000);
+        slotManager.setSlotLeases(slotLeases);
+        nodeManger.online(self);
+        SlotManager.SlotSnapshot snapshot = slotManager.snapshot();
+        Assertions.assertFalse(snapshot.getSlots().isEmpty());
+        for (Integer slot : snapshot.getSlots()) {
+            Assertions.assertEquals(2L, snapshot.leaseEpoch(slot));
+        }
+
+        // 原持有节点存活，交接结束前不领取
+        SlotManager otherManager = slotManager(nodeManger, other, 60000);
+        otherManager.setSlotLeases(slotLeases);
+        Mockito.when(slotLeases.owners(Mockito.anyCollection())).thenAnswer(invocation -> {
+            Map<Integer, String> result = new HashMap<>();
+            for (Integer slot : invocation.<Collection<Integer>>getArgument(0)) {
+                result.put(slot, self.getName());
+            }
+            return result;
+        });
+        SlotManager.SlotSnapshot otherSnapshot = otherManager.snapshot();
+        Assertions.assertFalse(otherSnapshot.getSlots().isEmpty());
+        for (Integer slot : otherSnapshot.getSlots()) {
+            Assertions.assertEquals(0L, otherSnapshot.leaseEpoch(slot));
+        }
+        Mockito.verify(slotLeases, Mockito.never()).claim(Mockito.anyCollection(), Mockito.eq(other.getName()));
+
+        // 租约被其他节点领取后，原节点不再认为持有
+        Mockito.when(slotLeases.held(Mockito.anyCollection(), Mockito.eq(self.getName()))).thenReturn(Collections.emptyMap());
+        Assertions.assertTrue(slotManager.leasedSlots().isEmpty());
+        for (Integer slot : slotManager.snapshot().getSlots()) {
+            Assertions.assertEquals(0L, slotManager.snapshot().leaseEpoch(slot));
+        }
+
+        nodeManger.offline(other);
+        nodeManger.offline(self);
+    }
+
+
+    @Test
+    public void testSlotRange() {
+        for (int i = 0; i < 100000; i++) {
+            int slot = SlotManager.slot("plan-" + i, 1024);
+            Assertions.assertTrue(slot >= 0 && slot < 1024);
+        }
+    }
+
+
+    /**
+     * 模拟 3 个 broker 扩容到 4 个，统计需要重新调度的槽位、plan 数量以及触发空档
+     */
+    @Test
+    public void testScaleOut() {
+        int planCount = 100000;
+        long loadInterval = 10000;
+        long handoffTime = new BrokerConfig().getSlotHandoffTime();
+
+        List<Node> before = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            before.add(new Node("b" + i, "10.0.0." + i, 8081));
+        }
+        List<Node> after = new ArrayList<>(before);
+        after.add(new Node("b3", "10.0.0.3", 8081));
+
+        // 原算法：64 个槽位，按排序后节点下标分配
+        int oldSlotSize = 64;
+        Map<Integer, String> oldBefore = indexAssign(before, oldSlotSize);
+        Map<Integer, String> oldAfter = indexAssign(after, oldSlotSize);
+        int oldMovedSlots = movedSlots(oldBefore, oldAfter);
+        int oldMovedPlans = 0;
+        for (int i = 0; i < planCount; i++) {
+            int slot = Math.floorMod(("plan-" + i).hashCode(), oldSlotSize);
+            if (!oldBefore.get(slot).equals(oldAfter.get(slot))) {
+                oldMovedPlans++;
+            }
+        }
+
+        // 新算法：rendezvous hash
+        int slotSize = new BrokerConfig().getSlotSize();
+        Map<Integer, String> newBefore = rendezvousAssign(before, slotSize);
+        Map<Integer, String> newAfter = rendezvousAssign(after, slotSize);
+        int newMovedSlots = movedSlots(newBefore, newAfter);
+        int newMovedPlans = 0;
+        for (int i = 0; i < planCount; i++) {
+            int slot = SlotManager.slot("plan-" + i, slotSize);
+            if (!newBefore.get(slot).equals(newAfter.get(slot))) {
+                newMovedPlans++;
+            }
+        }
+
+        // 只有迁移到新节点的槽位会移动，约 1/4
+        double movedRatio = newMovedSlots * 1.0 / slotSize;
+        Assertions.assertTrue(movedRatio < 0.35, "moved ratio " + movedRatio);
+        for (int slot = 0; slot < slotSize; slot++) {
+            if (!newBefore.get(slot).equals(newAfter.get(slot))) {
+                Assertions.assertEquals("10.0.0.3:8081", newAfter.get(slot));
+            }
+        }
+
+        // 触发空档：新节点在一个加载周期内的某个时刻完成加载；原算法原节点立即放弃槽位，新算法原节点在交接时间内继续调度
+        Random random = new Random(42);
+        long oldGapMax = 0, oldGapSum = 0, newGapMax = 0, newGapSum = 0;
+        int samples = 1000;
+        for (int i = 0; i < samples; i++) {
+            long loadDelay = (long) (random.nextDouble() * loadInterval);
+            oldGapMax = Math.max(oldGapMax, loadDelay);
+            oldGapSum += loadDelay;
+            long gap = Math.max(0, loadDelay - handoffTime);
+            newGapMax = Math.max(newGapMax, gap);
+            newGapSum += gap;
+        }
+        Assertions.assertEquals(0, newGapMax);
+
+        log.info("scale out 3 -> 4, plans {}: index assign moved slots {}/{} plans {} (x2 reschedule), trigger gap avg {} ms max {} ms",
+                planCount, oldMovedSlots, oldSlotSize, oldMovedPlans, oldGapSum / samples, oldGapMax);
+        log.info("scale out 3 -> 4, plans {}: rendezvous moved slots {}/{} plans {} (x2 reschedule), trigger gap avg {} ms max {} ms",
+                planCount, newMovedSlots, slotSize, newMovedPlans, newGapSum / samples, newGapMax);
+    }
+
+
+    private SlotManager slotManager(NodeMangerImpl nodeManger, Node node, long handoffTime) {
+        BrokerConfig config = new BrokerConfig();
+        config.setName(node.getName());
+        config.setHost(node.getHost());
+        config.setPort(node.getPort());
+        config.setSlotHandoffTime(handoffTime);
+        SlotManager slotManager = new SlotManager();
+        slotManager.setBrokerConfig(config);
+        slotManager.setNodeManger(nodeManger);
+        return slotManager;
+    }
+
+    private Map<Integer, String> rendezvousAssign(List<Node> nodes, int slotSize) {
+        Map<Integer, String> owners = new HashMap<>();
+        for (Node node : nodes) {
+            for (Integer slot : SlotManager.assign(nodes, node.getHost(), node.getPort(), slotSize)) {
+                Assertions.assertNull(owners.put(slot, node.getHost() + ":" + node.getPort()));
+            }
+        }
+        Assertions.assertEquals(slotSize, owners.size());
+        return owners;
+    }
+
+    private Map<Integer, String> indexAssign(List<Node> nodes, int slotSize) {
+        List<Node> sortedNodes = nodes.stream()
+                .sorted(Comparator.comparing(Node::getHost).thenComparingInt(Node::getPort))
+                .collect(Collectors.toList());
+        Map<Integer, String> owners = new HashMap<>();
+        for (int slot = 0; slot < slotSize; slot++) {
+            Node node = sortedNodes.get(slot % sortedNodes.size());
+            owners.put(slot, node.getHost() + ":" + node.getPort());
+        }
+        return owners;
+    }
+
+    private int movedSlots(Map<Integer, String> before, Map<Integer, String> after) {
+        int moved = 0;
+        for (Map.Entry<Integer, String> entry : before.entrySet()) {
+            if (!entry.getValue().equals(after.get(entry.getKey()))) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.application.plan.component.TaskDispatchOutbox;
+import org.limbo.flowjob.broker.core.dispatch.TaskDispatcher;
+import org.limbo.flowjob.broker.core.domain.task.Task;
+import org.limbo.flowjob.broker.core.schedule.scheduler.PartitionedExecutor;
+import org.limbo.flowjob.broker.core.schedule.strategy.IScheduleStrategy;
+import org.limbo.flowjob.broker.core.schedule.strategy.ScheduleStrategyFactory;
+import org.limbo.flowjob.broker.dao.repositories.TaskEntityRepo;
+import org.limbo.flowjob.broker.dao.support.TaskStatusBuffer;
+import org.limbo.flowjob.common.constants.MsgConstants;
+import org.limbo.flowjob.common.constants.PlanType;
+import org.limbo.flowjob.common.constants.TaskStatus;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * @author Brozen
+ * @since 2023-02-17
+ */
+@Slf4j
+public class TaskDispatchOutboxTest {
+
+    @Test
+    public void testDispatchOutsideTransaction() throws InterruptedException {
+        CountingTransactionManager tm = new CountingTransactionManager(4);
+        CountDownLatch latch = new CountDownLatch(1);
+        TaskDispatcher dispatcher = Mockito.mock(TaskDispatcher.class);
+        Mockito.when(dispatcher.dispatch(any())).thenAnswer(invocation -> {
+            // 调用 worker 时不能持有事务
+            Assertions.assertFalse(tm.inTransaction());
+            return true;
+        });
+
+        TaskDispatchOutbox outbox = outbox(tm, dispatcher, Mockito.mock(IScheduleStrategy.class), latch, 4);
+        Task task = task("task-1");
+        Assertions.assertTrue(outbox.prepare(task));
+        Assertions.assertEquals(TaskStatus.DISPATCHING, task.getStatus());
+        outbox.dispatch(task);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(tm.transactions.intValue() >= 2);
+    }
+
+
+    @Test
+    public void testDispatchFail() throws InterruptedException {
+        CountingTransactionManager tm = new CountingTransactionManager(4);
+        TaskDispatcher dispatcher = Mockito.mock(TaskDispatcher.class);
+        Mockito.when(dispatcher.dispatch(any())).thenThrow(new IllegalStateException("worker is down"));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        IScheduleStrategy strategy = Mockito.mock(IScheduleStrategy.class);
+        Mockito.doAnswer(invocation -> {
+            latch.countDown();
+            return null;
+        }).when(strategy).handleTaskFail(any(), eq(MsgConstants.DISPATCH_FAIL), anyString());
+
+        TaskDispatchOutbox outbox = outbox(tm, dispatcher, strategy, new CountDownLatch(1), 4);
+        Task task = task("task-1");
+        outbox.prepare(task);
+        outbox.dispatch(task);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+
+    /**
+     * worker 在状态更新为执行中之前就反馈了结果，补充记录执行的 worker
+     */
+    @Test
+    public void testFeedbackBeforeExecuting() throws InterruptedException {
+        CountDownLatch recorded = new CountDownLatch(1);
+        JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        Mockito.when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            List<Object[]> args = invocation.getArgument(1);
+            int[] counts = new int[args.size()];
+            if (sql.contains("worker_id = ''")) {
+                // task 已经成功，记录 worker
+                Assertions.assertEquals("worker-1", args.get(0)[0]);
+                recorded.countDown();
+                Arrays.fill(counts, 1);
+            } else if (!sql.contains("worker_id")) {
+                Arrays.fill(counts, 1);
+            }
+            return counts;
+        });
+
+        TaskDispatcher dispatcher = Mockito.mock(TaskDispatcher.class);
+        Mockito.when(dispatcher.dispatch(any())).thenReturn(true);
+        TaskDispatchOutbox outbox = new TaskDispatchOutbox(new PartitionedExecutor("test-dispatch", 1, 16));
+        outbox.setTaskStatusBuffer(new TaskStatusBuffer(jdbcTemplate, new TransactionTemplate(new CountingTransactionManager(1))));
+        outbox.setTaskDispatcher(dispatcher);
+        outbox.setScheduleStrategyFactory(new ScheduleStrategyFactory(Collections.singletonMap(PlanType.SINGLE, Mockito.mock(IScheduleStrategy.class))));
+
+        Task task = task("task-1");
+        Assertions.assertTrue(outbox.prepare(task));
+        outbox.dispatch(task);
+        Assertions.assertTrue(recorded.await(5, TimeUnit.SECONDS));
+    }
+
+
+    /**
+     * 广播任务批量下发：准备阶段合并为少量批量更新，调用 worker 在下发线程池中并行进行
+     */
+    @Test
+    public void testDispatchAll() throws InterruptedException {
+        int workers = 500;
+        int threads = 64;
+        long workerLatency = 50;
+
+        CountingTransactionManager tm = new CountingTransactionManager(4);
+        CountDownLatch latch = new CountDownLatch(workers);
+        TaskDispatchOutbox outbox = outbox(tm, slowDispatcher(workerLatency), Mockito.mock(IScheduleStrategy.class), latch, threads);
+
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            Task task = task("task-" + i);
+            task.setWorkerId("worker-" + i);
+            tasks.add(task);
+        }
+
+        long start = System.nanoTime();
+        outbox.dispatchAll(tasks);
+        Assertions.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        log.info("broadcast to {} workers: cost {}ms, transactions {}", workers, cost, tm.transactions.sum());
+        // 串行下发至少需要 workers * workerLatency
+        Assertions.assertTrue(cost * 5 < workers * workerLatency);
+        Assertions.assertTrue(tm.transactions.sum() < workers);
+    }
+
+
+    /**
+     * worker 响应变慢时，对比在事务中下发与通过发件箱下发对连接池的占用。
+     * 连接池用信号量模拟，每个事务占用一个连接直到提交。
+     */
+    @Test
+    public void benchmark() throws InterruptedException {
+        int tasks = 200;
+        int connections = 10;
+        int threads = 32;
+        long workerLatency = 50;
+
+        CountingTransactionManager inlineTm = new CountingTransactionManager(connections);
+        long inlineCost = runInline(inlineTm, tasks, threads, workerLatency);
+
+        CountingTransactionManager outboxTm = new CountingTransactionManager(connections);
+        long outboxCost = runOutbox(outboxTm, tasks, threads, workerLatency);
+
+        log.info("inline dispatch: cost {}ms, connection hold {}ms, connection wait {}ms, peak connections {}",
+                inlineCost, inlineTm.holdMillis(), inlineTm.waitMillis(), inlineTm.peak.get());
+        log.info("outbox dispatch: cost {}ms, connection hold {}ms, connection wait {}ms, peak connections {}",
+                outboxCost, outboxTm.holdMillis(), outboxTm.waitMillis(), outboxTm.peak.get());
+
+        // 事务中下发时连接占用时间至少为 worker 响应时间之和
+        Assertions.assertTrue(inlineTm.holdMillis() >= tasks * workerLatency);
+        Assertions.assertTrue(outboxTm.holdMillis() * 10 < inlineTm.holdMillis());
+    }
+
+
+    /**
+     * 原先的实现：状态更新和下发在同一个事务中
+     */
+    private long runInline(CountingTransactionManager tm, int tasks, int threads, long workerLatency) throws InterruptedException {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(tm);
+        TaskEntityRepo taskEntityRepo = taskEntityRepo(new CountDownLatch(0));
+        TaskDispatcher dispatcher = slowDispatcher(workerLatency);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(tasks);
+        long start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            Task task = task("task-" + i);
+            pool.execute(() -> {
+                transactionTemplate.execute(status -> {
+                    taskEntityRepo.updateStatusDispatching(task.getTaskId());
+                    if (dispatcher.dispatch(task)) {
+                        taskEntityRepo.updateStatusExecuting(task.getTaskId(), task.getWorkerId(), null);
+                    }
+                    return null;
+                });
+                latch.countDown();
+            });
+        }
+        Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        pool.shutdown();
+        return cost;
+    }
+
+
+    private long runOutbox(CountingTransactionManager tm, int tasks, int threads, long workerLatency) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(tasks);
+        TaskDispatchOutbox outbox = outbox(tm, slowDispatcher(workerLatency), Mockito.mock(IScheduleStrategy.class), latch, threads);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            Task task = task("task-" + i);
+            pool.execute(() -> {
+                if (outbox.prepare(task)) {
+                    outbox.dispatch(task);
+                }
+            });
+        }
+        Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        pool.shutdown();
+        return cost;
+    }
+
+
+    private TaskDispatchOutbox outbox(CountingTransactionManager tm, TaskDispatcher dispatcher,
+                                      IScheduleStrategy strategy, CountDownLatch executed, int threads) {
+        TaskDispatchOutbox outbox = new TaskDispatchOutbox(new PartitionedExecutor("test-dispatch", threads, 1024));
+        outbox.setTaskStatusBuffer(new TaskStatusBuffer(jdbcTemplate(executed), new TransactionTemplate(tm)));
+        outbox.setTaskDispatcher(dispatcher);
+        outbox.setScheduleStrategyFactory(new ScheduleStrategyFactory(Collections.singletonMap(PlanType.SINGLE, strategy)));
+        return outbox;
+    }
+
+
+    /**
+     * 所有更新都成功，task 更新为执行中时计数
+     */
+    @SuppressWarnings("unchecked")
+    private JdbcTemplate jdbcTemplate(CountDownLatch executed) {
+        JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        Mockito.when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            List<Object[]> args = invocation.getArgument(1);
+            if (sql.contains("worker_id")) {
+                args.forEach(arg -> executed.countDown());
+            }
+            int[] counts = new int[args.size()];
+            Arrays.fill(counts, 1);
+            return counts;
+        });
+        return jdbcTemplate;
+    }
+
+
+    private TaskEntityRepo taskEntityRepo(CountDownLatch executed) {
+        TaskEntityRepo taskEntityRepo = Mockito.mock(TaskEntityRepo.class);
+        Mockito.when(taskEntityRepo.updateStatusDispatching(anyString())).thenReturn(1);
+        Mockito.when(taskEntityRepo.updateStatusExecuting(anyString(), any(), any())).thenAnswer(invocation -> {
+            executed.countDown();
+            return 1;
+        });
+        return taskEntityRepo;
+    }
+
+
+    private TaskDispatcher slowDispatcher(long latency) {
+        TaskDispatcher dispatcher = Mockito.mock(TaskDispatcher.class);
+        Mockito.when(dispatcher.dispatch(any())).thenAnswer(invocation -> {
+            Thread.sleep(latency);
+            return true;
+        });
+        return dispatcher;
+    }
+
+
+    private Task task(String taskId) {
+        Task task = new Task();
+        task.setTaskId(taskId);
+        task.setPlanId("plan-1");
+        task.setJobInstanceId("job-instance-1");
+        task.setPlanType(PlanType.SINGLE);
+        task.setStatus(TaskStatus.SCHEDULING);
+        task.setWorkerId("worker-1");
+        return task;
+    }
+
+
+    /**
+     * 用信号量模拟连接池，统计连接的占用情况
+     */
+    private static class CountingTransactionManager implements PlatformTransactionManager {
+
+        private final Semaphore connections;
+
+        private final ThreadLocal<Long> acquiredAt = new ThreadLocal<>();
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final AtomicInteger peak = new AtomicInteger();
+
+        private final LongAdder transactions = new LongAdder();
+
+        private final LongAdder holdNanos = new LongAdder();
+
+        private final LongAdder waitNanos = new LongAdder();
+
+        CountingTransactionManager(int connections) {
+            this.connections = new Semaphore(connections);
+        }
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            long start = System.nanoTime();
+            connections.acquireUninterruptibly();
+            long now = System.nanoTime();
+            waitNanos.add(now - start);
+            acquiredAt.set(now);
+            transactions.increment();
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            release();
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            release();
+        }
+
+        private void release() {
+            holdNanos.add(System.nanoTime() - acquiredAt.get());
+            acquiredAt.remove();
+            active.decrementAndGet();
+            connections.release();
+        }
+
+        boolean inTransaction() {
+            return acquiredAt.get() != null;
+        }
+
+        long holdMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(holdNanos.sum());
+        }
+
+        long waitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+        }
+    }
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.dao.support.TaskCounter;
+import org.limbo.flowjob.broker.dao.support.TaskStatusBuffer;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * @author Brozen
+ * @since 2023-02-18
+ */
+@Slf4j
+public class TaskStatusBufferTest {
+
+    private static final LongAdder COMMITS = new LongAdder();
+
+    private static final PlatformTransactionManager TM = new PlatformTransactionManager() {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            COMMITS.increment();
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    };
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        // 模拟 CAS 失败
+        JdbcTemplate jdbcTemplate = new StubJdbcTemplate(args -> "task-0".equals(args[args.length - 1]) ? 0 : 1);
+
+        TaskStatusBuffer buffer = new TaskStatusBuffer(jdbcTemplate, new TransactionTemplate(TM), 64, 5);
+        ExecutorService pool = Executors.newFixedThreadPool(64);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String taskId = "task-" + i;
+            results.add(pool.submit(() -> buffer.updateStatusDispatching(taskId, null)));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            Assertions.assertEquals(i == 0 ? 0 : 1, results.get(i).get(5, TimeUnit.SECONDS));
+        }
+
+        log.info("updates {} flushes {}", buffer.getUpdateCount(), buffer.getFlushCount());
+        Assertions.assertEquals(1000, buffer.getUpdateCount());
+        Assertions.assertTrue(buffer.getFlushCount() < 1000);
+
+        pool.shutdown();
+        buffer.shutdown();
+    }
+
+
+    @Test
+    public void testDuplicateInBatch() throws Exception {
+        StubJdbcTemplate jdbcTemplate = new StubJdbcTemplate(args -> 1);
+
+        // 攒批时间足够长，两次更新在同一个批次中
+        TaskStatusBuffer buffer = new TaskStatusBuffer(jdbcTemplate, new TransactionTemplate(TM), 2, 1000);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<Integer> first = pool.submit(() -> buffer.jobInstanceExecuting("job-instance-1"));
+        Future<Integer> second = pool.submit(() -> buffer.jobInstanceExecuting("job-instance-1"));
+        Assertions.assertEquals(1, first.get(5, TimeUnit.SECONDS) + second.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, jdbcTemplate.executed.intValue());
+
+        pool.shutdown();
+        buffer.shutdown();
+    }
+
+
+    @Test
+    public void testFallbackToSingleUpdate() throws Exception {
+        JdbcTemplate jdbcTemplate = new StubJdbcTemplate(args -> {
+            if ("bad-task".equals(args[args.length - 1])) {
+                throw new IllegalStateException("bad task");
+            }
+            return 1;
+        });
+
+        TaskStatusBuffer buffer = new TaskStatusBuffer(jdbcTemplate, new TransactionTemplate(TM), 2, 1000);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<Integer> good = pool.submit(() -> buffer.updateStatusExecuting("good-task", "worker-1", null));
+        Future<Integer> bad = pool.submit(() -> buffer.updateStatusExecuting("bad-task", "worker-1", null));
+        Assertions.assertEquals(1, good.get(5, TimeUnit.SECONDS));
+        Exception e = Assertions.assertThrows(Exception.class, () -> bad.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("bad task", e.getCause().getMessage());
+
+        pool.shutdown();
+        buffer.shutdown();
+    }
+
+
+    /**
+     * 提交线程被行锁阻塞时，缓冲中的更新等待超时后由调用方直接执行
+     */
+    @Test
+    public void testAwaitTimeout() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch unlock = new CountDownLatch(1);
+        JdbcTemplate jdbcTemplate = new StubJdbcTemplate(args -> {
+            if ("locked-task".equals(args[args.length - 1])) {
+                locked.countDown();
+                try {
+                    unlock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return 1;
+        });
+
+        TaskStatusBuffer buffer = new TaskStatusBuffer(jdbcTemplate, new TransactionTemplate(TM), 1, 0, 100);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<Integer> blocked = pool.submit(() -> buffer.updateStatusExecuting("locked-task", "worker-1", null));
+        Assertions.assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        Future<Integer> other = pool.submit(() -> buffer.updateStatusExecuting("other-task", "worker-1", null));
+        Assertions.assertEquals(1, other.get(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(blocked.isDone());
+        Assertions.assertEquals(1, buffer.getFallbackCount());
+
+        // 已经在提交中的更新继续等待提交结果
+        unlock.countDown();
+        Assertions.assertEquals(1, blocked.get(5, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        buffer.shutdown();
+    }
+
+
+    @Test
+    public void testCounterLastTask() throws Exception {
+        StubJdbcTemplate jdbcTemplate = new StubJdbcTemplate(args -> 1);
+        jdbcTemplate.newJobInstance("job-instance-1", 3);
+        jdbcTemplate.taskJobs.put("task-1", "job-instance-1");
+        jdbcTemplate.taskJobs.put("task-2", "job-instance-1");
+        jdbcTemplate.taskJobs.put("task-3", "job-instance-1");
+
+        // 攒批时间足够长，三个 task 的完成在同一个批次中，也要按执行顺序分别拿到各自的计数
+        TaskStatusBuffer buffer = new TaskStatusBuffer(jdbcTemplate, new TransactionTemplate(TM), 3, 1000);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        Future<TaskCounter> c1 = pool.submit(() -> buffer.updateStatusSuccess("task-1", "job-instance-1", null, "{}"));
+        Future<TaskCounter> c2 = pool.submit(() -> buffer.updateStatusFail("task-2", "job-instance-1", null, "fail", ""));
+        Future<TaskCounter> c3 = pool.submit(() -> buffer.updateStatusSuccess("task-3", "job-instance-1", null, "{}"));
+
+        List<TaskCounter> counters = new ArrayList<>();
+        counters.add(c1.get(5, TimeUnit.SECONDS));
+        counters.add(c2.get(5, TimeUnit.SECONDS));
+        counters.add(c3.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, counters.stream().filter(TaskCounter::isCompleted).count());
+        TaskCounter last = counters.stream().filter(TaskCounter::isCompleted).findFirst().get();
+        Assertions.assertEquals(2, last.getSucceed());
+        Assertions.assertEquals(1, last.getFailed());
+        Assertions.assertFalse(last.isAllSucceed());
+
+        // 已经完成的 task 重复反馈
+        Assertions.assertNull(pool.submit(() -> buffer.updateStatusSuccess("task-1", "job-instance-1", null, "{}")).get(5, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        buffer.shutdown();
+    }
+
+
+    /**
+     * map 阶段 1k、10k、100k 个 task 并发完成，只有最后一个 task 看到阶段完成。
+     * 对比原先每个 task 完成时查询并遍历全部 task 的读取行数。
+     */
+    @Test
+    public void benchmarkMapCompletion() throws Exception {
+        for (int tasks : new int[]{1000, 10000, 100000}) {
+            String jobInstanceId = "job-instance-" + tasks;
+            StubJdbcTemplate jdbcTemplate = new StubJdbcTemplate(args -> 1);
+            jdbcTemplate.newJobInstance(jobInstanceId, tasks);
+            for (int i = 0; i < tasks; i++) {
+                jdbcTemplate.taskJobs.put(jobInstanceId + "-task-" + i, jobInstanceId);
+            }
+
+            TaskStatusBuffer buffer = new TaskStatusBuffer(jdbcTemplate, new TransactionTemplate(TM));
+            ExecutorService pool = Executors.newFixedThreadPool(64);
+            long start = System.nanoTime();
+            List<Future<TaskCounter>> futures = new ArrayList<>(tasks);
+            for (int i = 0; i < tasks; i++) {
+                String taskId = jobInstanceId + "-task-" + i;
+                futures.add(pool.submit(() -> buffer.updateStatusSuccess(taskId, jobInstanceId, null, "{}")));
+            }
+            int completed = 0;
+            for (Future<TaskCounter> future : futures) {
+                if (future.get().isCompleted()) {
+                    completed++;
+                }
+            }
+            long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            pool.shutdown();
+            buffer.shutdown();
+
+            // 原先第 k 个完成的 task 要读取并遍历全部 n 个 task
+            long scanRows = (long) tasks * tasks;
+            log.info("map tasks {}: counter cost {}ms, counter rows read {}, flushes {}; scan rows read {}",
+                    tasks, cost, jdbcTemplate.counterReads.sum(), buffer.getFlushCount(), scanRows);
+            Assertions.assertEquals(1, completed);
+            Assertions.assertTrue(jdbcTemplate.counterReads.sum() <= tasks);
+        }
+    }
+
+
+    /**
+     * 每次数据库往返耗时 1ms，64 个线程并发更新 task 状态，对比逐条提交与组提交
+     */
+    @Test
+    public void benchmark() throws Exception {
+        int updates = 5000;
+        int threads = 64;
+        StubJdbcTemplate jdbcTemplate = new StubJdbcTemplate(args -> 1);
+        jdbcTemplate.latency = 1;
+        LongAdder roundTrips = jdbcTemplate.roundTrips;
+        TransactionTemplate transactionTemplate = new TransactionTemplate(TM);
+
+        // 逐条提交，连接池大小 10
+        ExecutorService pool = Executors.newFixedThreadPool(10);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < updates; i++) {
+            String taskId = "task-" + i;
+            futures.add(pool.submit(() -> transactionTemplate.execute(status -> jdbcTemplate.update("update", taskId))));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long singleCost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long singleRoundTrips = roundTrips.sumThenReset();
+        pool.shutdown();
+
+        // 组提交，只占用一个连接
+        TaskStatusBuffer buffer = new TaskStatusBuffer(jdbcTemplate, transactionTemplate);
+        pool = Executors.newFixedThreadPool(threads);
+        start = System.nanoTime();
+        futures.clear();
+        for (int i = 0; i < updates; i++) {
+            String taskId = "task-" + i;
+            futures.add(pool.submit(() -> buffer.updateStatusDispatching(taskId, null)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long bufferCost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long bufferRoundTrips = roundTrips.sum();
+        pool.shutdown();
+        buffer.shutdown();
+
+        log.info("single update: cost {}ms, round trips {}", singleCost, singleRoundTrips);
+        log.info("group commit: cost {}ms, round trips {}, flushes {}", bufferCost, bufferRoundTrips, buffer.getFlushCount());
+        Assertions.assertTrue(bufferRoundTrips * 10 < singleRoundTrips);
+    }
+
+
+    /**
+     * 每条语句的影响行数由 counter 给出，批量语句出现异常行时整批失败
+     */
+    private static class StubJdbcTemplate extends JdbcTemplate {
+
+        private final Function<Object[], Integer> counter;
+
+        private final LongAdder roundTrips = new LongAdder();
+
+        private final LongAdder executed = new LongAdder();
+
+        /**
+         * 读取的计数行数
+         */
+        private final LongAdder counterReads = new LongAdder();
+
+        private final Map<String, String> taskJobs = new ConcurrentHashMap<>();
+
+        private final Map<String, int[]> jobCounters = new ConcurrentHashMap<>();
+
+        private final Set<String> completedTasks = ConcurrentHashMap.newKeySet();
+
+        private long latency;
+
+        StubJdbcTemplate(Function<Object[], Integer> counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            roundTrip();
+            executed.increment();
+            return counter.apply(args);
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            roundTrip();
+            int[] counts = new int[batchArgs.size()];
+            for (int i = 0; i < counts.length; i++) {
+                Object[] args = batchArgs.get(i);
+                String taskId = (String) args[args.length - 1];
+                if (sql.contains("join flowjob_job_instance")) {
+                    // task 只能进入一次终态，同时累加 job 实例的计数
+                    if (!completedTasks.add(taskId)) {
+                        continue;
+                    }
+                    jobCounters.get(taskJobs.get(taskId))[sql.contains("task_succeed") ? 1 : 2]++;
+                    counts[i] = 2;
+                } else {
+                    counts[i] = counter.apply(args);
+                }
+            }
+            executed.add(counts.length);
+            return counts;
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler rch, Object... args) throws DataAccessException {
+            roundTrip();
+            try {
+                for (Object jobInstanceId : args) {
+                    int[] counter = jobCounters.get(jobInstanceId);
+                    ResultSet rs = Mockito.mock(ResultSet.class);
+                    Mockito.when(rs.getString(1)).thenReturn((String) jobInstanceId);
+                    Mockito.when(rs.getInt(2)).thenReturn(counter[0]);
+                    Mockito.when(rs.getInt(3)).thenReturn(counter[1]);
+                    Mockito.when(rs.getInt(4)).thenReturn(counter[2]);
+                    rch.processRow(rs);
+                    counterReads.increment();
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void newJobInstance(String jobInstanceId, int total) {
+            jobCounters.put(jobInstanceId, new int[]{total, 0, 0});
+        }
+
+        private void roundTrip() {
+            roundTrips.increment();
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+}
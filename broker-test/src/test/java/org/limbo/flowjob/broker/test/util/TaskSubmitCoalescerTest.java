@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.remote.constants.HttpWorkerApi;
+import org.limbo.flowjob.api.remote.dto.TaskSubmitResultDTO;
+import org.limbo.flowjob.api.remote.param.TaskBatchSubmitParam;
+import org.limbo.flowjob.api.remote.param.TaskSubmitParam;
+import org.limbo.flowjob.broker.core.dispatch.TaskSubmitCoalescer;
+import org.limbo.flowjob.broker.core.domain.task.Task;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.common.constants.TaskType;
+import org.limbo.flowjob.common.constants.WorkerStatus;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Brozen
+ * @since 2023-02-24
+ */
+@Slf4j
+public class TaskSubmitCoalescerTest {
+
+    private static final Gson GSON = new Gson();
+
+    /**
+     * 并发下发的 task 合并为批量请求，部分被拒绝的 task 拿到各自的结果
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPartialReject() throws InterruptedException {
+        Worker worker = worker("w1");
+        TaskSubmitCoalescer coalescer = new TaskSubmitCoalescer(16, 20);
+
+        Map<String, Boolean> results = submitConcurrently(coalescer, worker, 64, 32);
+        Assertions.assertEquals(64, results.size());
+        results.forEach((taskId, accepted) -> Assertions.assertEquals(accepted(taskId), accepted, taskId));
+
+        Assertions.assertEquals(64, coalescer.getTaskCount());
+        Assertions.assertTrue(coalescer.getRequestCount() < 64);
+        Mockito.verify(worker, Mockito.atLeastOnce()).sendTasks(ArgumentMatchers.anyList());
+    }
+
+
+    /**
+     * 批量请求异常时，批次中的每个 task 都下发失败
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchFail() throws InterruptedException {
+        Worker worker = worker("w1");
+        Mockito.when(worker.sendTasks(ArgumentMatchers.anyList())).thenThrow(new IllegalStateException("worker down"));
+        TaskSubmitCoalescer coalescer = new TaskSubmitCoalescer(4, 1000);
+
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        CountDownLatch latch = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            Task task = task("task-" + i);
+            pool.execute(() -> {
+                try {
+                    coalescer.submit(worker, task);
+                } catch (IllegalStateException e) {
+                    failed.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        // 批次攒满后立即发送，不需要等待 linger
+        Assertions.assertEquals(4, failed.get());
+        Assertions.assertEquals(1, coalescer.getRequestCount());
+    }
+
+
+    /**
+     * 对比逐个下发与合并下发，32 个下发线程通过 HTTP 向同一个 worker 下发 2000 个 task
+     */
+    @Test
+    public void testCoalesceCost() throws Exception {
+        // JDK HttpServer 默认未开启 TCP_NODELAY，长连接上会因 Nagle 与延迟 ACK 产生额外延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(HttpWorkerApi.API_SEND_TASK, exchange -> {
+            TaskSubmitParam param = read(exchange.getRequestBody(), TaskSubmitParam.class);
+            write(exchange, "{\"code\":200,\"data\":" + accepted(param.getTaskId()) + "}");
+        });
+        server.createContext(HttpWorkerApi.API_SEND_TASK_BATCH, exchange -> {
+            TaskBatchSubmitParam param = read(exchange.getRequestBody(), TaskBatchSubmitParam.class);
+            List<TaskSubmitResultDTO> results = new ArrayList<>();
+            for (TaskSubmitParam task : param.getTasks()) {
+                TaskSubmitResultDTO result = new TaskSubmitResultDTO();
+                result.setTaskId(task.getTaskId());
+                result.setAccepted(accepted(task.getTaskId()));
+                results.add(result);
+            }
+            write(exchange, "{\"code\":200,\"data\":" + GSON.toJson(results) + "}");
+        });
+        server.start();
+
+        try {
+            int tasks = 2000;
+            int threads = 32;
+            URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), "");
+
+            // 预热
+            submitConcurrently(new TaskSubmitCoalescer(), httpWorker(url), 200, threads);
+
+            TaskSubmitCoalescer single = new TaskSubmitCoalescer(1, 0);
+            long singleStart = System.nanoTime();
+            Map<String, Boolean> singleResults = submitConcurrently(single, httpWorker(url), tasks, threads);
+            long singleCost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - singleStart);
+
+            TaskSubmitCoalescer batched = new TaskSubmitCoalescer();
+            long batchedStart = System.nanoTime();
+            Map<String, Boolean> batchedResults = submitConcurrently(batched, httpWorker(url), tasks, threads);
+            long batchedCost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchedStart);
+
+            log.info("single: requests={} cost={}ms; batched: requests={} cost={}ms",
+                    single.getRequestCount(), singleCost, batched.getRequestCount(), batchedCost);
+            Assertions.assertEquals(singleResults, batchedResults);
+            batchedResults.forEach((taskId, accepted) -> Assertions.assertEquals(accepted(taskId), accepted, taskId));
+            Assertions.assertEquals(tasks, single.getRequestCount());
+            Assertions.assertTrue(batched.getRequestCount() < tasks / 4);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+
+    private Map<String, Boolean> submitConcurrently(TaskSubmitCoalescer coalescer, Worker worker,
+                                                    int tasks, int threads) throws InterruptedException {
+        Map<String, Boolean> results = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            Task task = task("task-" + i);
+            pool.execute(() -> {
+                try {
+                    results.put(task.getTaskId(), coalescer.submit(worker, task));
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        pool.shutdown();
+        return results;
+    }
+
+
+    /**
+     * 模拟 worker，编号为 3 的倍数的 task 被拒绝
+     */
+    @SuppressWarnings("unchecked")
+    private Worker worker(String id) {
+        Worker worker = Mockito.mock(Worker.class);
+        Mockito.when(worker.getId()).thenReturn(id);
+        Mockito.when(worker.sendTask(ArgumentMatchers.any(Task.class))).thenAnswer(invocation -> {
+            return accepted(invocation.<Task>getArgument(0).getTaskId());
+        });
+        Mockito.when(worker.sendTasks(ArgumentMatchers.anyList())).thenAnswer(invocation -> {
+            List<Boolean> accepted = new ArrayList<>();
+            for (Task task : invocation.<List<Task>>getArgument(0)) {
+                accepted.add(accepted(task.getTaskId()));
+            }
+            return accepted;
+        });
+        return worker;
+    }
+
+
+    private Worker httpWorker(URL url) {
+        return Worker.builder()
+                .id("w1")
+                .name("w1")
+                .rpcBaseUrl(url)
+                .status(WorkerStatus.RUNNING)
+                .isEnabled(true)
+                .executors(new ArrayList<>())
+                .build();
+    }
+
+
+    private <T> T read(InputStream in, Class<T> type) throws IOException {
+        try (InputStreamReader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, type);
+        }
+    }
+
+
+    private void write(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+
+    private boolean accepted(String taskId) {
+        return Integer.parseInt(taskId.substring("task-".length())) % 3 != 0;
+    }
+
+
+    private Task task(String taskId) {
+        Task task = new Task();
+        task.setTaskId(taskId);
+        task.setExecutorName("hello");
+        task.setTaskType(TaskType.NORMAL);
+        return task;
+    }
+
+}
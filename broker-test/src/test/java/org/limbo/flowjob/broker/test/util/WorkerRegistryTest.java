@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.cluster.WorkerRegistry;
+import org.limbo.flowjob.broker.core.dispatch.DispatchOption;
+import org.limbo.flowjob.broker.core.dispatch.TagFilterOption;
+import org.limbo.flowjob.broker.core.dispatcher.WorkerFilter;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.core.worker.executor.WorkerExecutor;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerAvailableResource;
+import org.limbo.flowjob.broker.core.worker.metric.WorkerMetric;
+import org.limbo.flowjob.common.constants.WorkerStatus;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brozen
+ * @since 2023-02-23
+ */
+@Slf4j
+public class WorkerRegistryTest {
+
+    @Test
+    public void testFind() throws MalformedURLException {
+        WorkerRegistry registry = new WorkerRegistry();
+        registry.put(worker("w1", WorkerStatus.RUNNING, "hello", "zone", "a"));
+        registry.put(worker("w2", WorkerStatus.RUNNING, "hello", "zone", "b"));
+        registry.put(worker("w3", WorkerStatus.RUNNING, "other", "zone", "a"));
+        registry.put(worker("w4", WorkerStatus.TERMINATED, "hello", "zone", "a"));
+
+        Assertions.assertEquals(3, registry.size());
+        Assertions.assertEquals(Lists.newArrayList("w1", "w2"), ids(registry.find("hello", null)));
+        Assertions.assertEquals(Collections.singletonList("w1"),
+                ids(registry.find("hello", option("zone", "a", TagFilterOption.Condition.MUST_MATCH_VALUE))));
+        Assertions.assertEquals(Collections.singletonList("w2"),
+                ids(registry.find("hello", option("zone", "a", TagFilterOption.Condition.MUST_NOT_MATCH_VALUE))));
+        Assertions.assertEquals(Collections.emptyList(),
+                ids(registry.find("hello", option("zone", null, TagFilterOption.Condition.NOT_EXISTS))));
+        Assertions.assertEquals(Collections.emptyList(), ids(registry.find("missing", null)));
+    }
+
+
+    @Test
+    public void testUpdate() throws MalformedURLException {
+        WorkerRegistry registry = new WorkerRegistry();
+        registry.put(worker("w1", WorkerStatus.RUNNING, "hello", "zone", "a"));
+
+        // 重新注册后执行器、标签变化，旧索引移除
+        registry.put(worker("w1", WorkerStatus.RUNNING, "other", "zone", "b"));
+        Assertions.assertEquals(Collections.emptyList(), ids(registry.find("hello", null)));
+        Assertions.assertEquals(Collections.singletonList("w1"),
+                ids(registry.find("other", option("zone", "b", TagFilterOption.Condition.MUST_MATCH_VALUE))));
+        Assertions.assertEquals(Collections.emptyList(),
+                ids(registry.find("other", option("zone", "a", TagFilterOption.Condition.MUST_MATCH_VALUE))));
+
+        // 下线
+        registry.put(worker("w1", WorkerStatus.TERMINATED, "other", "zone", "b"));
+        Assertions.assertEquals(0, registry.size());
+        Assertions.assertEquals(Collections.emptyList(), ids(registry.find("other", null)));
+    }
+
+
+    @Test
+    public void testSync() throws MalformedURLException {
+        WorkerRegistry registry = new WorkerRegistry();
+        registry.put(worker("w1", WorkerStatus.RUNNING, "hello", "zone", "a"));
+        registry.put(worker("w2", WorkerStatus.RUNNING, "hello", "zone", "a"));
+
+        // w1 已在其他 broker 下线，w3 在其他 broker 注册
+        registry.sync(Lists.newArrayList(
+                worker("w2", WorkerStatus.RUNNING, "hello", "zone", "a"),
+                worker("w3", WorkerStatus.RUNNING, "hello", "zone", "a")
+        ));
+        Assertions.assertNull(registry.get("w1"));
+        Assertions.assertEquals(Lists.newArrayList("w2", "w3"), ids(registry.find("hello", null)));
+    }
+
+
+    @Test
+    public void testFindCost() throws MalformedURLException {
+        // 1k worker，10 个执行器、10 个分区
+        WorkerRegistry registry = new WorkerRegistry();
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Worker worker = worker("w" + i, WorkerStatus.RUNNING, "executor" + (i % 10), "zone", "z" + (i / 100));
+            workers.add(worker);
+            registry.put(worker);
+        }
+
+        DispatchOption option = option("zone", "z3", TagFilterOption.Condition.MUST_MATCH_VALUE);
+        int rounds = 10000;
+        long scan = 0;
+        long indexed = 0;
+        for (int r = 0; r < 2; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                Assertions.assertEquals(10, WorkerFilter.filter("executor3", option, workers).size());
+            }
+            scan = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                Assertions.assertEquals(10, registry.find("executor3", option).size());
+            }
+            indexed = System.nanoTime() - start;
+        }
+        log.info("find from 1k workers: scan {} ns/op, indexed {} ns/op", scan / rounds, indexed / rounds);
+    }
+
+
+    private DispatchOption option(String tagName, String tagValue, TagFilterOption.Condition condition) {
+        return DispatchOption.builder()
+                .tagFilter(TagFilterOption.builder().tagName(tagName).tagValue(tagValue).condition(condition).build())
+                .build();
+    }
+
+    private List<String> ids(List<Worker> workers) {
+        return workers.stream().map(Worker::getId).sorted().collect(Collectors.toList());
+    }
+
+    private Worker worker(String id, WorkerStatus status, String executor, String tagName, String tagValue) throws MalformedURLException {
+        Map<String, List<String>> tags = new HashMap<>();
+        tags.put(tagName, Lists.newArrayList(tagValue));
+        return Worker.builder()
+                .id(id)
+                .name(id)
+                .rpcBaseUrl(new URL("http://127.0.0.1:8080"))
+                .status(status)
+                .isEnabled(true)
+                .executors(Lists.newArrayList(WorkerExecutor.builder().name(executor).build()))
+                .tags(tags)
+                .metric(new WorkerMetric(Lists.newArrayList(), new WorkerAvailableResource(4f, 8f, 10)))
+                .build();
+    }
+
+}
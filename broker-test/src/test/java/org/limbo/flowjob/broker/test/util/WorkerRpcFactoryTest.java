@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.api.remote.constants.HttpWorkerApi;
+import org.limbo.flowjob.broker.core.domain.task.Task;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.core.worker.rpc.DefaultWorkerRpcFactory;
+import org.limbo.flowjob.broker.core.worker.rpc.RetrofitHttpWorkerRpc;
+import org.limbo.flowjob.broker.core.worker.rpc.WorkerRpc;
+import org.limbo.flowjob.broker.core.worker.rpc.WorkerRpcFactory;
+import org.limbo.flowjob.common.constants.TaskType;
+import org.limbo.flowjob.common.constants.WorkerStatus;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * @author Brozen
+ * @since 2023-02-24
+ */
+@Slf4j
+public class WorkerRpcFactoryTest {
+
+    private static final byte[] RESPONSE = "{\"code\":200,\"data\":true}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+
+    /**
+     * 建立过连接的客户端地址，每个地址对应一个 socket
+     */
+    private final Set<InetSocketAddress> sockets = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        // JDK HttpServer 默认未开启 TCP_NODELAY，长连接上会因 Nagle 与延迟 ACK 产生约 40ms 的额外延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(HttpWorkerApi.API_SEND_TASK, exchange -> {
+            sockets.add(exchange.getRemoteAddress());
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() != -1) {
+                    // 读完请求体，保证连接可复用
+                }
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, RESPONSE.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(RESPONSE);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+
+    @Test
+    public void testCache() throws MalformedURLException {
+        DefaultWorkerRpcFactory factory = new DefaultWorkerRpcFactory();
+        WorkerRpc rpc = factory.createRPC(worker("w1"));
+
+        // 同一 worker 的不同对象共享 RPC
+        Assertions.assertSame(rpc, factory.createRPC(worker("w1")));
+        Assertions.assertEquals(1, factory.size());
+
+        // 地址上换了 worker，替换缓存
+        WorkerRpc replaced = factory.createRPC(worker("w2"));
+        Assertions.assertNotSame(rpc, replaced);
+        Assertions.assertEquals("w2", replaced.workerId());
+
+        // 已被替换的 worker 下线不影响新 worker
+        factory.evict(worker("w1"));
+        Assertions.assertEquals(1, factory.size());
+        factory.evict(worker("w2"));
+        Assertions.assertEquals(0, factory.size());
+
+        // 修改超时后缓存失效
+        WorkerRpc beforeTimeout = factory.createRPC(worker("w2"));
+        factory.setTimeout(Duration.ofSeconds(1), Duration.ofSeconds(1));
+        Assertions.assertEquals(0, factory.size());
+        Assertions.assertNotSame(beforeTimeout, factory.createRPC(worker("w2")));
+    }
+
+
+    /**
+     * 对比每次下发新建 Retrofit/OkHttp 与共享连接池两种方式，打开的 socket 数量与下发耗时
+     */
+    @Test
+    public void testSocketsAndLatency() throws MalformedURLException {
+        int rounds = 200;
+        Task task = task();
+
+        // 预热
+        dispatch(rounds / 10, task, w -> new RetrofitHttpWorkerRpc(w, new OkHttpClient()));
+        dispatch(rounds / 10, task, w -> w);
+
+        sockets.clear();
+        long perWorkerCost = dispatch(rounds, task, w -> new RetrofitHttpWorkerRpc(w, new OkHttpClient()));
+        int perWorkerSockets = sockets.size();
+
+        sockets.clear();
+        WorkerRpcFactory.getInstance().setTimeout(Duration.ofSeconds(10), Duration.ofSeconds(10));
+        long sharedCost = dispatch(rounds, task, w -> w);
+        int sharedSockets = sockets.size();
+
+        log.info("per worker client: sockets={} avg={}us; shared client: sockets={} avg={}us",
+                perWorkerSockets, perWorkerCost / rounds / 1000, sharedSockets, sharedCost / rounds / 1000);
+        Assertions.assertEquals(rounds, perWorkerSockets);
+        Assertions.assertEquals(1, sharedSockets);
+    }
+
+
+    /**
+     * 每次下发都使用新的 Worker 对象，与从 repository 查出 worker 的情况一致
+     */
+    private long dispatch(int rounds, Task task, Function<Worker, WorkerRpc> rpcFactory) throws MalformedURLException {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            Assertions.assertTrue(rpcFactory.apply(worker("w1")).sendTask(task));
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    private Worker worker(String id) throws MalformedURLException {
+        return Worker.builder()
+                .id(id)
+                .name(id)
+                .rpcBaseUrl(new URL("http", "127.0.0.1", server.getAddress().getPort(), ""))
+                .status(WorkerStatus.RUNNING)
+                .isEnabled(true)
+                .executors(Lists.newArrayList())
+                .build();
+    }
+
+
+    private Task task() {
+        Task task = new Task();
+        task.setTaskId("t1");
+        task.setPlanId("p1");
+        task.setJobId("j1");
+        task.setJobInstanceId("ji1");
+        task.setExecutorName("hello");
+        task.setTaskType(TaskType.NORMAL);
+        return task;
+    }
+
+}
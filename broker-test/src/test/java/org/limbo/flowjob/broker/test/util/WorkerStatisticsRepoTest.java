@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.core.domain.task.Task;
+import org.limbo.flowjob.broker.core.statistics.WorkerLBStatistics;
+import org.limbo.flowjob.broker.core.worker.Worker;
+import org.limbo.flowjob.broker.dao.domain.SingletonWorkerStatisticsRepo;
+import org.limbo.flowjob.common.lb.LBServerStatistics;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @author Brozen
+ * @since 2023-02-23
+ */
+@Slf4j
+public class WorkerStatisticsRepoTest {
+
+    @Test
+    public void testList() {
+        SingletonWorkerStatisticsRepo repo = new SingletonWorkerStatisticsRepo();
+        Instant begin = Instant.now().minusMillis(1);
+        repo.recordTaskDispatched(task("w1"), worker("w1"));
+        repo.recordTaskDispatched(task("w1"), worker("w1"));
+        repo.recordTaskDispatched(task("w2"), worker("w2"));
+        repo.recordTaskDispatched(task("w3"), worker("w3"));
+
+        Set<String> ids = new HashSet<>();
+        ids.add("w1");
+        ids.add("w2");
+        ids.add("w4");
+        Map<String, WorkerLBStatistics> statistics = repo.list(ids, begin.minusSeconds(60)).stream()
+                .collect(Collectors.toMap(WorkerLBStatistics::getWorkerId, Function.identity()));
+        Assertions.assertEquals(2, statistics.size());
+        Assertions.assertEquals(2, statistics.get("w1").getDispatchTimes());
+        Assertions.assertEquals(1, statistics.get("w2").getDispatchTimes());
+        Assertions.assertFalse(statistics.get("w1").getLastDispatchTaskAt().isBefore(begin));
+
+        // 查询时间点之后没有下发记录
+        Assertions.assertTrue(repo.list(ids, Instant.now().plusSeconds(60)).isEmpty());
+
+        List<LBServerStatistics> lbStatistics = repo.getStatistics(ids, Duration.ofMinutes(10));
+        Assertions.assertEquals(2, lbStatistics.size());
+    }
+
+
+    @Test
+    public void testCost() throws InterruptedException {
+        // 1k worker，64 线程并发记录下发，同时按 LFU/LRU 默认的 10 分钟区间查询
+        SingletonWorkerStatisticsRepo repo = new SingletonWorkerStatisticsRepo();
+        List<Worker> workers = new ArrayList<>();
+        List<Task> tasks = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            workers.add(worker("w" + i));
+            tasks.add(task("w" + i));
+            ids.add("w" + i);
+        }
+
+        int threads = 64;
+        int recordsPerThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            executor.execute(() -> {
+                for (int i = 0; i < recordsPerThread; i++) {
+                    int idx = (i + offset) % workers.size();
+                    repo.recordTaskDispatched(tasks.get(idx), workers.get(idx));
+                }
+                latch.countDown();
+            });
+        }
+        Assertions.assertTrue(latch.await(120, TimeUnit.SECONDS));
+        long recordCost = System.nanoTime() - start;
+        executor.shutdown();
+
+        int queries = 20;
+        long queryCost = 0;
+        for (int r = 0; r < 2; r++) {
+            // 第一轮预热
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                List<LBServerStatistics> statistics = repo.getStatistics(ids, Duration.ofMinutes(10));
+                Assertions.assertEquals(1000, statistics.size());
+            }
+            queryCost = System.nanoTime() - start;
+        }
+
+        int total = repo.list(ids, Instant.EPOCH).stream().mapToInt(WorkerLBStatistics::getDispatchTimes).sum();
+        Assertions.assertEquals(threads * recordsPerThread, total);
+        log.info("record {} ns/op with {} threads, query 1k workers {} ns/op",
+                recordCost / (threads * recordsPerThread), threads, queryCost / queries);
+    }
+
+
+    private Task task(String workerId) {
+        Task task = new Task();
+        task.setWorkerId(workerId);
+        return task;
+    }
+
+    private Worker worker(String id) {
+        return Worker.builder().id(id).name(id).build();
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.limbo.flowjob.broker.test.util;
+
+import com.google.common.collect.Sets;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.limbo.flowjob.broker.application.plan.component.SlotManager;
+import org.limbo.flowjob.broker.application.plan.component.WorkflowInstanceStateMachine;
+import org.limbo.flowjob.broker.core.cluster.Node;
+import org.limbo.flowjob.broker.core.cluster.NodeManger;
+import org.limbo.flowjob.broker.core.domain.job.WorkflowJobInfo;
+import org.limbo.flowjob.broker.dao.entity.JobInstanceEntity;
+import org.limbo.flowjob.broker.dao.repositories.JobInstanceEntityRepo;
+import org.limbo.flowjob.broker.dao.repositories.PlanInstanceEntityRepo;
+import org.limbo.flowjob.common.constants.JobStatus;
+import org.limbo.flowjob.common.utils.dag.DAG;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * @author Brozen
+ * @since 2023-02-22
+ */
+public class WorkflowInstanceStateMachineTest {
+
+    /**
+     * 1 -> 2, 3 -> 4
+     */
+    private DAG<WorkflowJobInfo> diamond() {
+        List<WorkflowJobInfo> jobs = new ArrayList<>();
+        jobs.add(job("1", Sets.newHashSet("2", "3")));
+        jobs.add(job("2", Collections.singleton("4")));
+        jobs.add(job("3", Collections.singleton("4")));
+        jobs.add(job("4", Collections.emptySet()));
+        return new DAG<>(jobs);
+    }
+
+    @Test
+    public void testJoin() {
+        JobInstanceEntityRepo repo = Mockito.mock(JobInstanceEntityRepo.class);
+        WorkflowInstanceStateMachine machine = machine(repo, true, 1);
+        DAG<WorkflowJobInfo> dag = diamond();
+
+        machine.start("plan", "pi", dag, Collections.singletonList("1"));
+        Assertions.assertEquals(Arrays.asList("2", "3"), ids(machine.complete("plan", "pi", dag, "1")));
+        Assertions.assertEquals(Collections.emptyList(), ids(machine.complete("plan", "pi", dag, "2")));
+        // 重复的反馈不会再次触发子节点
+        Assertions.assertEquals(Collections.emptyList(), ids(machine.complete("plan", "pi", dag, "2")));
+        Assertions.assertEquals(Collections.singletonList("4"), ids(machine.complete("plan", "pi", dag, "3")));
+
+        WorkflowInstanceStateMachine.Transition transition = machine.complete("plan", "pi", dag, "4");
+        Assertions.assertTrue(transition.isPlanCompleted());
+        Assertions.assertTrue(transition.getReadyJobs().isEmpty());
+        Assertions.assertEquals(0, machine.size());
+
+        // 单节点时全程不查库
+        Mockito.verifyNoInteractions(repo);
+    }
+
+    @Test
+    public void testRebuild() {
+        JobInstanceEntityRepo repo = Mockito.mock(JobInstanceEntityRepo.class);
+        Mockito.when(repo.findByPlanInstanceId("pi")).thenReturn(Arrays.asList(
+                entity("1", JobStatus.SUCCEED),
+                entity("2", JobStatus.SUCCEED),
+                entity("3", JobStatus.EXECUTING)
+        ));
+        WorkflowInstanceStateMachine machine = machine(repo, true, 1);
+        DAG<WorkflowJobInfo> dag = diamond();
+
+        // 重启后内存中没有状态，从库中重建，正在完成的节点不能被提前标记
+        Assertions.assertEquals(Collections.singletonList("4"), ids(machine.complete("plan", "pi", dag, "3")));
+        Assertions.assertEquals(1, machine.size());
+        Mockito.verify(repo, Mockito.times(1)).findByPlanInstanceId("pi");
+    }
+
+    @Test
+    public void testSyncWithOtherBroker() {
+        JobInstanceEntityRepo repo = Mockito.mock(JobInstanceEntityRepo.class);
+        WorkflowInstanceStateMachine machine = machine(repo, true, 2);
+        DAG<WorkflowJobInfo> dag = diamond();
+        machine.start("plan", "pi", dag, Collections.singletonList("1"));
+        Mockito.when(repo.findByPlanInstanceIdAndJobIdIn(anyString(), anyList())).thenReturn(Collections.emptyList());
+        machine.complete("plan", "pi", dag, "1");
+
+        // 节点 2 的反馈由其他 broker 处理，节点 3 完成时到库中确认
+        Mockito.when(repo.findByPlanInstanceIdAndJobIdIn("pi", Collections.singletonList("2")))
+                .thenReturn(Collections.singletonList(entity("2", JobStatus.SUCCEED)));
+        Assertions.assertEquals(Collections.singletonList("4"), ids(machine.complete("plan", "pi", dag, "3")));
+    }
+
+    @Test
+    public void testUnowned() {
+        JobInstanceEntityRepo repo = Mockito.mock(JobInstanceEntityRepo.class);
+        Mockito.when(repo.findByPlanInstanceId("pi")).thenReturn(Arrays.asList(
+                entity("1", JobStatus.SUCCEED),
+                entity("2", JobStatus.SUCCEED),
+                entity("3", JobStatus.SUCCEED),
+                entity("4", JobStatus.EXECUTING)
+        ));
+        WorkflowInstanceStateMachine machine = machine(repo, false, 1);
+        DAG<WorkflowJobInfo> dag = diamond();
+
+        machine.start("plan", "pi", dag, Collections.singletonList("1"));
+        Assertions.assertEquals(0, machine.size());
+        Assertions.assertTrue(machine.complete("plan", "pi", dag, "4").isPlanCompleted());
+        Assertions.assertEquals(0, machine.size());
+    }
+
+    @Test
+    public void testRemoveOnRollback() {
+        WorkflowInstanceStateMachine machine = machine(Mockito.mock(JobInstanceEntityRepo.class), true, 1);
+        DAG<WorkflowJobInfo> dag = diamond();
+        machine.start("plan", "pi", dag, Collections.singletonList("1"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            machine.complete("plan", "pi", dag, "1");
+            Assertions.assertEquals(1, machine.size());
+            // 事务回滚，内存中的状态需要从库中重建
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_ROLLED_BACK);
+            Assertions.assertEquals(0, machine.size());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testEvictUnowned() {
+        SlotManager slotManager = Mockito.mock(SlotManager.class);
+        Mockito.when(slotManager.owns(anyString())).thenReturn(true);
+        WorkflowInstanceStateMachine machine = new WorkflowInstanceStateMachine();
+        machine.setSlotManager(slotManager);
+        machine.setNodeManger(nodeManger(1));
+        machine.setJobInstanceEntityRepo(Mockito.mock(JobInstanceEntityRepo.class));
+
+        machine.start("plan-1", "pi-1", diamond(), Collections.singletonList("1"));
+        machine.start("plan-2", "pi-2", diamond(), Collections.singletonList("1"));
+        Assertions.assertEquals(2, machine.size());
+
+        Mockito.when(slotManager.owns("plan-2")).thenReturn(false);
+        machine.evictUnowned();
+        Assertions.assertEquals(1, machine.size());
+    }
+
+
+    @Test
+    public void testEvictFinished() {
+        PlanInstanceEntityRepo planInstanceEntityRepo = Mockito.mock(PlanInstanceEntityRepo.class);
+        WorkflowInstanceStateMachine machine = machine(Mockito.mock(JobInstanceEntityRepo.class), true, 2);
+        machine.setPlanInstanceEntityRepo(planInstanceEntityRepo);
+
+        machine.start("plan-1", "pi-1", diamond(), Collections.singletonList("1"));
+        machine.start("plan-2", "pi-2", diamond(), Collections.singletonList("1"));
+
+        // pi-2 的最后一个节点由其他 broker 处理，plan 实例已经结束
+        Mockito.when(planInstanceEntityRepo.findFinished(any())).thenReturn(Collections.singletonList("pi-2"));
+        machine.evictFinished();
+        Assertions.assertEquals(1, machine.size());
+
+        // 清理间隔内不再查库
+        machine.evictFinished();
+        Mockito.verify(planInstanceEntityRepo, Mockito.times(1)).findFinished(any());
+    }
+
+
+    private WorkflowInstanceStateMachine machine(JobInstanceEntityRepo repo, boolean owns, int nodes) {
+        SlotManager slotManager = Mockito.mock(SlotManager.class);
+        Mockito.when(slotManager.owns(any())).thenReturn(owns);
+        WorkflowInstanceStateMachine machine = new WorkflowInstanceStateMachine();
+        machine.setJobInstanceEntityRepo(repo);
+        machine.setSlotManager(slotManager);
+        machine.setNodeManger(nodeManger(nodes));
+        return machine;
+    }
+
+    private NodeManger nodeManger(int nodes) {
+        List<Node> alive = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            alive.add(new Node("node-" + i, "127.0.0.1", 8080 + i));
+        }
+        NodeManger nodeManger = Mockito.mock(NodeManger.class);
+        Mockito.when(nodeManger.allAlive()).thenReturn(alive);
+        return nodeManger;
+    }
+
+    private JobInstanceEntity entity(String jobId, JobStatus status) {
+        JobInstanceEntity entity = new JobInstanceEntity();
+        entity.setPlanInstanceId("pi");
+        entity.setJobId(jobId);
+        entity.setStatus(status.status);
+        return entity;
+    }
+
+    private List<String> ids(WorkflowInstanceStateMachine.Transition transition) {
+        return transition.getReadyJobs().stream()
+                .map(WorkflowJobInfo::getId)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private WorkflowJobInfo job(String id, Set<String> childrenIds) {
+        return new WorkflowJobInfo(id, new HashSet<>(childrenIds));
+    }
+
+}
@@ -31,6 +31,8 @@ import lombok.Getter;
  *     <li>{@linkplain LoadBalanceType#LEAST_FREQUENTLY_USED 最不经常使用}</li>
  *     <li>{@linkplain LoadBalanceType#LEAST_RECENTLY_USED 最近最少使用}</li>
  *     <li>{@linkplain LoadBalanceType#CONSISTENT_HASH 一致性hash}</li>
+ *     <li>{@linkplain LoadBalanceType#BEST_FIT 资源最佳匹配}</li>
+ *     <li>{@linkplain LoadBalanceType#POWER_OF_TWO_CHOICES 两次随机选择}</li>
  * </ul>
  *
  * @author Brozen
@@ -69,6 +71,16 @@ public enum LoadBalanceType {
      */
     CONSISTENT_HASH(6, "一致性hash"),
 
+    /**
+     * 资源最佳匹配。在资源满足作业需求的worker中，选择放入作业后剩余资源最少的worker。
+     */
+    BEST_FIT(7, "资源最佳匹配"),
+
+    /**
+     * 两次随机选择。随机选取两个worker，下发给任务队列负载较低的一个。
+     */
+    POWER_OF_TWO_CHOICES(8, "两次随机选择"),
+
     ;
 
     @JsonValue
@@ -0,0 +1,82 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.constants;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import lombok.Getter;
+
+/**
+ * Plan 变更类型，记录在 Plan 变更日志中，由 Broker 按顺序消费
+ *
+ * @author Brozen
+ * @since 2023-02-13
+ */
+public enum PlanChangeType {
+    /**
+     * 启用
+     */
+    ENABLE(1, "启用"),
+    /**
+     * 停用
+     */
+    DISABLE(2, "停用"),
+    /**
+     * 新增或版本变更
+     */
+    VERSION_CHANGE(3, "版本变更"),
+    /**
+     * 删除
+     */
+    DELETE(4, "删除"),
+
+    ;
+
+    @JsonValue
+    public final byte type;
+
+    @Getter
+    public final String desc;
+
+
+    PlanChangeType(int type, String desc) {
+        this(((byte) type), desc);
+    }
+
+    PlanChangeType(byte type, String desc) {
+        this.type = type;
+        this.desc = desc;
+    }
+
+    @JsonCreator
+    public static PlanChangeType parse(Number type) {
+        if (type == null) {
+            return null;
+        }
+
+        for (PlanChangeType changeType : values()) {
+            if (type.byteValue() == changeType.type) {
+                return changeType;
+            }
+        }
+
+        return null;
+    }
+
+}
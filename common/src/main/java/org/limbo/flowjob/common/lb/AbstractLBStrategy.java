@@ -24,6 +24,8 @@ import org.apache.commons.collections4.CollectionUtils;
 import javax.annotation.Nonnull;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * @author Brozen
@@ -50,6 +52,40 @@ public abstract class AbstractLBStrategy<S extends LBServer> implements LBStrate
     }
 
 
+    /**
+     * {@inheritDoc}
+     * @param servers 被负载的服务列表
+     * @param invocation 本次调用的上下文信息
+     * @param acceptable 服务是否可以被选择
+     * @return
+     */
+    @Override
+    public Optional<S> select(List<S> servers, Invocation invocation, Predicate<S> acceptable) {
+        if (CollectionUtils.isEmpty(servers)) {
+            log.warn("No alive server for load strategy [{}]", getClass().getName());
+            return Optional.empty();
+        }
+
+        return doSelect(servers, invocation, acceptable);
+    }
+
+
+    /**
+     * 从非空列表选取满足条件的对象。默认先过滤再选取，适用于无状态的策略；有状态的策略需要覆盖此方法，
+     * 按完整的服务列表维护状态，选择时跳过不满足条件的服务。
+     * @param servers 被负载的服务列表，可以保证非空。
+     * @param invocation 本次调用的上下文信息
+     * @param acceptable 服务是否可以被选择
+     */
+    protected Optional<S> doSelect(List<S> servers, Invocation invocation, Predicate<S> acceptable) {
+        List<S> acceptableServers = servers.stream().filter(acceptable).collect(Collectors.toList());
+        if (acceptableServers.isEmpty()) {
+            return Optional.empty();
+        }
+        return doSelect(acceptableServers, invocation);
+    }
+
+
     /**
      * 从非空列表选取对象。
      * @param servers 被负载的服务列表，可以保证非空。
@@ -57,4 +93,21 @@ public abstract class AbstractLBStrategy<S extends LBServer> implements LBStrate
      */
     protected abstract Optional<S> doSelect(List<S> servers, Invocation invocation);
 
+
+    /**
+     * 计算服务列表的签名，只与服务 ID 集合有关，与列表顺序、服务对象实例无关。
+     * 有状态的策略通过签名判断服务列表是否变化，服务列表变化时才重建内部状态。
+     *
+     * @param servers 被负载的服务列表
+     */
+    protected static long signature(List<? extends LBServer> servers) {
+        long signature = servers.size();
+        for (LBServer server : servers) {
+            // 各服务 ID 的哈希打散后累加，与顺序无关
+            long h = server.getServerId().hashCode() * 0x9E3779B97F4A7C15L;
+            signature += h ^ (h >>> 32);
+        }
+        return signature;
+    }
+
 }
@@ -20,6 +20,8 @@ package org.limbo.flowjob.common.lb;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * 负载均衡策略
@@ -39,4 +41,19 @@ public interface LBStrategy<S extends LBServer> {
      */
     Optional<S> select(List<S> servers, Invocation invocation);
 
+
+    /**
+     * 选择一个满足条件的服务。
+     * 负载均衡的状态（如轮询索引、哈希环）仍按完整的服务列表维护，只在选择时跳过不满足条件的服务，
+     * 条件是瞬时的（如剩余资源），不应引起状态重建。
+     *
+     * @param servers 被负载的服务列表
+     * @param invocation 本次调用的上下文信息
+     * @param acceptable 服务是否可以被选择
+     * @return 选择的服务。当无满足条件的服务时，返回 empty。
+     */
+    default Optional<S> select(List<S> servers, Invocation invocation, Predicate<S> acceptable) {
+        return select(servers.stream().filter(acceptable).collect(Collectors.toList()), invocation);
+    }
+
 }
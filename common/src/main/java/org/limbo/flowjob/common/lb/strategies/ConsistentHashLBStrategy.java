@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 /**
  * @author Brozen
@@ -62,15 +63,34 @@ public class ConsistentHashLBStrategy<S extends LBServer> extends AbstractLBStra
      */
     @Override
     protected Optional<S> doSelect(List<S> servers, Invocation invocation) {
+        return selector(servers, invocation).select(invocation, server -> true);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * 哈希环按完整的服务列表生成，从命中的虚拟节点开始沿环查找第一个满足条件的服务。
+     * @param servers 非空
+     * @param invocation
+     * @param acceptable
+     * @return
+     */
+    @Override
+    protected Optional<S> doSelect(List<S> servers, Invocation invocation, Predicate<S> acceptable) {
+        return selector(servers, invocation).select(invocation, acceptable);
+    }
+
+
+    private ConsistentHashSelector<S> selector(List<S> servers, Invocation invocation) {
         String targetId = invocation.getInvokeTargetId();
         ConsistentHashSelector<S> selector = selectors.get(targetId);
-        int serversHashcode = servers.hashCode();
-        if (selector == null || selector.serversHashCode != serversHashcode) {
-            selector = new ConsistentHashSelector<>(servers, serversHashcode);
-            this.selectors.putIfAbsent(targetId, selector);
+        long signature = signature(servers);
+        if (selector == null || selector.signature != signature) {
+            // 服务列表变化时才重建哈希环，替换掉过期的选择器
+            selector = new ConsistentHashSelector<>(servers, signature);
+            this.selectors.put(targetId, selector);
         }
-
-        return selector.select(invocation);
+        return selector;
     }
 
 
@@ -82,11 +102,14 @@ public class ConsistentHashLBStrategy<S extends LBServer> extends AbstractLBStra
 
         private final TreeMap<Long, SERVER> virtualServers;
 
-        private final int serversHashCode;
+        /**
+         * 生成哈希环时服务列表的签名
+         */
+        private final long signature;
 
-        public ConsistentHashSelector(List<SERVER> servers, int serversHashCode) {
+        public ConsistentHashSelector(List<SERVER> servers, long signature) {
             this.virtualServers = new TreeMap<>();
-            this.serversHashCode = serversHashCode;
+            this.signature = signature;
 
             for (SERVER server : servers) {
                 // MD5 签名结果，每 32 位作为一组计算 slot，32 位对应 4 个字节，因此除以 4
@@ -103,21 +126,27 @@ public class ConsistentHashLBStrategy<S extends LBServer> extends AbstractLBStra
 
 
         /**
-         * 选择一个服务，根据入参 Invocation 的 hashcode 计算。
+         * 选择一个服务，根据入参 Invocation 的 hashcode 计算，命中的服务不满足条件时沿环继续查找。
          */
-        public Optional<SERVER> select(Invocation invocation) {
+        public Optional<SERVER> select(Invocation invocation, Predicate<? super SERVER> acceptable) {
             Map<String, String> parameters = invocation.getLBParameters();
             String paramName = parameters.get(HASH_PARAM_NAME);
             Object hashObj = StringUtils.isNotBlank(paramName) ? parameters.get(paramName) : null;
             hashObj = hashObj == null ? invocation : hashObj;
 
             long hashcode = hashObj.hashCode();
-            Map.Entry<Long, SERVER> entry = virtualServers.ceilingEntry(hashcode);
-            if (entry == null) {
-                entry = virtualServers.firstEntry();
-            }
+            Optional<SERVER> selected = find(virtualServers.tailMap(hashcode, true), acceptable);
+            return selected.isPresent() ? selected : find(virtualServers.headMap(hashcode, false), acceptable);
+        }
+
 
-            return Optional.ofNullable(entry.getValue());
+        private Optional<SERVER> find(Map<Long, SERVER> ring, Predicate<? super SERVER> acceptable) {
+            for (SERVER server : ring.values()) {
+                if (acceptable.test(server)) {
+                    return Optional.of(server);
+                }
+            }
+            return Optional.empty();
         }
 
 
@@ -0,0 +1,76 @@
+/*
+ *
+ *  * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  * 	http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package org.limbo.flowjob.common.lb.strategies;
+
+import org.limbo.flowjob.common.lb.AbstractLBStrategy;
+import org.limbo.flowjob.common.lb.Invocation;
+import org.limbo.flowjob.common.lb.LBServer;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 两次随机选择（power of two choices）。随机选取两个服务，选择负载估计值较小的一个。
+ * 相比轮询、随机，能避开负载较高的服务；相比每次选择全局负载最小的服务，不会让多个并发调用同时涌向同一个服务。
+ *
+ * @author Brozen
+ * @since 2023-02-23
+ */
+public class PowerOfTwoChoicesLBStrategy<S extends LBServer> extends AbstractLBStrategy<S> {
+
+    /**
+     * 服务负载估计，数值越小越空闲
+     */
+    private final ToDoubleFunction<S> loadEstimator;
+
+
+    public PowerOfTwoChoicesLBStrategy(ToDoubleFunction<S> loadEstimator) {
+        this.loadEstimator = loadEstimator;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * @param servers 被负载的服务列表，可以保证非空。
+     * @param invocation 本次调用的上下文信息
+     * @return
+     */
+    @Override
+    protected Optional<S> doSelect(List<S> servers, Invocation invocation) {
+        int size = servers.size();
+        if (size == 1) {
+            return Optional.of(servers.get(0));
+        }
+
+        // 选取两个不同的服务
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        S a = servers.get(first);
+        S b = servers.get(second);
+        return Optional.of(loadEstimator.applyAsDouble(a) <= loadEstimator.applyAsDouble(b) ? a : b);
+    }
+
+}
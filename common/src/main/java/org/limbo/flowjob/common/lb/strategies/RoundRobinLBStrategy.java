@@ -26,9 +26,11 @@ import org.limbo.flowjob.common.lb.LBServer;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -41,18 +43,18 @@ import java.util.stream.Collectors;
 public class RoundRobinLBStrategy<S extends LBServer> extends AbstractLBStrategy<S> {
 
     /**
-     * 用于计算权重的函数，如果不考虑权重，仅轮训，则为所有服务返回权重 1 即可。
+     * 用于计算权重的函数，为 null 时不考虑权重，所有服务权重为 1。
      */
     private final Function<List<S>, Map<String, Integer>> weightSupplier;
 
     /**
-     * 记录轮询索引
+     * 记录轮询索引，key 为调用目标
      */
-    private final ConcurrentHashMap<String, Map<String, RoundRobinIndexer>> indexers;
+    private final ConcurrentHashMap<String, RoundRobinIndexers> indexers;
 
 
     public RoundRobinLBStrategy() {
-        this(s -> s.stream().collect(Collectors.toMap(LBServer::getServerId, a -> 1)));
+        this(null);
     }
 
 
@@ -70,20 +72,37 @@ public class RoundRobinLBStrategy<S extends LBServer> extends AbstractLBStrategy
      */
     @Override
     protected Optional<S> doSelect(List<S> servers, Invocation invocation) {
+        return doSelect(servers, invocation, server -> true);
+    }
+
 
+    /**
+     * {@inheritDoc}
+     * 索引按完整的服务列表维护，本次只有满足条件的服务参与轮询，不满足条件的服务索引保持不变，恢复后不会被集中选中。
+     * @param servers 被负载的服务列表，可以保证非空。
+     * @param invocation 本次调用的上下文信息
+     * @param acceptable 服务是否可以被选择
+     * @return
+     */
+    @Override
+    protected Optional<S> doSelect(List<S> servers, Invocation invocation, Predicate<S> acceptable) {
         String targetId = invocation.getInvokeTargetId();
-        Map<String, RoundRobinIndexer> indexerMap =
-                this.indexers.computeIfAbsent(targetId, _k -> new ConcurrentHashMap<>());
+        RoundRobinIndexers targetIndexers = this.indexers.computeIfAbsent(targetId, _k -> new RoundRobinIndexers());
+        Map<String, RoundRobinIndexer> indexerMap = targetIndexers.refresh(servers);
 
         long now = System.currentTimeMillis();
-        Map<String, Integer> weights = weightSupplier.apply(servers);
+        Map<String, Integer> weights = weightSupplier == null ? null : weightSupplier.apply(servers);
 
         long maxWeight = Long.MIN_VALUE;
         long allWeight = 0;
         S selected = null;
         RoundRobinIndexer selectedIndexer = null;
         for (S server : servers) {
-            int weight = Math.max(weights.getOrDefault(server.getServerId(), 0), 0);
+            if (!acceptable.test(server)) {
+                continue;
+            }
+
+            int weight = weights == null ? 1 : Math.max(weights.getOrDefault(server.getServerId(), 0), 0);
             RoundRobinIndexer indexer = indexerMap
                     .computeIfAbsent(server.getServerId(), _sid -> new RoundRobinIndexer(weight));
 
@@ -107,10 +126,36 @@ public class RoundRobinLBStrategy<S extends LBServer> extends AbstractLBStrategy
             return Optional.of(selected);
         }
 
-        return Optional.of(servers.get(0));
+        return Optional.empty();
     }
 
 
+    /**
+     * 一个调用目标下所有服务的轮询索引。服务列表变化时，移除已下线服务的索引，保留的服务继续使用原有索引。
+     */
+    static class RoundRobinIndexers {
+
+        final Map<String, RoundRobinIndexer> indexers = new ConcurrentHashMap<>();
+
+        /**
+         * 当前索引对应的服务列表签名
+         */
+        volatile long signature = Long.MIN_VALUE;
+
+        Map<String, RoundRobinIndexer> refresh(List<? extends LBServer> servers) {
+            long current = signature(servers);
+            if (current != signature) {
+                Set<String> serverIds = servers.stream()
+                        .map(LBServer::getServerId)
+                        .collect(Collectors.toSet());
+                indexers.keySet().retainAll(serverIds);
+                signature = current;
+            }
+            return indexers;
+        }
+
+    }
+
 
     static class RoundRobinIndexer {
 
@@ -29,105 +29,186 @@ import org.limbo.flowjob.common.utils.Verifies;
 import org.limbo.flowjob.common.utils.json.JacksonUtils;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
 
 /**
+ * 不可变的 DAG。构建时将节点 id 映射为下标，父子关系以压缩数组（CSR）保存，
+ * 并通过 Kahn 拓扑排序（非递归）校验是否成环，构建完成后可以在多线程间共享。
+ *
+ * 除 id 外的查询都基于下标，子节点、父节点可以通过 {@link #forEachChild(int, Consumer)} 等方法无分配遍历。
+ *
  * @author Devil
  * @since 2022/8/1
  */
 @Slf4j
 //@JsonSerialize(using = DagSerializer.class)
 //@JsonDeserialize(using = DagDeserializer.class)
-@ToString
+@ToString(of = "nodes")
 public class DAG<T extends DAGNode> implements Serializable {
 
     private static final long serialVersionUID = 4746630152041623943L;
 
-    public static final int STATUS_INIT = 0;
+    /**
+     * 节点id 到下标的映射
+     */
+    private final Map<String, Integer> indexes;
 
     /**
-     * 当遍历的时候第二次进入某个节点，表示成环
+     * 按下标存放的节点
      */
-    public static final int STATUS_VISITED = 1;
+    private final Object[] elements;
+
+    private final List<T> nodes;
 
     /**
-     * 当一个节点 所有子节点都已经被遍历 而且没有环
-     * 则它的后继判断也可以省略了
-     * 因为如果要形成环，必定是会访问之前已访问的节点
-     * 最简单的例子：有环列表
+     * 子节点下标，节点 i 的子节点为 children[childOffsets[i], childOffsets[i + 1])
      */
-    public static final int STATUS_FILTER = 2;
+    private final int[] childOffsets;
+
+    private final int[] children;
 
     /**
-     * 起始节点
+     * 父节点下标，节点 i 的父节点为 parents[parentOffsets[i], parentOffsets[i + 1])
+     */
+    private final int[] parentOffsets;
+
+    private final int[] parents;
+
+    /**
+     * 拓扑序，按下标存放
      */
-    private Set<String> origins;
+    private final int[] topologicalOrder;
 
     /**
-     * 末尾节点
+     * 起始节点
      */
-    private Set<String> lasts;
+    private final List<T> origins;
 
     /**
-     * 节点映射关系
+     * 末尾节点
      */
-    private Map<String, T> nodes;
+    private final List<T> lasts;
 
     public DAG(List<T> nodeList) {
         if (CollectionUtils.isEmpty(nodeList)) {
-            return;
+            nodeList = Collections.emptyList();
         }
 
-        this.nodes = new HashMap<>();
-        this.origins = new HashSet<>();
-        this.lasts = new HashSet<>();
+        int size = nodeList.size();
+        this.indexes = new HashMap<>(size * 4 / 3 + 1);
+        this.elements = nodeList.toArray();
+        this.nodes = new IndexedList<>(elements, null, 0, size);
+        for (int i = 0; i < size; i++) {
+            String id = nodeList.get(i).getId();
+            Verifies.verify(indexes.put(id, i) == null, "node " + id + " is duplicate");
+        }
 
-        init(nodeList);
-    }
+        // 子节点 CSR，同时统计入度
+        int[] inDegrees = new int[size];
+        this.childOffsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            T node = nodeList.get(i);
+            Collection<String> childrenIds = childrenIds(node);
+            childOffsets[i + 1] = childOffsets[i] + childrenIds.size();
+        }
+        this.children = new int[childOffsets[size]];
+        for (int i = 0; i < size; i++) {
+            T node = nodeList.get(i);
+            int cursor = childOffsets[i];
+            // 判断childrenId是否都有对应节点 设置父id
+            for (String childrenId : childrenIds(node)) {
+                Integer child = indexes.get(childrenId);
+                Verifies.notNull(child, "node " + node.getId() + " child " + childrenId + " is not exist");
+                children[cursor++] = child;
+                inDegrees[child]++;
+                nodeList.get(child).addParent(node.getId());
+            }
+        }
 
+        // 父节点 CSR
+        this.parentOffsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            parentOffsets[i + 1] = parentOffsets[i] + inDegrees[i];
+        }
+        this.parents = new int[parentOffsets[size]];
+        int[] parentCursors = Arrays.copyOf(parentOffsets, size);
+        for (int i = 0; i < size; i++) {
+            for (int c = childOffsets[i]; c < childOffsets[i + 1]; c++) {
+                parents[parentCursors[children[c]]++] = i;
+            }
+        }
 
-    /**
-     * 根据作业列表，初始化 DAG 结构
-     */
-    private void init(List<T> nodeList) {
-        // 数据初始化
-        nodeList.forEach(node -> nodes.put(node.getId(), node));
-        nodeList.forEach(node -> {
-            if (CollectionUtils.isEmpty(node.getChildrenIds())) {
-                return;
+        // 获取 根节点（没有其它节点指向的节点）叶子节点（没有子节点的）
+        int originCount = 0;
+        int lastCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (inDegrees[i] == 0) {
+                originCount++;
             }
-            // 判断childrenId是否都有对应节点 设置父id
-            for (String childrenId : node.getChildrenIds()) {
-                T t = nodes.get(childrenId);
-                Verifies.notNull(t, "node " + node.getId() + " child " + childrenId + " is not exist");
-                t.addParent(node.getId());
+            if (childOffsets[i] == childOffsets[i + 1]) {
+                lastCount++;
             }
-        });
+        }
+        int[] originIndexes = new int[originCount];
+        int[] lastIndexes = new int[lastCount];
+        for (int i = 0, o = 0, l = 0; i < size; i++) {
+            if (inDegrees[i] == 0) {
+                originIndexes[o++] = i;
+            }
+            if (childOffsets[i] == childOffsets[i + 1]) {
+                lastIndexes[l++] = i;
+            }
+        }
+        this.origins = new IndexedList<>(elements, originIndexes, 0, originCount);
+        this.lasts = new IndexedList<>(elements, lastIndexes, 0, lastCount);
+        if (size > 0) {
+            Verifies.notEmpty(origins, "root nodes ie empty");
+            Verifies.notEmpty(lasts, "leaf nodes ie empty");
+        }
 
-        // 获取 根节点（没有其它节点指向的节点）叶子节点（没有子节点的）
-        origins = nodeList.stream().map(T::getId).collect(Collectors.toSet());
-        nodeList.forEach(node -> {
-            if (CollectionUtils.isEmpty(node.getChildrenIds())) {
-                lasts.add(node.getId());
-            } else {
-                for (String childrenId : node.getChildrenIds()) {
-                    origins.remove(childrenId);
+        // 是否有环，Kahn 拓扑排序，排序后仍有节点未访问则成环
+        this.topologicalOrder = topologicalSort(originIndexes, inDegrees);
+        Verifies.verify(topologicalOrder.length == size, "jobs has cyclic");
+    }
+
+
+    private static Collection<String> childrenIds(DAGNode node) {
+        return node.getChildrenIds() == null ? Collections.emptySet() : node.getChildrenIds();
+    }
+
+
+    /**
+     * Kahn 拓扑排序，入度数组会被复制，不影响入参
+     * @return 排好序的节点下标，成环时长度小于节点数
+     */
+    private int[] topologicalSort(int[] originIndexes, int[] inDegrees) {
+        int size = inDegrees.length;
+        int[] remains = Arrays.copyOf(inDegrees, size);
+        // 数组作为队列，每个节点只会入队一次
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int origin : originIndexes) {
+            queue[tail++] = origin;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int c = childOffsets[node]; c < childOffsets[node + 1]; c++) {
+                int child = children[c];
+                if (--remains[child] == 0) {
+                    queue[tail++] = child;
                 }
             }
-        });
-        Verifies.notEmpty(origins, "root nodes ie empty");
-        Verifies.notEmpty(lasts, "leaf nodes ie empty");
-
-        // 是否有环
-        for (String root : origins) {
-            Verifies.verify(!hasCyclic(nodes.get(root)), "jobs has cyclic");
         }
+        return tail == size ? queue : Arrays.copyOf(queue, tail);
     }
 
 
@@ -135,7 +216,33 @@ public class DAG<T extends DAGNode> implements Serializable {
      * 从 DAG 中查找是否存在指定的节点，存在则返回作业信息，不存在返回null。
      */
     public T getNode(String id) {
-        return nodes.get(id);
+        int index = indexOf(id);
+        return index < 0 ? null : nodes.get(index);
+    }
+
+
+    /**
+     * 节点下标，不存在返回 -1
+     */
+    public int indexOf(String id) {
+        Integer index = indexes.get(id);
+        return index == null ? -1 : index;
+    }
+
+
+    /**
+     * 根据下标获取节点
+     */
+    public T getNode(int index) {
+        return nodes.get(index);
+    }
+
+
+    /**
+     * 节点数量
+     */
+    public int size() {
+        return nodes.size();
     }
 
 
@@ -143,14 +250,7 @@ public class DAG<T extends DAGNode> implements Serializable {
      * 获取叶子节点 也就是最后执行的节点
      */
     public List<T> lasts() {
-        List<T> result = new ArrayList<>();
-        if (CollectionUtils.isEmpty(lasts)) {
-            return result;
-        }
-        for (String id : lasts) {
-            result.add(nodes.get(id));
-        }
-        return result;
+        return lasts;
     }
 
 
@@ -158,83 +258,138 @@ public class DAG<T extends DAGNode> implements Serializable {
      * 获取所有根节点
      */
     public List<T> origins() {
-        List<T> result = new ArrayList<>();
-        if (CollectionUtils.isEmpty(origins)) {
-            return result;
-        }
-        for (String root : origins) {
-            result.add(nodes.get(root));
-        }
-        return result;
+        return origins;
     }
 
 
     /**
-     * 获取后续节点
+     * 获取后续节点，返回只读视图
      */
     public List<T> subNodes(String id) {
-        List<T> result = new ArrayList<>();
-        T node = nodes.get(id);
-        if (CollectionUtils.isEmpty(node.getChildrenIds())) {
-            return result;
-        }
-        for (String childrenId : node.getChildrenIds()) {
-            result.add(nodes.get(childrenId));
-        }
-        return result;
+        int index = requireIndex(id);
+        return new IndexedList<>(elements, children, childOffsets[index], childOffsets[index + 1]);
     }
 
 
     /**
-     * 获取前置节点
+     * 获取前置节点，返回只读视图
      */
     public List<T> preNodes(String id) {
-        List<T> result = new ArrayList<>();
-        DAGNode node = nodes.get(id);
-        if (CollectionUtils.isEmpty(node.getParentIds())) {
-            return result;
-        }
-        for (String parentId : node.getParentIds()) {
-            result.add(nodes.get(parentId));
+        int index = requireIndex(id);
+        return new IndexedList<>(elements, parents, parentOffsets[index], parentOffsets[index + 1]);
+    }
+
+
+    /**
+     * 遍历子节点
+     */
+    public void forEachChild(int index, Consumer<T> consumer) {
+        for (int c = childOffsets[index]; c < childOffsets[index + 1]; c++) {
+            consumer.accept(nodes.get(children[c]));
         }
-        return result;
     }
 
 
     /**
-     * 深度优先搜索
-     *
-     * @param node
-     * @return @D 返回的是啥？
+     * 遍历父节点
      */
-    public boolean hasCyclic(DAGNode node) {
-        // 表示当前节点已被标记
-        node.setStatus(STATUS_VISITED);
-        // 如果不存在子节点 则表示此顶点不再有出度 返回父节点
-        if (CollectionUtils.isNotEmpty(node.getChildrenIds())) {
-            // 遍历子节点
-            for (String childId : node.getChildrenIds()) {
-                DAGNode child = nodes.get(childId);
-                if (child == null || STATUS_FILTER == child.getStatus()) {
-                    continue;
-                }
-                if (STATUS_VISITED == child.getStatus()) {
-                    return true;
-                }
-                if (hasCyclic(child)) {
-                    return true;
-                }
-            }
+    public void forEachParent(int index, Consumer<T> consumer) {
+        for (int p = parentOffsets[index]; p < parentOffsets[index + 1]; p++) {
+            consumer.accept(nodes.get(parents[p]));
         }
-        node.setStatus(STATUS_FILTER);
-        return false;
     }
 
+
+    /**
+     * 子节点数量，即出度
+     */
+    public int childCount(int index) {
+        return childOffsets[index + 1] - childOffsets[index];
+    }
+
+
+    /**
+     * 第 i 个子节点的下标
+     */
+    public int childAt(int index, int i) {
+        return children[childOffsets[index] + i];
+    }
+
+
+    /**
+     * 父节点数量，即入度
+     */
+    public int inDegree(int index) {
+        return parentOffsets[index + 1] - parentOffsets[index];
+    }
+
+
     /**
-     * 获取 DAG 中所有节点对应的作业
+     * 第 i 个父节点的下标
+     */
+    public int parentAt(int index, int i) {
+        return parents[parentOffsets[index] + i];
+    }
+
+
+    /**
+     * 拓扑序中第 i 个节点的下标
+     */
+    public int topologicalAt(int i) {
+        return topologicalOrder[i];
+    }
+
+
+    /**
+     * 获取 DAG 中所有节点对应的作业，返回只读视图
      */
     public List<T> nodes() {
-        return new ArrayList<>(nodes.values());
+        return nodes;
+    }
+
+
+    private int requireIndex(String id) {
+        int index = indexOf(id);
+        Verifies.verify(index >= 0, "node " + id + " is not exist");
+        return index;
+    }
+
+
+    /**
+     * 基于节点数组和下标数组的只读列表，下标数组为 null 时直接按位置取节点
+     */
+    private static class IndexedList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = -3181374185496123816L;
+
+        private final Object[] elements;
+
+        private final int[] indexes;
+
+        private final int from;
+
+        private final int to;
+
+        IndexedList(Object[] elements, int[] indexes, int from, int to) {
+            this.elements = elements;
+            this.indexes = indexes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int i) {
+            if (i < 0 || i >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + (to - from));
+            }
+            return (E) elements[indexes == null ? from + i : indexes[from + i]];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
     }
 
     private static final ObjectMapper mapper = newObjectMapper();
@@ -257,7 +412,7 @@ public class DAG<T extends DAGNode> implements Serializable {
      * 返回json字符串
      */
     public String json() throws JsonProcessingException {
-        return mapper.writeValueAsString(nodes.values());
+        return mapper.writeValueAsString(nodes);
     }
 
 
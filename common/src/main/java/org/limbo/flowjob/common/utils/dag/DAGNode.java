@@ -39,9 +39,6 @@ public class DAGNode implements Serializable {
 
     protected Set<String> childrenIds;
 
-    @DAGNodeIgnoreField
-    protected int status = DAG.STATUS_INIT;
-
     @JsonCreator
     public DAGNode(@JsonProperty("id") String id, @JsonProperty("childrenIds") Set<String> childrenIds) {
         this.id = id;
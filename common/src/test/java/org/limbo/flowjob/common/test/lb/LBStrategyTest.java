@@ -1,12 +1,25 @@
 package org.limbo.flowjob.common.test.lb;
 
 import com.google.common.collect.Maps;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.limbo.flowjob.common.lb.LBServer;
+import org.limbo.flowjob.common.lb.LBStrategy;
 import org.limbo.flowjob.common.lb.RPCInvocation;
+import org.limbo.flowjob.common.lb.strategies.ConsistentHashLBStrategy;
+import org.limbo.flowjob.common.lb.strategies.PowerOfTwoChoicesLBStrategy;
 import org.limbo.flowjob.common.lb.strategies.RoundRobinLBStrategy;
 
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -57,4 +70,177 @@ public class LBStrategyTest {
 
 
 
+    /**
+     * 不满足条件的服务在选择时跳过，轮询索引仍按完整的服务列表维护，恢复后不会被集中选中
+     */
+    @Test
+    public void testRoundRobinSkip() {
+        RoundRobinLBStrategy<IntegerLBServer> strategy = new RoundRobinLBStrategy<>();
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 90; i++) {
+            IntegerLBServer server = strategy.select(servers, new RPCInvocation("test", Maps.newHashMap()), s -> s.getValue() != 0).orElse(null);
+            Assert.assertNotNull(server);
+            counts.merge(server.getValue(), 1, Integer::sum);
+        }
+        Assert.assertNull(counts.get(0));
+        counts.values().forEach(count -> Assert.assertEquals(10, count.intValue()));
+
+        counts.clear();
+        for (int i = 0; i < 10; i++) {
+            strategy.select(servers, new RPCInvocation("test", Maps.newHashMap()), s -> true)
+                    .ifPresent(server -> counts.merge(server.getValue(), 1, Integer::sum));
+        }
+        Assert.assertEquals(10, counts.size());
+
+        Assert.assertFalse(strategy.select(servers, new RPCInvocation("test", Maps.newHashMap()), s -> false).isPresent());
+    }
+
+
+    /**
+     * 命中的服务不满足条件时沿哈希环查找下一个，其他调用的命中结果不变
+     */
+    @Test
+    public void testConsistentHashSkip() {
+        ConsistentHashLBStrategy<IntegerLBServer> strategy = new ConsistentHashLBStrategy<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, String> params = Maps.newHashMap();
+            params.put(ConsistentHashLBStrategy.HASH_PARAM_NAME, "key");
+            params.put("key", "key-" + i);
+            RPCInvocation invocation = new RPCInvocation("test", params);
+
+            IntegerLBServer hit = strategy.select(servers, invocation).orElse(null);
+            IntegerLBServer skipped = strategy.select(servers, invocation, s -> s.getValue() != 3).orElse(null);
+            Assert.assertNotNull(hit);
+            Assert.assertNotNull(skipped);
+            if (hit.getValue() == 3) {
+                Assert.assertNotEquals(3, skipped.getValue());
+            } else {
+                Assert.assertSame(hit, skipped);
+            }
+        }
+    }
+
+
+    @Test
+    public void testPowerOfTwoChoices() {
+        // 负载估计为 serverId，两次选择总是避开负载最高的服务
+        PowerOfTwoChoicesLBStrategy<IntegerLBServer> strategy = new PowerOfTwoChoicesLBStrategy<>(IntegerLBServer::getValue);
+        for (int i = 0; i < 1000; i++) {
+            IntegerLBServer server = strategy.select(servers, new RPCInvocation("test", Maps.newHashMap())).orElse(null);
+            Assert.assertNotNull(server);
+            Assert.assertNotEquals(9, server.getValue());
+        }
+    }
+
+
+    /**
+     * 模拟异构 worker 的任务排队：15 个快速 worker、5 个慢速 worker，单线程 FIFO 执行，
+     * 负载估计为上次心跳时的队列长度加上心跳后下发的任务数，比较任务从下发到完成耗时的尾延迟。
+     */
+    @Test
+    public void testTailLatency() {
+        double[] roundRobin = simulate(new RoundRobinLBStrategy<>());
+        double[] twoChoices = simulate(new PowerOfTwoChoicesLBStrategy<>(SimulatedServer::estimatedLoad));
+        System.out.printf("round robin p50=%.1f p99=%.1f p999=%.1f%n", roundRobin[0], roundRobin[1], roundRobin[2]);
+        System.out.printf("two choices p50=%.1f p99=%.1f p999=%.1f%n", twoChoices[0], twoChoices[1], twoChoices[2]);
+        Assert.assertTrue(twoChoices[1] < roundRobin[1]);
+    }
+
+
+    private double[] simulate(LBStrategy<SimulatedServer> strategy) {
+        Random random = new Random(20230223);
+        List<SimulatedServer> simulated = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            simulated.add(new SimulatedServer(i, i < 15 ? 10 : 100));
+        }
+
+        // 总处理能力 15 / 10 + 5 / 100 = 1.55，到达率为其 70%
+        double arrivalRate = 1.55 * 0.7;
+        double heartbeatInterval = 50;
+        double nextHeartbeat = heartbeatInterval;
+        double now = 0;
+        int tasks = 200000;
+        double[] latencies = new double[tasks];
+        for (int i = 0; i < tasks; i++) {
+            now += -Math.log(1 - random.nextDouble()) / arrivalRate;
+            for (SimulatedServer server : simulated) {
+                server.advance(now);
+            }
+            if (now >= nextHeartbeat) {
+                simulated.forEach(SimulatedServer::heartbeat);
+                nextHeartbeat += heartbeatInterval;
+            }
+
+            SimulatedServer server = strategy.select(simulated, new RPCInvocation("test", Maps.newHashMap())).orElseThrow(IllegalStateException::new);
+            double serviceTime = -Math.log(1 - random.nextDouble()) * server.meanServiceTime;
+            latencies[i] = server.submit(now, serviceTime) - now;
+        }
+
+        Arrays.sort(latencies);
+        return new double[] {
+                latencies[tasks / 2], latencies[(int) (tasks * 0.99)], latencies[(int) (tasks * 0.999)]
+        };
+    }
+
+
+    static class SimulatedServer implements LBServer {
+
+        final int id;
+
+        final double meanServiceTime;
+
+        /**
+         * 未完成任务的完成时间
+         */
+        final Deque<Double> completions = new ArrayDeque<>();
+
+        double busyUntil = 0;
+
+        int reportedQueue = 0;
+
+        int inflight = 0;
+
+        SimulatedServer(int id, double meanServiceTime) {
+            this.id = id;
+            this.meanServiceTime = meanServiceTime;
+        }
+
+        void advance(double now) {
+            while (!completions.isEmpty() && completions.peekFirst() <= now) {
+                completions.pollFirst();
+            }
+        }
+
+        void heartbeat() {
+            reportedQueue = completions.size();
+            inflight = 0;
+        }
+
+        double submit(double now, double serviceTime) {
+            busyUntil = Math.max(busyUntil, now) + serviceTime;
+            completions.addLast(busyUntil);
+            inflight++;
+            return busyUntil;
+        }
+
+        double estimatedLoad() {
+            return reportedQueue + inflight;
+        }
+
+        @Override
+        public String getServerId() {
+            return String.valueOf(id);
+        }
+
+        @Override
+        public boolean isAlive() {
+            return true;
+        }
+
+        @Override
+        public URL getUrl() {
+            return null;
+        }
+    }
+
 }
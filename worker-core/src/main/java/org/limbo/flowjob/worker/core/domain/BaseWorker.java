@@ -25,6 +25,7 @@ import org.limbo.flowjob.worker.core.executor.NamedThreadFactory;
 import org.limbo.flowjob.worker.core.executor.TaskExecutor;
 import org.limbo.flowjob.worker.core.executor.TaskRepository;
 import org.limbo.flowjob.worker.core.rpc.BrokerRpc;
+import org.limbo.flowjob.worker.core.rpc.PagedReduceInputs;
 import org.limbo.flowjob.worker.core.rpc.exceptions.BrokerRpcException;
 import org.limbo.flowjob.worker.core.rpc.exceptions.RegisterFailException;
 import org.limbo.flowjob.worker.core.utils.SHAUtils;
@@ -288,6 +289,11 @@ public class BaseWorker implements Worker {
 
         // TODO ??? 检测资源余量是否充足：cpu/ram/queue
 
+        // reduce 任务的输入在执行时按页拉取
+        if (task instanceof ReduceTask) {
+            ((ReduceTask) task).setReduceAttributes(new PagedReduceInputs(brokerRpc, task.getTaskId()));
+        }
+
         // 存储任务，并判断是否重复接收任务
         ExecuteContext context = new ExecuteContext(taskRepository, executor, brokerRpc, task);
         if (!taskRepository.save(context)) {
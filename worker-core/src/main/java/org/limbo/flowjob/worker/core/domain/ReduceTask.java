@@ -21,7 +21,6 @@ package org.limbo.flowjob.worker.core.domain;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -33,7 +32,8 @@ import java.util.Map;
 public class ReduceTask extends Task {
 
     /**
-     * reduce时候使用的
+     * reduce时候使用的 map 任务结果，迭代时按页从 broker 拉取，不会一次性全部加载到内存。
+     * 作业启用树形 reduce 时，这里是一组 map 任务或上一层 reduce 任务的结果，reduce 逻辑需要满足结合律
      */
-    private List<Map<String, Object>> reduceAttributes;
+    private Iterable<Map<String, Object>> reduceAttributes;
 }
@@ -16,6 +16,7 @@
 
 package org.limbo.flowjob.worker.core.rpc;
 
+import org.limbo.flowjob.api.remote.dto.ReduceInputPageDTO;
 import org.limbo.flowjob.worker.core.domain.Worker;
 import org.limbo.flowjob.worker.core.executor.ExecuteContext;
 import org.limbo.flowjob.worker.core.rpc.exceptions.RegisterFailException;
@@ -56,4 +57,13 @@ public interface BrokerRpc {
      */
     void feedbackTaskFailed(ExecuteContext context, @Nullable Throwable ex);
 
+
+    /**
+     * 从 Broker 分页拉取 reduce 任务需要合并的结果
+     * @param taskId reduce 任务 id
+     * @param cursor 上一页返回的游标，为 null 时从头拉取
+     * @param size 每页条数
+     */
+    ReduceInputPageDTO pageReduceInputs(String taskId, @Nullable Long cursor, int size);
+
 }
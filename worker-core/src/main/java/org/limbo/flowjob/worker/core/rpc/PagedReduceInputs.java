@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020-2024 Limbo Team (https://github.com/limbo-world).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.limbo.flowjob.worker.core.rpc;
+
+import org.limbo.flowjob.api.remote.dto.ReduceInputPageDTO;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 按页从 Broker 拉取的 reduce 任务输入，每次迭代都从头拉取，内存中同一时刻只保留一页
+ *
+ * @author Brozen
+ * @since 2023-02-21
+ */
+public class PagedReduceInputs implements Iterable<Map<String, Object>> {
+
+    /**
+     * 默认每页拉取条数
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final BrokerRpc brokerRpc;
+
+    private final String taskId;
+
+    private final int pageSize;
+
+    public PagedReduceInputs(BrokerRpc brokerRpc, String taskId) {
+        this(brokerRpc, taskId, DEFAULT_PAGE_SIZE);
+    }
+
+    public PagedReduceInputs(BrokerRpc brokerRpc, String taskId, int pageSize) {
+        this.brokerRpc = brokerRpc;
+        this.taskId = taskId;
+        this.pageSize = pageSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        return new PageIterator();
+    }
+
+
+    /**
+     * 当前页消费完后再拉取下一页
+     */
+    private class PageIterator implements Iterator<Map<String, Object>> {
+
+        private Iterator<Map<String, Object>> page = Collections.emptyIterator();
+
+        private Long cursor;
+
+        private boolean hasMore = true;
+
+        @Override
+        public boolean hasNext() {
+            // 跳过空页，结果为空的任务不会返回，可能出现空页但仍有下一页
+            while (!page.hasNext() && hasMore) {
+                ReduceInputPageDTO dto = brokerRpc.pageReduceInputs(taskId, cursor, pageSize);
+                page = dto.getResults() == null ? Collections.emptyIterator() : dto.getResults().iterator();
+                hasMore = dto.isHasMore() && dto.getCursor() != null && !dto.getCursor().equals(cursor);
+                cursor = dto.getCursor();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return Collections.unmodifiableMap(page.next());
+        }
+    }
+
+}
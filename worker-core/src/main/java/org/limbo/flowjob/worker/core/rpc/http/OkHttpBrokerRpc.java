@@ -31,7 +31,9 @@ import okhttp3.Response;
 import org.apache.commons.collections4.CollectionUtils;
 import org.limbo.flowjob.api.ResponseDTO;
 import org.limbo.flowjob.api.remote.dto.BrokerTopologyDTO;
+import org.limbo.flowjob.api.remote.dto.ReduceInputPageDTO;
 import org.limbo.flowjob.api.remote.dto.WorkerRegisterDTO;
+import org.limbo.flowjob.api.remote.param.ReduceInputQueryParam;
 import org.limbo.flowjob.api.remote.param.TaskFeedbackParam;
 import org.limbo.flowjob.api.remote.param.WorkerRegisterParam;
 import org.limbo.flowjob.common.constants.MsgConstants;
@@ -214,6 +216,27 @@ public class OkHttpBrokerRpc implements BrokerRpc {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param taskId        reduce 任务 id
+     * @param cursor        上一页返回的游标
+     * @param size          每页条数
+     */
+    @Override
+    public ReduceInputPageDTO pageReduceInputs(String taskId, @Nullable Long cursor, int size) {
+        ReduceInputQueryParam param = new ReduceInputQueryParam(cursor, size);
+        ResponseDTO<ReduceInputPageDTO> response = executePost(BASE_URL + "/api/v1/rpc/worker/task/" + taskId + "/reduce-inputs", param, new TypeReference<ResponseDTO<ReduceInputPageDTO>>() {
+        });
+
+        if (response == null || !response.success() || response.getData() == null) {
+            String msg = response == null ? MsgConstants.UNKNOWN : (response.getCode() + ":" + response.getMessage());
+            throw new BrokerRpcException("Worker pull reduce inputs failed: " + msg);
+        }
+
+        return response.getData();
+    }
+
     /**
      * 通过 OkHttp 执行请求，并获取响应
      */
@@ -19,14 +19,19 @@ package org.limbo.flowjob.worker.starter.application.controllers;
 
 import lombok.extern.slf4j.Slf4j;
 import org.limbo.flowjob.api.remote.constants.HttpWorkerApi;
+import org.limbo.flowjob.api.remote.dto.TaskSubmitResultDTO;
+import org.limbo.flowjob.api.remote.param.TaskBatchSubmitParam;
 import org.limbo.flowjob.api.remote.param.TaskSubmitParam;
 import org.limbo.flowjob.api.ResponseDTO;
 import org.limbo.flowjob.worker.starter.application.services.WorkerService;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+
 /**
  * @author Devil
  * @since 2021/7/24
@@ -52,5 +57,14 @@ public class WorkerController extends BaseController {
         return ResponseDTO.<Boolean>builder().ok(workerService.receive(param)).build();
     }
 
+    /**
+     * 批量接收任务，每个任务单独判断是否接收，按请求中的顺序返回每个任务的接收结果。
+     * 部分任务被拒绝时不影响其他任务，broker 只会将被拒绝的任务重新下发。
+     */
+    @PostMapping(HttpWorkerApi.API_SEND_TASK_BATCH)
+    public ResponseDTO<List<TaskSubmitResultDTO>> receiveJobs(@Validated @RequestBody TaskBatchSubmitParam param) {
+        return ResponseDTO.<List<TaskSubmitResultDTO>>builder().ok(workerService.receive(param.getTasks())).build();
+    }
+
 
 }
@@ -16,19 +16,14 @@
 
 package org.limbo.flowjob.worker.starter.application.converter;
 
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.limbo.flowjob.api.remote.param.TaskSubmitParam;
+import org.limbo.flowjob.common.constants.TaskType;
 import org.limbo.flowjob.worker.core.domain.MapTask;
 import org.limbo.flowjob.worker.core.domain.ReduceTask;
 import org.limbo.flowjob.worker.core.domain.Task;
 import org.springframework.stereotype.Component;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-
 /**
  * @author Brozen
  * @since 2022-09-20
@@ -43,7 +38,7 @@ public class TaskConverter {
     public Task task(TaskSubmitParam param) {
         if (MapUtils.isNotEmpty(param.getMapAttributes())) {
             return mapTask(param);
-        } else if (CollectionUtils.isNotEmpty(param.getReduceAttributes())) {
+        } else if (TaskType.REDUCE.is(param.getType())) {
             return reduceTask(param);
         } else {
             return normalTask(param);
@@ -72,11 +67,6 @@ public class TaskConverter {
         task.setExecutorName(param.getExecutorName());
         task.setContext(param.getContext());
         task.setAttributes(param.getAttributes());
-        List<Map<String, Object>> attr = param.getReduceAttributes();
-        attr = attr.stream()
-                .map(Collections::unmodifiableMap)
-                .collect(Collectors.toList());
-        task.setReduceAttributes(attr);
         return task;
     }
 
@@ -19,6 +19,7 @@ package org.limbo.flowjob.worker.starter.application.services;
 import lombok.AllArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.limbo.flowjob.api.remote.dto.TaskSubmitResultDTO;
 import org.limbo.flowjob.api.remote.param.TaskSubmitParam;
 import org.limbo.flowjob.worker.core.domain.Task;
 import org.limbo.flowjob.worker.core.domain.Worker;
@@ -26,6 +27,8 @@ import org.limbo.flowjob.worker.starter.application.converter.TaskConverter;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Devil
@@ -47,15 +50,36 @@ public class WorkerService {
      * @return
      */
     public Boolean receive(TaskSubmitParam param) {
+        return receiveTask(param).isAccepted();
+    }
+
+    /**
+     * 批量接收任务，逐个接收，单个任务失败不影响其他任务
+     * @param params 任务列表
+     * @return 按顺序返回每个任务的接收结果
+     */
+    public List<TaskSubmitResultDTO> receive(List<TaskSubmitParam> params) {
+        List<TaskSubmitResultDTO> results = new ArrayList<>(params.size());
+        for (TaskSubmitParam param : params) {
+            results.add(receiveTask(param));
+        }
+        return results;
+    }
+
+    private TaskSubmitResultDTO receiveTask(TaskSubmitParam param) {
         log.info("receive task {}", param);
+        TaskSubmitResultDTO result = new TaskSubmitResultDTO();
+        result.setTaskId(param.getTaskId());
         try {
             Task task = taskConverter.task(param);
             worker.receiveTask(task);
-            return true;
+            result.setAccepted(true);
         } catch (Exception e) {
             log.error("Failed to receive task", e);
-            return false;
+            result.setAccepted(false);
+            result.setMessage(e.getMessage());
         }
+        return result;
     }
 
 }